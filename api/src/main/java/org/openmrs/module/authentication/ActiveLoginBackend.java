@@ -0,0 +1,81 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tracks active logins on behalf of the UserLoginTracker, which always tracks the logins on this node in memory.
+ * The default backend, LocalActiveLoginBackend, reports only those logins.  Other backends can share active logins
+ * between nodes, so that any node can report all active logins in a cluster.
+ * <p>
+ * The notification methods are called on request threads, so implementations must not block on remote writes in
+ * these, and must not throw exceptions.  The backend is configured with `authentication.activeLogins.backend` and the
+ * properties that start with `authentication.activeLogins.backend.config.`, and is started by the module activator.
+ */
+public interface ActiveLoginBackend {
+
+    /**
+     * @param config the configuration of this backend, without the prefix
+     */
+    default void configure(Properties config) {
+    }
+
+    /**
+     * Starts this backend.  Any active logins on this node are passed to loginAdded after this is called.
+     */
+    default void start() {
+    }
+
+    /**
+     * Stops this backend, writing any changes that have not yet been written
+     */
+    default void stop() {
+    }
+
+    /**
+     * @param userLogin a login that has become active on this node
+     */
+    void loginAdded(UserLogin userLogin);
+
+    /**
+     * @param userLogin an active login on this node whose user, ip address, or http session id has changed
+     */
+    void loginChanged(UserLogin userLogin);
+
+    /**
+     * Called at most once every UserLogin.ACTIVITY_RESOLUTION for each login, when its last activity time is updated
+     * @param userLogin an active login on this node that has had activity
+     */
+    default void loginActivity(UserLogin userLogin) {
+    }
+
+    /**
+     * @param userLogin a login on this node that is no longer active
+     */
+    void loginRemoved(UserLogin userLogin);
+
+    /**
+     * @return the number of active logins known to this backend
+     */
+    int getActiveLoginCount();
+
+    /**
+     * @return the active logins known to this backend
+     */
+    List<ActiveLoginRecord> getActiveLogins();
+
+    /**
+     * @param userId the id of the user
+     * @return the active logins of the given user known to this backend
+     */
+    List<ActiveLoginRecord> getActiveLoginsForUser(Integer userId);
+}
@@ -0,0 +1,176 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads and writes shared active logins and node heartbeats, which are mapped to the authentication_active_login and
+ * authentication_active_login_node tables created by liquibase.xml, through the OpenMRS session factory.  This is only
+ * used by the ActiveLoginServiceImpl, within the transactions of the ActiveLoginService.
+ * <p>
+ * Active logins are read with projections rather than from the session, and updated and deleted with bulk
+ * statements, so that the changes written by other nodes are always seen.
+ */
+public class ActiveLoginDao {
+
+    private static final String OTHER_LIVE_NODES = "r.nodeId <> :nodeId "
+            + "and r.nodeId in (select n.nodeId from ActiveLoginNode n where n.heartbeatTime > :heartbeatCutoff)";
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @return the number of heartbeats updated, which is 0 if the given node has no heartbeat
+     */
+    public int updateHeartbeat(String nodeId, long heartbeatTime) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("update ActiveLoginNode n set n.heartbeatTime = :heartbeatTime where n.nodeId = :nodeId")
+                .setParameter("heartbeatTime", heartbeatTime)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+    }
+
+    /**
+     * @param node the heartbeat of a node that has none
+     */
+    public void saveNode(ActiveLoginNode node) {
+        sessionFactory.getCurrentSession().save(node);
+    }
+
+    /**
+     * @return the number of heartbeats deleted
+     */
+    public int deleteNode(String nodeId) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from ActiveLoginNode n where n.nodeId = :nodeId")
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+    }
+
+    /**
+     * @return the number of heartbeats deleted, which are those of the nodes other than the given node whose last
+     * heartbeat was at or before the given time
+     */
+    public int deleteStaleNodes(String nodeId, long heartbeatCutoff) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from ActiveLoginNode n where n.nodeId <> :nodeId and n.heartbeatTime <= :heartbeatCutoff")
+                .setParameter("nodeId", nodeId)
+                .setParameter("heartbeatCutoff", heartbeatCutoff)
+                .executeUpdate();
+    }
+
+    /**
+     * @param record the active login to update
+     * @return the number of active logins updated, which is 0 if the given login is not stored
+     */
+    public int updateActiveLogin(ActiveLoginRecord record) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("update ActiveLoginRecord r set r.nodeId = :nodeId, r.userId = :userId, "
+                        + "r.username = :username, r.ipAddress = :ipAddress, r.httpSessionId = :httpSessionId, "
+                        + "r.loginTime = :loginTime, r.lastActivityTime = :lastActivityTime where r.loginId = :loginId")
+                .setParameter("nodeId", record.getNodeId())
+                .setParameter("userId", record.getUserId())
+                .setParameter("username", record.getUsername())
+                .setParameter("ipAddress", record.getIpAddress())
+                .setParameter("httpSessionId", record.getHttpSessionId())
+                .setParameter("loginTime", record.getLoginDate() == null ? 0L : record.getLoginDate().getTime())
+                .setParameter("lastActivityTime", record.getLastActivityTime())
+                .setParameter("loginId", record.getLoginId())
+                .executeUpdate();
+    }
+
+    /**
+     * @param record the new active login to store
+     */
+    public void saveActiveLogin(ActiveLoginRecord record) {
+        sessionFactory.getCurrentSession().save(record);
+    }
+
+    /**
+     * @param loginIds the ids of the active logins to delete
+     * @return the number of active logins deleted
+     */
+    public int deleteActiveLogins(Collection<String> loginIds) {
+        if (loginIds.isEmpty()) {
+            return 0;
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from ActiveLoginRecord r where r.loginId in (:loginIds)")
+                .setParameterList("loginIds", loginIds)
+                .executeUpdate();
+    }
+
+    /**
+     * @return the number of active logins of the given node deleted
+     */
+    public int deleteActiveLoginsForNode(String nodeId) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from ActiveLoginRecord r where r.nodeId = :nodeId")
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+    }
+
+    /**
+     * @return the number of active logins deleted, which are those of the nodes other than the given node whose last
+     * heartbeat was at or before the given time, or that have no heartbeat
+     */
+    public int deleteActiveLoginsOfStaleNodes(String nodeId, long heartbeatCutoff) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from ActiveLoginRecord r where r.nodeId <> :nodeId and r.nodeId not in "
+                        + "(select n.nodeId from ActiveLoginNode n where n.heartbeatTime > :heartbeatCutoff)")
+                .setParameter("nodeId", nodeId)
+                .setParameter("heartbeatCutoff", heartbeatCutoff)
+                .executeUpdate();
+    }
+
+    /**
+     * @return the number of active logins of the nodes other than the given node whose last heartbeat was after the
+     * given time
+     */
+    public long getActiveLoginCount(String nodeId, long heartbeatCutoff) {
+        Number count = (Number) sessionFactory.getCurrentSession()
+                .createQuery("select count(r) from ActiveLoginRecord r where " + OTHER_LIVE_NODES)
+                .setParameter("nodeId", nodeId)
+                .setParameter("heartbeatCutoff", heartbeatCutoff)
+                .uniqueResult();
+        return count == null ? 0 : count.longValue();
+    }
+
+    /**
+     * @param userId if non-null, only the logins of this user are returned
+     * @return the active logins of the nodes other than the given node whose last heartbeat was after the given time
+     */
+    @SuppressWarnings("unchecked")
+    public List<ActiveLoginRecord> getActiveLogins(String nodeId, long heartbeatCutoff, Integer userId) {
+        String hql = "select new org.openmrs.module.authentication.ActiveLoginRecord(r.loginId, r.nodeId, r.userId, "
+                + "r.username, r.ipAddress, r.httpSessionId, r.loginTime, r.lastActivityTime) "
+                + "from ActiveLoginRecord r where " + OTHER_LIVE_NODES;
+        if (userId == null) {
+            return sessionFactory.getCurrentSession()
+                    .createQuery(hql)
+                    .setParameter("nodeId", nodeId)
+                    .setParameter("heartbeatCutoff", heartbeatCutoff)
+                    .list();
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery(hql + " and r.userId = :userId")
+                .setParameter("nodeId", nodeId)
+                .setParameter("heartbeatCutoff", heartbeatCutoff)
+                .setParameter("userId", userId)
+                .list();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The last heartbeat of a node that shares its active logins through the ActiveLoginService.  The active logins of a
+ * node whose heartbeat is too old are no longer reported.
+ */
+@Entity
+@Table(name = "authentication_active_login_node")
+public class ActiveLoginNode {
+
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "heartbeat_time", nullable = false)
+    private long heartbeatTime;
+
+    /**
+     * Used by Hibernate
+     */
+    protected ActiveLoginNode() {
+    }
+
+    /**
+     * @param nodeId the id of the node
+     * @param heartbeatTime the time of the last heartbeat of the node, in milliseconds since the epoch
+     */
+    public ActiveLoginNode(String nodeId, long heartbeatTime) {
+        this.nodeId = nodeId;
+        this.heartbeatTime = heartbeatTime;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getHeartbeatTime() {
+        return heartbeatTime;
+    }
+}
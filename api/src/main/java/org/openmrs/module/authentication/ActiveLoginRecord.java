@@ -0,0 +1,136 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * An immutable record of an active login, as tracked by an ActiveLoginBackend.  Unlike a UserLogin, this may
+ * describe a login on another node in a cluster, identified by its nodeId.  The logins shared by the
+ * JdbcActiveLoginBackend are stored as these records, through the ActiveLoginService.
+ */
+@Entity
+@Table(name = "authentication_active_login")
+public class ActiveLoginRecord {
+
+    @Id
+    @Column(name = "login_id", length = 36)
+    private String loginId;
+
+    @Column(name = "node_id", nullable = false)
+    private String nodeId;
+
+    @Column(name = "user_id")
+    private Integer userId;
+
+    @Column(name = "username")
+    private String username;
+
+    @Column(name = "ip_address", length = 64)
+    private String ipAddress;
+
+    @Column(name = "http_session_id")
+    private String httpSessionId;
+
+    @Column(name = "login_time", nullable = false)
+    private long loginTime;
+
+    @Column(name = "last_activity_time", nullable = false)
+    private long lastActivityTime;
+
+    /**
+     * Used by Hibernate
+     */
+    protected ActiveLoginRecord() {
+    }
+
+    /**
+     * @param userLogin the active login to record
+     * @param nodeId the id of the node that the login is on, or null if not known
+     */
+    public ActiveLoginRecord(UserLogin userLogin, String nodeId) {
+        Date loginDate = userLogin.getLoginDate();
+        this.loginId = userLogin.getLoginId();
+        this.nodeId = nodeId;
+        this.userId = userLogin.getUserId();
+        this.username = userLogin.getUsername();
+        this.ipAddress = userLogin.getIpAddress();
+        this.httpSessionId = userLogin.getHttpSessionId();
+        this.loginTime = loginDate == null ? 0 : loginDate.getTime();
+        this.lastActivityTime = userLogin.getLastActivityTime();
+    }
+
+    /**
+     * @param loginId the id of the login
+     * @param nodeId the id of the node that the login is on, or null if not known
+     * @param userId the id of the logged-in user, or null
+     * @param username the username of the logged-in user, or null
+     * @param ipAddress the ip address of the login, or null
+     * @param httpSessionId the http session id of the login, or null
+     * @param loginTime the time of login, in milliseconds since the epoch, or 0 if not known
+     * @param lastActivityTime the time of the last activity, in milliseconds since the epoch, or 0 if none
+     */
+    public ActiveLoginRecord(String loginId, String nodeId, Integer userId, String username, String ipAddress,
+                             String httpSessionId, long loginTime, long lastActivityTime) {
+        this.loginId = loginId;
+        this.nodeId = nodeId;
+        this.userId = userId;
+        this.username = username;
+        this.ipAddress = ipAddress;
+        this.httpSessionId = httpSessionId;
+        this.loginTime = loginTime;
+        this.lastActivityTime = lastActivityTime;
+    }
+
+    @Override
+    public String toString() {
+        return "loginId=" + loginId + ",nodeId=" + nodeId + ",username=" + username;
+    }
+
+    public String getLoginId() {
+        return loginId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public String getHttpSessionId() {
+        return httpSessionId;
+    }
+
+    public Date getLoginDate() {
+        return loginTime == 0 ? null : new Date(loginTime);
+    }
+
+    public long getLastActivityTime() {
+        return lastActivityTime;
+    }
+
+    public Date getLastActivityDate() {
+        return lastActivityTime == 0 ? null : new Date(lastActivityTime);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.api.OpenmrsService;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Stores the active logins that the JdbcActiveLoginBackend of each node shares with the other nodes, and the
+ * heartbeats of these nodes, in the authentication_active_login and authentication_active_login_node tables, which
+ * are created by liquibase.xml.  Each method runs in its own transaction.
+ */
+@Transactional
+public interface ActiveLoginService extends OpenmrsService {
+
+    /**
+     * Records a heartbeat for the given node, and writes the given changes to its active logins, in a single
+     * transaction
+     * @param nodeId the id of the node
+     * @param heartbeatTime the time of the heartbeat, in milliseconds since the epoch
+     * @param updates the active logins of the node that have been added or changed
+     * @param deletedLoginIds the ids of the logins of the node that are no longer active
+     * @return true if the heartbeat of the node was updated, false if it was missing and has been added, in which case
+     * other logins of the node may be missing too
+     */
+    boolean saveActiveLogins(String nodeId, long heartbeatTime, Collection<ActiveLoginRecord> updates,
+                             Collection<String> deletedLoginIds);
+
+    /**
+     * Deletes the active logins and the heartbeat of the given node
+     * @param nodeId the id of the node
+     * @return the number of active logins deleted
+     */
+    int deleteNode(String nodeId);
+
+    /**
+     * Deletes the active logins and heartbeats of the nodes, other than the given node, whose last heartbeat was at
+     * or before the given time, including the active logins of nodes that have no heartbeat at all
+     * @param nodeId the id of the node that is deleting, whose logins are never deleted
+     * @param heartbeatCutoff the time, in milliseconds since the epoch, at or before which a heartbeat is stale
+     * @return the number of active logins deleted
+     */
+    int deleteStaleNodes(String nodeId, long heartbeatCutoff);
+
+    /**
+     * @param nodeId the id of the node whose active logins are excluded
+     * @param heartbeatCutoff only logins of nodes whose last heartbeat was after this time are counted
+     * @return the number of active logins of the other live nodes
+     */
+    @Transactional(readOnly = true)
+    long getActiveLoginCount(String nodeId, long heartbeatCutoff);
+
+    /**
+     * @param nodeId the id of the node whose active logins are excluded
+     * @param heartbeatCutoff only logins of nodes whose last heartbeat was after this time are returned
+     * @param userId if non-null, only the logins of this user are returned
+     * @return the active logins of the other live nodes
+     */
+    @Transactional(readOnly = true)
+    List<ActiveLoginRecord> getActiveLogins(String nodeId, long heartbeatCutoff, Integer userId);
+}
@@ -0,0 +1,67 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.api.impl.BaseOpenmrsService;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The default implementation of the ActiveLoginService, which stores active logins through the ActiveLoginDao
+ */
+public class ActiveLoginServiceImpl extends BaseOpenmrsService implements ActiveLoginService {
+
+    private ActiveLoginDao dao;
+
+    public void setDao(ActiveLoginDao dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public boolean saveActiveLogins(String nodeId, long heartbeatTime, Collection<ActiveLoginRecord> updates,
+                                    Collection<String> deletedLoginIds) {
+        boolean found = dao.updateHeartbeat(nodeId, heartbeatTime) > 0;
+        if (!found) {
+            dao.saveNode(new ActiveLoginNode(nodeId, heartbeatTime));
+        }
+        dao.deleteActiveLogins(deletedLoginIds);
+        for (ActiveLoginRecord record : updates) {
+            if (dao.updateActiveLogin(record) == 0) {
+                dao.saveActiveLogin(record);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int deleteNode(String nodeId) {
+        int deleted = dao.deleteActiveLoginsForNode(nodeId);
+        dao.deleteNode(nodeId);
+        return deleted;
+    }
+
+    @Override
+    public int deleteStaleNodes(String nodeId, long heartbeatCutoff) {
+        int deleted = dao.deleteActiveLoginsOfStaleNodes(nodeId, heartbeatCutoff);
+        dao.deleteStaleNodes(nodeId, heartbeatCutoff);
+        return deleted;
+    }
+
+    @Override
+    public long getActiveLoginCount(String nodeId, long heartbeatCutoff) {
+        return dao.getActiveLoginCount(nodeId, heartbeatCutoff);
+    }
+
+    @Override
+    public List<ActiveLoginRecord> getActiveLogins(String nodeId, long heartbeatCutoff, Integer userId) {
+        return dao.getActiveLogins(nodeId, heartbeatCutoff, userId);
+    }
+}
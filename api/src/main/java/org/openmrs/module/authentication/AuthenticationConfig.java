@@ -10,6 +10,8 @@
 package org.openmrs.module.authentication;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.openmrs.api.context.AuthenticationScheme;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.UsernamePasswordAuthenticationScheme;
@@ -19,8 +21,12 @@ import org.openmrs.util.OpenmrsUtil;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class provides access to all authentication configuration settings
@@ -28,6 +34,8 @@ import java.util.Set;
  */
 public class AuthenticationConfig implements Serializable {
 
+    private static final Logger log = LogManager.getLogger(AuthenticationConfig.class);
+
     /**
      * All configuration used by this module should start with `authentication` as a namespace
      */
@@ -62,12 +70,30 @@ public class AuthenticationConfig implements Serializable {
     /**
      * By default, all configuration settings are loaded at startup and cached.
      * Subsequent changes to configuration in runtime properties will not take effect until an application restart
-     * This property enables changing this behavior.  By setting this to `false`, settings will be reloaded from
-     * the OpenMRS runtime properties file for every new HTTP request.
-     * This is expected to be used only in development or testing, not in production, due to performance impacts.
+     * This property enables changing this behavior.  By setting this to `false`, the OpenMRS runtime properties file
+     * is watched in the background, and settings are reloaded shortly after it changes.  If the file cannot be
+     * watched, settings will instead be reloaded from the runtime properties file for every new HTTP request, which
+     * is expected to be used only in development or testing, not in production, due to performance impacts.
      */
     public static final String SETTINGS_CACHED = "authentication.settings.cached";
 
+    /**
+     * If `authentication.settings.cached` is false, this is the number of milliseconds that the runtime properties
+     * file must be unchanged before it is reloaded, so that several changes in quick succession result in one reload.
+     * Defaults to 1000.
+     */
+    public static final String SETTINGS_RELOAD_DELAY = "authentication.settings.reloadDelay";
+
+    /**
+     * By default, an HTTP session, and the UserLogin associated with it, is created for every request that passes
+     * through the authentication filter, including requests for white-listed pages and static resources.
+     * By setting this to `true`, GET and HEAD requests that do not yet have an HTTP session, do not send an
+     * Authorization header, and match the white list are passed through without creating a session.  The session is
+     * only created once a request needs authentication work done.  Schemes that read credentials from query
+     * parameters of white-listed GET requests should not be used with this setting.
+     */
+    public static final String LAZY_SESSION_CREATION = "authentication.lazySessionCreation";
+
     /**
      * If the configured `authentication.scheme` is a `WebAuthenticationScheme`, then by default all HTTP requests
      * will be blocked and redirected to the appropriate `challengeUrl` specified by the `WebAuthenticationScheme`.
@@ -104,32 +130,261 @@ public class AuthenticationConfig implements Serializable {
      */
     public static final String SCHEME_CONFIG_PREFIX_TEMPLATE = "authentication.scheme.{schemeId}.config.";
 
-    private static Properties config;
+    /**
+     * If set to true, `authentication.*` global properties are merged into the configuration, taking precedence over
+     * the same settings in runtime properties.  This allows settings to be maintained once, in the database, for all
+     * nodes that share it.  Global properties are cached in memory, updated through a GlobalPropertyListener when
+     * they are changed on this node, and refreshed every `authentication.settings.globalPropertiesRefreshInterval`
+     * seconds (default 60) to pick up changes made on other nodes.  This setting is read when the module starts, so
+     * it should be set in runtime properties.
+     */
+    public static final String SETTINGS_GLOBAL_PROPERTIES = "authentication.settings.globalProperties";
 
-    private static final List<ClassLoader> classLoaders = new ArrayList<>();
+    /**
+     * If `authentication.settings.globalProperties` is true, the number of seconds between checks of the global
+     * properties for changes made on other nodes.  A value of 0 or less disables these checks.
+     */
+    public static final String SETTINGS_GLOBAL_PROPERTIES_REFRESH_INTERVAL = "authentication.settings.globalPropertiesRefreshInterval";
 
     /**
-     * @return the configured properties, loading from runtime properties if necessary
+     * By default, authentication events are placed on a bounded buffer and dispatched to the event sinks, including
+     * the UserLogin logger, by a single background thread, so that slow log appenders do not add to request latency.
+     * By setting this to `false`, events are dispatched synchronously on the thread that records them.
+     * The event settings are read when the event pipeline starts.
      */
-    public static Properties getConfig() {
-        if (config == null) {
-            config = AuthenticationUtil.getPropertiesWithPrefix(Context.getRuntimeProperties(), PREFIX, false);
+    public static final String EVENTS_ASYNC = "authentication.events.async";
+
+    /**
+     * The number of authentication events that can be waiting to be dispatched, rounded up to a power of 2.
+     * Defaults to 8192.
+     */
+    public static final String EVENTS_BUFFER_SIZE = "authentication.events.bufferSize";
+
+    /**
+     * What happens when an authentication event is recorded while the event buffer is full.  One of:
+     * `BLOCK` (the default) waits for space, `DROP_SUCCESS_EVENTS` discards successful authentication, login,
+     * and logout events but waits for space for all others, and `DROP_OLDEST` discards the oldest waiting event.
+     * Discarded events are counted, and are included in the `authentication_events_dropped_total` metric.
+     */
+    public static final String EVENTS_OVERFLOW_POLICY = "authentication.events.overflowPolicy";
+
+    /**
+     * The number of most recent authentication events retained in the history of each UserLogin.  Older events are
+     * discarded, but whether an event of a given type has occurred is retained.  Defaults to 50.
+     */
+    public static final String EVENTS_HISTORY_SIZE = "authentication.events.historySize";
+
+    /**
+     * The number of seconds without activity after which an active login is expired, even if its HTTP session has
+     * not been destroyed.  This should be longer than the HTTP session timeout, so that it only affects sessions whose
+     * destruction was not reported.  A value of 0 or less, the default, disables this.  This setting is read when
+     * the module starts.
+     */
+    public static final String ACTIVE_LOGINS_IDLE_TIMEOUT = "authentication.activeLogins.idleTimeout";
+
+    /**
+     * The class name of the ActiveLoginBackend that active logins are passed to.  By default, only the logins on
+     * this node are reported.  Set this to `org.openmrs.module.authentication.JdbcActiveLoginBackend` to share active
+     * logins between nodes through a table in the OpenMRS database.  This setting is read when the module starts.
+     */
+    public static final String ACTIVE_LOGINS_BACKEND = "authentication.activeLogins.backend";
+
+    /**
+     * The prefix of the properties that configure the ActiveLoginBackend, which are passed to it without the prefix
+     */
+    public static final String ACTIVE_LOGINS_BACKEND_CONFIG_PREFIX = "authentication.activeLogins.backend.config.";
+
+    /**
+     * The number of users whose remember-me tokens are moved from user properties to the remember-me token table in
+     * each transaction, by the RememberMeTokenMigration.  This setting is read when the module starts.
+     */
+    public static final String REMEMBER_ME_MIGRATION_BATCH_SIZE = "authentication.rememberMe.store.migrationBatchSize";
+
+    /**
+     * The number of seconds between purges of expired remember-me tokens.  Tokens are otherwise only removed when
+     * their cookie is presented, so tokens for browsers that are never used again would remain indefinitely.
+     * Defaults to 3600.  A value of 0 or less disables the purge.  This setting is read when the module starts.
+     */
+    public static final String REMEMBER_ME_PURGE_INTERVAL = "authentication.rememberMe.purge.interval";
+
+    /**
+     * The maximum number of expired remember-me tokens deleted by each statement of a purge.  Defaults to 500.
+     * This setting is read when the module starts.
+     */
+    public static final String REMEMBER_ME_PURGE_BATCH_SIZE = "authentication.rememberMe.purge.batchSize";
+
+    /**
+     * The number of milliseconds that a purge pauses between batches, to limit the load it places on the database.
+     * Defaults to 100.  This setting is read when the module starts.
+     */
+    public static final String REMEMBER_ME_PURGE_BATCH_DELAY = "authentication.rememberMe.purge.batchDelay";
+
+    /**
+     * The number of seconds between reloads of the revocations of signed remember-me tokens from the database, which
+     * bounds how long a token revoked on another server that shares the same database is still accepted by this one.
+     * Defaults to 30.  This setting is read when the module starts.
+     */
+    public static final String REMEMBER_ME_DENYLIST_REFRESH_INTERVAL = "authentication.rememberMe.denylist.refreshInterval";
+
+    /**
+     * The prefix of the properties that configure the AuthenticationProfileCache, which are passed to it without the
+     * prefix.  These settings are read when the module starts.
+     */
+    public static final String PROFILE_CACHE_CONFIG_PREFIX = "authentication.profileCache.";
+
+    private static final List<ClassLoader> classLoaders = new CopyOnWriteArrayList<>();
+
+    /**
+     * Supplies the version of each new snapshot, so that anything derived from a snapshot can tell when it is stale
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * The current configuration.  This is replaced, never modified, so reading it requires only a volatile read.
+     * All changes are made by building a new snapshot while holding the class lock, and publishing it.
+     */
+    private static volatile AuthenticationConfigSnapshot snapshot;
+
+    /**
+     * The configuration loaded from runtime properties, or set programmatically.  Guarded by the class lock.
+     */
+    private static Properties runtimeConfig;
+
+    /**
+     * The configuration loaded from global properties, which takes precedence.  Guarded by the class lock.
+     */
+    private static Properties globalPropertyConfig = new Properties();
+
+    private static final AtomicReference<AuthenticationSchemeRegistry> schemeRegistry =
+            new AtomicReference<>(new AuthenticationSchemeRegistry(-1));
+
+    /**
+     * @return the current configuration snapshot, loading from runtime properties if necessary
+     */
+    public static AuthenticationConfigSnapshot getSnapshot() {
+        AuthenticationConfigSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (AuthenticationConfig.class) {
+                current = snapshot;
+                if (current == null) {
+                    current = publish(getRuntimeConfig());
+                }
+            }
         }
-        return config;
+        return current;
+    }
+
+    /**
+     * @return the configuration from runtime properties, loading from runtime properties if necessary
+     * Callers must hold the class lock
+     */
+    private static Properties getRuntimeConfig() {
+        if (runtimeConfig == null) {
+            runtimeConfig = AuthenticationUtil.getPropertiesWithPrefix(Context.getRuntimeProperties(), PREFIX, false);
+        }
+        return runtimeConfig;
+    }
+
+    /**
+     * Builds a new snapshot from the given runtime configuration and the current global property configuration
+     */
+    private static AuthenticationConfigSnapshot buildSnapshot(Properties runtime, Properties globalProperties) {
+        Properties merged = AuthenticationUtil.getPropertiesWithPrefix(runtime, "", false);
+        merged.putAll(globalProperties);
+        return new AuthenticationConfigSnapshot(version.incrementAndGet(), merged);
+    }
+
+    /**
+     * Makes the given properties the runtime configuration, and publishes a new snapshot that includes them
+     * Callers must hold the class lock
+     */
+    private static AuthenticationConfigSnapshot publish(Properties runtime) {
+        runtimeConfig = runtime;
+        AuthenticationConfigSnapshot newSnapshot = buildSnapshot(runtime, globalPropertyConfig);
+        snapshot = newSnapshot;
+        return newSnapshot;
+    }
+
+    /**
+     * Validates the given runtime configuration and, if the resulting configuration differs from the current
+     * configuration, publishes it.  The current configuration is left in place if the given configuration is not valid
+     * @param config the configuration properties loaded from runtime properties
+     * @return true if a new configuration was published, false if the resulting configuration is unchanged
+     * @throws RuntimeException if the resulting configuration is not valid
+     */
+    static synchronized boolean validateAndPublish(Properties config) {
+        return validateAndPublish(config, globalPropertyConfig);
+    }
+
+    /**
+     * Validates the given global property configuration and, if the resulting configuration differs from the current
+     * configuration, publishes it.  The current configuration is left in place if the given configuration is not valid
+     * @param config the `authentication.*` global properties, which take precedence over runtime properties
+     * @return true if a new configuration was published, false if the resulting configuration is unchanged
+     * @throws RuntimeException if the resulting configuration is not valid
+     */
+    public static synchronized boolean setGlobalPropertyConfig(Properties config) {
+        return validateAndPublish(getRuntimeConfig(), config);
+    }
+
+    /**
+     * Only publishes a new snapshot if an `authentication.*` setting has actually changed, so that the schemes and
+     * compiled url patterns derived from the current snapshot are retained otherwise
+     * Callers must hold the class lock
+     */
+    private static boolean validateAndPublish(Properties runtime, Properties globalProperties) {
+        AuthenticationConfigSnapshot candidate = buildSnapshot(runtime, globalProperties);
+        validate(candidate);
+        runtimeConfig = runtime;
+        globalPropertyConfig = globalProperties;
+        AuthenticationConfigSnapshot current = snapshot;
+        if (current != null && current.getProperties().equals(candidate.getProperties())) {
+            return false;
+        }
+        snapshot = candidate;
+        return true;
+    }
+
+    /**
+     * Checks that the configured scheme is defined and that every defined scheme type can be loaded
+     * @param config the configuration snapshot to validate
+     * @throws RuntimeException if the configuration is not valid
+     */
+    static void validate(AuthenticationConfigSnapshot config) {
+        String schemeId = config.getSchemeId();
+        if (StringUtils.isNotBlank(schemeId) && StringUtils.isBlank(config.getSchemeType(schemeId))) {
+            throw new RuntimeException("No type is configured for authentication scheme: " + schemeId);
+        }
+        for (Map.Entry<String, String> schemeType : config.getSchemeTypes().entrySet()) {
+            Class<?> type = loadClass(schemeType.getValue(), Object.class);
+            if (type != null && !AuthenticationScheme.class.isAssignableFrom(type)) {
+                throw new RuntimeException("Type for scheme " + schemeType.getKey() + " is not an AuthenticationScheme");
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the configured properties, loading from runtime properties if necessary.
+     * This includes any settings from global properties.
+     * Changes made to the returned Properties do not affect the configuration, see setProperty and setConfig
+     */
+    public static Properties getConfig() {
+        return getSnapshot().toProperties();
     }
 
     /**
      * @param classLoader a classLoader to add to the list of classLoaders that can resolve classes for instantiation
      */
-    public static void registerClassLoader(ClassLoader classLoader) {
+    public static synchronized void registerClassLoader(ClassLoader classLoader) {
         AuthenticationConfig.classLoaders.add(classLoader);
+        publish(getRuntimeConfig());
     }
 
     /**
-     * @param config sets the configuration with the given Properties
+     * @param config sets the configuration with the given Properties, in place of those from runtime properties
      */
-    public static void setConfig(Properties config) {
-        AuthenticationConfig.config = config;
+    public static synchronized void setConfig(Properties config) {
+        publish(AuthenticationUtil.getPropertiesWithPrefix(config, "", false));
     }
 
     /**
@@ -137,7 +392,7 @@ public class AuthenticationConfig implements Serializable {
      * @return the value of the given configuration property
      */
     public static String getProperty(String key) {
-        return getConfig().getProperty(key);
+        return getSnapshot().getProperty(key);
     }
 
     /**
@@ -146,27 +401,29 @@ public class AuthenticationConfig implements Serializable {
      * @return the value of the given configuration property or the defaultValue if null
      */
     public static String getProperty(String key, String defaultValue) {
-        return getConfig().getProperty(key, defaultValue);
+        return getSnapshot().getProperty(key, defaultValue);
     }
 
     /**
      * @param key the configuration key to update
      * @param value the value to update for the given configuration key
      */
-    public static void setProperty(String key, String value) {
+    public static synchronized void setProperty(String key, String value) {
+        Properties p = AuthenticationUtil.getPropertiesWithPrefix(getRuntimeConfig(), "", false);
         if (value == null) {
-            getConfig().remove(key);
+            p.remove(key);
         }
         else {
-            getConfig().setProperty(key, value);
+            p.setProperty(key, value);
         }
+        publish(p);
     }
 
     /**
      * @return all configuration properties currently configured
      */
     public static Set<String> getKeys() {
-        return getConfig().stringPropertyNames();
+        return getSnapshot().getKeys();
     }
 
     /**
@@ -175,8 +432,7 @@ public class AuthenticationConfig implements Serializable {
      * @return the value of the given key, parsed to a boolean, or the default value if null
      */
     public static boolean getBoolean(String key, boolean defaultValue) {
-        return AuthenticationUtil.getBoolean(getProperty(key), defaultValue);
-
+        return getSnapshot().getBoolean(key, defaultValue);
     }
 
     /**
@@ -184,7 +440,7 @@ public class AuthenticationConfig implements Serializable {
      * @return the value of the property, parsed into a List, split by comma, or an empty list if not found
      */
     public static List<String> getStringList(String key) {
-        return AuthenticationUtil.getStringList(getProperty(key), ",");
+        return getSnapshot().getStringList(key);
     }
 
     /**
@@ -193,16 +449,7 @@ public class AuthenticationConfig implements Serializable {
      * @return a new instance of the given type of class, with a type identified by the value of the given property
      */
     public static <T> T getClassInstance(String key, Class<T> type) {
-        Class<? extends T> clazz = getClass(key, type);
-        if (clazz != null) {
-            try {
-                return clazz.getDeclaredConstructor().newInstance();
-            }
-            catch (Exception e) {
-                throw new RuntimeException("Unable to instantiate class " + type);
-            }
-        }
-        return null;
+        return newInstance(getClass(key, type), type);
     }
 
     /**
@@ -210,9 +457,17 @@ public class AuthenticationConfig implements Serializable {
      * @param ignoredType the type of class expected
      * @return a class of the given type, with a type identified by the value of the given property
      */
-    @SuppressWarnings("unchecked")
     public static <T> Class<? extends T> getClass(String key, Class<T> ignoredType) {
-        String className = config.getProperty(key);
+        return loadClass(getProperty(key), ignoredType);
+    }
+
+    /**
+     * @param className the name of the class to load
+     * @param ignoredType the type of class expected
+     * @return a class of the given type with the given name, or null if the given name is blank
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Class<? extends T> loadClass(String className, Class<T> ignoredType) {
         if (StringUtils.isNotBlank(className)) {
             List<ClassLoader> loaders = new ArrayList<>();
             loaders.add(OpenmrsClassLoader.getInstance());
@@ -229,13 +484,28 @@ public class AuthenticationConfig implements Serializable {
         return null;
     }
 
+    /**
+     * @return a new instance of the given class, or null if the given class is null
+     */
+    private static <T> T newInstance(Class<? extends T> clazz, Class<T> type) {
+        if (clazz != null) {
+            try {
+                return clazz.getDeclaredConstructor().newInstance();
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Unable to instantiate class " + type);
+            }
+        }
+        return null;
+    }
+
     /**
      * @param prefix the prefix to search on configuration properties
      * @param stripPrefix if true, this will remove the prefix in the resulting Properties
      * @return the configuration properties that start with the given prefix, without the prefix if stripPrefix is true
      */
     public static Properties getSubsetWithPrefix(String prefix, boolean stripPrefix) {
-        return AuthenticationUtil.getPropertiesWithPrefix(config, prefix, stripPrefix);
+        return getSnapshot().getSubsetWithPrefix(prefix, stripPrefix);
     }
 
     // Configuration
@@ -244,59 +514,74 @@ public class AuthenticationConfig implements Serializable {
      * @return true if configuration cache is enabled
      */
     public static boolean isConfigurationCacheEnabled() {
-        return getBoolean(SETTINGS_CACHED, true);
+        return getSnapshot().isConfigurationCacheEnabled();
     }
 
     /**
-     * @return the List of url patterns to allow without authentication redirection
+     * @return true if `authentication.*` global properties should be merged into the configuration
+     */
+    public static boolean isGlobalPropertyConfigEnabled() {
+        return getBoolean(SETTINGS_GLOBAL_PROPERTIES, false);
+    }
+
+    /**
+     * @return true if HTTP sessions should only be created for requests that need authentication work done
+     */
+    public static boolean isLazySessionCreationEnabled() {
+        return getSnapshot().isLazySessionCreationEnabled();
+    }
+
+    /**
+     * @return the number of most recent authentication events retained in the history of each UserLogin
+     */
+    public static int getEventHistorySize() {
+        return getSnapshot().getEventHistorySize();
+    }
+
+    /**
+     * @return the immutable List of url patterns to allow without authentication redirection
      */
     public static List<String> getWhiteList() {
-        List<String> whitelist = getStringList(WHITE_LIST);
-        whitelist.add("/login.htm");
-        whitelist.add("/authenticationui/login/login.page");
-        whitelist.add("/authenticationui/login/loginSecret.page");
-        whitelist.add("/authenticationui/login/loginEmail.page");
-        whitelist.add("/authenticationui/login/loginTotp.page");
-        whitelist.add("/authenticationui/**/*.action");
-        whitelist.add("/authenticationui/account/resetPassword.page");
-        whitelist.add("/appui/session/getLoginLocations.action");
-        whitelist.add("/appui/header/logout.action");
-        whitelist.add("/csrfguard");
-        whitelist.add("/spa/**/*");
-        whitelist.add("/ws/rest/v1/session");
-        whitelist.add("*.js");
-        whitelist.add("*.css");
-        whitelist.add("*.gif");
-        whitelist.add("*.jpg");
-        whitelist.add("*.png");
-        whitelist.add("*.ico");
-        whitelist.add("*.ttf");
-        whitelist.add("*.woff");
-        whitelist.add("*.woff2");
-        return whitelist;
-    }
-
-    /**
-     * @return the List of url patterns that should not result in a redirect upon authentication failure
+        return getSnapshot().getWhiteList();
+    }
+
+    /**
+     * @return the immutable List of url patterns that should not result in a redirect upon authentication failure
      */
     public static List<String> getNonRedirectUrls() {
-        List<String> nonRedirectUrls = getStringList(NON_REDIRECT_URLS);
-        nonRedirectUrls.add("/ws/**/*");
-        return nonRedirectUrls;
+        return getSnapshot().getNonRedirectUrls();
     }
 
-     /**
-     * @return the List of url patterns to allow without force password authentication redirection
+    /**
+     * @return the immutable List of url patterns to allow without force password authentication redirection
      */
     public static List<String> getPasswordChangeWhiteList() {
-        List<String> whiteList = getWhiteList();
-        whiteList.addAll(getStringList(PASSWORD_CHANGE_WHITE_LIST));
-        whiteList.add(getChangePasswordUrl());  // Add the change password URL to the whitelist
-        return whiteList;
+        return getSnapshot().getPasswordChangeWhiteList();
+    }
+
+    /**
+     * @return the white list, compiled for matching, and only recompiled when the configuration changes
+     */
+    public static UrlPatternMatcher getWhiteListMatcher() {
+        return getSnapshot().getWhiteListMatcher();
+    }
+
+    /**
+     * @return the non-redirect urls, compiled for matching, and only recompiled when the configuration changes
+     */
+    public static UrlPatternMatcher getNonRedirectUrlMatcher() {
+        return getSnapshot().getNonRedirectUrlMatcher();
+    }
+
+    /**
+     * @return the password change white list, compiled for matching, and only recompiled when the configuration changes
+     */
+    public static UrlPatternMatcher getPasswordChangeWhiteListMatcher() {
+        return getSnapshot().getPasswordChangeWhiteListMatcher();
     }
 
     public static String getChangePasswordUrl() {
-        return getConfig().getProperty(PASSWORD_CHANGE_URL);
+        return getSnapshot().getChangePasswordUrl();
     }
 
 
@@ -304,7 +589,7 @@ public class AuthenticationConfig implements Serializable {
      * @return the configured authentication scheme, defaulting to a UsernamePasswordAuthenticationScheme if not found
      */
     public static AuthenticationScheme getAuthenticationScheme() {
-        String scheme = AuthenticationConfig.getProperty(SCHEME);
+        String scheme = getSnapshot().getSchemeId();
         if (StringUtils.isBlank(scheme)) {
             return new UsernamePasswordAuthenticationScheme();
         }
@@ -314,26 +599,75 @@ public class AuthenticationConfig implements Serializable {
     }
 
     /**
+     * Schemes are instantiated and configured once, and the same instance is returned for each subsequent call
+     * until the configuration changes, at which point a new instance is built from the new configuration
      * @param schemeId the {schemeId} that identifies the authentication scheme configuration in the properties
      * @return a configured AuthenticationScheme given configuration properties
      */
     public static AuthenticationScheme getAuthenticationScheme(String schemeId) {
-        String schemeTypeProperty = SCHEME_TYPE_TEMPLATE.replace(SCHEME_ID, schemeId);
-        String schemeConfigPropertyPrefix = SCHEME_CONFIG_PREFIX_TEMPLATE.replace(SCHEME_ID, schemeId);
-        AuthenticationScheme scheme = getClassInstance(schemeTypeProperty, AuthenticationScheme.class);
+        AuthenticationConfigSnapshot config = getSnapshot();
+        long currentVersion = config.getVersion();
+        AuthenticationSchemeRegistry registry = schemeRegistry.get();
+        if (registry.getVersion() == currentVersion) {
+            AuthenticationScheme scheme = registry.getAuthenticationScheme(schemeId);
+            if (scheme != null) {
+                return scheme;
+            }
+        }
+        AuthenticationScheme scheme = createAuthenticationScheme(config, schemeId);
+        if (scheme != null) {
+            while (true) {
+                registry = schemeRegistry.get();
+                AuthenticationSchemeRegistry newRegistry;
+                if (registry.getVersion() == currentVersion) {
+                    AuthenticationScheme existing = registry.getAuthenticationScheme(schemeId);
+                    if (existing != null) {
+                        return existing;
+                    }
+                    newRegistry = registry.withAuthenticationScheme(schemeId, scheme);
+                }
+                else if (registry.getVersion() < currentVersion) {
+                    newRegistry = new AuthenticationSchemeRegistry(currentVersion).withAuthenticationScheme(schemeId, scheme);
+                }
+                else {
+                    break; // The configuration has changed again since this scheme was built, so do not register it
+                }
+                if (schemeRegistry.compareAndSet(registry, newRegistry)) {
+                    break;
+                }
+            }
+        }
+        return scheme;
+    }
+
+    /**
+     * @param config the configuration snapshot to build the scheme from
+     * @param schemeId the {schemeId} that identifies the authentication scheme configuration in the properties
+     * @return a new AuthenticationScheme instance, configured from the given configuration snapshot
+     */
+    private static AuthenticationScheme createAuthenticationScheme(AuthenticationConfigSnapshot config, String schemeId) {
+        Class<? extends AuthenticationScheme> schemeType = loadClass(config.getSchemeType(schemeId), AuthenticationScheme.class);
+        AuthenticationScheme scheme = newInstance(schemeType, AuthenticationScheme.class);
         if (scheme instanceof ConfigurableAuthenticationScheme) {
             ConfigurableAuthenticationScheme configScheme = (ConfigurableAuthenticationScheme) scheme;
-            configScheme.configure(schemeId, getSubsetWithPrefix(schemeConfigPropertyPrefix, true));
+            configScheme.configure(schemeId, config.getSchemeConfig(schemeId));
         }
         return scheme;
     }
 
     /**
-     * Reloads the configuration from runtime properties
+     * Reloads the configuration from runtime properties.  A new snapshot is only published if the configuration has
+     * changed, so the schemes and url patterns built from the current snapshot are kept if it has not.  If the
+     * reloaded configuration is not valid, the current configuration is left in place.
      * @param applicationName the application name from OpenMRS that identifies the name of the runtime properties file
      */
     public static synchronized void reloadConfigFromRuntimeProperties(String applicationName) {
         Properties runtimeProperties = OpenmrsUtil.getRuntimeProperties(applicationName);
-        config = AuthenticationUtil.getPropertiesWithPrefix(runtimeProperties, PREFIX, false);
+        try {
+            validateAndPublish(AuthenticationUtil.getPropertiesWithPrefix(runtimeProperties, PREFIX, false));
+        }
+        catch (RuntimeException e) {
+            log.error("Unable to reload authentication configuration, keeping current configuration", e);
+        }
     }
 }
@@ -0,0 +1,348 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.openmrs.module.authentication.AuthenticationConfig.EVENTS_HISTORY_SIZE;
+import static org.openmrs.module.authentication.AuthenticationConfig.LAZY_SESSION_CREATION;
+import static org.openmrs.module.authentication.AuthenticationConfig.NON_REDIRECT_URLS;
+import static org.openmrs.module.authentication.AuthenticationConfig.PASSWORD_CHANGE_URL;
+import static org.openmrs.module.authentication.AuthenticationConfig.PASSWORD_CHANGE_WHITE_LIST;
+import static org.openmrs.module.authentication.AuthenticationConfig.SCHEME;
+import static org.openmrs.module.authentication.AuthenticationConfig.SETTINGS_CACHED;
+import static org.openmrs.module.authentication.AuthenticationConfig.SUPPORT_FORCED_PASSWORD_CHANGE;
+import static org.openmrs.module.authentication.AuthenticationConfig.WHITE_LIST;
+
+/**
+ * An immutable view of the authentication configuration at a point in time.
+ * <p>
+ * Everything that is read on the request path is parsed once, when the snapshot is built: the url pattern lists and
+ * their compiled matchers, the boolean settings, and the type and configuration of each authentication scheme.
+ * AuthenticationConfig publishes a new snapshot whenever the configuration changes, so readers never lock and never
+ * see a partially updated configuration.  Each snapshot carries a version, which increases with each change, so that
+ * anything derived from the configuration can tell when it is stale.
+ */
+public final class AuthenticationConfigSnapshot {
+
+    private static final String SCHEME_PREFIX = "authentication.scheme.";
+    private static final String SCHEME_TYPE_SUFFIX = ".type";
+    private static final String SCHEME_CONFIG_INFIX = ".config.";
+
+    /**
+     * The url patterns that are always allowed without authentication, in addition to the configured white list
+     */
+    static final List<String> DEFAULT_WHITE_LIST = Collections.unmodifiableList(Arrays.asList(
+            "/login.htm",
+            "/authenticationui/login/login.page",
+            "/authenticationui/login/loginSecret.page",
+            "/authenticationui/login/loginEmail.page",
+            "/authenticationui/login/loginTotp.page",
+            "/authenticationui/**/*.action",
+            "/authenticationui/account/resetPassword.page",
+            "/appui/session/getLoginLocations.action",
+            "/appui/header/logout.action",
+            "/csrfguard",
+            "/spa/**/*",
+            "/ws/rest/v1/session",
+            "*.js",
+            "*.css",
+            "*.gif",
+            "*.jpg",
+            "*.png",
+            "*.ico",
+            "*.ttf",
+            "*.woff",
+            "*.woff2"
+    ));
+
+    /**
+     * The url patterns that never result in a redirect, in addition to the configured non-redirect urls
+     */
+    static final List<String> DEFAULT_NON_REDIRECT_URLS = Collections.singletonList("/ws/**/*");
+
+    private final long version;
+    private final Map<String, String> properties;
+    private final boolean configurationCacheEnabled;
+    private final boolean lazySessionCreationEnabled;
+    private final boolean forcedPasswordChangeSupported;
+    private final int eventHistorySize;
+    private final String changePasswordUrl;
+    private final String schemeId;
+    private final List<String> whiteList;
+    private final List<String> nonRedirectUrls;
+    private final List<String> passwordChangeWhiteList;
+    private final UrlPatternMatcher whiteListMatcher;
+    private final UrlPatternMatcher nonRedirectUrlMatcher;
+    private final UrlPatternMatcher passwordChangeWhiteListMatcher;
+    private final Map<String, String> schemeTypes;
+    private final Map<String, Map<String, String>> schemeConfigs;
+
+    /**
+     * @param version the version of this snapshot, which must be greater than that of any previous snapshot
+     * @param config the configuration properties, which are copied into this snapshot
+     */
+    AuthenticationConfigSnapshot(long version, Properties config) {
+        this.version = version;
+        Map<String, String> props = new HashMap<>();
+        for (String key : config.stringPropertyNames()) {
+            props.put(key, config.getProperty(key));
+        }
+        this.properties = Collections.unmodifiableMap(props);
+
+        this.configurationCacheEnabled = getBoolean(SETTINGS_CACHED, true);
+        this.lazySessionCreationEnabled = getBoolean(LAZY_SESSION_CREATION, false);
+        this.forcedPasswordChangeSupported = getBoolean(SUPPORT_FORCED_PASSWORD_CHANGE, false);
+        this.eventHistorySize = AuthenticationUtil.getInteger(getProperty(EVENTS_HISTORY_SIZE), AuthenticationEventHistory.DEFAULT_CAPACITY);
+        this.changePasswordUrl = getProperty(PASSWORD_CHANGE_URL);
+        this.schemeId = getProperty(SCHEME);
+
+        List<String> whiteList = getStringList(WHITE_LIST);
+        whiteList.addAll(DEFAULT_WHITE_LIST);
+        this.whiteList = Collections.unmodifiableList(whiteList);
+
+        List<String> nonRedirectUrls = getStringList(NON_REDIRECT_URLS);
+        nonRedirectUrls.addAll(DEFAULT_NON_REDIRECT_URLS);
+        this.nonRedirectUrls = Collections.unmodifiableList(nonRedirectUrls);
+
+        List<String> passwordChangeWhiteList = new ArrayList<>(whiteList);
+        passwordChangeWhiteList.addAll(getStringList(PASSWORD_CHANGE_WHITE_LIST));
+        passwordChangeWhiteList.add(changePasswordUrl);  // Add the change password URL to the whitelist
+        this.passwordChangeWhiteList = Collections.unmodifiableList(passwordChangeWhiteList);
+
+        this.whiteListMatcher = new UrlPatternMatcher(this.whiteList);
+        this.nonRedirectUrlMatcher = new UrlPatternMatcher(this.nonRedirectUrls);
+        this.passwordChangeWhiteListMatcher = new UrlPatternMatcher(this.passwordChangeWhiteList);
+
+        Map<String, String> types = new HashMap<>();
+        Map<String, Map<String, String>> configs = new HashMap<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(SCHEME_PREFIX)) {
+                String remainder = key.substring(SCHEME_PREFIX.length());
+                int configIndex = remainder.indexOf(SCHEME_CONFIG_INFIX);
+                if (configIndex > 0) {
+                    String id = remainder.substring(0, configIndex);
+                    String configKey = remainder.substring(configIndex + SCHEME_CONFIG_INFIX.length());
+                    configs.computeIfAbsent(id, k -> new HashMap<>()).put(configKey, entry.getValue());
+                }
+                else if (remainder.endsWith(SCHEME_TYPE_SUFFIX) && remainder.length() > SCHEME_TYPE_SUFFIX.length()) {
+                    String id = remainder.substring(0, remainder.length() - SCHEME_TYPE_SUFFIX.length());
+                    types.put(id, entry.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> entry : configs.entrySet()) {
+            entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+        }
+        this.schemeTypes = Collections.unmodifiableMap(types);
+        this.schemeConfigs = Collections.unmodifiableMap(configs);
+    }
+
+    /**
+     * @return the version of this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return an immutable view of all configuration properties in this snapshot
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the keys of all configuration properties in this snapshot
+     */
+    public Set<String> getKeys() {
+        return properties.keySet();
+    }
+
+    /**
+     * @param key the configuration property to retrieve
+     * @return the value of the given configuration property
+     */
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    /**
+     * @param key the configuration property to retrieve
+     * @param defaultValue the value to return if the value for the given configuration property is null
+     * @return the value of the given configuration property or the defaultValue if null
+     */
+    public String getProperty(String key, String defaultValue) {
+        String value = properties.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @param key the configuration property to retrieve
+     * @param defaultValue the value to return if the value for the given configuration property is null
+     * @return the value of the given key, parsed to a boolean, or the default value if null
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return AuthenticationUtil.getBoolean(getProperty(key), defaultValue);
+    }
+
+    /**
+     * @param key the configuration property to retrieve
+     * @return a new List containing the value of the property, split by comma, or an empty list if not found
+     */
+    public List<String> getStringList(String key) {
+        return AuthenticationUtil.getStringList(getProperty(key), ",");
+    }
+
+    /**
+     * @return the configuration as a new, mutable Properties instance
+     */
+    public Properties toProperties() {
+        Properties ret = new Properties();
+        ret.putAll(properties);
+        return ret;
+    }
+
+    /**
+     * @param prefix the prefix to search on configuration properties
+     * @param stripPrefix if true, this will remove the prefix in the resulting Properties
+     * @return the configuration properties that start with the given prefix, without the prefix if stripPrefix is true
+     */
+    public Properties getSubsetWithPrefix(String prefix, boolean stripPrefix) {
+        Properties ret = new Properties();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(prefix)) {
+                ret.put(stripPrefix ? key.substring(prefix.length()) : key, entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return true if configuration cache is enabled
+     */
+    public boolean isConfigurationCacheEnabled() {
+        return configurationCacheEnabled;
+    }
+
+    /**
+     * @return true if HTTP sessions should only be created for requests that need authentication work done
+     */
+    public boolean isLazySessionCreationEnabled() {
+        return lazySessionCreationEnabled;
+    }
+
+    /**
+     * @return true if users who are set to require a password change should be redirected to change it
+     */
+    public boolean isForcedPasswordChangeSupported() {
+        return forcedPasswordChangeSupported;
+    }
+
+    /**
+     * @return the number of most recent authentication events retained in the history of each UserLogin
+     */
+    public int getEventHistorySize() {
+        return eventHistorySize;
+    }
+
+    /**
+     * @return the configured password change url, or null if not configured
+     */
+    public String getChangePasswordUrl() {
+        return changePasswordUrl;
+    }
+
+    /**
+     * @return the configured {schemeId} of the authentication scheme to use, or null if not configured
+     */
+    public String getSchemeId() {
+        return schemeId;
+    }
+
+    /**
+     * @return an immutable List of url patterns to allow without authentication redirection
+     */
+    public List<String> getWhiteList() {
+        return whiteList;
+    }
+
+    /**
+     * @return an immutable List of url patterns that should not result in a redirect upon authentication failure
+     */
+    public List<String> getNonRedirectUrls() {
+        return nonRedirectUrls;
+    }
+
+    /**
+     * @return an immutable List of url patterns to allow without force password authentication redirection
+     */
+    public List<String> getPasswordChangeWhiteList() {
+        return passwordChangeWhiteList;
+    }
+
+    /**
+     * @return the white list, compiled for matching
+     */
+    public UrlPatternMatcher getWhiteListMatcher() {
+        return whiteListMatcher;
+    }
+
+    /**
+     * @return the non-redirect urls, compiled for matching
+     */
+    public UrlPatternMatcher getNonRedirectUrlMatcher() {
+        return nonRedirectUrlMatcher;
+    }
+
+    /**
+     * @return the password change white list, compiled for matching
+     */
+    public UrlPatternMatcher getPasswordChangeWhiteListMatcher() {
+        return passwordChangeWhiteListMatcher;
+    }
+
+    /**
+     * @param schemeId the {schemeId} that identifies the authentication scheme configuration
+     * @return the configured class name of the given authentication scheme, or null if not configured
+     */
+    public String getSchemeType(String schemeId) {
+        return schemeTypes.get(schemeId);
+    }
+
+    /**
+     * @return an immutable map of {schemeId} to the configured class name of each authentication scheme
+     */
+    public Map<String, String> getSchemeTypes() {
+        return schemeTypes;
+    }
+
+    /**
+     * @param schemeId the {schemeId} that identifies the authentication scheme configuration
+     * @return the configuration of the given authentication scheme, without the prefix, as a new Properties instance
+     */
+    public Properties getSchemeConfig(String schemeId) {
+        Properties ret = new Properties();
+        Map<String, String> schemeConfig = schemeConfigs.get(schemeId);
+        if (schemeConfig != null) {
+            ret.putAll(schemeConfig);
+        }
+        return ret;
+    }
+}
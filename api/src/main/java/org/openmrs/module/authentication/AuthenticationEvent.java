@@ -29,8 +29,12 @@ public class AuthenticationEvent implements Serializable {
     private final Date eventDate;
 
     public AuthenticationEvent(String event) {
+        this(event, new Date());
+    }
+
+    public AuthenticationEvent(String event, Date eventDate) {
         this.event = event;
-        this.eventDate = new Date();
+        this.eventDate = eventDate;
     }
 
     @Override
@@ -0,0 +1,259 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A fixed-capacity history of the authentication events that have occurred on a UserLogin.
+ * <p>
+ * Each event is stored as a type code and an epoch millisecond time, in primitive arrays used as a ring buffer, so
+ * the history has a fixed size in memory and when serialized with the HTTP session, however long the session lasts.
+ * Once the history is full, the oldest event is overwritten.  A count of each event type is kept for the lifetime of
+ * the history, including events that have been overwritten, so checking whether an event has occurred is constant
+ * time.  The standard events in AuthenticationEvent have fixed codes, and any other event names are assigned codes
+ * as they are first recorded.
+ */
+public class AuthenticationEventHistory implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default number of events retained
+     */
+    public static final int DEFAULT_CAPACITY = 50;
+
+    /**
+     * The maximum number of events retained, whatever the configured or serialized capacity
+     */
+    public static final int MAX_CAPACITY = 10000;
+
+    private static final String[] STANDARD_EVENTS = {
+            AuthenticationEvent.AUTHENTICATION_SUCCEEDED,
+            AuthenticationEvent.AUTHENTICATION_FAILED,
+            AuthenticationEvent.LOGIN_SUCCEEDED,
+            AuthenticationEvent.LOGIN_FAILED,
+            AuthenticationEvent.LOGIN_EXPIRED,
+            AuthenticationEvent.LOGOUT_SUCCEEDED,
+            AuthenticationEvent.LOGOUT_FAILED
+    };
+
+    private transient byte[] types;
+    private transient long[] times;
+    private transient int start;
+    private transient int size;
+    private transient int[] counts;
+    private transient List<String> otherEvents;
+
+    /**
+     * @param capacity the maximum number of events to retain, at least 1 and at most MAX_CAPACITY
+     */
+    public AuthenticationEventHistory(int capacity) {
+        init(Math.min(MAX_CAPACITY, Math.max(1, capacity)));
+    }
+
+    private void init(int capacity) {
+        types = new byte[capacity];
+        times = new long[capacity];
+        start = 0;
+        size = 0;
+        counts = new int[STANDARD_EVENTS.length];
+        otherEvents = new ArrayList<>(0);
+    }
+
+    /**
+     * Adds the given event to the history, overwriting the oldest event if the history is full
+     * @param event the name of the event
+     * @param time the time of the event, in milliseconds since the epoch
+     */
+    public synchronized void add(String event, long time) {
+        int code = getOrAssignCode(event);
+        int index;
+        if (size < types.length) {
+            index = (start + size) % types.length;
+            size++;
+        }
+        else {
+            index = start;
+            start = (start + 1) % types.length;
+        }
+        types[index] = (byte) code;
+        times[index] = time;
+        if (counts[code] < Integer.MAX_VALUE) {
+            counts[code]++;
+        }
+    }
+
+    /**
+     * @param event the event to check, compared without regard to case
+     * @return true if an event with the given name has been added, even if it has since been overwritten
+     */
+    public synchronized boolean contains(String event) {
+        return getCount(event) > 0;
+    }
+
+    /**
+     * @param event the event to check, compared without regard to case
+     * @return the number of events with the given name that have been added, including any overwritten
+     */
+    public synchronized int getCount(String event) {
+        int code = getCode(event);
+        return code < 0 ? 0 : counts[code];
+    }
+
+    /**
+     * @return the events currently retained, oldest first, as a new unmodifiable List
+     */
+    public synchronized List<AuthenticationEvent> getEvents() {
+        List<AuthenticationEvent> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % types.length;
+            ret.add(new AuthenticationEvent(getEventName(types[index]), new Date(times[index])));
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * @return the number of events currently retained
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of events retained
+     */
+    public synchronized int getCapacity() {
+        return types.length;
+    }
+
+    private int getCode(String event) {
+        if (event == null) {
+            return -1;
+        }
+        for (int i = 0; i < STANDARD_EVENTS.length; i++) {
+            if (STANDARD_EVENTS[i].equalsIgnoreCase(event)) {
+                return i;
+            }
+        }
+        for (int i = 0; i < otherEvents.size(); i++) {
+            if (otherEvents.get(i).equalsIgnoreCase(event)) {
+                return STANDARD_EVENTS.length + i;
+            }
+        }
+        return -1;
+    }
+
+    private int getOrAssignCode(String event) {
+        int code = getCode(event);
+        if (code < 0) {
+            if (event == null) {
+                throw new IllegalArgumentException("Event must not be null");
+            }
+            code = STANDARD_EVENTS.length + otherEvents.size();
+            if (code > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct authentication events: " + event);
+            }
+            otherEvents.add(event);
+            counts = Arrays.copyOf(counts, code + 1);
+        }
+        return code;
+    }
+
+    private String getEventName(int code) {
+        return code < STANDARD_EVENTS.length ? STANDARD_EVENTS[code] : otherEvents.get(code - STANDARD_EVENTS.length);
+    }
+
+    /**
+     * Only the retained events are written, oldest first, rather than the full capacity of the arrays
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        writeTo(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        readFrom(in);
+    }
+
+    /**
+     * Writes the capacity, the event counts, and the retained events, oldest first, to the given output
+     * @param out the output to write to
+     * @throws IOException if the history cannot be written
+     */
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(types.length);
+        out.writeInt(otherEvents.size());
+        for (String event : otherEvents) {
+            out.writeUTF(event);
+        }
+        for (int count : counts) {
+            out.writeInt(count);
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % types.length;
+            out.writeByte(types[index]);
+            out.writeLong(times[index]);
+        }
+    }
+
+    /**
+     * Replaces the contents of this history with one written by writeTo
+     * @param in the input to read from
+     * @throws IOException if the history cannot be read or is not valid
+     */
+    synchronized void readFrom(DataInput in) throws IOException {
+        int capacity = in.readInt();
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IOException("Invalid authentication event history capacity: " + capacity);
+        }
+        init(capacity);
+        int numOtherEvents = in.readInt();
+        if (numOtherEvents < 0 || STANDARD_EVENTS.length + numOtherEvents > Byte.MAX_VALUE + 1) {
+            throw new IOException("Invalid number of authentication events: " + numOtherEvents);
+        }
+        for (int i = 0; i < numOtherEvents; i++) {
+            otherEvents.add(in.readUTF());
+        }
+        counts = new int[STANDARD_EVENTS.length + numOtherEvents];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = in.readInt();
+        }
+        int retained = in.readInt();
+        for (int i = 0; i < retained; i++) {
+            byte type = in.readByte();
+            long time = in.readLong();
+            if (type < 0 || type >= counts.length) {
+                throw new IOException("Invalid authentication event type: " + type);
+            }
+            int index = (start + size) % types.length;
+            if (size < types.length) {
+                size++;
+            }
+            else {
+                start = (start + 1) % types.length;
+            }
+            types[index] = type;
+            times[index] = time;
+        }
+    }
+}
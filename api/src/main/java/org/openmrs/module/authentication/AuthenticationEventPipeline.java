@@ -0,0 +1,465 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatches authentication events recorded by UserLogin to each registered AuthenticationEventSink.
+ * <p>
+ * By default, events are published to a bounded, lock-free ring buffer, and a single background thread takes them
+ * from the buffer and dispatches them, so the thread that records an event only captures an immutable record of it.
+ * This means that login latency does not depend on how long the configured log appenders take.  If events are
+ * recorded faster than they can be dispatched, and the buffer fills, the configured OverflowPolicy determines
+ * whether the recording thread waits or an event is dropped.  Dropped events are counted.
+ * <p>
+ * The pipeline is started on first use, with the settings in AuthenticationConfig at that time, and is restarted
+ * with current settings by the module activator.  Stopping the pipeline dispatches any events still in the buffer,
+ * and any events published after it is stopped are dispatched synchronously, on the recording thread, so that no
+ * dispatcher thread is left running once the module is stopped.
+ */
+public class AuthenticationEventPipeline {
+
+    private static final Logger log = LogManager.getLogger(AuthenticationEventPipeline.class);
+
+    /**
+     * Determines what happens when an event is recorded while the buffer is full
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * The recording thread waits until there is space in the buffer
+         */
+        BLOCK,
+
+        /**
+         * Successful authentication, login, and logout events are dropped, and the recording thread waits for space
+         * in the buffer for all other events, so that failures are always retained
+         */
+        DROP_SUCCESS_EVENTS,
+
+        /**
+         * The oldest event in the buffer is dropped to make space
+         */
+        DROP_OLDEST
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    public static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private static final List<AuthenticationEventSink> sinks = new CopyOnWriteArrayList<>(
+            Collections.singletonList(new Log4jAuthenticationEventSink()));
+
+    private static volatile AuthenticationEventPipeline instance;
+
+    private static volatile boolean stopped;
+
+    private static final AuthenticationEventPipeline synchronousPipeline =
+            new AuthenticationEventPipeline(0, OverflowPolicy.BLOCK);
+
+    private final OverflowPolicy overflowPolicy;
+    private final EventRingBuffer<AuthenticationEventRecord> buffer;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running;
+    private volatile boolean consumerWaiting;
+    private volatile Thread consumer;
+
+    /**
+     * @param bufferSize the capacity of the buffer, or 0 to dispatch events synchronously
+     * @param overflowPolicy what happens when an event is recorded while the buffer is full
+     */
+    public AuthenticationEventPipeline(int bufferSize, OverflowPolicy overflowPolicy) {
+        this.buffer = bufferSize > 0 ? new EventRingBuffer<>(bufferSize) : null;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts a new pipeline with the current settings in AuthenticationConfig
+     * Any pipeline previously started is stopped first, after dispatching the events in its buffer
+     * @return the started pipeline
+     */
+    public static synchronized AuthenticationEventPipeline start() {
+        stopInstance();
+        stopped = false;
+        boolean async = AuthenticationConfig.getBoolean(AuthenticationConfig.EVENTS_ASYNC, true);
+        AuthenticationEventPipeline pipeline = new AuthenticationEventPipeline(async ? getBufferSize() : 0,
+                getOverflowPolicy());
+        pipeline.startDispatching();
+        instance = pipeline;
+        return pipeline;
+    }
+
+    /**
+     * The pipeline is also started on the request path, when the first event is published, so an invalid setting is
+     * logged and the default used, rather than failing every request that records an event
+     * @return the configured buffer size, or DEFAULT_BUFFER_SIZE if it is not set or is not valid
+     */
+    static int getBufferSize() {
+        String size = AuthenticationConfig.getProperty(AuthenticationConfig.EVENTS_BUFFER_SIZE);
+        if (StringUtils.isNotBlank(size)) {
+            try {
+                int bufferSize = Integer.parseInt(size.trim());
+                if (bufferSize >= 0 && bufferSize <= MAX_BUFFER_SIZE) {
+                    return bufferSize;
+                }
+            }
+            catch (NumberFormatException e) {
+                // Logged below
+            }
+            log.warn("Invalid " + AuthenticationConfig.EVENTS_BUFFER_SIZE + ": " + size + ", using the default of "
+                    + DEFAULT_BUFFER_SIZE);
+        }
+        return DEFAULT_BUFFER_SIZE;
+    }
+
+    /**
+     * @return the configured overflow policy, or BLOCK if it is not set or is not valid
+     * @see #getBufferSize()
+     */
+    static OverflowPolicy getOverflowPolicy() {
+        String policy = AuthenticationConfig.getProperty(AuthenticationConfig.EVENTS_OVERFLOW_POLICY);
+        if (StringUtils.isNotBlank(policy)) {
+            try {
+                return OverflowPolicy.valueOf(policy.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                log.warn("Invalid " + AuthenticationConfig.EVENTS_OVERFLOW_POLICY + ": " + policy
+                        + ", using the default of " + OverflowPolicy.BLOCK);
+            }
+        }
+        return OverflowPolicy.BLOCK;
+    }
+
+    /**
+     * Stops the pipeline previously started, if any, after dispatching the events in its buffer
+     */
+    public static synchronized void stop() {
+        stopInstance();
+        stopped = true;
+    }
+
+    private static void stopInstance() {
+        if (instance != null) {
+            instance.stopDispatching();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the running pipeline, which is started with the current settings if it is not running
+     */
+    public static synchronized AuthenticationEventPipeline getInstance() {
+        if (instance == null) {
+            start();
+        }
+        return instance;
+    }
+
+    /**
+     * Publishes the given event to the running pipeline, if any sinks are enabled
+     * If no pipeline has been started, one is started with the current settings.  If the pipeline has been stopped,
+     * the event is dispatched synchronously, rather than starting a new dispatcher thread.
+     * @param record the event to publish
+     */
+    public static void publish(AuthenticationEventRecord record) {
+        if (hasEnabledSinks()) {
+            AuthenticationEventPipeline pipeline = instance;
+            if (pipeline == null) {
+                pipeline = getPublishingInstance();
+            }
+            pipeline.submit(record);
+        }
+    }
+
+    /**
+     * @return the running pipeline, one started with the current settings if none was ever started, or a
+     * synchronous pipeline if the running pipeline was stopped
+     */
+    private static synchronized AuthenticationEventPipeline getPublishingInstance() {
+        if (instance != null) {
+            return instance;
+        }
+        return stopped ? synchronousPipeline : start();
+    }
+
+    /**
+     * Waits until all events published so far have been dispatched or dropped
+     * @param timeoutMillis the maximum number of milliseconds to wait
+     * @return true if all events were dispatched or dropped within the timeout
+     */
+    public static boolean flush(long timeoutMillis) {
+        AuthenticationEventPipeline pipeline = instance;
+        return pipeline == null || pipeline.awaitProcessed(timeoutMillis);
+    }
+
+    /**
+     * @param sink the sink to add to all pipelines
+     */
+    public static void addSink(AuthenticationEventSink sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * @param sink the sink to remove from all pipelines
+     */
+    public static void removeSink(AuthenticationEventSink sink) {
+        sinks.remove(sink);
+    }
+
+    /**
+     * @return an unmodifiable view of the registered sinks
+     */
+    public static List<AuthenticationEventSink> getSinks() {
+        return Collections.unmodifiableList(sinks);
+    }
+
+    /**
+     * @return true if any of the registered sinks is enabled
+     */
+    public static boolean hasEnabledSinks() {
+        for (AuthenticationEventSink sink : sinks) {
+            if (sink.isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts the background thread that dispatches events from the buffer, if this pipeline is asynchronous
+     */
+    public synchronized void startDispatching() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (buffer != null) {
+            Thread thread = new Thread(this::consume, "authentication-event-dispatcher");
+            thread.setDaemon(true);
+            consumer = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the background thread, after it has dispatched the events in the buffer
+     */
+    public synchronized void stopDispatching() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(STOP_TIMEOUT_MILLIS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumer = null;
+        }
+        drain();
+    }
+
+    /**
+     * Publishes the given event to this pipeline
+     * @param record the event to publish
+     */
+    public void submit(AuthenticationEventRecord record) {
+        published.incrementAndGet();
+        if (buffer == null || !running || Thread.currentThread() == consumer) {
+            dispatchAndCount(record);
+            return;
+        }
+        if (!buffer.offer(record) && !handleOverflow(record)) {
+            return;
+        }
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+        if (!running) {
+            drain();
+        }
+    }
+
+    /**
+     * @return true if the record was added to the buffer, false if it was dropped or dispatched
+     */
+    private boolean handleOverflow(AuthenticationEventRecord record) {
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            while (true) {
+                AuthenticationEventRecord oldest = buffer.poll();
+                if (oldest != null) {
+                    drop(oldest);
+                }
+                if (buffer.offer(record)) {
+                    return true;
+                }
+            }
+        }
+        if (overflowPolicy == OverflowPolicy.DROP_SUCCESS_EVENTS && record.isSuccessEvent()) {
+            drop(record);
+            return false;
+        }
+        while (true) {
+            Thread thread = consumer;
+            if (!running || thread == null) {
+                dispatchAndCount(record);
+                return false;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+            if (buffer.offer(record)) {
+                return true;
+            }
+        }
+    }
+
+    private void drop(AuthenticationEventRecord record) {
+        dropped.incrementAndGet();
+        processed.incrementAndGet();
+        AuthenticationMetrics.increment(AuthenticationMetrics.EVENTS_DROPPED, AuthenticationMetrics.LABEL_EVENT, record.getEvent());
+    }
+
+    /**
+     * Takes events from the buffer and dispatches them, until stopped and the buffer is empty
+     */
+    private void consume() {
+        while (true) {
+            AuthenticationEventRecord record = buffer.poll();
+            if (record != null) {
+                dispatchAndCount(record);
+                continue;
+            }
+            if (!running) {
+                break;
+            }
+            consumerWaiting = true;
+            if (buffer.size() == 0 && running) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            consumerWaiting = false;
+        }
+    }
+
+    private void drain() {
+        if (buffer != null) {
+            AuthenticationEventRecord record;
+            while ((record = buffer.poll()) != null) {
+                dispatchAndCount(record);
+            }
+        }
+    }
+
+    private void dispatchAndCount(AuthenticationEventRecord record) {
+        try {
+            for (AuthenticationEventSink sink : sinks) {
+                try {
+                    if (sink.isEnabled()) {
+                        sink.dispatch(record);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn("Authentication event sink " + sink.getClass().getName() + " failed to handle " + record.getEvent(), e);
+                }
+            }
+        }
+        finally {
+            processed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param timeoutMillis the maximum number of milliseconds to wait
+     * @return true if all events published so far were dispatched or dropped within the timeout
+     */
+    public boolean awaitProcessed(long timeoutMillis) {
+        long target = published.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (processed.get() < target) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread thread = consumer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if events are dispatched by a background thread, false if they are dispatched synchronously
+     */
+    public boolean isAsync() {
+        return buffer != null;
+    }
+
+    /**
+     * @return the policy applied when an event is recorded while the buffer is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the approximate number of events waiting to be dispatched
+     */
+    public int getQueueSize() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * @return the number of events published to this pipeline
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of events dispatched or dropped by this pipeline
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return the number of events dropped by this pipeline because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the pipeline that is running, or null if none has been started
+     */
+    static AuthenticationEventPipeline getRunningInstance() {
+        return instance;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable record of an authentication event, and the state of the UserLogin at the time it was recorded.
+ * This is captured on the thread that records the event, and is dispatched to each AuthenticationEventSink by
+ * the AuthenticationEventPipeline, which may be on a different thread.  The log4j ThreadContext of the recording
+ * thread, such as a request id set by another filter, is captured with it, so that it can be restored while the event
+ * is logged.
+ */
+public final class AuthenticationEventRecord {
+
+    private final String event;
+    private final long eventTime;
+    private final String schemeId;
+    private final String loginId;
+    private final String httpSessionId;
+    private final String ipAddress;
+    private final String username;
+    private final Integer userId;
+    private final long lastActivityTime;
+    private final Map<String, String> threadContext;
+
+    /**
+     * @param userLogin the UserLogin that the event occurred on
+     * @param event the name of the event that was recorded
+     * @param eventTime the time the event was recorded, in milliseconds since the epoch
+     * @param schemeId the schemeId that the event refers to, or null
+     */
+    public AuthenticationEventRecord(UserLogin userLogin, String event, long eventTime, String schemeId) {
+        this.event = event;
+        this.eventTime = eventTime;
+        this.schemeId = schemeId;
+        this.loginId = userLogin.getLoginId();
+        this.httpSessionId = userLogin.getHttpSessionId();
+        this.ipAddress = userLogin.getIpAddress();
+        this.username = userLogin.getUsername();
+        this.userId = userLogin.getUserId();
+        this.lastActivityTime = userLogin.getLastActivityTime();
+        this.threadContext = ThreadContext.getImmutableContext();
+    }
+
+    /**
+     * @return true if this is a successful authentication, login, or logout event
+     */
+    public boolean isSuccessEvent() {
+        return AuthenticationEvent.AUTHENTICATION_SUCCEEDED.equals(event)
+                || AuthenticationEvent.LOGIN_SUCCEEDED.equals(event)
+                || AuthenticationEvent.LOGOUT_SUCCEEDED.equals(event);
+    }
+
+    /**
+     * @return the named context data of this event, as made available to log4j in the ThreadContext
+     */
+    public Map<String, String> getContextData() {
+        Map<String, String> ret = new LinkedHashMap<>();
+        ret.put("event", event);
+        ret.put("schemeId", schemeId);
+        ret.put("loginId", loginId);
+        ret.put("httpSessionId", httpSessionId);
+        ret.put("ipAddress", ipAddress);
+        ret.put("username", username);
+        ret.put("userId", userId == null ? null : userId.toString());
+        ret.put("lastActivityDate", AuthenticationUtil.formatIsoDate(getLastActivityDate()));
+        return ret;
+    }
+
+    /**
+     * @return the log4j ThreadContext of the thread that recorded this event, at the time it was recorded
+     */
+    public Map<String, String> getThreadContext() {
+        return threadContext;
+    }
+
+    @Override
+    public String toString() {
+        return getContextData().toString();
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public Date getEventDate() {
+        return new Date(eventTime);
+    }
+
+    public String getSchemeId() {
+        return schemeId;
+    }
+
+    public String getLoginId() {
+        return loginId;
+    }
+
+    public String getHttpSessionId() {
+        return httpSessionId;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Date getLastActivityDate() {
+        return lastActivityTime == 0 ? null : new Date(lastActivityTime);
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+/**
+ * Receives authentication events from the AuthenticationEventPipeline.
+ * Sinks are called from a single thread, in the order that events were recorded, unless the pipeline is
+ * configured to dispatch synchronously, in which case they are called on the thread that recorded the event.
+ * Implementations should not throw exceptions, but any that are thrown are logged and do not affect other sinks.
+ */
+public interface AuthenticationEventSink {
+
+    /**
+     * @return false if this sink would discard all events, in which case events are not published to it
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @param record the event to handle
+     */
+    void dispatch(AuthenticationEventRecord record);
+}
@@ -0,0 +1,279 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class maintains counters and latency histograms for authentication activity across the application.
+ * <p>
+ * Metrics are identified by a name and an optional set of label name and value pairs, in the style of Prometheus.
+ * Recording a metric is lock-free, so it can be done on the request path of every request.  The names of all
+ * metrics are defined here, with their type and description, and can be written in the Prometheus text exposition
+ * format with writePrometheus.  Counters and histograms accumulate from application startup, and percentiles
+ * over a given time window are intended to be calculated by the monitoring system, for example with
+ * histogram_quantile(0.95, rate(authentication_scheme_duration_seconds_bucket[5m])) in Prometheus.
+ */
+public class AuthenticationMetrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String SCHEME_DURATION = "authentication_scheme_duration_seconds";
+    public static final String SESSION_AUTHENTICATION_DURATION = "authentication_session_authenticate_duration_seconds";
+    public static final String SESSION_REGENERATION_DURATION = "authentication_session_regenerate_duration_seconds";
+    public static final String FILTER_CHALLENGES = "authentication_filter_challenges_total";
+    public static final String HTTP_SESSIONS_CREATED = "authentication_http_sessions_created_total";
+    public static final String HTTP_SESSIONS_DESTROYED = "authentication_http_sessions_destroyed_total";
+    public static final String ACTIVE_LOGINS = "authentication_active_logins";
+    public static final String ACTIVE_LOGINS_ADDED = "authentication_active_logins_added_total";
+    public static final String ACTIVE_LOGINS_REMOVED = "authentication_active_logins_removed_total";
+    public static final String IDLE_LOGINS_EXPIRED = "authentication_idle_logins_expired_total";
+    public static final String CONFIG_RELOADS = "authentication_config_reload_generation";
+    public static final String CONFIG_RELOAD_FAILURES = "authentication_config_reload_failures";
+    public static final String EVENTS_DROPPED = "authentication_events_dropped_total";
+    public static final String EVENT_QUEUE_SIZE = "authentication_event_queue_size";
+    public static final String REMEMBER_ME_TOKENS_PURGED = "authentication_remember_me_tokens_purged_total";
+    public static final String REMEMBER_ME_PURGE_DURATION = "authentication_remember_me_purge_duration_seconds";
+
+    public static final String LABEL_SCHEME = "scheme";
+    public static final String LABEL_OUTCOME = "outcome";
+    public static final String LABEL_RESPONSE = "response";
+    public static final String LABEL_EVENT = "event";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FAILURE = "failure";
+
+    public static final String RESPONSE_REDIRECT = "redirect";
+    public static final String RESPONSE_UNAUTHORIZED = "unauthorized";
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String HISTOGRAM = "histogram";
+
+    private static final Map<String, String[]> metrics = new LinkedHashMap<>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+    static {
+        define(SCHEME_DURATION, HISTOGRAM, "Duration of authentication attempts by each authentication scheme");
+        define(SESSION_AUTHENTICATION_DURATION, HISTOGRAM, "Duration of authentication attempts made by the authentication filter, including authentication hooks");
+        define(SESSION_REGENERATION_DURATION, HISTOGRAM, "Duration of HTTP session regeneration following successful authentication");
+        define(FILTER_CHALLENGES, COUNTER, "Requests that were redirected or refused by the authentication filter due to missing or failed authentication");
+        define(HTTP_SESSIONS_CREATED, COUNTER, "HTTP sessions created");
+        define(HTTP_SESSIONS_DESTROYED, COUNTER, "HTTP sessions destroyed");
+        define(ACTIVE_LOGINS, GAUGE, "Users who are currently logged in");
+        define(ACTIVE_LOGINS_ADDED, COUNTER, "Logins added to the active logins");
+        define(ACTIVE_LOGINS_REMOVED, COUNTER, "Logins removed from the active logins, due to logout or expiry");
+        define(IDLE_LOGINS_EXPIRED, COUNTER, "Active logins expired after the configured idle timeout without activity");
+        define(CONFIG_RELOADS, GAUGE, "Changed configurations published by the runtime properties reloader");
+        define(CONFIG_RELOAD_FAILURES, GAUGE, "Configurations rejected by the runtime properties reloader");
+        define(EVENTS_DROPPED, COUNTER, "Authentication events dropped because the event buffer was full");
+        define(EVENT_QUEUE_SIZE, GAUGE, "Authentication events waiting to be dispatched");
+        define(REMEMBER_ME_TOKENS_PURGED, COUNTER, "Expired remember-me tokens deleted by the remember-me token purge");
+        define(REMEMBER_ME_PURGE_DURATION, HISTOGRAM, "Duration of purges of expired remember-me tokens");
+    }
+
+    private static void define(String name, String type, String help) {
+        metrics.put(name, new String[] {type, help});
+    }
+
+    /**
+     * Increments the given counter by one
+     * @param name the name of the counter
+     * @param labels the label names and values that identify the series within the counter, in pairs
+     */
+    public static void increment(String name, String... labels) {
+        counters.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(formatLabels(labels), k -> new LongAdder())
+                .increment();
+    }
+
+    /**
+     * Increments the given counter by the given amount
+     * @param name the name of the counter
+     * @param amount the amount to add to the counter
+     * @param labels the label names and values that identify the series within the counter, in pairs
+     */
+    public static void add(String name, long amount, String... labels) {
+        counters.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(formatLabels(labels), k -> new LongAdder())
+                .add(amount);
+    }
+
+    /**
+     * Records the given duration in the given histogram
+     * @param name the name of the histogram
+     * @param nanos the duration to record, in nanoseconds
+     * @param labels the label names and values that identify the series within the histogram, in pairs
+     */
+    public static void recordDuration(String name, long nanos, String... labels) {
+        histograms.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(formatLabels(labels), k -> new LatencyHistogram())
+                .record(nanos);
+    }
+
+    /**
+     * @param name the name of the counter
+     * @param labels the label names and values that identify the series within the counter, in pairs
+     * @return the current value of the given counter, or 0 if it has not been incremented
+     */
+    public static long getCount(String name, String... labels) {
+        Map<String, LongAdder> series = counters.get(name);
+        LongAdder counter = series == null ? null : series.get(formatLabels(labels));
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @param labels the label names and values that identify the series within the histogram, in pairs
+     * @return the given histogram, or null if no durations have been recorded in it
+     */
+    public static LatencyHistogram getHistogram(String name, String... labels) {
+        Map<String, LatencyHistogram> series = histograms.get(name);
+        return series == null ? null : series.get(formatLabels(labels));
+    }
+
+    /**
+     * Removes all recorded values
+     */
+    public static void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    public static String toPrometheusText() {
+        StringWriter writer = new StringWriter();
+        try {
+            writePrometheus(writer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes all metrics to the given writer in the Prometheus text exposition format
+     * @param writer the writer to write to
+     * @throws IOException if the writer throws an IOException
+     */
+    public static void writePrometheus(Writer writer) throws IOException {
+        Map<String, Long> gauges = getGauges();
+        for (Map.Entry<String, String[]> metric : metrics.entrySet()) {
+            String name = metric.getKey();
+            String type = metric.getValue()[0];
+            writer.write("# HELP " + name + " " + metric.getValue()[1] + "\n");
+            writer.write("# TYPE " + name + " " + type + "\n");
+            if (GAUGE.equals(type)) {
+                Long value = gauges.get(name);
+                writer.write(name + " " + (value == null ? 0 : value) + "\n");
+            }
+            else if (COUNTER.equals(type)) {
+                for (Map.Entry<String, LongAdder> series : sorted(counters.get(name)).entrySet()) {
+                    writer.write(name + braces(series.getKey()) + " " + series.getValue().sum() + "\n");
+                }
+            }
+            else {
+                for (Map.Entry<String, LatencyHistogram> series : sorted(histograms.get(name)).entrySet()) {
+                    writeHistogram(writer, name, series.getKey(), series.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gauges are read from their source at the time they are written, rather than being recorded
+     */
+    private static Map<String, Long> getGauges() {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        ret.put(ACTIVE_LOGINS, (long) UserLoginTracker.getActiveLogins().size());
+        RuntimePropertiesReloader reloader = RuntimePropertiesReloader.getInstance();
+        if (reloader != null) {
+            ret.put(CONFIG_RELOADS, reloader.getGeneration());
+            ret.put(CONFIG_RELOAD_FAILURES, reloader.getFailures());
+        }
+        AuthenticationEventPipeline pipeline = AuthenticationEventPipeline.getRunningInstance();
+        if (pipeline != null) {
+            ret.put(EVENT_QUEUE_SIZE, (long) pipeline.getQueueSize());
+        }
+        return ret;
+    }
+
+    private static void writeHistogram(Writer writer, String name, String labels, LatencyHistogram histogram) throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long[] counts = histogram.getCumulativeCounts();
+        for (int i = 0; i < counts.length; i++) {
+            String le = i < LatencyHistogram.BUCKET_BOUNDS.length ? formatDouble(LatencyHistogram.BUCKET_BOUNDS[i]) : "+Inf";
+            writer.write(name + "_bucket{" + prefix + "le=\"" + le + "\"} " + counts[i] + "\n");
+        }
+        writer.write(name + "_sum" + braces(labels) + " " + formatDouble(histogram.getSumSeconds()) + "\n");
+        writer.write(name + "_count" + braces(labels) + " " + counts[counts.length - 1] + "\n");
+    }
+
+    private static <T> Map<String, T> sorted(Map<String, T> series) {
+        return series == null ? Collections.emptyMap() : new TreeMap<>(series);
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String formatDouble(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * @param labels the label names and values, in pairs
+     * @return the labels formatted as they appear within braces in the Prometheus text exposition format
+     */
+    static String formatLabels(String... labels) {
+        if (labels == null || labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be specified as name and value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                }
+                else if (c == '\n') {
+                    sb.append("\\n");
+                }
+                else {
+                    sb.append(c);
+                }
+            }
+            sb.append("\"");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.User;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the data about a user that authentication schemes need, which is the user's
+ * `authentication.*` user properties and secret question.  Profiles are obtained from the AuthenticationProfileCache.
+ */
+public final class AuthenticationProfile {
+
+    /**
+     * Only user properties that start with this prefix are included in a profile
+     */
+    public static final String PROPERTY_PREFIX = "authentication.";
+
+    private final Integer userId;
+    private final Map<String, String> properties;
+    private final String secretQuestion;
+    private final boolean secretQuestionLoaded;
+
+    /**
+     * @param userId the id of the user
+     * @param properties the user's `authentication.*` user properties
+     * @param secretQuestion the user's secret question, or null if the user has none
+     * @param secretQuestionLoaded false if the secret question was not loaded, in which case it must be looked up
+     */
+    public AuthenticationProfile(Integer userId, Map<String, String> properties, String secretQuestion,
+                                 boolean secretQuestionLoaded) {
+        this.userId = userId;
+        this.properties = Collections.unmodifiableMap(new HashMap<>(properties));
+        this.secretQuestion = secretQuestion;
+        this.secretQuestionLoaded = secretQuestionLoaded;
+    }
+
+    /**
+     * Builds a profile from the user properties of the given User.  This accesses all user properties, and does not
+     * load the secret question.
+     * @param user the user
+     * @return the profile of the given user
+     */
+    public static AuthenticationProfile fromUser(User user) {
+        Map<String, String> properties = new HashMap<>();
+        if (user.getUserProperties() != null) {
+            for (Map.Entry<String, String> entry : user.getUserProperties().entrySet()) {
+                if (entry.getKey() != null && entry.getKey().startsWith(PROPERTY_PREFIX)) {
+                    properties.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return new AuthenticationProfile(user.getUserId(), properties, null, false);
+    }
+
+    /**
+     * @param name the name of the user property, which must start with `authentication.`
+     * @return the value of the given user property, or null if the user does not have it
+     */
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * @param name the name of the user property, which must start with `authentication.`
+     * @param defaultValue the value to return if the user does not have the given property
+     * @return the value of the given user property, or the default value if the user does not have it
+     */
+    public String getProperty(String name, String defaultValue) {
+        String value = properties.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public String toString() {
+        return "userId=" + userId + ",properties=" + properties.keySet();
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public String getSecretQuestion() {
+        return secretQuestion;
+    }
+
+    public boolean isSecretQuestionLoaded() {
+        return secretQuestionLoaded;
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the AuthenticationProfile of each user, so that the several schemes involved in a login attempt do not
+ * each read the user's properties, and do not load all of them.
+ * <p>
+ * Each profile is loaded with HQL queries, in the current session of the OpenMRS session factory, that select the
+ * user's secret question and `authentication.*` user properties, and nothing else.  If the queries cannot be run, the
+ * profile is built from the User instead.  After a query fails, profiles are built from the User until a retry delay
+ * has passed, which starts at MIN_RETRY_DELAY milliseconds and doubles after each consecutive failure up to
+ * MAX_RETRY_DELAY, and the queries are then tried again.  At most
+ * maxSize profiles are cached, evicting the least recently used, and each is reloaded once it is older than ttl
+ * seconds, so that changes made outside of this module are seen within that time.  Changes made by this module are
+ * seen immediately, as it invalidates or updates the profile of each user whose authentication properties it writes.
+ * When this happens within a transaction, the profile is invalidated again once the transaction completes, so that a
+ * profile loaded from the database before the change was committed is not cached.  The
+ * following configuration is supported, in properties that start with `authentication.profileCache.`:
+ * <ul>
+ *     <li>maxSize:  the maximum number of cached profiles, which defaults to 1000</li>
+ *     <li>ttl:  the number of seconds a profile is cached for, which defaults to 60.  0 disables the cache</li>
+ * </ul>
+ * If the cache is not started, a profile is built from the User each time it is requested.
+ */
+public class AuthenticationProfileCache {
+
+    private static final Logger log = LogManager.getLogger(AuthenticationProfileCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    public static final long DEFAULT_TTL = 60;
+
+    public static final long MIN_RETRY_DELAY = 1000;
+
+    public static final long MAX_RETRY_DELAY = 60000;
+
+    private static volatile AuthenticationProfileCache instance;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long ttl = TimeUnit.SECONDS.toMillis(DEFAULT_TTL);
+    private volatile long retryDelay;
+    private volatile long retryTime;
+    private Map<Integer, Entry> profiles;
+    private long invalidations;
+
+    /**
+     * Configures a cache from the `authentication.profileCache.` properties
+     * Any cache previously started with this method is stopped first
+     * @return the started cache, or null if the configured ttl is 0 or less
+     */
+    public static AuthenticationProfileCache start() {
+        return start(AuthenticationConfig.getSubsetWithPrefix(AuthenticationConfig.PROFILE_CACHE_CONFIG_PREFIX, true));
+    }
+
+    /**
+     * @param config the configuration of the cache, without the `authentication.profileCache.` prefix
+     * @return the started cache, or null if the configured ttl is 0 or less
+     * @see #start()
+     */
+    public static AuthenticationProfileCache start(Properties config) {
+        return start(config, new AuthenticationProfileCache());
+    }
+
+    /**
+     * @param config the configuration of the cache, without the `authentication.profileCache.` prefix
+     * @param cache the cache to configure and start, which may load profiles other than from the database in tests
+     * @return the started cache, or null if the configured ttl is 0 or less
+     * @see #start()
+     */
+    public static synchronized AuthenticationProfileCache start(Properties config, AuthenticationProfileCache cache) {
+        stop();
+        cache.configure(config);
+        if (cache.ttl <= 0) {
+            return null;
+        }
+        instance = cache;
+        log.info("Caching authentication profiles of up to " + cache.maxSize + " users for " + cache.ttl + " ms");
+        return cache;
+    }
+
+    /**
+     * Stops the cache previously started with start(), if any
+     */
+    public static synchronized void stop() {
+        instance = null;
+    }
+
+    /**
+     * @return the cache started with start(), or null if none is running
+     */
+    public static AuthenticationProfileCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param user the user
+     * @return the profile of the given user, from the running cache if there is one, otherwise built from the User
+     */
+    public static AuthenticationProfile getProfile(User user) {
+        AuthenticationProfileCache cache = instance;
+        if (cache == null || user.getUserId() == null) {
+            return AuthenticationProfile.fromUser(user);
+        }
+        return cache.get(user);
+    }
+
+    /**
+     * Removes the profile of the given user from the running cache, if there is one.  This should be called whenever
+     * an `authentication.*` user property or the secret question of a user is saved.  If this is called within a
+     * transaction, the profile is removed again once the transaction completes.
+     * @param user the user whose profile has changed
+     */
+    public static void invalidate(User user) {
+        AuthenticationProfileCache cache = instance;
+        if (cache != null && user != null && user.getUserId() != null) {
+            cache.remove(user.getUserId());
+            cache.removeAfterTransaction(user.getUserId());
+        }
+    }
+
+    /**
+     * Replaces the profile of the given user in the running cache, if there is one, with the `authentication.*` user
+     * properties of the given User.  This should be called instead of invalidate(User) when these are changed on the
+     * User, but may not be written to the database until later, so that the change is seen immediately.  If this is
+     * called within a transaction, the profile is removed once the transaction completes, so that it is loaded again
+     * from the database if the change was not committed.
+     * @param user the user whose profile has changed
+     */
+    public static void update(User user) {
+        AuthenticationProfileCache cache = instance;
+        if (cache != null && user != null && user.getUserId() != null) {
+            cache.put(user);
+            cache.removeAfterTransaction(user.getUserId());
+        }
+    }
+
+    /**
+     * @param config the configuration of this cache, without the `authentication.profileCache.` prefix
+     */
+    public void configure(Properties config) {
+        String size = config.getProperty("maxSize");
+        maxSize = StringUtils.isBlank(size) ? DEFAULT_MAX_SIZE : Integer.parseInt(size.trim());
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The authentication profile cache size must be greater than 0");
+        }
+        String seconds = config.getProperty("ttl");
+        ttl = TimeUnit.SECONDS.toMillis(StringUtils.isBlank(seconds) ? DEFAULT_TTL : Long.parseLong(seconds.trim()));
+        int capacity = maxSize;
+        profiles = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param user the user
+     * @return the cached profile of the given user, loading it if it is not cached or has expired
+     */
+    public AuthenticationProfile get(User user) {
+        Integer userId = user.getUserId();
+        long now = System.currentTimeMillis();
+        long invalidationsBeforeLoad;
+        synchronized (profiles) {
+            Entry entry = profiles.get(userId);
+            if (entry != null && now - entry.loadedTime < ttl) {
+                return entry.profile;
+            }
+            invalidationsBeforeLoad = invalidations;
+        }
+        AuthenticationProfile profile = load(user);
+        synchronized (profiles) {
+            // If a profile was invalidated while this one was loading, this one may be stale, so it is not cached
+            if (invalidations == invalidationsBeforeLoad) {
+                profiles.put(userId, new Entry(profile, now));
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * @param userId the id of the user whose profile to remove
+     */
+    public void remove(Integer userId) {
+        synchronized (profiles) {
+            profiles.remove(userId);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Caches a profile built from the `authentication.*` user properties of the given User, keeping the cached secret
+     * question of the user if there is one
+     * @param user the user whose profile to cache
+     */
+    public void put(User user) {
+        Integer userId = user.getUserId();
+        AuthenticationProfile profile = AuthenticationProfile.fromUser(user);
+        synchronized (profiles) {
+            Entry entry = profiles.get(userId);
+            if (entry != null && entry.profile.isSecretQuestionLoaded()) {
+                profile = new AuthenticationProfile(userId, profile.getProperties(), entry.profile.getSecretQuestion(), true);
+            }
+            profiles.put(userId, new Entry(profile, System.currentTimeMillis()));
+            // Any profile that is loading may have been loaded before this change, so it is not cached
+            invalidations++;
+        }
+    }
+
+    /**
+     * If transaction synchronization is active, removes the profile of the given user once the transaction completes
+     * @param userId the id of the user whose profile to remove
+     */
+    protected void removeAfterTransaction(Integer userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(userId);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the number of cached profiles, including any that have expired but have not been evicted
+     */
+    public int size() {
+        synchronized (profiles) {
+            return profiles.size();
+        }
+    }
+
+    /**
+     * Loads the profile of the given user with the queries, or builds it from the User if they fail.  Once the queries
+     * have failed, they are not tried again until the retry delay has passed.
+     * @param user the user whose profile to load
+     * @return the profile of the given user
+     */
+    protected AuthenticationProfile load(User user) {
+        if (System.currentTimeMillis() >= retryTime) {
+            try {
+                AuthenticationProfile profile = query(user.getUserId());
+                retryDelay = 0;
+                if (profile != null) {
+                    return profile;
+                }
+            }
+            catch (RuntimeException e) {
+                queryFailed(e);
+            }
+        }
+        return AuthenticationProfile.fromUser(user);
+    }
+
+    private synchronized void queryFailed(RuntimeException e) {
+        retryDelay = retryDelay == 0 ? MIN_RETRY_DELAY : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        retryTime = System.currentTimeMillis() + retryDelay;
+        log.warn("Unable to query authentication profiles, they will be built from each User for the next "
+                + retryDelay + " ms", e);
+    }
+
+    /**
+     * Selects the secret question of the given user from the LoginCredential, and the `authentication.*` user
+     * properties from the User, so that neither the User nor all of its properties are loaded into the session
+     * @param userId the id of the user whose profile to load
+     * @return the profile of the given user, or null if there is no user with the given id in the database
+     */
+    @SuppressWarnings("unchecked")
+    protected AuthenticationProfile query(Integer userId) {
+        DbSession session = getSessionFactory().getCurrentSession();
+        Object[] credential = (Object[]) session
+                .createQuery("select c.userId, c.secretQuestion from LoginCredential c where c.userId = :userId")
+                .setParameter("userId", userId)
+                .uniqueResult();
+        if (credential == null) {
+            return null;
+        }
+        List<Object[]> rows = session
+                .createQuery("select key(p), p from User u join u.userProperties p "
+                        + "where u.userId = :userId and key(p) like :prefix")
+                .setParameter("userId", userId)
+                .setParameter("prefix", AuthenticationProfile.PROPERTY_PREFIX + "%")
+                .list();
+        Map<String, String> properties = new HashMap<>();
+        for (Object[] row : rows) {
+            properties.put((String) row[0], (String) row[1]);
+        }
+        return new AuthenticationProfile(userId, properties, (String) credential[1], true);
+    }
+
+    /**
+     * @return the OpenMRS session factory, whose current session the profiles are queried in
+     */
+    protected DbSessionFactory getSessionFactory() {
+        return Context.getRegisteredComponent("dbSessionFactory", DbSessionFactory.class);
+    }
+
+    /**
+     * @return the maximum number of cached profiles
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of milliseconds a profile is cached for
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * A cached profile, and the time it was loaded
+     */
+    private static class Entry {
+
+        private final AuthenticationProfile profile;
+        private final long loadedTime;
+
+        Entry(AuthenticationProfile profile, long loadedTime) {
+            this.profile = profile;
+            this.loadedTime = loadedTime;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.api.context.AuthenticationScheme;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable generation of configured AuthenticationScheme instances, keyed on schemeId.
+ * Each generation is tied to the configuration version it was built from.  Once the configuration changes, the
+ * generation is discarded and a new one is started, so schemes are only instantiated and configured again after
+ * their configuration may have changed.  Adding a scheme produces a new generation with the same version, which
+ * is then published by AuthenticationConfig.
+ */
+final class AuthenticationSchemeRegistry {
+
+    private final long version;
+    private final Map<String, AuthenticationScheme> schemes;
+
+    AuthenticationSchemeRegistry(long version) {
+        this(version, Collections.emptyMap());
+    }
+
+    private AuthenticationSchemeRegistry(long version, Map<String, AuthenticationScheme> schemes) {
+        this.version = version;
+        this.schemes = schemes;
+    }
+
+    /**
+     * @return the configuration version that the schemes in this registry were built from
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param schemeId the schemeId to look up
+     * @return the scheme registered with the given schemeId, or null if it has not been built in this generation
+     */
+    AuthenticationScheme getAuthenticationScheme(String schemeId) {
+        return schemes.get(schemeId);
+    }
+
+    /**
+     * @return an immutable view of all schemes built in this generation
+     */
+    Map<String, AuthenticationScheme> getAuthenticationSchemes() {
+        return schemes;
+    }
+
+    /**
+     * @param schemeId the schemeId to register
+     * @param scheme the scheme to register
+     * @return a new registry of the same version, containing the schemes in this registry and the given scheme
+     */
+    AuthenticationSchemeRegistry withAuthenticationScheme(String schemeId, AuthenticationScheme scheme) {
+        Map<String, AuthenticationScheme> newSchemes = new HashMap<>(schemes);
+        newSchemes.put(schemeId, scheme);
+        return new AuthenticationSchemeRegistry(version, Collections.unmodifiableMap(newSchemes));
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supplies `authentication.*` settings from OpenMRS global properties, which are merged into AuthenticationConfig.
+ * <p>
+ * Global properties are held in memory, so they are never read from the database on the request path.  Changes made
+ * on this node are applied as soon as they are saved, through the GlobalPropertyListener.  Changes made on other
+ * nodes that share the database are picked up by a periodic refresh on a background thread.  In either case, a new
+ * configuration is only published by AuthenticationConfig if an `authentication.*` setting has actually changed.
+ * The database is read without holding the lock, so if a change arrives through the listener while a refresh is
+ * reading, the values read by that refresh may be older than the change, and are discarded.
+ */
+public class GlobalPropertyConfigSource implements GlobalPropertyListener {
+
+    private static final Logger log = LogManager.getLogger(GlobalPropertyConfigSource.class);
+
+    /**
+     * The default number of seconds between refreshes of the global properties
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 60;
+
+    private static GlobalPropertyConfigSource instance;
+
+    private final DaemonToken daemonToken;
+    private Properties globalProperties = new Properties();
+    private long listenerUpdates;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param daemonToken the token used to read global properties from a background thread, may be null in tests
+     */
+    public GlobalPropertyConfigSource(DaemonToken daemonToken) {
+        this.daemonToken = daemonToken;
+    }
+
+    /**
+     * Loads the `authentication.*` global properties, registers for changes, and starts the periodic refresh
+     * Any source previously started with this method is stopped first
+     * @param daemonToken the token used to read global properties from a background thread
+     * @return the started source
+     */
+    public static synchronized GlobalPropertyConfigSource start(DaemonToken daemonToken) {
+        stop();
+        GlobalPropertyConfigSource source = new GlobalPropertyConfigSource(daemonToken);
+        source.refresh();
+        Context.getAdministrationService().addGlobalPropertyListener(source);
+        long refreshInterval = getRefreshInterval();
+        if (refreshInterval > 0) {
+            source.startRefreshing(refreshInterval);
+        }
+        instance = source;
+        return source;
+    }
+
+    /**
+     * @return the configured refresh interval, or DEFAULT_REFRESH_INTERVAL if it is not set or is not a valid number
+     */
+    static long getRefreshInterval() {
+        String interval = AuthenticationConfig.getProperty(AuthenticationConfig.SETTINGS_GLOBAL_PROPERTIES_REFRESH_INTERVAL);
+        if (StringUtils.isNotBlank(interval)) {
+            try {
+                return Long.parseLong(interval.trim());
+            }
+            catch (NumberFormatException e) {
+                log.warn("Invalid " + AuthenticationConfig.SETTINGS_GLOBAL_PROPERTIES_REFRESH_INTERVAL + ": " + interval
+                        + ", using the default of " + DEFAULT_REFRESH_INTERVAL);
+            }
+        }
+        return DEFAULT_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Stops the source previously started with start(daemonToken), if any
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.stopRefreshing();
+            try {
+                Context.getAdministrationService().removeGlobalPropertyListener(instance);
+            }
+            catch (Exception e) {
+                log.debug("Unable to remove global property listener", e);
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the source started with start(daemonToken), or null if none is running
+     */
+    public static synchronized GlobalPropertyConfigSource getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts a background daemon thread that refreshes the global properties at the given interval
+     * @param refreshInterval the number of seconds between refreshes
+     */
+    public synchronized void startRefreshing(long refreshInterval) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "authentication-global-property-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::refreshInDaemonThread, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the background thread that refreshes the global properties
+     */
+    public synchronized void stopRefreshing() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void refreshInDaemonThread() {
+        try {
+            if (daemonToken != null) {
+                Daemon.runInDaemonThreadAndWait(this::refresh, daemonToken);
+            }
+            else {
+                refresh();
+            }
+        }
+        catch (Exception e) {
+            log.warn("Unable to refresh authentication configuration from global properties", e);
+        }
+    }
+
+    /**
+     * Reads all `authentication.*` global properties from the database, and applies them to the configuration,
+     * unless a change was received through the listener while they were being read
+     */
+    public void refresh() {
+        long listenerUpdatesBeforeLoad;
+        synchronized (this) {
+            listenerUpdatesBeforeLoad = listenerUpdates;
+        }
+        Properties p = new Properties();
+        for (GlobalProperty gp : loadGlobalProperties()) {
+            put(p, gp.getProperty(), gp.getPropertyValue());
+        }
+        synchronized (this) {
+            if (listenerUpdates != listenerUpdatesBeforeLoad) {
+                log.debug("Global properties changed while refreshing, discarding the refreshed values");
+                return;
+            }
+            globalProperties = p;
+            apply(p);
+        }
+    }
+
+    /**
+     * @return the `authentication.*` global properties from the database
+     */
+    protected List<GlobalProperty> loadGlobalProperties() {
+        return Context.getAdministrationService().getGlobalPropertiesByPrefix(AuthenticationConfig.PREFIX + ".");
+    }
+
+    /**
+     * @see GlobalPropertyListener#supportsPropertyName(String)
+     */
+    @Override
+    public boolean supportsPropertyName(String propertyName) {
+        return propertyName != null && propertyName.startsWith(AuthenticationConfig.PREFIX + ".");
+    }
+
+    /**
+     * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+     */
+    @Override
+    public synchronized void globalPropertyChanged(GlobalProperty newValue) {
+        Properties p = AuthenticationUtil.getPropertiesWithPrefix(globalProperties, "", false);
+        put(p, newValue.getProperty(), newValue.getPropertyValue());
+        globalProperties = p;
+        listenerUpdates++;
+        apply(p);
+    }
+
+    /**
+     * @see GlobalPropertyListener#globalPropertyDeleted(String)
+     */
+    @Override
+    public synchronized void globalPropertyDeleted(String propertyName) {
+        Properties p = AuthenticationUtil.getPropertiesWithPrefix(globalProperties, "", false);
+        p.remove(propertyName);
+        globalProperties = p;
+        listenerUpdates++;
+        apply(p);
+    }
+
+    /**
+     * @return a copy of the global properties currently held by this source
+     */
+    public synchronized Properties getGlobalProperties() {
+        return AuthenticationUtil.getPropertiesWithPrefix(globalProperties, "", false);
+    }
+
+    private void put(Properties p, String key, String value) {
+        if (value == null) {
+            p.remove(key);
+        }
+        else {
+            p.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Global properties are saved by administrators through the UI or REST, so an invalid value is logged rather
+     * than failing the save, and the current configuration is left in place
+     */
+    private void apply(Properties p) {
+        try {
+            if (AuthenticationConfig.setGlobalPropertyConfig(p)) {
+                log.info("Updated authentication configuration from global properties");
+            }
+        }
+        catch (Exception e) {
+            log.error("Invalid authentication configuration in global properties, keeping current configuration", e);
+        }
+    }
+}
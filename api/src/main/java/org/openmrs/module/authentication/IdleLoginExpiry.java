@@ -0,0 +1,334 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Expires active logins that have had no activity for the configured idle timeout.
+ * <p>
+ * Active logins normally leave the UserLoginTracker when their HTTP session is destroyed or the user logs out.  This
+ * removes any that are missed, for example if a session manager does not report destroyed sessions, using a hashed
+ * timing wheel.  Each active login is placed in the slot of the wheel for the tick at which it would become idle,
+ * and a background thread visits one slot per tick, so the work done on each tick is proportional to the number of
+ * logins that are due, not the number of active logins.  Activity is not tracked by the wheel, as that would add
+ * work to every request.  Instead, when a login is due, its last activity is checked, and if it has been active since
+ * it was scheduled it is placed in the slot for its new idle time.  Logins that are idle are expired with
+ * UserLogin.loginExpired, as when their HTTP session is destroyed.
+ * <p>
+ * The expiry is started by the module activator if `authentication.activeLogins.idleTimeout` is greater than 0.
+ */
+public class IdleLoginExpiry {
+
+    private static final Logger log = LogManager.getLogger(IdleLoginExpiry.class);
+
+    /**
+     * The default number of milliseconds between ticks of the timing wheel
+     */
+    public static final long DEFAULT_TICK_DURATION = 1000;
+
+    /**
+     * The maximum number of slots in the timing wheel
+     */
+    public static final int MAX_WHEEL_SIZE = 1 << 16;
+
+    private static volatile IdleLoginExpiry instance;
+
+    private final long idleTimeout;
+    private final long tickDuration;
+    private final List<Entry>[] wheel;
+    private final int mask;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, Entry> scheduled = new ConcurrentHashMap<>();
+    private final AtomicLong expired = new AtomicLong();
+    private long lastTick = -1;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param idleTimeout the number of milliseconds without activity after which an active login is expired
+     * @param tickDuration the number of milliseconds between ticks of the timing wheel
+     */
+    @SuppressWarnings("unchecked")
+    public IdleLoginExpiry(long idleTimeout, long tickDuration) {
+        if (idleTimeout <= 0 || tickDuration <= 0) {
+            throw new IllegalArgumentException("Idle timeout and tick duration must be greater than 0");
+        }
+        this.idleTimeout = idleTimeout;
+        this.tickDuration = tickDuration;
+        long ticksPerTimeout = Math.min(MAX_WHEEL_SIZE, idleTimeout / tickDuration + 1);
+        int wheelSize = Integer.highestOneBit((int) ticksPerTimeout);
+        if (wheelSize < ticksPerTimeout) {
+            wheelSize = wheelSize << 1;
+        }
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Starts expiring idle logins, if `authentication.activeLogins.idleTimeout` is greater than 0
+     * Any expiry previously started with this method is stopped first, and all active logins are scheduled
+     * @return the started expiry, or null if idle logins are not configured to expire
+     */
+    public static synchronized IdleLoginExpiry start() {
+        stop();
+        long idleTimeout = getConfiguredIdleTimeout();
+        if (idleTimeout <= 0) {
+            return null;
+        }
+        IdleLoginExpiry expiry = new IdleLoginExpiry(TimeUnit.SECONDS.toMillis(idleTimeout), DEFAULT_TICK_DURATION);
+        instance = expiry;
+        for (UserLogin userLogin : UserLoginTracker.getActiveLogins().values()) {
+            expiry.schedule(userLogin);
+        }
+        expiry.startTicking();
+        log.info("Expiring active logins after " + idleTimeout + " seconds without activity");
+        return expiry;
+    }
+
+    /**
+     * @return the configured idle timeout in seconds, or 0, which disables expiry, if it is not set or is not a number
+     */
+    static long getConfiguredIdleTimeout() {
+        String timeout = AuthenticationConfig.getProperty(AuthenticationConfig.ACTIVE_LOGINS_IDLE_TIMEOUT);
+        if (StringUtils.isBlank(timeout)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(timeout.trim());
+        }
+        catch (NumberFormatException e) {
+            log.warn("Invalid " + AuthenticationConfig.ACTIVE_LOGINS_IDLE_TIMEOUT + ": " + timeout
+                    + ", active logins will not be expired");
+            return 0;
+        }
+    }
+
+    /**
+     * Stops the expiry previously started with start(), if any
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.stopTicking();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the expiry started with start(), or null if none is running
+     */
+    public static IdleLoginExpiry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Schedules the given login with the running expiry, if any.  This is called by UserLoginTracker when a login
+     * becomes active
+     * @param userLogin the login that has become active
+     */
+    static void activeLoginAdded(UserLogin userLogin) {
+        IdleLoginExpiry expiry = instance;
+        if (expiry != null) {
+            expiry.schedule(userLogin);
+        }
+    }
+
+    /**
+     * Schedules the given login to be checked when it would become idle.  Each login is only scheduled once, and is
+     * rescheduled by the wheel as long as it remains active
+     * @param userLogin the login to schedule
+     */
+    public void schedule(UserLogin userLogin) {
+        Entry[] added = new Entry[1];
+        scheduled.compute(userLogin.getLoginId(), (loginId, existing) -> {
+            if (existing != null && existing.userLogin == userLogin) {
+                return existing;
+            }
+            added[0] = new Entry(userLogin);
+            return added[0];
+        });
+        if (added[0] != null) {
+            pending.add(added[0]);
+        }
+    }
+
+    /**
+     * Starts a background daemon thread that advances the timing wheel on each tick
+     */
+    public synchronized void startTicking() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "authentication-idle-login-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::tick, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background thread that advances the timing wheel
+     */
+    public synchronized void stopTicking() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void tick() {
+        try {
+            advance(System.currentTimeMillis());
+        }
+        catch (Exception e) {
+            log.warn("Error expiring idle logins", e);
+        }
+    }
+
+    /**
+     * Visits each slot of the wheel for the ticks up to the given time, and expires the logins that are idle.  If more
+     * ticks than there are slots have passed since the last advance, each slot is visited once.
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of logins expired
+     */
+    public int advance(long now) {
+        List<UserLogin> idleLogins = new ArrayList<>();
+        synchronized (wheel) {
+            long currentTick = now / tickDuration;
+            if (lastTick < 0) {
+                lastTick = currentTick - 1;
+            }
+            Entry entry;
+            while ((entry = pending.poll()) != null) {
+                place(entry, getIdleTime(entry.userLogin) + idleTimeout);
+            }
+            List<Entry> rescheduled = new ArrayList<>();
+            for (long tick = Math.max(lastTick + 1, currentTick - mask); tick <= currentTick; tick++) {
+                List<Entry> slot = wheel[(int) (tick & mask)];
+                int retained = 0;
+                for (int i = 0; i < slot.size(); i++) {
+                    entry = slot.get(i);
+                    if (entry.deadlineTick > tick) {
+                        slot.set(retained++, entry);
+                        continue;
+                    }
+                    UserLogin userLogin = entry.userLogin;
+                    if (scheduled.get(userLogin.getLoginId()) != entry) {
+                        continue;
+                    }
+                    if (UserLoginTracker.getActiveLogins().get(userLogin.getLoginId()) != userLogin) {
+                        scheduled.remove(userLogin.getLoginId(), entry);
+                        continue;
+                    }
+                    long deadline = getIdleTime(userLogin) + idleTimeout;
+                    if (deadline <= now) {
+                        scheduled.remove(userLogin.getLoginId(), entry);
+                        idleLogins.add(userLogin);
+                    }
+                    else {
+                        entry.deadline = deadline;
+                        rescheduled.add(entry);
+                    }
+                }
+                slot.subList(retained, slot.size()).clear();
+            }
+            lastTick = Math.max(lastTick, currentTick);
+            for (Entry e : rescheduled) {
+                place(e, e.deadline);
+            }
+        }
+        for (UserLogin userLogin : idleLogins) {
+            log.debug("Expiring idle login: " + userLogin);
+            userLogin.loginExpired();
+            expired.incrementAndGet();
+            AuthenticationMetrics.increment(AuthenticationMetrics.IDLE_LOGINS_EXPIRED);
+        }
+        return idleLogins.size();
+    }
+
+    /**
+     * Places the given entry in the slot for the tick of the given deadline, or the next tick if it has passed
+     */
+    private void place(Entry entry, long deadline) {
+        long deadlineTick = Math.max(lastTick + 1, (deadline + tickDuration - 1) / tickDuration);
+        entry.deadlineTick = deadlineTick;
+        wheel[(int) (deadlineTick & mask)].add(entry);
+    }
+
+    /**
+     * @return the time from which the given login has been idle, which is its last activity, or its login
+     */
+    private long getIdleTime(UserLogin userLogin) {
+        long idleTime = userLogin.getLastActivityTime();
+        Date loginDate = userLogin.getLoginDate();
+        if (loginDate != null) {
+            idleTime = Math.max(idleTime, loginDate.getTime());
+        }
+        return idleTime > 0 ? idleTime : userLogin.getDateCreated().getTime();
+    }
+
+    /**
+     * @return the number of milliseconds without activity after which an active login is expired
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the number of slots in the timing wheel
+     */
+    public int getWheelSize() {
+        return wheel.length;
+    }
+
+    /**
+     * @return the number of logins that are scheduled to be checked
+     */
+    public int getScheduledCount() {
+        return scheduled.size();
+    }
+
+    /**
+     * @return the number of idle logins expired
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * A login in the timing wheel, with the time and tick at which it is next due to be checked
+     */
+    private static class Entry {
+
+        private final UserLogin userLogin;
+        private long deadline;
+        private long deadlineTick;
+
+        Entry(UserLogin userLogin) {
+            this.userLogin = userLogin;
+        }
+    }
+}
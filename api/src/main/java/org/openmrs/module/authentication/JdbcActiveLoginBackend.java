@@ -0,0 +1,388 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An ActiveLoginBackend that shares active logins between nodes through the ActiveLoginService, which stores them in
+ * a table of the OpenMRS database, so that any node can report the active logins of all nodes.
+ * <p>
+ * Changes are never written on the request thread.  The active logins of this node are held in memory, and the ids
+ * of logins that have been added, changed, had activity, or been removed are collected, and written to the table in a
+ * single transaction on a background thread every flushInterval milliseconds.  A login that changes many times within
+ * an interval is written once.  If a write fails, the changes are retried with the next batch.  Queries combine the
+ * in-memory logins of this node with the rows written by other nodes, which lag by up to one flush interval.
+ * <p>
+ * Each node is identified by its nodeId, and deletes any rows left for that id when it starts and stops.  Each flush
+ * also records the time in a second table of nodes, as a heartbeat, and the rows of a node whose heartbeat is older
+ * than nodeTimeout, such as a node that crashed or was removed without being stopped, are ignored by queries and
+ * deleted by the next node to flush in the background.  The clocks of the nodes are expected to be synchronized to
+ * well within nodeTimeout.  Both tables are created by liquibase.xml.  The following configuration is supported, in
+ * properties that start with `authentication.activeLogins.backend.config.`:
+ * <ul>
+ *     <li>nodeId:  the id of this node, which defaults to the host name followed by an id that is unique to this
+ *     process, so that several processes on the same host, or containers with the same host name, do not share it</li>
+ *     <li>flushInterval:  the number of milliseconds between writes, which defaults to 5000, and must be positive</li>
+ *     <li>nodeTimeout:  the number of milliseconds after its last heartbeat that the rows of a node are ignored and
+ *     deleted, which defaults to 3 flush intervals</li>
+ * </ul>
+ */
+public class JdbcActiveLoginBackend implements ActiveLoginBackend, DaemonTokenAware {
+
+    private static final Logger log = LogManager.getLogger(JdbcActiveLoginBackend.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 5000;
+
+    /**
+     * The number of flush intervals after its last heartbeat that the rows of a node are ignored and deleted
+     */
+    public static final int DEFAULT_NODE_TIMEOUT_INTERVALS = 3;
+
+    private static final String PROCESS_ID = UUID.randomUUID().toString().substring(0, 8);
+
+    private String nodeId;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long nodeTimeout = DEFAULT_NODE_TIMEOUT_INTERVALS * DEFAULT_FLUSH_INTERVAL;
+    private volatile long lastReapTime;
+    private DaemonToken daemonToken;
+
+    private final Map<String, UserLogin> localLogins = new ConcurrentHashMap<>();
+    private final Set<String> changedLoginIds = ConcurrentHashMap.newKeySet();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @see ActiveLoginBackend#configure(Properties)
+     */
+    @Override
+    public void configure(Properties config) {
+        nodeId = config.getProperty("nodeId");
+        if (StringUtils.isBlank(nodeId)) {
+            nodeId = getHostName() + "-" + PROCESS_ID;
+        }
+        String interval = config.getProperty("flushInterval");
+        flushInterval = StringUtils.isBlank(interval) ? DEFAULT_FLUSH_INTERVAL : Long.parseLong(interval.trim());
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("The active login flush interval must be positive");
+        }
+        String timeout = config.getProperty("nodeTimeout");
+        if (StringUtils.isBlank(timeout)) {
+            nodeTimeout = DEFAULT_NODE_TIMEOUT_INTERVALS * flushInterval;
+        }
+        else {
+            nodeTimeout = Long.parseLong(timeout.trim());
+        }
+        if (nodeTimeout <= flushInterval) {
+            throw new IllegalArgumentException("The active login node timeout must be greater than the flush interval");
+        }
+    }
+
+    /**
+     * @param daemonToken the token used to write changes from the background thread, may be null in tests
+     */
+    @Override
+    public void setDaemonToken(DaemonToken daemonToken) {
+        this.daemonToken = daemonToken;
+    }
+
+    /**
+     * Deletes any rows left by this node, records a heartbeat, and starts writing changes in batches
+     * @see ActiveLoginBackend#start()
+     */
+    @Override
+    public synchronized void start() {
+        runInSession(() -> {
+            ActiveLoginService service = getActiveLoginService();
+            service.deleteNode(nodeId);
+            service.saveActiveLogins(nodeId, System.currentTimeMillis(), Collections.emptyList(), Collections.emptyList());
+        });
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "authentication-active-login-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::flushInBackground, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        log.info("Sharing active logins for node " + nodeId);
+    }
+
+    /**
+     * Stops writing changes in batches, and deletes the rows for this node, whose logins are no longer tracked
+     * @see ActiveLoginBackend#stop()
+     */
+    @Override
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        localLogins.clear();
+        changedLoginIds.clear();
+        try {
+            runInSession(() -> getActiveLoginService().deleteNode(nodeId));
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to delete active logins for node " + nodeId, e);
+        }
+    }
+
+    @Override
+    public void loginAdded(UserLogin userLogin) {
+        localLogins.put(userLogin.getLoginId(), userLogin);
+        changedLoginIds.add(userLogin.getLoginId());
+    }
+
+    @Override
+    public void loginChanged(UserLogin userLogin) {
+        if (localLogins.get(userLogin.getLoginId()) == userLogin) {
+            changedLoginIds.add(userLogin.getLoginId());
+        }
+    }
+
+    @Override
+    public void loginActivity(UserLogin userLogin) {
+        loginChanged(userLogin);
+    }
+
+    @Override
+    public void loginRemoved(UserLogin userLogin) {
+        if (localLogins.remove(userLogin.getLoginId(), userLogin)) {
+            changedLoginIds.add(userLogin.getLoginId());
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        }
+        catch (Exception e) {
+            flushFailures.incrementAndGet();
+            log.warn("Unable to write active logins for node " + nodeId + ", these will be retried", e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastReapTime >= nodeTimeout) {
+            lastReapTime = now;
+            try {
+                deleteStaleNodes(now);
+            }
+            catch (Exception e) {
+                log.warn("Unable to delete active logins of nodes that have stopped responding", e);
+            }
+        }
+    }
+
+    /**
+     * Writes all changes collected since the last flush, and a heartbeat for this node, in a single transaction.  If
+     * this fails, the changes are collected again, so that they are written by the next flush.  If the heartbeat of
+     * this node was missing, as its rows were deleted by another node while it was unresponsive, all of its logins are
+     * written again.
+     * @return the number of logins written or deleted
+     * @throws RuntimeException if the changes could not be written
+     */
+    public synchronized int flush() {
+        List<String> loginIds = new ArrayList<>(changedLoginIds);
+        changedLoginIds.removeAll(loginIds);
+        List<ActiveLoginRecord> updates = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        for (String loginId : loginIds) {
+            UserLogin userLogin = localLogins.get(loginId);
+            if (userLogin == null) {
+                deletes.add(loginId);
+            }
+            else {
+                updates.add(new ActiveLoginRecord(userLogin, nodeId));
+            }
+        }
+        try {
+            runInSession(() -> {
+                ActiveLoginService service = getActiveLoginService();
+                long now = System.currentTimeMillis();
+                if (!service.saveActiveLogins(nodeId, now, updates, deletes)) {
+                    log.warn("Heartbeat of node " + nodeId + " was missing, writing all of its active logins again");
+                    List<ActiveLoginRecord> all = new ArrayList<>();
+                    for (UserLogin userLogin : localLogins.values()) {
+                        all.add(new ActiveLoginRecord(userLogin, nodeId));
+                    }
+                    service.saveActiveLogins(nodeId, now, all, Collections.emptyList());
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            changedLoginIds.addAll(loginIds);
+            throw e;
+        }
+        return loginIds.size();
+    }
+
+    /**
+     * Deletes the rows of the nodes, other than this one, whose last heartbeat is older than nodeTimeout, including
+     * rows of nodes that have no heartbeat at all
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of active logins deleted
+     * @throws RuntimeException if the rows could not be deleted
+     */
+    public synchronized int deleteStaleNodes(long now) {
+        int[] deleted = new int[1];
+        runInSession(() -> deleted[0] = getActiveLoginService().deleteStaleNodes(nodeId, now - nodeTimeout));
+        if (deleted[0] > 0) {
+            log.info("Deleted " + deleted[0] + " active logins of nodes that have stopped responding");
+        }
+        return deleted[0];
+    }
+
+    /**
+     * @return the number of active logins on this node, and on all other live nodes as of their last flush
+     */
+    @Override
+    public int getActiveLoginCount() {
+        int count = localLogins.size();
+        try {
+            count += (int) getActiveLoginService().getActiveLoginCount(nodeId, System.currentTimeMillis() - nodeTimeout);
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to count active logins of other nodes, returning those of node " + nodeId, e);
+        }
+        return count;
+    }
+
+    /**
+     * @return the active logins on this node, and on all other live nodes as of their last flush
+     */
+    @Override
+    public List<ActiveLoginRecord> getActiveLogins() {
+        return getActiveLogins(null);
+    }
+
+    /**
+     * @return the active logins of the given user on this node, and on all other live nodes as of their last flush
+     */
+    @Override
+    public List<ActiveLoginRecord> getActiveLoginsForUser(Integer userId) {
+        if (userId == null) {
+            return new ArrayList<>();
+        }
+        return getActiveLogins(userId);
+    }
+
+    private List<ActiveLoginRecord> getActiveLogins(Integer userId) {
+        List<ActiveLoginRecord> ret = new ArrayList<>();
+        for (UserLogin userLogin : localLogins.values()) {
+            if (userId == null || userId.equals(userLogin.getUserId())) {
+                ret.add(new ActiveLoginRecord(userLogin, nodeId));
+            }
+        }
+        try {
+            ret.addAll(getActiveLoginService().getActiveLogins(nodeId, System.currentTimeMillis() - nodeTimeout, userId));
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to read active logins of other nodes, returning those of node " + nodeId, e);
+        }
+        return ret;
+    }
+
+    /**
+     * Runs the given task in a daemon thread with its own session, as the background thread and the module activator
+     * have none, and waits for it to complete, or on this thread if there is no daemon token
+     * @throws RuntimeException if the task failed, as the daemon thread does not pass on its exceptions
+     */
+    private void runInSession(Runnable task) {
+        if (daemonToken == null) {
+            task.run();
+            return;
+        }
+        RuntimeException[] failure = new RuntimeException[1];
+        Daemon.runInDaemonThreadAndWait(() -> {
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                failure[0] = e;
+            }
+        }, daemonToken);
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * @return the service that stores the active logins of all nodes
+     */
+    protected ActiveLoginService getActiveLoginService() {
+        return Context.getService(ActiveLoginService.class);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (Exception e) {
+            log.warn("Unable to determine host name to identify this node, configure a nodeId", e);
+            return "localhost";
+        }
+    }
+
+    /**
+     * @return the id of this node
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the number of milliseconds after its last heartbeat that the rows of a node are ignored and deleted
+     */
+    public long getNodeTimeout() {
+        return nodeTimeout;
+    }
+
+    /**
+     * @return the number of milliseconds between writes of changed logins
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * @return the number of changed logins waiting to be written
+     */
+    public int getPendingCount() {
+        return changedLoginIds.size();
+    }
+
+    /**
+     * @return the number of times changed logins could not be written in the background
+     */
+    public long getFlushFailures() {
+        return flushFailures.get();
+    }
+}
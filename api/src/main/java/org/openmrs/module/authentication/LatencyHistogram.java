@@ -0,0 +1,116 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of operation durations, with a fixed set of buckets.
+ * <p>
+ * Recording a duration increments a single bucket counter and adds to the running sum, so it is safe and cheap to
+ * call from many request threads at once.  The bucket bounds follow the Prometheus client defaults, which allows
+ * percentiles to be calculated over any time window with histogram_quantile.  The quantile estimate provided here
+ * uses the same linear interpolation, over all durations recorded since the histogram was created.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The upper bounds of each bucket, in seconds, excluding the final +Inf bucket
+     */
+    public static final double[] BUCKET_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos the duration to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int i = 0;
+        while (i < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+        count.increment();
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of all durations recorded, in seconds
+     */
+    public double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the cumulative count of durations in each bucket, in the order of BUCKET_BOUNDS, followed by +Inf
+     */
+    public long[] getCumulativeCounts() {
+        long[] ret = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            ret[i] = total;
+        }
+        return ret;
+    }
+
+    /**
+     * @param quantile the quantile to estimate, between 0 and 1, for example 0.95 for the 95th percentile
+     * @return the estimated duration at the given quantile, in seconds, or NaN if no durations have been recorded
+     * If the quantile falls in the +Inf bucket, the upper bound of the largest finite bucket is returned
+     */
+    public double getQuantile(double quantile) {
+        long[] counts = getCumulativeCounts();
+        long total = counts[counts.length - 1];
+        if (total == 0) {
+            return Double.NaN;
+        }
+        double rank = quantile * total;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (counts[i] >= rank) {
+                double lowerBound = i == 0 ? 0 : BUCKET_BOUNDS[i - 1];
+                long lowerCount = i == 0 ? 0 : counts[i - 1];
+                long bucketCount = counts[i] - lowerCount;
+                if (bucketCount == 0) {
+                    return BUCKET_BOUNDS[i];
+                }
+                return lowerBound + (BUCKET_BOUNDS[i] - lowerBound) * (rank - lowerCount) / bucketCount;
+            }
+        }
+        return BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1];
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The default ActiveLoginBackend, which reports only the active logins on this node, from the UserLoginTracker
+ */
+public class LocalActiveLoginBackend implements ActiveLoginBackend {
+
+    @Override
+    public void loginAdded(UserLogin userLogin) {
+    }
+
+    @Override
+    public void loginChanged(UserLogin userLogin) {
+    }
+
+    @Override
+    public void loginRemoved(UserLogin userLogin) {
+    }
+
+    @Override
+    public int getActiveLoginCount() {
+        return UserLoginTracker.getActiveLogins().size();
+    }
+
+    @Override
+    public List<ActiveLoginRecord> getActiveLogins() {
+        List<ActiveLoginRecord> ret = new ArrayList<>();
+        for (UserLogin userLogin : UserLoginTracker.getActiveLogins().values()) {
+            ret.add(new ActiveLoginRecord(userLogin, null));
+        }
+        return ret;
+    }
+
+    @Override
+    public List<ActiveLoginRecord> getActiveLoginsForUser(Integer userId) {
+        List<ActiveLoginRecord> ret = new ArrayList<>();
+        for (UserLogin userLogin : UserLoginTracker.getActiveLoginsForUser(userId)) {
+            ret.add(new ActiveLoginRecord(userLogin, null));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.Map;
+
+/**
+ * Logs authentication events to the UserLogin logger at level INFO, with the AUTHENTICATION_EVENT marker.
+ * While each event is logged, the ThreadContext holds the ThreadContext of the thread that recorded it, followed by
+ * the context data of the event.  The ThreadContext of the dispatching thread is restored afterwards.
+ * @see UserLogin#recordEvent(String, String)
+ */
+public class Log4jAuthenticationEventSink implements AuthenticationEventSink {
+
+    private static final Logger log = LogManager.getLogger(UserLogin.class);
+
+    @Override
+    public boolean isEnabled() {
+        return log.isInfoEnabled(UserLogin.EVENT_MARKER);
+    }
+
+    @Override
+    public void dispatch(AuthenticationEventRecord record) {
+        Map<String, String> contextData = record.getContextData();
+        Map<String, String> dispatcherContext = ThreadContext.getContext();
+        try {
+            ThreadContext.putAll(record.getThreadContext());
+            ThreadContext.putAll(contextData);
+            log.info(UserLogin.EVENT_MARKER, contextData.toString());
+        }
+        finally {
+            ThreadContext.clearMap();
+            ThreadContext.putAll(dispatcherContext);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the revocations of signed remember-me tokens in memory, so that checking whether a token has been revoked
+ * does not read from the database.
+ * <p>
+ * Only revocations are held, not tokens, and each is removed once all the tokens it revokes have expired, so the
+ * denylist stays small.  Revocations are written to the RememberMeTokenService before they are added to the denylist, and
+ * are loaded from it when the denylist is started.  The denylist is then refreshed by a background daemon thread every
+ * `authentication.rememberMe.denylist.refreshInterval` seconds, 30 by default, independently of the purge of expired
+ * tokens.  Each refresh deletes the revocations that have expired and reloads the rest, so a token revoked on another
+ * server that shares the same database is rejected by this one within the refresh interval, plus the time a refresh
+ * takes.  If a refresh fails, the previous revocations are kept and the next refresh tries again.  Revocations and
+ * refreshes are serialized, so that a revocation made while the denylist is being reloaded is not lost.
+ */
+public class RememberMeDenylist {
+
+    private static final Logger log = LogManager.getLogger(RememberMeDenylist.class);
+
+    /**
+     * The default number of seconds between refreshes
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL = 30;
+
+    private static volatile RememberMeDenylist instance;
+
+    private final RememberMeTokenService service;
+    private final DaemonToken daemonToken;
+    private volatile Map<String, RememberMeRevocation> revocations = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param service the service that the revocations are stored in
+     * @param daemonToken the token used to refresh the revocations from a background thread, may be null in tests
+     */
+    public RememberMeDenylist(RememberMeTokenService service, DaemonToken daemonToken) {
+        this.service = service;
+        this.daemonToken = daemonToken;
+    }
+
+    /**
+     * Starts a denylist that stores its revocations through the RememberMeTokenService
+     * Any denylist previously started with this method is stopped first
+     * @param daemonToken the token used to refresh the revocations from a background thread
+     * @return the started denylist
+     */
+    public static RememberMeDenylist start(DaemonToken daemonToken) {
+        return start(Context.getService(RememberMeTokenService.class), daemonToken);
+    }
+
+    /**
+     * @param service the service that the revocations are stored in
+     * @param daemonToken the token used to refresh the revocations from a background thread, may be null in tests
+     * @return the started denylist, or null if the given service is null
+     * @see #start(DaemonToken)
+     */
+    public static RememberMeDenylist start(RememberMeTokenService service, DaemonToken daemonToken) {
+        return start(service, daemonToken, TimeUnit.SECONDS.toMillis(getConfiguredRefreshInterval()));
+    }
+
+    /**
+     * @param service the service that the revocations are stored in
+     * @param daemonToken the token used to refresh the revocations from a background thread, may be null in tests
+     * @param refreshInterval the number of milliseconds between refreshes
+     * @return the started denylist, or null if the given service is null
+     * @see #start(DaemonToken)
+     */
+    public static synchronized RememberMeDenylist start(RememberMeTokenService service, DaemonToken daemonToken,
+                                                        long refreshInterval) {
+        stop();
+        if (service == null) {
+            return null;
+        }
+        RememberMeDenylist denylist = new RememberMeDenylist(service, daemonToken);
+        denylist.refresh(System.currentTimeMillis());
+        denylist.startRefreshing(refreshInterval);
+        instance = denylist;
+        return denylist;
+    }
+
+    /**
+     * @return the configured refresh interval in seconds, or the default if it is not set, is not a number, or is not
+     * greater than 0
+     */
+    static long getConfiguredRefreshInterval() {
+        String value = AuthenticationConfig.getProperty(AuthenticationConfig.REMEMBER_ME_DENYLIST_REFRESH_INTERVAL);
+        if (StringUtils.isBlank(value)) {
+            return DEFAULT_REFRESH_INTERVAL;
+        }
+        try {
+            long interval = Long.parseLong(value.trim());
+            if (interval > 0) {
+                return interval;
+            }
+        }
+        catch (NumberFormatException e) {
+            // Fall through to the default
+        }
+        log.warn("Invalid " + AuthenticationConfig.REMEMBER_ME_DENYLIST_REFRESH_INTERVAL + ": " + value
+                + ", remember-me revocations will be refreshed every " + DEFAULT_REFRESH_INTERVAL + " seconds");
+        return DEFAULT_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Stops the denylist previously started with start(), if any
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.stopRefreshing();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the denylist started with start(), or null if none is running
+     */
+    public static RememberMeDenylist getInstance() {
+        return instance;
+    }
+
+    /**
+     * Revokes the tokens issued by the given scheme to the given device
+     * @param schemeId the {schemeId} of the authentication scheme that issued the tokens
+     * @param deviceId the id of the device
+     * @param expiryTime the time all tokens issued to the device expire, in milliseconds since the epoch
+     * @throws RuntimeException if the revocation could not be stored, in which case the tokens are not revoked
+     */
+    public void revokeDevice(String schemeId, String deviceId, long expiryTime) {
+        revoke(new RememberMeRevocation(schemeId, RememberMeRevocation.deviceKey(deviceId), System.currentTimeMillis(),
+                expiryTime));
+    }
+
+    /**
+     * Revokes the tokens issued by the given scheme to the given user before the given time
+     * @param schemeId the {schemeId} of the authentication scheme that issued the tokens
+     * @param userId the id of the user
+     * @param revokedTime tokens issued before this time are revoked, in milliseconds since the epoch
+     * @param expiryTime the time all tokens issued before the revoked time expire, in milliseconds since the epoch
+     * @throws RuntimeException if the revocation could not be stored, in which case the tokens are not revoked
+     */
+    public void revokeUser(String schemeId, Integer userId, long revokedTime, long expiryTime) {
+        revoke(new RememberMeRevocation(schemeId, RememberMeRevocation.userKey(userId), revokedTime, expiryTime));
+    }
+
+    /**
+     * Revokes the tokens issued by the given scheme to all users before the given time
+     * @param schemeId the {schemeId} of the authentication scheme that issued the tokens
+     * @param revokedTime tokens issued before this time are revoked, in milliseconds since the epoch
+     * @param expiryTime the time all tokens issued before the revoked time expire, in milliseconds since the epoch
+     * @throws RuntimeException if the revocation could not be stored, in which case the tokens are not revoked
+     */
+    public void revokeAll(String schemeId, long revokedTime, long expiryTime) {
+        revoke(new RememberMeRevocation(schemeId, RememberMeRevocation.ALL, revokedTime, expiryTime));
+    }
+
+    /**
+     * Stores the given revocation, then adds it to the denylist
+     * @param revocation the revocation
+     * @throws RuntimeException if the revocation could not be stored, in which case it is not added
+     */
+    public synchronized void revoke(RememberMeRevocation revocation) {
+        RememberMeRevocation stored = service.saveRevocation(revocation);
+        revocations.merge(key(stored.getSchemeId(), stored.getKey()), stored, RememberMeRevocation::merge);
+        log.debug("Revoked remember-me tokens: " + stored);
+    }
+
+    /**
+     * @param token the token to check
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if the given token has been revoked, as a device, as a user, or as all tokens of its scheme
+     */
+    public boolean isRevoked(SignedRememberMeToken token, long now) {
+        Map<String, RememberMeRevocation> current = revocations;
+        if (current.isEmpty()) {
+            return false;
+        }
+        String schemeId = token.getSchemeId();
+        return revokes(current.get(key(schemeId, RememberMeRevocation.deviceKey(token.getDeviceId()))), token, now)
+                || revokes(current.get(key(schemeId, RememberMeRevocation.userKey(token.getUserId()))), token, now)
+                || revokes(current.get(key(schemeId, RememberMeRevocation.ALL)), token, now);
+    }
+
+    private boolean revokes(RememberMeRevocation revocation, SignedRememberMeToken token, long now) {
+        return revocation != null && revocation.revokes(token, now);
+    }
+
+    /**
+     * Deletes the revocations that have expired at the given time, and reloads the rest from the service
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of expired revocations deleted
+     * @throws RuntimeException if the revocations could not be deleted or read, in which case the denylist is unchanged
+     */
+    public synchronized int refresh(long now) {
+        int deleted = service.deleteExpiredRevocations(now);
+        Map<String, RememberMeRevocation> loaded = new ConcurrentHashMap<>();
+        for (RememberMeRevocation revocation : service.getRevocations(now)) {
+            loaded.merge(key(revocation.getSchemeId(), revocation.getKey()), revocation, RememberMeRevocation::merge);
+        }
+        revocations = loaded;
+        if (deleted > 0) {
+            log.debug("Deleted " + deleted + " expired remember-me revocations");
+        }
+        return deleted;
+    }
+
+    /**
+     * Starts a background daemon thread that refreshes this denylist once per interval
+     * @param interval the number of milliseconds between refreshes
+     */
+    public synchronized void startRefreshing(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Refresh interval must be greater than 0");
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "authentication-remember-me-denylist");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::runRefresh, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background thread
+     */
+    public synchronized void stopRefreshing() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void runRefresh() {
+        try {
+            if (daemonToken != null) {
+                Daemon.runInDaemonThreadAndWait(() -> refresh(System.currentTimeMillis()), daemonToken);
+            }
+            else {
+                refresh(System.currentTimeMillis());
+            }
+        }
+        catch (Exception e) {
+            log.warn("Error refreshing remember-me revocations", e);
+        }
+    }
+
+    private static String key(String schemeId, String revokedKey) {
+        return schemeId + " " + revokedKey;
+    }
+
+    /**
+     * @return the number of revocations in the denylist, including any that have expired since the last refresh
+     */
+    public int size() {
+        return revocations.size();
+    }
+}
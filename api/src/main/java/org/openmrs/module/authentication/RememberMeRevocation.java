@@ -0,0 +1,172 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * An immutable revocation of signed remember-me tokens, as stored by the RememberMeTokenService and held by the
+ * RememberMeDenylist.  A revocation applies to the tokens issued by one authentication scheme either to a single
+ * device, to all devices of a single user, or to all devices of all users, as identified by its key.  Tokens issued
+ * before the revoked time are rejected until the revocation expires, which is once all of them have expired.
+ */
+@Entity
+@Table(name = "authentication_remember_me_revocation")
+@IdClass(RememberMeRevocation.PrimaryKey.class)
+public class RememberMeRevocation {
+
+    /**
+     * The key of a revocation of all tokens issued by a scheme
+     */
+    public static final String ALL = "all";
+
+    @Id
+    @Column(name = "scheme_id")
+    private String schemeId;
+
+    @Id
+    @Column(name = "revoked_key")
+    private String revokedKey;
+
+    @Column(name = "revoked_time", nullable = false)
+    private long revokedTime;
+
+    @Column(name = "expiry_time", nullable = false)
+    private long expiryTime;
+
+    /**
+     * Used by Hibernate
+     */
+    protected RememberMeRevocation() {
+    }
+
+    /**
+     * @param schemeId the {schemeId} of the authentication scheme whose tokens are revoked
+     * @param key the key that identifies the revoked tokens, as returned by deviceKey, userKey, or ALL
+     * @param revokedTime tokens issued before this time are revoked, in milliseconds since the epoch
+     * @param expiryTime the time this revocation can be removed, in milliseconds since the epoch
+     */
+    public RememberMeRevocation(String schemeId, String key, long revokedTime, long expiryTime) {
+        this.schemeId = schemeId;
+        this.revokedKey = key;
+        this.revokedTime = revokedTime;
+        this.expiryTime = expiryTime;
+    }
+
+    /**
+     * @return the key of a revocation of the tokens issued to the device with the given id
+     */
+    public static String deviceKey(String deviceId) {
+        return "device:" + deviceId;
+    }
+
+    /**
+     * @return the key of a revocation of the tokens issued to the user with the given id
+     */
+    public static String userKey(Integer userId) {
+        return "user:" + userId;
+    }
+
+    /**
+     * @param other another revocation with the same scheme id and key
+     * @return a revocation that revokes the tokens revoked by either this or the other revocation
+     */
+    public RememberMeRevocation merge(RememberMeRevocation other) {
+        return new RememberMeRevocation(schemeId, revokedKey, Math.max(revokedTime, other.revokedTime),
+                Math.max(expiryTime, other.expiryTime));
+    }
+
+    /**
+     * @param token the token to check
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if this revocation has not expired at the given time, and the given token was issued before it
+     */
+    public boolean revokes(SignedRememberMeToken token, long now) {
+        return !isExpired(now) && token.getIssuedTime() < revokedTime;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if this revocation has expired at the given time
+     */
+    public boolean isExpired(long now) {
+        return expiryTime <= now;
+    }
+
+    @Override
+    public String toString() {
+        return "schemeId=" + schemeId + ",key=" + revokedKey + ",revokedDate=" + getRevokedDate();
+    }
+
+    public String getSchemeId() {
+        return schemeId;
+    }
+
+    public String getKey() {
+        return revokedKey;
+    }
+
+    public long getRevokedTime() {
+        return revokedTime;
+    }
+
+    public Date getRevokedDate() {
+        return new Date(revokedTime);
+    }
+
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    public Date getExpiryDate() {
+        return new Date(expiryTime);
+    }
+
+    /**
+     * The primary key of a revocation, which is its scheme id and key
+     */
+    public static class PrimaryKey implements Serializable {
+
+        private String schemeId;
+        private String revokedKey;
+
+        public PrimaryKey() {
+        }
+
+        public PrimaryKey(String schemeId, String revokedKey) {
+            this.schemeId = schemeId;
+            this.revokedKey = revokedKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PrimaryKey)) {
+                return false;
+            }
+            PrimaryKey that = (PrimaryKey) o;
+            return Objects.equals(schemeId, that.schemeId) && Objects.equals(revokedKey, that.revokedKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(schemeId, revokedKey);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * An immutable remember-me token, as stored by the RememberMeTokenService.  Each token is identified by a random series
+ * id, and holds only a hash of the secret token that is sent to the browser, never the token itself.
+ */
+@Entity
+@Table(name = "authentication_remember_me_token")
+public class RememberMeToken {
+
+    @Id
+    @Column(name = "series_id", length = 64)
+    private String seriesId;
+
+    @Column(name = "scheme_id", nullable = false)
+    private String schemeId;
+
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "token_hash", nullable = false, length = 128)
+    private String tokenHash;
+
+    @Column(name = "expiry_time", nullable = false)
+    private long expiryTime;
+
+    @Column(name = "created_time", nullable = false)
+    private long createdTime;
+
+    @Column(name = "last_used_time", nullable = false)
+    private long lastUsedTime;
+
+    /**
+     * Used by Hibernate
+     */
+    protected RememberMeToken() {
+    }
+
+    /**
+     * @param seriesId the random id that identifies this token
+     * @param schemeId the {schemeId} of the authentication scheme that issued this token
+     * @param userId the id of the user this token was issued to
+     * @param tokenHash the hash of the secret token
+     * @param expiryTime the time this token expires, in milliseconds since the epoch
+     * @param createdTime the time this token was issued, in milliseconds since the epoch
+     * @param lastUsedTime the time a remember-me cookie was last used by the browser holding this token, in
+     * milliseconds since the epoch, or 0 if never
+     */
+    public RememberMeToken(String seriesId, String schemeId, Integer userId, String tokenHash, long expiryTime,
+                           long createdTime, long lastUsedTime) {
+        this.seriesId = seriesId;
+        this.schemeId = schemeId;
+        this.userId = userId;
+        this.tokenHash = tokenHash;
+        this.expiryTime = expiryTime;
+        this.createdTime = createdTime;
+        this.lastUsedTime = lastUsedTime;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if this token has expired at the given time
+     */
+    public boolean isExpired(long now) {
+        return expiryTime <= now;
+    }
+
+    @Override
+    public String toString() {
+        return "seriesId=" + seriesId + ",schemeId=" + schemeId + ",userId=" + userId;
+    }
+
+    public String getSeriesId() {
+        return seriesId;
+    }
+
+    public String getSchemeId() {
+        return schemeId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public String getTokenHash() {
+        return tokenHash;
+    }
+
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    public Date getExpiryDate() {
+        return new Date(expiryTime);
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    public Date getCreatedDate() {
+        return new Date(createdTime);
+    }
+
+    public long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    public Date getLastUsedDate() {
+        return lastUsedTime == 0 ? null : new Date(lastUsedTime);
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.User;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads and writes remember-me tokens and revocations, which are mapped to the authentication_remember_me_token and
+ * authentication_remember_me_revocation tables created by liquibase.xml, through the OpenMRS session factory.  This
+ * is only used by the RememberMeTokenServiceImpl, within the transactions of the RememberMeTokenService.
+ * <p>
+ * Tokens and revocations are read with queries rather than from the session, and deleted and merged with bulk
+ * statements, so that concurrent requests and other servers that share the database are always seen.
+ */
+public class RememberMeTokenDao {
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @param seriesId the series id of the token to retrieve
+     * @return the token with the given series id, or null if there is none
+     */
+    public RememberMeToken getToken(String seriesId) {
+        return (RememberMeToken) sessionFactory.getCurrentSession()
+                .createQuery("from RememberMeToken t where t.seriesId = :seriesId")
+                .setParameter("seriesId", seriesId)
+                .uniqueResult();
+    }
+
+    /**
+     * @param userId the id of the user whose tokens to retrieve
+     * @return all tokens issued to the given user, including any that have expired
+     */
+    @SuppressWarnings("unchecked")
+    public List<RememberMeToken> getTokensForUser(Integer userId) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("from RememberMeToken t where t.userId = :userId")
+                .setParameter("userId", userId)
+                .list();
+    }
+
+    /**
+     * @param seriesIds the series ids to check
+     * @return those of the given series ids that are stored
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getStoredSeriesIds(Collection<String> seriesIds) {
+        if (seriesIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery("select t.seriesId from RememberMeToken t where t.seriesId in (:seriesIds)")
+                .setParameterList("seriesIds", seriesIds)
+                .list();
+    }
+
+    /**
+     * @param token the new token to store
+     */
+    public void saveToken(RememberMeToken token) {
+        sessionFactory.getCurrentSession().save(token);
+    }
+
+    /**
+     * @param seriesId the series id of the token to delete
+     * @return the number of tokens deleted
+     */
+    public int deleteToken(String seriesId) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from RememberMeToken t where t.seriesId = :seriesId")
+                .setParameter("seriesId", seriesId)
+                .executeUpdate();
+    }
+
+    /**
+     * Deletes the token with the given series id only if it was issued to the given user by the given scheme.  As the
+     * delete locks the row, if the same token is deleted by concurrent transactions only one of them deletes it.
+     * @return the number of tokens deleted
+     */
+    public int deleteToken(String seriesId, Integer userId, String schemeId) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from RememberMeToken t where t.seriesId = :seriesId and t.userId = :userId "
+                        + "and t.schemeId = :schemeId")
+                .setParameter("seriesId", seriesId)
+                .setParameter("userId", userId)
+                .setParameter("schemeId", schemeId)
+                .executeUpdate();
+    }
+
+    /**
+     * @param userId the id of the user whose tokens to delete
+     * @param schemeId if non-null, only tokens issued by the authentication scheme with this {schemeId} are deleted
+     * @return the number of tokens deleted
+     */
+    public int deleteTokensForUser(Integer userId, String schemeId) {
+        if (schemeId == null) {
+            return sessionFactory.getCurrentSession()
+                    .createQuery("delete from RememberMeToken t where t.userId = :userId")
+                    .setParameter("userId", userId)
+                    .executeUpdate();
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from RememberMeToken t where t.userId = :userId and t.schemeId = :schemeId")
+                .setParameter("userId", userId)
+                .setParameter("schemeId", schemeId)
+                .executeUpdate();
+    }
+
+    /**
+     * @param schemeId if non-null, only tokens issued by the authentication scheme with this {schemeId} are included
+     * @param createdBefore only tokens issued before this time, in milliseconds since the epoch, are included
+     * @param maxUsers the maximum number of user ids to return
+     * @return the ids of the users with tokens issued before the given time, in order of user id
+     */
+    @SuppressWarnings("unchecked")
+    public List<Integer> getUserIdsWithTokensCreatedBefore(String schemeId, long createdBefore, int maxUsers) {
+        if (schemeId == null) {
+            return sessionFactory.getCurrentSession()
+                    .createQuery("select distinct t.userId from RememberMeToken t where t.createdTime < :createdBefore "
+                            + "order by t.userId")
+                    .setParameter("createdBefore", createdBefore)
+                    .setMaxResults(maxUsers)
+                    .list();
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery("select distinct t.userId from RememberMeToken t where t.createdTime < :createdBefore "
+                        + "and t.schemeId = :schemeId order by t.userId")
+                .setParameter("createdBefore", createdBefore)
+                .setParameter("schemeId", schemeId)
+                .setMaxResults(maxUsers)
+                .list();
+    }
+
+    /**
+     * @param schemeId if non-null, only tokens issued by the authentication scheme with this {schemeId} are deleted
+     * @param createdBefore only tokens issued before this time, in milliseconds since the epoch, are deleted
+     * @param userIds the ids of the users whose tokens are deleted
+     * @return the number of tokens deleted
+     */
+    public int deleteTokensCreatedBefore(String schemeId, long createdBefore, Collection<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        if (schemeId == null) {
+            return sessionFactory.getCurrentSession()
+                    .createQuery("delete from RememberMeToken t where t.createdTime < :createdBefore "
+                            + "and t.userId in (:userIds)")
+                    .setParameter("createdBefore", createdBefore)
+                    .setParameterList("userIds", userIds)
+                    .executeUpdate();
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from RememberMeToken t where t.createdTime < :createdBefore "
+                        + "and t.schemeId = :schemeId and t.userId in (:userIds)")
+                .setParameter("createdBefore", createdBefore)
+                .setParameter("schemeId", schemeId)
+                .setParameterList("userIds", userIds)
+                .executeUpdate();
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @param maxTokens the maximum number of series ids to return
+     * @return the series ids of tokens that have expired at the given time, in order of expiry time, so that they are
+     * read with a range scan of the expiry time index
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getExpiredSeriesIds(long now, int maxTokens) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("select t.seriesId from RememberMeToken t where t.expiryTime <= :now order by t.expiryTime")
+                .setParameter("now", now)
+                .setMaxResults(maxTokens)
+                .list();
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @param seriesIds the series ids of the tokens to delete, which are only deleted if they have expired
+     * @return the number of tokens deleted
+     */
+    public int deleteExpiredTokens(long now, Collection<String> seriesIds) {
+        if (seriesIds.isEmpty()) {
+            return 0;
+        }
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from RememberMeToken t where t.expiryTime <= :now and t.seriesId in (:seriesIds)")
+                .setParameter("now", now)
+                .setParameterList("seriesIds", seriesIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Merges the given revocation into the stored revocation with the same scheme id and key, with statements that
+     * only ever move its revoked time and expiry time later, so that revocations of the same key by other servers at
+     * the same time are not lost
+     * @param revocation the revocation to merge
+     * @return the number of stored revocations updated
+     */
+    public int mergeRevocation(RememberMeRevocation revocation) {
+        int updated = sessionFactory.getCurrentSession()
+                .createQuery("update RememberMeRevocation r set r.revokedTime = :revokedTime "
+                        + "where r.schemeId = :schemeId and r.revokedKey = :revokedKey and r.revokedTime < :revokedTime")
+                .setParameter("revokedTime", revocation.getRevokedTime())
+                .setParameter("schemeId", revocation.getSchemeId())
+                .setParameter("revokedKey", revocation.getKey())
+                .executeUpdate();
+        updated += sessionFactory.getCurrentSession()
+                .createQuery("update RememberMeRevocation r set r.expiryTime = :expiryTime "
+                        + "where r.schemeId = :schemeId and r.revokedKey = :revokedKey and r.expiryTime < :expiryTime")
+                .setParameter("expiryTime", revocation.getExpiryTime())
+                .setParameter("schemeId", revocation.getSchemeId())
+                .setParameter("revokedKey", revocation.getKey())
+                .executeUpdate();
+        return updated;
+    }
+
+    /**
+     * @return the stored revocation with the given scheme id and key, read without the session so that any merge is
+     * seen, or null if there is none
+     */
+    public RememberMeRevocation getRevocation(String schemeId, String key) {
+        Object[] row = (Object[]) sessionFactory.getCurrentSession()
+                .createQuery("select r.revokedTime, r.expiryTime from RememberMeRevocation r "
+                        + "where r.schemeId = :schemeId and r.revokedKey = :revokedKey")
+                .setParameter("schemeId", schemeId)
+                .setParameter("revokedKey", key)
+                .uniqueResult();
+        return row == null ? null : new RememberMeRevocation(schemeId, key, (Long) row[0], (Long) row[1]);
+    }
+
+    /**
+     * @param revocation the new revocation to store
+     */
+    public void saveRevocation(RememberMeRevocation revocation) {
+        sessionFactory.getCurrentSession().save(revocation);
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return all revocations that have not expired at the given time
+     */
+    @SuppressWarnings("unchecked")
+    public List<RememberMeRevocation> getRevocations(long now) {
+        List<RememberMeRevocation> ret = new ArrayList<>();
+        List<Object[]> rows = sessionFactory.getCurrentSession()
+                .createQuery("select r.schemeId, r.revokedKey, r.revokedTime, r.expiryTime from RememberMeRevocation r "
+                        + "where r.expiryTime > :now")
+                .setParameter("now", now)
+                .list();
+        for (Object[] row : rows) {
+            ret.add(new RememberMeRevocation((String) row[0], (String) row[1], (Long) row[2], (Long) row[3]));
+        }
+        return ret;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of revocations deleted, which are all those that have expired at the given time
+     */
+    public int deleteExpiredRevocations(long now) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("delete from RememberMeRevocation r where r.expiryTime <= :now")
+                .setParameter("now", now)
+                .executeUpdate();
+    }
+
+    /**
+     * @param afterUserId only users with an id greater than this are included
+     * @param maxUsers the maximum number of user ids to return
+     * @return the ids of users with remember-me tokens stored as user properties by earlier versions of this module,
+     * in order of user id
+     */
+    @SuppressWarnings("unchecked")
+    public List<Integer> getUserIdsWithRememberMeProperties(int afterUserId, int maxUsers) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("select distinct u.userId from User u join u.userProperties p "
+                        + "where key(p) like :property and u.userId > :afterUserId order by u.userId")
+                .setParameter("property", RememberMeTokenMigration.USER_PROPERTY_PATTERN)
+                .setParameter("afterUserId", afterUserId)
+                .setMaxResults(maxUsers)
+                .list();
+    }
+
+    /**
+     * @param userId the id of the user to retrieve
+     * @return the user with the given id, from the session, or null if there is none
+     */
+    public User getUser(Integer userId) {
+        return (User) sessionFactory.getCurrentSession().get(User.class, userId);
+    }
+
+    /**
+     * Writes the changes made in the session to the database, and then clears it, so that the session does not grow
+     * while a batch job runs in a single session
+     */
+    public void flushAndClearSession() {
+        sessionFactory.getCurrentSession().flush();
+        sessionFactory.getCurrentSession().clear();
+    }
+}
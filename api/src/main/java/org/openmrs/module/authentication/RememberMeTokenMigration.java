@@ -0,0 +1,158 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+
+import java.util.List;
+
+/**
+ * Moves the remember-me tokens that earlier versions of this module stored as user properties named
+ * `authentication.{schemeId}.rememberMe.{seriesId}`, formatted as `tokenHash:expiryTime`, into the table of the
+ * RememberMeTokenService when the module is started.
+ * <p>
+ * The users with such properties are read in batches of `authentication.rememberMe.store.migrationBatchSize`, 500 by
+ * default, in order of user id, and the tokens of each batch are moved in a single transaction, so that a migration
+ * that is interrupted continues where it left off when next started.  A user property is only removed once its token
+ * has been stored, and tokens that have already expired are moved too, to be deleted by the RememberMeTokenPurge.
+ * If a batch fails because another server moved some of its tokens at the same time, it is moved again, once.
+ */
+public class RememberMeTokenMigration {
+
+    private static final Logger log = LogManager.getLogger(RememberMeTokenMigration.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    static final String USER_PROPERTY_PREFIX = "authentication.";
+
+    static final String USER_PROPERTY_INFIX = ".rememberMe.";
+
+    static final String USER_PROPERTY_PATTERN = USER_PROPERTY_PREFIX + "%" + USER_PROPERTY_INFIX + "%";
+
+    /**
+     * Moves all remember-me tokens stored as user properties into the table of the RememberMeTokenService, in a
+     * daemon thread, and waits for it to complete.  If this fails, the remaining tokens are moved when next started.
+     * @param daemonToken the token used to run the migration in a daemon thread, may be null in tests
+     */
+    public static void run(DaemonToken daemonToken) {
+        Runnable task = () -> {
+            try {
+                migrate(Context.getService(RememberMeTokenService.class),
+                        getBatchSize(AuthenticationConfig.getProperty(AuthenticationConfig.REMEMBER_ME_MIGRATION_BATCH_SIZE)));
+            }
+            catch (Exception e) {
+                log.warn("Unable to move remember-me tokens from user properties, the remaining tokens will be moved "
+                        + "when the module is next started", e);
+            }
+        };
+        if (daemonToken != null) {
+            Daemon.runInDaemonThreadAndWait(task, daemonToken);
+        }
+        else {
+            task.run();
+        }
+    }
+
+    /**
+     * @param service the service to move the tokens with
+     * @param batchSize the maximum number of users whose tokens are moved in each transaction
+     * @return the number of tokens moved into the table
+     */
+    static int migrate(RememberMeTokenService service, int batchSize) {
+        int migrated = 0;
+        int lastUserId = Integer.MIN_VALUE;
+        boolean retried = false;
+        while (true) {
+            List<Integer> userIds = service.getUserIdsWithRememberMeProperties(lastUserId, batchSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+            try {
+                migrated += service.migrateUserProperties(userIds);
+            }
+            catch (RuntimeException e) {
+                if (retried) {
+                    throw e;
+                }
+                log.debug("Unable to move a batch of remember-me tokens, retrying", e);
+                retried = true;
+                continue;
+            }
+            retried = false;
+            lastUserId = userIds.get(userIds.size() - 1);
+            if (userIds.size() < batchSize) {
+                break;
+            }
+        }
+        if (migrated > 0) {
+            log.info("Moved " + migrated + " remember-me tokens from user properties to table authentication_remember_me_token");
+        }
+        return migrated;
+    }
+
+    /**
+     * An invalid batch size only affects how tokens are moved from user properties, so it is logged and the default
+     * used, rather than preventing the module from starting
+     * @return the given batch size, or DEFAULT_BATCH_SIZE if it is not set or is not valid
+     */
+    static int getBatchSize(String batchSize) {
+        if (StringUtils.isNotBlank(batchSize)) {
+            try {
+                int size = Integer.parseInt(batchSize.trim());
+                if (size > 0) {
+                    return size;
+                }
+            }
+            catch (NumberFormatException e) {
+                // Logged below
+            }
+            log.warn("Invalid " + AuthenticationConfig.REMEMBER_ME_MIGRATION_BATCH_SIZE + ": " + batchSize
+                    + ", using the default of " + DEFAULT_BATCH_SIZE);
+        }
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * @return true if the given user property name is that of a remember-me token stored by an earlier version
+     */
+    static boolean isRememberMeProperty(String property) {
+        return property != null && property.startsWith(USER_PROPERTY_PREFIX)
+                && property.indexOf(USER_PROPERTY_INFIX, USER_PROPERTY_PREFIX.length()) > USER_PROPERTY_PREFIX.length();
+    }
+
+    /**
+     * @return the token stored in the given user property, formatted as `tokenHash:expiryTime`, or null if it cannot
+     * be parsed
+     */
+    static RememberMeToken parseUserProperty(Integer userId, String property, String value, long now) {
+        if (!isRememberMeProperty(property)) {
+            return null;
+        }
+        int infix = property.indexOf(USER_PROPERTY_INFIX, USER_PROPERTY_PREFIX.length());
+        String schemeId = property.substring(USER_PROPERTY_PREFIX.length(), infix);
+        String seriesId = property.substring(infix + USER_PROPERTY_INFIX.length());
+        int sep = value == null ? -1 : value.lastIndexOf(':');
+        if (seriesId.isEmpty() || sep <= 0 || sep == value.length() - 1) {
+            return null;
+        }
+        try {
+            long expiryTime = Long.parseLong(value.substring(sep + 1));
+            return new RememberMeToken(seriesId, schemeId, userId, value.substring(0, sep), expiryTime, now, 0);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
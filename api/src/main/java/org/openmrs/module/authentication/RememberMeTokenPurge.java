@@ -0,0 +1,264 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically deletes expired remember-me tokens through the RememberMeTokenService.
+ * <p>
+ * An expired token is otherwise only deleted when a browser presents its cookie, so the tokens of browsers that are
+ * never used again would remain indefinitely.  Each purge deletes the expired tokens in batches of
+ * `authentication.rememberMe.purge.batchSize`, each in its own transaction, pausing for
+ * `authentication.rememberMe.purge.batchDelay` milliseconds between batches, and logs the number of tokens deleted and how long it took.  These are also
+ * available as the `authentication_remember_me_tokens_purged_total` and
+ * `authentication_remember_me_purge_duration_seconds` metrics.  Revocations of signed tokens are not purged here,
+ * as the RememberMeDenylist deletes those that have expired each time it is refreshed.
+ * <p>
+ * The purge is started by the module activator if `authentication.rememberMe.purge.interval` is greater than 0.
+ */
+public class RememberMeTokenPurge {
+
+    private static final Logger log = LogManager.getLogger(RememberMeTokenPurge.class);
+
+    /**
+     * The default number of seconds between purges
+     */
+    public static final long DEFAULT_INTERVAL = 3600;
+
+    /**
+     * The default maximum number of tokens deleted by each transaction
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The default number of milliseconds to pause between batches
+     */
+    public static final long DEFAULT_BATCH_DELAY = 100;
+
+    private static volatile RememberMeTokenPurge instance;
+
+    private final long interval;
+    private final int batchSize;
+    private final long batchDelay;
+    private final DaemonToken daemonToken;
+    private final AtomicLong purged = new AtomicLong();
+    private volatile int lastPurgeCount;
+    private volatile long lastPurgeDuration;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param interval the number of milliseconds between purges
+     * @param batchSize the maximum number of tokens deleted by each transaction
+     * @param batchDelay the number of milliseconds to pause between batches
+     * @param daemonToken the token used to purge tokens from a background thread, may be null in tests
+     */
+    public RememberMeTokenPurge(long interval, int batchSize, long batchDelay, DaemonToken daemonToken) {
+        if (interval <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Purge interval and batch size must be greater than 0");
+        }
+        if (batchDelay < 0) {
+            throw new IllegalArgumentException("Purge batch delay must not be negative");
+        }
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.batchDelay = batchDelay;
+        this.daemonToken = daemonToken;
+    }
+
+    /**
+     * Starts purging expired remember-me tokens, if `authentication.rememberMe.purge.interval` is greater than 0
+     * Any purge previously started with this method is stopped first
+     * @param daemonToken the token used to purge tokens from a background thread, may be null in tests
+     * @return the started purge, or null if expired tokens are not configured to be purged
+     * @throws IllegalArgumentException if a purge setting is not valid, in which case no purge is running
+     */
+    public static synchronized RememberMeTokenPurge start(DaemonToken daemonToken) {
+        stop();
+        long interval = getLong(AuthenticationConfig.REMEMBER_ME_PURGE_INTERVAL, DEFAULT_INTERVAL);
+        if (interval <= 0) {
+            return null;
+        }
+        int batchSize = (int) getLong(AuthenticationConfig.REMEMBER_ME_PURGE_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        long batchDelay = getLong(AuthenticationConfig.REMEMBER_ME_PURGE_BATCH_DELAY, DEFAULT_BATCH_DELAY);
+        RememberMeTokenPurge purge = new RememberMeTokenPurge(TimeUnit.SECONDS.toMillis(interval), batchSize, batchDelay,
+                daemonToken);
+        instance = purge;
+        purge.startPurging();
+        log.info("Purging expired remember-me tokens every " + interval + " seconds");
+        return purge;
+    }
+
+    /**
+     * Stops the purge previously started with start(daemonToken), if any
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.stopPurging();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the purge started with start(daemonToken), or null if none is running
+     */
+    public static RememberMeTokenPurge getInstance() {
+        return instance;
+    }
+
+    private static long getLong(String property, long defaultValue) {
+        String value = AuthenticationConfig.getProperty(property);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + property + ": " + value, e);
+        }
+    }
+
+    /**
+     * Starts a background daemon thread that purges expired tokens once per interval
+     */
+    public synchronized void startPurging() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "authentication-remember-me-purge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background thread, interrupting any purge that is in progress
+     */
+    public synchronized void stopPurging() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void run() {
+        try {
+            if (daemonToken != null) {
+                Daemon.runInDaemonThreadAndWait(this::purgeExpiredTokens, daemonToken);
+            }
+            else {
+                purgeExpiredTokens();
+            }
+        }
+        catch (Exception e) {
+            log.warn("Error purging expired remember-me tokens", e);
+        }
+    }
+
+    private void purgeExpiredTokens() {
+        try {
+            purge(Context.getService(RememberMeTokenService.class), System.currentTimeMillis());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes the tokens that have expired at the given time, in batches that are each deleted in their own
+     * transaction, until a batch deletes fewer than the batch size
+     * @param service the service to delete the tokens through
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of tokens deleted
+     * @throws InterruptedException if the thread is interrupted while pausing between batches, in which case earlier
+     * batches remain deleted
+     */
+    public int purge(RememberMeTokenService service, long now) throws InterruptedException {
+        long start = System.nanoTime();
+        int deleted = 0;
+        while (true) {
+            int batch = service.deleteExpiredTokens(now, batchSize);
+            deleted += batch;
+            if (batch < batchSize) {
+                break;
+            }
+            if (batchDelay > 0) {
+                Thread.sleep(batchDelay);
+            }
+        }
+        long duration = System.nanoTime() - start;
+        lastPurgeCount = deleted;
+        lastPurgeDuration = TimeUnit.NANOSECONDS.toMillis(duration);
+        purged.addAndGet(deleted);
+        AuthenticationMetrics.add(AuthenticationMetrics.REMEMBER_ME_TOKENS_PURGED, deleted);
+        AuthenticationMetrics.recordDuration(AuthenticationMetrics.REMEMBER_ME_PURGE_DURATION, duration);
+        if (deleted > 0) {
+            log.info("Purged " + deleted + " expired remember-me tokens in " + lastPurgeDuration + " ms");
+        }
+        else if (log.isDebugEnabled()) {
+            log.debug("No expired remember-me tokens to purge, checked in " + lastPurgeDuration + " ms");
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the number of milliseconds between purges
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the maximum number of tokens deleted by each transaction
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the number of milliseconds to pause between batches
+     */
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * @return the number of tokens deleted by the most recent purge
+     */
+    public int getLastPurgeCount() {
+        return lastPurgeCount;
+    }
+
+    /**
+     * @return the number of milliseconds taken by the most recent purge
+     */
+    public long getLastPurgeDuration() {
+        return lastPurgeDuration;
+    }
+
+    /**
+     * @return the number of tokens deleted by all purges
+     */
+    public long getPurgedCount() {
+        return purged.get();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openmrs.api.OpenmrsService;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Stores remember-me tokens in a dedicated table, indexed by series id and by user id, rather than as user
+ * properties.  Looking up a token is a single indexed read, and the user properties that are loaded with each User
+ * stay small, however many devices a user has remembered.  Revocations of signed remember-me tokens, which are not
+ * stored, are held in a second table.  Both tables are created by liquibase.xml.
+ * <p>
+ * Each method runs in its own transaction.  Methods that delete many tokens delete at most one batch, so that no
+ * single transaction locks much of the table, and are called repeatedly until there is nothing left to delete.
+ */
+@Transactional
+public interface RememberMeTokenService extends OpenmrsService {
+
+    /**
+     * @param seriesId the series id of the token to retrieve
+     * @return the token with the given series id, or null if there is none
+     */
+    @Transactional(readOnly = true)
+    RememberMeToken getToken(String seriesId);
+
+    /**
+     * @param userId the id of the user whose tokens to retrieve
+     * @return all tokens issued to the given user, including any that have expired
+     */
+    @Transactional(readOnly = true)
+    List<RememberMeToken> getTokensForUser(Integer userId);
+
+    /**
+     * @param token the new token to store, which must not have the same series id as a stored token
+     */
+    void saveToken(RememberMeToken token);
+
+    /**
+     * Replaces a token with a new one in a single transaction.  The existing token is deleted only if it was issued
+     * to the same user by the same scheme as the replacement, and the replacement is stored only if it was deleted.
+     * As the delete locks the existing row, if the same token is rotated by concurrent requests only one succeeds.
+     * @param seriesId the series id of the token to replace
+     * @param replacement the new token to store
+     * @return true if the token was replaced, false if it did not exist or had already been replaced or deleted
+     */
+    boolean rotateToken(String seriesId, RememberMeToken replacement);
+
+    /**
+     * @param seriesId the series id of the token to delete
+     * @return true if a token was deleted, false if there was no token with the given series id
+     */
+    boolean deleteToken(String seriesId);
+
+    /**
+     * Deletes all tokens issued to the given user in a single statement
+     * @param userId the id of the user whose tokens to delete
+     * @param schemeId if non-null, only tokens issued by the authentication scheme with this {schemeId} are deleted
+     * @return the number of tokens deleted
+     */
+    int deleteTokensForUser(Integer userId, String schemeId);
+
+    /**
+     * Deletes the tokens of one batch of users that were issued before the given time, for example to revoke
+     * remembered devices after a change to the credential policy.  Users are processed in order of user id.
+     * @param schemeId if non-null, only tokens issued by the authentication scheme with this {schemeId} are deleted
+     * @param createdBefore tokens issued before this time, in milliseconds since the epoch, are deleted
+     * @param maxUsers the maximum number of users whose tokens are deleted
+     * @return the number of tokens deleted, which is 0 once no tokens issued before the given time remain
+     */
+    int deleteTokensCreatedBefore(String schemeId, long createdBefore, int maxUsers);
+
+    /**
+     * Deletes one batch of the tokens that have expired, in order of expiry time
+     * @param now the current time, in milliseconds since the epoch
+     * @param maxTokens the maximum number of tokens deleted
+     * @return the number of tokens deleted, which is less than maxTokens once no expired tokens remain
+     */
+    int deleteExpiredTokens(long now, int maxTokens);
+
+    /**
+     * Stores the given revocation, merging it with any stored revocation with the same scheme id and key
+     * @param revocation the revocation to store
+     * @return the stored revocation, which revokes the tokens revoked by both the given and any existing revocation
+     */
+    RememberMeRevocation saveRevocation(RememberMeRevocation revocation);
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return all revocations that have not expired at the given time
+     */
+    @Transactional(readOnly = true)
+    List<RememberMeRevocation> getRevocations(long now);
+
+    /**
+     * Deletes all revocations that have expired, in a single statement.  The revocation table only holds revocations
+     * of tokens that have not yet expired, so it is small compared to the token table.
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of revocations deleted
+     */
+    int deleteExpiredRevocations(long now);
+
+    /**
+     * @param afterUserId only users with an id greater than this are included
+     * @param maxUsers the maximum number of user ids to return
+     * @return the ids of users with remember-me tokens stored as user properties by earlier versions of this module,
+     * in order of user id
+     * @see RememberMeTokenMigration
+     */
+    @Transactional(readOnly = true)
+    List<Integer> getUserIdsWithRememberMeProperties(int afterUserId, int maxUsers);
+
+    /**
+     * Moves the remember-me tokens stored as user properties of the given users into the table.  A user property is
+     * only removed once its token has been stored, or if its token was already stored by another server, through the
+     * User, so that the change is seen by the session and by the AuthenticationProfileCache.  User properties that
+     * cannot be read are left in place.
+     * @param userIds the ids of the users whose remember-me user properties are moved
+     * @return the number of tokens stored
+     * @see RememberMeTokenMigration
+     */
+    int migrateUserProperties(List<Integer> userIds);
+}
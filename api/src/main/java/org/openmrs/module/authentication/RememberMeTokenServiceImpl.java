@@ -0,0 +1,165 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.User;
+import org.openmrs.api.impl.BaseOpenmrsService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The default implementation of the RememberMeTokenService, which stores tokens through the RememberMeTokenDao
+ */
+public class RememberMeTokenServiceImpl extends BaseOpenmrsService implements RememberMeTokenService {
+
+    private static final Logger log = LogManager.getLogger(RememberMeTokenServiceImpl.class);
+
+    private RememberMeTokenDao dao;
+
+    public void setDao(RememberMeTokenDao dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public RememberMeToken getToken(String seriesId) {
+        return dao.getToken(seriesId);
+    }
+
+    @Override
+    public List<RememberMeToken> getTokensForUser(Integer userId) {
+        if (userId == null) {
+            return new ArrayList<>();
+        }
+        return dao.getTokensForUser(userId);
+    }
+
+    @Override
+    public void saveToken(RememberMeToken token) {
+        dao.saveToken(token);
+    }
+
+    @Override
+    public boolean rotateToken(String seriesId, RememberMeToken replacement) {
+        if (dao.deleteToken(seriesId, replacement.getUserId(), replacement.getSchemeId()) == 0) {
+            return false;
+        }
+        dao.saveToken(replacement);
+        return true;
+    }
+
+    @Override
+    public boolean deleteToken(String seriesId) {
+        return dao.deleteToken(seriesId) > 0;
+    }
+
+    @Override
+    public int deleteTokensForUser(Integer userId, String schemeId) {
+        if (userId == null) {
+            return 0;
+        }
+        return dao.deleteTokensForUser(userId, schemeId);
+    }
+
+    @Override
+    public int deleteTokensCreatedBefore(String schemeId, long createdBefore, int maxUsers) {
+        if (maxUsers <= 0) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        List<Integer> userIds = dao.getUserIdsWithTokensCreatedBefore(schemeId, createdBefore, maxUsers);
+        return dao.deleteTokensCreatedBefore(schemeId, createdBefore, userIds);
+    }
+
+    @Override
+    public int deleteExpiredTokens(long now, int maxTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        return dao.deleteExpiredTokens(now, dao.getExpiredSeriesIds(now, maxTokens));
+    }
+
+    @Override
+    public RememberMeRevocation saveRevocation(RememberMeRevocation revocation) {
+        dao.mergeRevocation(revocation);
+        RememberMeRevocation stored = dao.getRevocation(revocation.getSchemeId(), revocation.getKey());
+        if (stored == null) {
+            dao.saveRevocation(revocation);
+            return revocation;
+        }
+        return stored;
+    }
+
+    @Override
+    public List<RememberMeRevocation> getRevocations(long now) {
+        return dao.getRevocations(now);
+    }
+
+    @Override
+    public int deleteExpiredRevocations(long now) {
+        return dao.deleteExpiredRevocations(now);
+    }
+
+    @Override
+    public List<Integer> getUserIdsWithRememberMeProperties(int afterUserId, int maxUsers) {
+        return dao.getUserIdsWithRememberMeProperties(afterUserId, maxUsers);
+    }
+
+    @Override
+    public int migrateUserProperties(List<Integer> userIds) {
+        long now = System.currentTimeMillis();
+        Map<User, Map<String, RememberMeToken>> tokensByUser = new LinkedHashMap<>();
+        Set<String> seriesIds = new HashSet<>();
+        for (Integer userId : userIds) {
+            User user = dao.getUser(userId);
+            if (user == null) {
+                continue;
+            }
+            Map<String, RememberMeToken> tokens = new HashMap<>();
+            for (Map.Entry<String, String> property : user.getUserProperties().entrySet()) {
+                if (!RememberMeTokenMigration.isRememberMeProperty(property.getKey())) {
+                    continue;
+                }
+                RememberMeToken token = RememberMeTokenMigration.parseUserProperty(userId, property.getKey(),
+                        property.getValue(), now);
+                if (token == null) {
+                    log.warn("Unable to read remember-me token in user property " + property.getKey() + " of user "
+                            + userId + ", it has been left in place");
+                    continue;
+                }
+                tokens.put(property.getKey(), token);
+                seriesIds.add(token.getSeriesId());
+            }
+            tokensByUser.put(user, tokens);
+        }
+        Set<String> stored = new HashSet<>(dao.getStoredSeriesIds(seriesIds));
+        int migrated = 0;
+        for (Map.Entry<User, Map<String, RememberMeToken>> entry : tokensByUser.entrySet()) {
+            User user = entry.getKey();
+            for (Map.Entry<String, RememberMeToken> property : entry.getValue().entrySet()) {
+                RememberMeToken token = property.getValue();
+                if (stored.add(token.getSeriesId())) {
+                    dao.saveToken(token);
+                    migrated++;
+                }
+                user.removeUserProperty(property.getKey());
+            }
+            AuthenticationProfileCache.invalidate(user);
+        }
+        dao.flushAndClearSession();
+        return migrated;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Signs SignedRememberMeTokens with HMAC-SHA256, and validates them, without any database access.
+ * <p>
+ * A signed token is formatted as `keyId.payload.signature`, where the payload is the URL-safe base64 encoding of
+ * `userId:deviceId:issuedTime:expiryTime:schemeId`, and the signature is the URL-safe base64 encoding of the
+ * HMAC-SHA256 of `keyId.payload`.  Tokens are always signed with the current key.  To rotate keys, a new current key
+ * is added in front of the existing keys, which remain accepted until the end of a grace window, so that browsers
+ * that are remembered with them can be issued tokens signed with the new key.
+ */
+public class RememberMeTokenSigner {
+
+    /**
+     * The minimum length of each key, in bytes
+     */
+    public static final int MIN_KEY_LENGTH = 32;
+
+    private final Map<String, byte[]> keys;
+    private final String currentKeyId;
+    private final long previousKeysValidUntil;
+
+    /**
+     * @param keys the keys, by key id, in order, the first of which is the current key
+     * @param previousKeysValidUntil the time until which tokens signed with keys other than the current key are
+     * accepted, in milliseconds since the epoch
+     */
+    public RememberMeTokenSigner(Map<String, byte[]> keys, long previousKeysValidUntil) {
+        if (keys == null || keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one remember-me signing key must be configured");
+        }
+        for (Map.Entry<String, byte[]> entry : keys.entrySet()) {
+            if (entry.getKey() == null || !entry.getKey().matches("[A-Za-z0-9_-]+")) {
+                throw new IllegalArgumentException("Invalid remember-me signing key id: " + entry.getKey());
+            }
+            if (entry.getValue() == null || entry.getValue().length < MIN_KEY_LENGTH) {
+                throw new IllegalArgumentException("Remember-me signing key " + entry.getKey() + " must be at least "
+                        + MIN_KEY_LENGTH + " bytes");
+            }
+        }
+        this.keys = Collections.unmodifiableMap(new LinkedHashMap<>(keys));
+        this.currentKeyId = keys.keySet().iterator().next();
+        this.previousKeysValidUntil = previousKeysValidUntil;
+    }
+
+    /**
+     * Parses keys formatted as a comma-separated list of `keyId:key`, where each key is encoded in URL-safe base64
+     * @param value the keys to parse
+     * @return the parsed keys, by key id, in the order they were listed
+     * @throws IllegalArgumentException if a key is not correctly formatted
+     */
+    public static Map<String, byte[]> parseKeys(String value) {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        for (String idAndKey : AuthenticationUtil.getStringList(value, ",")) {
+            String entry = idAndKey.trim();
+            int sep = entry.indexOf(':');
+            if (sep <= 0 || sep == entry.length() - 1) {
+                throw new IllegalArgumentException("Remember-me signing keys must be formatted as keyId:key");
+            }
+            String keyId = entry.substring(0, sep).trim();
+            if (ret.containsKey(keyId)) {
+                throw new IllegalArgumentException("Duplicate remember-me signing key id: " + keyId);
+            }
+            ret.put(keyId, TokenCrypto.fromBase64Url(entry.substring(sep + 1).trim()));
+        }
+        return ret;
+    }
+
+    /**
+     * @param token the token to sign, whose key id is ignored
+     * @return the given token, signed with the current key
+     */
+    public String sign(SignedRememberMeToken token) {
+        String payload = token.getUserId() + ":" + token.getDeviceId() + ":" + token.getIssuedTime() + ":"
+                + token.getExpiryTime() + ":" + token.getSchemeId();
+        String signed = currentKeyId + "." + TokenCrypto.toBase64Url(payload.getBytes(StandardCharsets.UTF_8));
+        return signed + "." + TokenCrypto.toBase64Url(signature(keys.get(currentKeyId), signed));
+    }
+
+    /**
+     * @param value the signed token
+     * @param now the current time, in milliseconds since the epoch
+     * @return the token, if it was signed with a key that is accepted at the given time and has not expired,
+     * otherwise null
+     */
+    public SignedRememberMeToken verify(String value, long now) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        int firstSep = value.indexOf('.');
+        int lastSep = value.lastIndexOf('.');
+        if (firstSep <= 0 || lastSep <= firstSep + 1 || lastSep == value.length() - 1) {
+            return null;
+        }
+        String keyId = value.substring(0, firstSep);
+        byte[] key = keys.get(keyId);
+        if (key == null || (!isCurrentKey(keyId) && now >= previousKeysValidUntil)) {
+            return null;
+        }
+        try {
+            String signed = value.substring(0, lastSep);
+            byte[] signature = TokenCrypto.fromBase64Url(value.substring(lastSep + 1));
+            if (!TokenCrypto.constantTimeEquals(signature(key, signed), signature)) {
+                return null;
+            }
+            byte[] payload = TokenCrypto.fromBase64Url(value.substring(firstSep + 1, lastSep));
+            String[] fields = new String(payload, StandardCharsets.UTF_8).split(":", 5);
+            if (fields.length != 5) {
+                return null;
+            }
+            SignedRememberMeToken token = new SignedRememberMeToken(Integer.valueOf(fields[0]), fields[4], fields[1],
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]), keyId);
+            return token.isExpired(now) ? null : token;
+        }
+        catch (IllegalArgumentException e) {
+            // Not valid base64, or not valid numbers, which can only happen if signed with a different format
+            return null;
+        }
+    }
+
+    private byte[] signature(byte[] key, String signed) {
+        return TokenCrypto.hmacSha256(key, signed.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param keyId the key id
+     * @return true if the given key id is the id of the key that tokens are signed with
+     */
+    public boolean isCurrentKey(String keyId) {
+        return currentKeyId.equals(keyId);
+    }
+
+    /**
+     * @return the id of the key that tokens are signed with
+     */
+    public String getCurrentKeyId() {
+        return currentKeyId;
+    }
+
+    /**
+     * @return the time until which tokens signed with keys other than the current key are accepted, in milliseconds
+     * since the epoch
+     */
+    public long getPreviousKeysValidUntil() {
+        return previousKeysValidUntil;
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the OpenMRS runtime properties file and reloads the authentication configuration when it changes.
+ * <p>
+ * This is used when `authentication.settings.cached` is false, so that changes to the runtime properties take effect
+ * on a running server, without re-reading the file on every request.  Changes are debounced, so that an editor that
+ * writes a file in several steps results in a single reload once the file has been quiet for the configured delay.
+ * The new configuration is validated before it is published, and if it is not valid the current configuration
+ * is left in place.  Counts and timestamps of reloads and failures are retained for monitoring.
+ */
+public class RuntimePropertiesReloader {
+
+    private static final Logger log = LogManager.getLogger(RuntimePropertiesReloader.class);
+
+    /**
+     * The default number of milliseconds that the runtime properties file must be unchanged before it is reloaded
+     */
+    public static final long DEFAULT_RELOAD_DELAY = 1000;
+
+    private static volatile RuntimePropertiesReloader instance;
+
+    private final String applicationName;
+    private final Path file;
+    private final long reloadDelay;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Date lastReloadDate;
+    private volatile Date lastFailureDate;
+    private volatile String lastFailureMessage;
+    private volatile WatchService watchService;
+    private volatile Thread thread;
+
+    /**
+     * @param applicationName the application name from OpenMRS that identifies the name of the runtime properties file
+     * @param file the runtime properties file to watch
+     * @param reloadDelay the number of milliseconds that the file must be unchanged before it is reloaded
+     */
+    public RuntimePropertiesReloader(String applicationName, Path file, long reloadDelay) {
+        this.applicationName = applicationName;
+        this.file = file.toAbsolutePath();
+        this.reloadDelay = reloadDelay;
+    }
+
+    /**
+     * Starts watching the runtime properties file for the given application, if it can be found
+     * Any reloader previously started with this method is stopped first
+     * @param applicationName the application name from OpenMRS that identifies the name of the runtime properties file
+     * @return the started reloader, or null if the runtime properties file could not be found or watched
+     */
+    public static synchronized RuntimePropertiesReloader start(String applicationName) {
+        stop();
+        String pathName = OpenmrsUtil.getRuntimePropertiesFilePathName(applicationName);
+        if (StringUtils.isBlank(pathName)) {
+            log.warn("Unable to find runtime properties file to watch for application " + applicationName);
+            return null;
+        }
+        long reloadDelay = getReloadDelay();
+        RuntimePropertiesReloader reloader = new RuntimePropertiesReloader(applicationName, Paths.get(pathName), reloadDelay);
+        try {
+            reloader.startWatching();
+        }
+        catch (IOException e) {
+            log.warn("Unable to watch runtime properties file " + pathName, e);
+            return null;
+        }
+        instance = reloader;
+        return reloader;
+    }
+
+    /**
+     * @return the configured reload delay, or DEFAULT_RELOAD_DELAY if it is not set or is not a valid number
+     */
+    static long getReloadDelay() {
+        String delay = AuthenticationConfig.getProperty(AuthenticationConfig.SETTINGS_RELOAD_DELAY);
+        if (StringUtils.isNotBlank(delay)) {
+            try {
+                long reloadDelay = Long.parseLong(delay.trim());
+                if (reloadDelay >= 0) {
+                    return reloadDelay;
+                }
+            }
+            catch (NumberFormatException e) {
+                // Logged below
+            }
+            log.warn("Invalid " + AuthenticationConfig.SETTINGS_RELOAD_DELAY + ": " + delay + ", using the default of "
+                    + DEFAULT_RELOAD_DELAY);
+        }
+        return DEFAULT_RELOAD_DELAY;
+    }
+
+    /**
+     * Stops the reloader previously started with start(applicationName), if any
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.stopWatching();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the reloader started with start(applicationName), or null if none is running
+     */
+    public static RuntimePropertiesReloader getInstance() {
+        return instance;
+    }
+
+    /**
+     * This is called on every unauthenticated request, so it only reads volatile fields, and does not lock
+     * @return true if a reloader started with start(applicationName) is watching the runtime properties file
+     */
+    public static boolean isRunning() {
+        RuntimePropertiesReloader reloader = instance;
+        return reloader != null && reloader.isWatching();
+    }
+
+    /**
+     * Starts a background daemon thread that watches the directory of the runtime properties file
+     * @throws IOException if the directory cannot be watched
+     */
+    public synchronized void startWatching() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "authentication-runtime-properties-reloader");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching " + file + " for authentication configuration changes");
+    }
+
+    /**
+     * Stops the background thread that watches the runtime properties file
+     */
+    public synchronized void stopWatching() {
+        Thread t = thread;
+        thread = null;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                log.debug("Error closing watch service", e);
+            }
+            watchService = null;
+        }
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * @return true if the runtime properties file is being watched
+     */
+    public boolean isWatching() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+
+    /**
+     * Waits for changes to the runtime properties file, and reloads once no further changes arrive within the delay
+     * Only events for the runtime properties file restart the delay, so frequent writes to other files in the same
+     * directory, such as log files, cannot postpone a reload indefinitely.
+     */
+    private void watch() {
+        WatchService service = watchService;
+        boolean changePending = false;
+        long lastChangeTime = 0;
+        try {
+            while (thread == Thread.currentThread()) {
+                WatchKey key;
+                if (changePending) {
+                    long remaining = reloadDelay - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastChangeTime);
+                    if (remaining <= 0) {
+                        changePending = false;
+                        reload();
+                        continue;
+                    }
+                    key = service.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        continue;
+                    }
+                }
+                else {
+                    key = service.take();
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(context)) {
+                        changePending = true;
+                        lastChangeTime = System.nanoTime();
+                    }
+                }
+                if (!key.reset()) {
+                    log.warn("Directory of " + file + " is no longer accessible, authentication configuration will not be reloaded");
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Stopped watching " + file);
+        }
+        finally {
+            if (thread == Thread.currentThread()) {
+                thread = null;
+            }
+        }
+    }
+
+    /**
+     * Loads, validates, and publishes the configuration from the runtime properties file
+     * @return true if a new configuration was published, false if it was unchanged or not valid
+     */
+    public boolean reload() {
+        try {
+            Properties runtimeProperties = OpenmrsUtil.getRuntimeProperties(applicationName);
+            if (runtimeProperties == null) {
+                throw new IllegalStateException("Unable to read runtime properties file " + file);
+            }
+            Properties config = AuthenticationUtil.getPropertiesWithPrefix(runtimeProperties, AuthenticationConfig.PREFIX, false);
+            boolean changed = AuthenticationConfig.validateAndPublish(config);
+            if (changed) {
+                generation.incrementAndGet();
+                lastReloadDate = new Date();
+                log.info("Reloaded authentication configuration from " + file);
+            }
+            return changed;
+        }
+        catch (Exception e) {
+            failures.incrementAndGet();
+            lastFailureDate = new Date();
+            lastFailureMessage = e.getMessage();
+            log.error("Unable to reload authentication configuration from " + file + ", keeping current configuration", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the runtime properties file being watched
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of times a changed configuration has been published by this reloader
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the number of times the configuration could not be loaded or was not valid
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the date a changed configuration was last published by this reloader, or null if never
+     */
+    public Date getLastReloadDate() {
+        return lastReloadDate;
+    }
+
+    /**
+     * @return the date the configuration last failed to load or validate, or null if never
+     */
+    public Date getLastFailureDate() {
+        return lastFailureDate;
+    }
+
+    /**
+     * @return the message of the last failure to load or validate the configuration, or null if never
+     */
+    public String getLastFailureMessage() {
+        return lastFailureMessage;
+    }
+}
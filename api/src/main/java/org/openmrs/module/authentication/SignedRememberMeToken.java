@@ -0,0 +1,91 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import java.util.Date;
+
+/**
+ * An immutable remember-me token that is not stored on the server.  All of its fields are sent to the browser,
+ * signed by the RememberMeTokenSigner, so that it can be validated without reading from the database.  The device id
+ * identifies the browser the token was issued to, so that it can be revoked in the RememberMeDenylist.
+ */
+public final class SignedRememberMeToken {
+
+    private final Integer userId;
+    private final String schemeId;
+    private final String deviceId;
+    private final long issuedTime;
+    private final long expiryTime;
+    private final String keyId;
+
+    /**
+     * @param userId the id of the user this token was issued to
+     * @param schemeId the {schemeId} of the authentication scheme that issued this token
+     * @param deviceId the random id of the browser this token was issued to
+     * @param issuedTime the time the user last authenticated with all factors on this browser, in milliseconds
+     * since the epoch
+     * @param expiryTime the time this token expires, in milliseconds since the epoch
+     * @param keyId the id of the key this token was signed with, or null if it has not been signed
+     */
+    public SignedRememberMeToken(Integer userId, String schemeId, String deviceId, long issuedTime, long expiryTime,
+                                 String keyId) {
+        this.userId = userId;
+        this.schemeId = schemeId;
+        this.deviceId = deviceId;
+        this.issuedTime = issuedTime;
+        this.expiryTime = expiryTime;
+        this.keyId = keyId;
+    }
+
+    /**
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if this token has expired at the given time
+     */
+    public boolean isExpired(long now) {
+        return expiryTime <= now;
+    }
+
+    @Override
+    public String toString() {
+        return "deviceId=" + deviceId + ",schemeId=" + schemeId + ",userId=" + userId + ",keyId=" + keyId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public String getSchemeId() {
+        return schemeId;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public long getIssuedTime() {
+        return issuedTime;
+    }
+
+    public Date getIssuedDate() {
+        return new Date(issuedTime);
+    }
+
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    public Date getExpiryDate() {
+        return new Date(expiryTime);
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+}
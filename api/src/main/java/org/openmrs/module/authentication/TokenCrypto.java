@@ -0,0 +1,259 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Random token generation, hashing, encoding, and comparison shared by all authentication schemes.
+ * <p>
+ * A single SecureRandom is created and seeded when this class is loaded, preferring a non-blocking DRBG, so that
+ * generating a token never waits for the operating system to gather entropy.  MessageDigest and Mac instances are
+ * not thread-safe, and looking them up is comparatively expensive, so each thread reuses its own instances.
+ */
+public final class TokenCrypto {
+
+    private static final Logger log = LogManager.getLogger(TokenCrypto.class);
+
+    public static final String SHA_256 = "SHA-256";
+
+    public static final String HMAC_SHA256 = "HmacSHA256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Base64.Encoder BASE64_URL_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder BASE64_URL_DECODER = Base64.getUrlDecoder();
+
+    private static final SecureRandom random = newSecureRandom();
+
+    private static final ThreadLocal<Map<String, MessageDigest>> digests = ThreadLocal.withInitial(HashMap::new);
+
+    private static final ThreadLocal<Map<String, Mac>> macs = ThreadLocal.withInitial(HashMap::new);
+
+    private TokenCrypto() {
+    }
+
+    /**
+     * @return a seeded SecureRandom, using the first of the DRBG, NativePRNGNonBlocking, and default algorithms
+     * that is available
+     */
+    static SecureRandom newSecureRandom() {
+        SecureRandom ret = null;
+        for (String algorithm : new String[] {"DRBG", "NativePRNGNonBlocking"}) {
+            try {
+                ret = SecureRandom.getInstance(algorithm);
+                break;
+            }
+            catch (NoSuchAlgorithmException e) {
+                log.debug("SecureRandom algorithm " + algorithm + " is not available");
+            }
+        }
+        if (ret == null) {
+            ret = new SecureRandom();
+        }
+        // Force seeding now, rather than on the first request that needs a token
+        ret.nextBytes(new byte[1]);
+        log.debug("Using SecureRandom algorithm " + ret.getAlgorithm());
+        return ret;
+    }
+
+    /**
+     * @return the shared SecureRandom, which is thread-safe
+     */
+    public static SecureRandom getSecureRandom() {
+        return random;
+    }
+
+    /**
+     * @param numBytes the number of random bytes
+     * @return a new array of the given number of random bytes
+     */
+    public static byte[] randomBytes(int numBytes) {
+        byte[] bytes = new byte[numBytes];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param numBytes the number of random bytes in the token
+     * @return a URL-safe base64 encoding, without padding, of the given number of random bytes
+     */
+    public static String randomToken(int numBytes) {
+        return toBase64Url(randomBytes(numBytes));
+    }
+
+    /**
+     * @param length the length of the string
+     * @param characters the characters to choose from, each of which is equally likely at each position
+     * @return a string of the given length, made up of randomly chosen characters from those given
+     */
+    public static String randomString(int length, String characters) {
+        if (characters == null || characters.isEmpty()) {
+            throw new IllegalArgumentException("At least one character must be given");
+        }
+        char[] ret = new char[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = characters.charAt(random.nextInt(characters.length()));
+        }
+        return new String(ret);
+    }
+
+    /**
+     * @param algorithm the name of the digest algorithm
+     * @return this thread's instance of the given digest algorithm, which is reset and ready for use
+     */
+    public static MessageDigest getMessageDigest(String algorithm) {
+        MessageDigest digest = digests.get().get(algorithm);
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(algorithm + " not available", e);
+            }
+            digests.get().put(algorithm, digest);
+        }
+        else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    /**
+     * @param algorithm the name of the MAC algorithm
+     * @param key the key to initialize the MAC with
+     * @return this thread's instance of the given MAC algorithm, initialized with the given key
+     */
+    public static Mac getMac(String algorithm, byte[] key) {
+        try {
+            Mac mac = macs.get().get(algorithm);
+            if (mac == null) {
+                mac = Mac.getInstance(algorithm);
+                macs.get().put(algorithm, mac);
+            }
+            mac.init(new SecretKeySpec(key, algorithm));
+            return mac;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        }
+    }
+
+    /**
+     * Initializes the given MAC with a key of zeros, so that it no longer holds state derived from the key it was last
+     * initialized with.  The SecretKeySpec that getMac created for that key cannot be zeroed, and is left to be
+     * garbage collected.
+     * @param mac the MAC to clear
+     */
+    public static void clearMac(Mac mac) {
+        try {
+            mac.init(new SecretKeySpec(new byte[1], mac.getAlgorithm()));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(mac.getAlgorithm() + " not available", e);
+        }
+    }
+
+    /**
+     * @param input the bytes to hash
+     * @return the SHA-256 digest of the given bytes
+     */
+    public static byte[] sha256(byte[] input) {
+        return getMessageDigest(SHA_256).digest(input);
+    }
+
+    /**
+     * @param input the string to hash, which is encoded as UTF-8
+     * @return the lower case hex encoding of the SHA-256 digest of the given string
+     */
+    public static String sha256Hex(String input) {
+        return toHex(sha256(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param key the key
+     * @param data the data to authenticate
+     * @return the HMAC-SHA256 of the given data with the given key
+     */
+    public static byte[] hmacSha256(byte[] key, byte[] data) {
+        return getMac(HMAC_SHA256, key).doFinal(data);
+    }
+
+    /**
+     * @param bytes the bytes to encode
+     * @return the lower case hex encoding of the given bytes
+     */
+    public static String toHex(byte[] bytes) {
+        char[] ret = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            ret[i * 2] = HEX[b >>> 4];
+            ret[i * 2 + 1] = HEX[b & 0x0f];
+        }
+        return new String(ret);
+    }
+
+    /**
+     * @param bytes the bytes to encode
+     * @return the URL-safe base64 encoding of the given bytes, without padding
+     */
+    public static String toBase64Url(byte[] bytes) {
+        return BASE64_URL_ENCODER.encodeToString(bytes);
+    }
+
+    /**
+     * @param encoded the URL-safe base64 encoded string, with or without padding
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the given string is not valid URL-safe base64
+     */
+    public static byte[] fromBase64Url(String encoded) {
+        return BASE64_URL_DECODER.decode(encoded);
+    }
+
+    /**
+     * Compares two strings in a time that depends only on their length, not on where they differ, to limit timing
+     * attacks against secret values.  The strings are compared char by char, so they are not encoded first.
+     * @return true if both strings are non-null and equal
+     */
+    public static boolean constantTimeEquals(String a, String b) {
+        if (a == null || b == null || a.length() != b.length()) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < a.length(); i++) {
+            diff |= a.charAt(i) ^ b.charAt(i);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Compares two byte arrays in a time that depends only on their length, not on where they differ
+     * @return true if both arrays are non-null and equal
+     */
+    public static boolean constantTimeEquals(byte[] a, byte[] b) {
+        if (a == null || b == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(a, b);
+    }
+}
@@ -0,0 +1,375 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of url patterns, compiled once so that a request path can be checked against all of them in a single pass.
+ * <p>
+ * The matching rules are identical to checking each pattern in turn with a case-insensitive, token-trimming
+ * AntPathMatcher against the servlet path, and then against the request URI with the pattern prefixed by the
+ * context path.  Patterns that start with "*" are treated as "ends with" patterns, as in `*.js`.
+ * <p>
+ * Patterns are compiled into:
+ * <ul>
+ *     <li>A trie of literal path segments, covering exact paths such as `/login.htm`</li>
+ *     <li>Descendant rules hanging off that trie, covering `/prefix/**`, `/prefix/**&#47;*` and
+ *     `/prefix/**&#47;*.ext`</li>
+ *     <li>A table of suffixes, keyed on their last character, for the `*.ext` patterns</li>
+ * </ul>
+ * Anything else (patterns with wildcards in the middle, `?` or `{}` templates) is checked with the AntPathMatcher.
+ * Paths that contain whitespace or empty segments are also checked with the AntPathMatcher, as token trimming
+ * can cause those to match in ways that the compiled form does not model.
+ */
+public class UrlPatternMatcher {
+
+    private static final AntPathMatcher antPathMatcher = new AntPathMatcher();
+
+    static {
+        antPathMatcher.setCaseSensitive(false);
+        antPathMatcher.setTrimTokens(true);
+    }
+
+    private final List<String> patterns;
+    private final CompiledPatterns servletPathPatterns;
+    private volatile CompiledPatterns requestUriPatterns;
+
+    /**
+     * @param patterns the url patterns to compile, ignoring any that are null
+     */
+    public UrlPatternMatcher(List<String> patterns) {
+        List<String> nonNull = new ArrayList<>(patterns.size());
+        List<String> expanded = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            if (pattern != null) {
+                nonNull.add(pattern);
+                expanded.add(pattern.startsWith("*") ? "/**/" + pattern : pattern);
+            }
+        }
+        this.patterns = Collections.unmodifiableList(nonNull);
+        this.servletPathPatterns = new CompiledPatterns(null, expanded);
+    }
+
+    /**
+     * @return the url patterns that this matcher was compiled from
+     */
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @param servletPath the servlet path of the request
+     * @param requestUri the request URI of the request
+     * @param contextPath the context path of the web application
+     * @return true if either the servlet path or the request URI matches at least one of the patterns
+     */
+    public boolean matches(String servletPath, String requestUri, String contextPath) {
+        if (servletPathPatterns.matches(servletPath)) {
+            return true;
+        }
+        return getRequestUriPatterns(contextPath == null ? "" : contextPath).matches(requestUri);
+    }
+
+    /**
+     * Patterns matched against the request URI are prefixed with the context path, which is only known once a request
+     * arrives. As this is the same for every request to the web application, the last compiled form is retained.
+     */
+    private CompiledPatterns getRequestUriPatterns(String contextPath) {
+        CompiledPatterns compiled = requestUriPatterns;
+        if (compiled == null || !contextPath.equals(compiled.contextPath)) {
+            List<String> contextualized = new ArrayList<>(servletPathPatterns.patterns.length);
+            for (String pattern : servletPathPatterns.patterns) {
+                contextualized.add(contextualizeUrl(contextPath, pattern));
+            }
+            compiled = new CompiledPatterns(contextPath, contextualized);
+            requestUriPatterns = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * @see org.openmrs.module.authentication.web.WebUtil#contextualizeUrl
+     */
+    private static String contextualizeUrl(String contextPath, String url) {
+        if (!url.startsWith(contextPath)) {
+            url = contextPath + (url.startsWith("/") ? "" : "/") + url;
+        }
+        return url;
+    }
+
+    /**
+     * @return true if the given path contains characters that AntPathMatcher would trim or ignore when tokenizing
+     */
+    private static boolean requiresTokenization(String path) {
+        char previous = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c <= ' ' || c == '\u0085' || c == '\u2028' || c == '\u2029' || (c == '/' && previous == '/')) {
+                return true;
+            }
+            previous = c;
+        }
+        return false;
+    }
+
+    /**
+     * @return the given character, lower-cased if it is an ASCII letter, as per case-insensitive regular expressions
+     */
+    private static char foldAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * The compiled form of a list of patterns
+     */
+    private static class CompiledPatterns {
+
+        private final String contextPath;
+        private final String[] patterns;
+        private final Node root = new Node(null);
+        private final String[] fallbackPatterns;
+
+        CompiledPatterns(String contextPath, List<String> patterns) {
+            this.contextPath = contextPath;
+            this.patterns = patterns.toArray(new String[0]);
+            List<String> fallback = new ArrayList<>();
+            for (String pattern : patterns) {
+                if (!compile(pattern)) {
+                    fallback.add(pattern);
+                }
+            }
+            this.fallbackPatterns = fallback.toArray(new String[0]);
+            root.seal();
+        }
+
+        /**
+         * Adds the given pattern to the trie if it has a form that is supported
+         * @return false if the pattern must instead be checked with the AntPathMatcher
+         */
+        private boolean compile(String pattern) {
+            if (pattern.length() < 2 || pattern.charAt(0) != '/' || requiresTokenization(pattern)) {
+                return false;
+            }
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '?' || c == '{' || c == '}') {
+                    return false;
+                }
+            }
+            boolean trailingSlash = pattern.endsWith("/");
+            String[] segments = pattern.substring(1, trailingSlash ? pattern.length() - 1 : pattern.length()).split("/");
+            int literalCount = 0;
+            while (literalCount < segments.length && segments[literalCount].indexOf('*') < 0) {
+                literalCount++;
+            }
+            int wildcardCount = segments.length - literalCount;
+            if (wildcardCount > 0 && (trailingSlash || !"**".equals(segments[literalCount]) || wildcardCount > 2)) {
+                return false;
+            }
+            String suffix = null;
+            if (wildcardCount == 2) {
+                String last = segments[literalCount + 1];
+                if (last.charAt(0) != '*' || last.indexOf('*', 1) >= 0) {
+                    return false;
+                }
+                suffix = last.substring(1);
+            }
+            Node node = root;
+            for (int i = 0; i < literalCount; i++) {
+                node = node.getOrAddChild(segments[i]);
+            }
+            if (wildcardCount == 0) {
+                if (trailingSlash) {
+                    node.exactWithTrailingSlash = true;
+                }
+                else {
+                    node.exact = true;
+                }
+            }
+            else if (wildcardCount == 1) {
+                node.selfOrAnyDescendant = true;
+            }
+            else if (suffix.isEmpty()) {
+                node.anyDescendant = true;
+            }
+            else {
+                node.descendantSuffixes.add(suffix);
+            }
+            return true;
+        }
+
+        boolean matches(String path) {
+            if (path == null) {
+                return false;
+            }
+            if (path.startsWith("/") && !requiresTokenization(path)) {
+                return root.matches(path) || matchesAny(fallbackPatterns, path);
+            }
+            return matchesAny(patterns, path);
+        }
+
+        private static boolean matchesAny(String[] patterns, String path) {
+            for (String pattern : patterns) {
+                if (antPathMatcher.match(pattern, path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A literal path segment within the trie, along with the rules that apply to paths that reach it
+     */
+    private static class Node {
+
+        private final String segment;
+        private final List<Node> childList = new ArrayList<>();
+        private final List<String> descendantSuffixes = new ArrayList<>();
+        private Node[] children;
+        private SuffixTable suffixTable;
+        private boolean exact;
+        private boolean exactWithTrailingSlash;
+        private boolean selfOrAnyDescendant;
+        private boolean anyDescendant;
+
+        Node(String segment) {
+            this.segment = segment;
+        }
+
+        Node getOrAddChild(String segment) {
+            for (Node child : childList) {
+                if (child.segment.equalsIgnoreCase(segment)) {
+                    return child;
+                }
+            }
+            Node child = new Node(segment);
+            childList.add(child);
+            return child;
+        }
+
+        void seal() {
+            children = childList.toArray(new Node[0]);
+            suffixTable = descendantSuffixes.isEmpty() ? null : new SuffixTable(descendantSuffixes);
+            for (Node child : children) {
+                child.seal();
+            }
+        }
+
+        /**
+         * Walks the path one segment at a time, without allocating.  The path must start with "/" and have no
+         * empty segments
+         */
+        boolean matches(String path) {
+            int end = path.length();
+            boolean trailingSlash = path.charAt(end - 1) == '/';
+            if (trailingSlash && end > 1) {
+                end--;
+            }
+            int lastSegmentStart = path.lastIndexOf('/', end - 1) + 1;
+            Node node = this;
+            int start = 1;
+            while (true) {
+                if (node.selfOrAnyDescendant) {
+                    return true;
+                }
+                if (start >= end) {
+                    return trailingSlash ? node.exactWithTrailingSlash : node.exact;
+                }
+                if (node.anyDescendant) {
+                    return true;
+                }
+                if (node.suffixTable != null && node.suffixTable.matches(path, lastSegmentStart, end)) {
+                    return true;
+                }
+                int segmentEnd = path.indexOf('/', start);
+                if (segmentEnd < 0 || segmentEnd > end) {
+                    segmentEnd = end;
+                }
+                node = node.getChild(path, start, segmentEnd);
+                if (node == null) {
+                    return false;
+                }
+                start = segmentEnd + 1;
+            }
+        }
+
+        private Node getChild(String path, int start, int end) {
+            int length = end - start;
+            for (Node child : children) {
+                if (child.segment.length() == length && child.segment.regionMatches(true, 0, path, start, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Suffixes of `*suffix` segments, bucketed by their last character
+     */
+    private static class SuffixTable {
+
+        private static final int ASCII = 128;
+
+        private final String[][] buckets = new String[ASCII + 1][];
+
+        SuffixTable(List<String> suffixes) {
+            List<List<String>> lists = new ArrayList<>();
+            for (int i = 0; i < buckets.length; i++) {
+                lists.add(new ArrayList<>());
+            }
+            for (String suffix : suffixes) {
+                lists.get(bucketFor(suffix.charAt(suffix.length() - 1))).add(suffix);
+            }
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = lists.get(i).isEmpty() ? null : lists.get(i).toArray(new String[0]);
+            }
+        }
+
+        private static int bucketFor(char c) {
+            char folded = foldAscii(c);
+            return folded < ASCII ? folded : ASCII;
+        }
+
+        /**
+         * @return true if the segment of the path between start and end ends with any of the suffixes
+         */
+        boolean matches(String path, int start, int end) {
+            String[] bucket = buckets[bucketFor(path.charAt(end - 1))];
+            if (bucket != null) {
+                for (String suffix : bucket) {
+                    if (endsWith(path, start, end, suffix)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean endsWith(String path, int start, int end, String suffix) {
+            int offset = end - suffix.length();
+            if (offset < start) {
+                return false;
+            }
+            for (int i = 0; i < suffix.length(); i++) {
+                if (foldAscii(path.charAt(offset + i)) != foldAscii(suffix.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
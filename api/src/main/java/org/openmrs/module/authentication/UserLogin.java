@@ -14,67 +14,125 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
-import org.apache.logging.log4j.ThreadContext;
 import org.openmrs.User;
 import org.openmrs.api.context.Authenticated;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.util.PrivilegeConstants;
 
-import java.io.Serializable;
-import java.util.ArrayList;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a particular User Login session and used to track a user's status in the authentication
  * workflow and throughout their usage of the application.  This would typically be stored in the HttpSession
  * in a web-based context.  This needs to be serializable and kept relatively light-weight.
+ * <p>
+ * A UserLogin is shared by all concurrent requests within the same HTTP session, and the fields that are written on
+ * every request are volatile, so that they can be read and written without locking.  Only the state transitions of
+ * the authentication workflow are synchronized, and events are recorded and logged outside of the lock.
+ * <p>
+ * A UserLogin is Externalizable, so that it is small when the HTTP session is persisted or replicated.  Rather than
+ * the User and its object graph, only the id of the user is written, along with the dates as epoch milliseconds, the
+ * ids of the schemes whose credentials have been validated, and the retained event history.  The User is loaded
+ * again the first time it is accessed after deserialization.  Unvalidated credentials are only held for the duration
+ * of an authentication attempt, and may refer to the scheme that created them, so these are not written.
  */
-public class UserLogin implements Serializable {
+public class UserLogin implements Externalizable {
 
-    // This log is used to log all login events
     private static final Logger log = LogManager.getLogger(UserLogin.class);
 
+    /**
+     * The version of the serialized form written by writeExternal
+     */
+    private static final byte SERIAL_FORM_VERSION = 1;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
     // This is the parent marker for all Markers logged.  Display, along with child markers, as %marker
     public static final Marker EVENT_MARKER = MarkerManager.getMarker("AUTHENTICATION_EVENT");
 
-    private final String loginId;
-    private final Date dateCreated;
-    private Date loginDate;
-    private Date logoutDate;
-    private Date lastActivityDate;
-    private String httpSessionId;
-    private String ipAddress;
-    private String username;
-    private List<AuthenticationEvent> events = new ArrayList<>();
-    protected User user;
+    /**
+     * The resolution of the last activity time recorded by recordActivity, in milliseconds
+     */
+    public static final long ACTIVITY_RESOLUTION = 1000;
+
+    private volatile String loginId;
+    private Date dateCreated;
+    private volatile Date loginDate;
+    private volatile Date logoutDate;
+    private volatile long lastActivityTime;
+    private volatile String httpSessionId;
+    private volatile String ipAddress;
+    private volatile String username;
+    private volatile AuthenticationEventHistory events;
+    protected volatile User user;
+    private transient volatile Integer pendingUserId;
+    private transient volatile String pendingUsername;
     private final Map<String, AuthenticationCredentials> unvalidatedCredentials = Collections.synchronizedMap(new HashMap<>());
     private final Set<String> validatedCredentials = Collections.synchronizedSet(new HashSet<>());
+    private final Map<String, Object> cachedValues = new ConcurrentHashMap<>();
 
     /**
-     * Constructs a new instance with a new login id
+     * Constructs a new instance.  This constructor is also used when a UserLogin is deserialized, and readExternal
+     * replaces the login id and event history, so these are only created when first accessed.  A login id is
+     * generated from a SecureRandom, and the event history is sized from the configuration, so a deserialized
+     * UserLogin does neither.
      */
     public UserLogin() {
-        loginId = UUID.randomUUID().toString();
         dateCreated = new Date();
     }
 
     @Override
     public String toString() {
-        return "loginId=" + loginId + ",username=" + username;
+        return "loginId=" + getLoginId() + ",username=" + username;
     }
 
     /**
-     * @return the unique login id for this user login
+     * @return the unique login id for this user login, which is generated when it is first requested
      */
     public String getLoginId() {
-        return loginId;
+        String id = loginId;
+        if (id == null) {
+            synchronized (this) {
+                id = loginId;
+                if (id == null) {
+                    id = UUID.randomUUID().toString();
+                    loginId = id;
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the event history, which is created, with the configured size, when it is first requested
+     */
+    private AuthenticationEventHistory events() {
+        AuthenticationEventHistory history = events;
+        if (history == null) {
+            synchronized (this) {
+                history = events;
+                if (history == null) {
+                    history = new AuthenticationEventHistory(AuthenticationConfig.getEventHistorySize());
+                    events = history;
+                }
+            }
+        }
+        return history;
     }
 
     /**
@@ -102,14 +160,35 @@ public class UserLogin implements Serializable {
      * @return the last activity date associated with this
      */
     public Date getLastActivityDate() {
-        return lastActivityDate;
+        long time = lastActivityTime;
+        return time == 0 ? null : new Date(time);
+    }
+
+    /**
+     * @return the last activity time associated with this, in milliseconds since the epoch, or 0 if none
+     */
+    public long getLastActivityTime() {
+        return lastActivityTime;
     }
 
     /**
      * @param lastActivityDate the last activity date associated with this
      */
-    public synchronized void setLastActivityDate(Date lastActivityDate) {
-        this.lastActivityDate = lastActivityDate;
+    public void setLastActivityDate(Date lastActivityDate) {
+        this.lastActivityTime = lastActivityDate == null ? 0 : lastActivityDate.getTime();
+    }
+
+    /**
+     * Records activity at the current time.  This is called on every request, so the time is only written if it
+     * has advanced by at least ACTIVITY_RESOLUTION since it was last recorded, which avoids redundant writes to a
+     * field shared by all concurrent requests in the same session
+     */
+    public void recordActivity() {
+        long now = System.currentTimeMillis();
+        if (now - lastActivityTime >= ACTIVITY_RESOLUTION) {
+            lastActivityTime = now;
+            UserLoginTracker.activeLoginActivity(this);
+        }
     }
 
     /**
@@ -122,8 +201,12 @@ public class UserLogin implements Serializable {
     /**
      * @param httpSessionId the http Session id associated with this
      */
-    public synchronized void setHttpSessionId(String httpSessionId) {
+    public void setHttpSessionId(String httpSessionId) {
+        String previous = this.httpSessionId;
         this.httpSessionId = httpSessionId;
+        if (!Objects.equals(previous, httpSessionId)) {
+            UserLoginTracker.activeLoginChanged(this);
+        }
     }
 
     /**
@@ -136,8 +219,12 @@ public class UserLogin implements Serializable {
     /**
      * @param ipAddress the ipAddress associated with this
      */
-    public synchronized void setIpAddress(String ipAddress) {
+    public void setIpAddress(String ipAddress) {
+        String previous = this.ipAddress;
         this.ipAddress = ipAddress;
+        if (!Objects.equals(previous, ipAddress)) {
+            UserLoginTracker.activeLoginChanged(this);
+        }
     }
 
     /**
@@ -146,37 +233,88 @@ public class UserLogin implements Serializable {
      * otherwise, return the username that was set on this login, generally during initial primary authentication
      */
     public String getUsername() {
-        return user != null ? StringUtils.defaultIfBlank(user.getUsername(), user.getSystemId()) : username;
+        User u = user;
+        if (u != null) {
+            return StringUtils.defaultIfBlank(u.getUsername(), u.getSystemId());
+        }
+        return pendingUserId != null && pendingUsername != null ? pendingUsername : username;
     }
 
     /**
      * @param username the username associated with this login, which can be used to associate this login with
      * a particular user attempting to log in prior to identifying a validated candidate or authenticated user
      */
-    public synchronized void setUsername(String username) {
+    public void setUsername(String username) {
         this.username = username;
     }
 
     /**
      * @return the user associated with this login.  typically this will only be set during the authentication
-     * process, by calling the markCredentialAsValid method
+     * process, by calling the markCredentialAsValid method.  After deserialization, the user is loaded by id the
+     * first time this is called
      */
     public User getUser() {
-        return user;
+        User u = user;
+        if (u == null && pendingUserId != null) {
+            u = loadPendingUser();
+        }
+        return u;
     }
 
     /**
      * @param user the user associated with this login.  This is not expected to typically be used directly
      */
-    public synchronized void setUser(User user) {
-        this.user = user;
+    public void setUser(User user) {
+        Integer previousUserId;
+        synchronized (this) {
+            previousUserId = getUserId();
+            this.user = user;
+            this.pendingUserId = null;
+            this.pendingUsername = null;
+        }
+        if (!Objects.equals(previousUserId, getUserId())) {
+            cachedValues.clear();
+            UserLoginTracker.activeLoginChanged(this);
+        }
     }
 
     /**
-     * @return the userId of the user on the login if present, null otherwise
+     * @return the userId of the user on the login if present, null otherwise.  This does not load the user
      */
     public Integer getUserId() {
-        return user == null ? null : user.getUserId();
+        User u = user;
+        return u == null ? pendingUserId : u.getUserId();
+    }
+
+    /**
+     * Loads the user whose id was read by readExternal.  If the user cannot be loaded, for example if there is no
+     * open session on this thread, the id is retained so that loading can be tried again on the next access
+     */
+    private synchronized User loadPendingUser() {
+        Integer userId = pendingUserId;
+        if (user != null || userId == null) {
+            return user;
+        }
+        boolean privilegeAdded = false;
+        try {
+            Context.addProxyPrivilege(PrivilegeConstants.GET_USERS);
+            privilegeAdded = true;
+            User loaded = Context.getUserService().getUser(userId);
+            if (loaded == null) {
+                log.debug("User " + userId + " associated with login " + getLoginId() + " no longer exists");
+            }
+            setUser(loaded);
+            return loaded;
+        }
+        catch (Exception e) {
+            log.debug("Unable to load user " + userId + " associated with login " + getLoginId(), e);
+            return null;
+        }
+        finally {
+            if (privilegeAdded) {
+                Context.removeProxyPrivilege(PrivilegeConstants.GET_USERS);
+            }
+        }
     }
 
     /**
@@ -184,13 +322,16 @@ public class UserLogin implements Serializable {
      * @param schemeId the id of the authentication scheme
      * @param authenticated the resulting Authenticated user
      */
-    public synchronized void authenticationSuccessful(String schemeId, Authenticated authenticated) {
-        if (authenticated.getUser() == null || (user != null && !user.equals(authenticated.getUser()))) {
-            throw new ContextAuthenticationException("authentication.error.userDiffersFromCandidateUser");
+    public void authenticationSuccessful(String schemeId, Authenticated authenticated) {
+        synchronized (this) {
+            User candidateUser = getUser();
+            if (authenticated.getUser() == null || (candidateUser != null && !candidateUser.equals(authenticated.getUser()))) {
+                throw new ContextAuthenticationException("authentication.error.userDiffersFromCandidateUser");
+            }
+            setUser(authenticated.getUser());
+            validatedCredentials.add(schemeId);
+            unvalidatedCredentials.remove(schemeId);
         }
-        setUser(authenticated.getUser());
-        validatedCredentials.add(schemeId);
-        unvalidatedCredentials.remove(schemeId);
         recordEvent(AuthenticationEvent.AUTHENTICATION_SUCCEEDED, schemeId);
     }
 
@@ -198,10 +339,12 @@ public class UserLogin implements Serializable {
      * Records a failed authentication with the given scheme
      * @param schemeId the id of the authentication scheme that failed
      */
-    public synchronized void authenticationFailed(String schemeId) {
-        unvalidatedCredentials.remove(schemeId);
-        if (validatedCredentials.isEmpty()) {
-            setUser(null);
+    public void authenticationFailed(String schemeId) {
+        synchronized (this) {
+            unvalidatedCredentials.remove(schemeId);
+            if (validatedCredentials.isEmpty()) {
+                setUser(null);
+            }
         }
         recordEvent(AuthenticationEvent.AUTHENTICATION_FAILED, schemeId);
     }
@@ -209,7 +352,7 @@ public class UserLogin implements Serializable {
     /**
      * Records a successful login into the system
      */
-    public synchronized void loginSuccessful() {
+    public void loginSuccessful() {
         this.loginDate = new Date();
         UserLoginTracker.addActiveLogin(this);
         recordEvent(AuthenticationEvent.LOGIN_SUCCEEDED, null);
@@ -218,16 +361,18 @@ public class UserLogin implements Serializable {
     /**
      * Records a failed login into the system
      */
-    public synchronized void loginFailed() {
-        setUsername(null);
-        setUser(null);
+    public void loginFailed() {
+        synchronized (this) {
+            setUsername(null);
+            setUser(null);
+        }
         recordEvent(AuthenticationEvent.LOGIN_FAILED, null);
     }
 
     /**
      * Records that this user login has expired
      */
-    public synchronized void loginExpired() {
+    public void loginExpired() {
         UserLoginTracker.removeActiveLogin(this);
         recordEvent(AuthenticationEvent.LOGIN_EXPIRED, null);
     }
@@ -235,7 +380,7 @@ public class UserLogin implements Serializable {
     /**
      * Records a successful logout from the system
      */
-    public synchronized void logoutSucceeded() {
+    public void logoutSucceeded() {
         this.logoutDate = new Date();
         UserLoginTracker.removeActiveLogin(this);
         recordEvent(AuthenticationEvent.LOGOUT_SUCCEEDED, null);
@@ -244,7 +389,7 @@ public class UserLogin implements Serializable {
     /**
      * Records a failed logout from the system
      */
-    public synchronized void logoutFailed() {
+    public void logoutFailed() {
         recordEvent(AuthenticationEvent.LOGOUT_FAILED, null);
     }
 
@@ -266,47 +411,40 @@ public class UserLogin implements Serializable {
      * </ul>
      * In addition, all events are logged with a Marker named AUTHENTICATION_EVENT
      * The logged message is a toString representation of all context data listed above
+     * Events are logged by the Log4jAuthenticationEventSink, through the AuthenticationEventPipeline, which by
+     * default does so on a background thread, so logging does not add to the latency of the recording thread
      * @param event the event to log
      * @param schemeId the schemeId that the event refers to, if this corresponds to a specific authentication scheme
      */
-    public synchronized void recordEvent(String event, String schemeId) {
-        events.add(new AuthenticationEvent(event));
-        if (log.isInfoEnabled()) {
-            try {
-                ThreadContext.put("event", event);
-                ThreadContext.put("schemeId", schemeId);
-                ThreadContext.put("loginId", getLoginId());
-                ThreadContext.put("httpSessionId", getHttpSessionId());
-                ThreadContext.put("ipAddress", getIpAddress());
-                ThreadContext.put("username", getUsername());
-                ThreadContext.put("userId", getUserId() == null ? null : getUserId().toString());
-                ThreadContext.put("lastActivityDate", AuthenticationUtil.formatIsoDate(getLastActivityDate()));
-                log.info(EVENT_MARKER, ThreadContext.getContext().toString());
-            }
-            finally {
-                ThreadContext.clearAll();
-            }
+    public void recordEvent(String event, String schemeId) {
+        long eventTime = System.currentTimeMillis();
+        events().add(event, eventTime);
+        if (AuthenticationEventPipeline.hasEnabledSinks()) {
+            AuthenticationEventPipeline.publish(new AuthenticationEventRecord(this, event, eventTime, schemeId));
         }
     }
 
     /**
-     * @return the list of AuthenticationEvents associated with this UserLogin
+     * @return the most recent AuthenticationEvents associated with this UserLogin, oldest first, as an unmodifiable
+     * List.  The number of events retained is limited by `authentication.events.historySize`
      */
     public List<AuthenticationEvent> getEvents() {
-        return events;
+        return events().getEvents();
+    }
+
+    /**
+     * @return the history of AuthenticationEvents associated with this UserLogin
+     */
+    public AuthenticationEventHistory getEventHistory() {
+        return events();
     }
 
     /**
      * @param event the event to check
-     * @return true if this contains an event with the given name
+     * @return true if an event with the given name has been recorded, even if it is no longer retained in getEvents
      */
     public boolean containsEvent(String event) {
-        for (AuthenticationEvent e : getEvents()) {
-            if (e.getEvent().equalsIgnoreCase(event)) {
-                return true;
-            }
-        }
-        return false;
+        return events().contains(event);
     }
 
     /**
@@ -351,4 +489,128 @@ public class UserLogin implements Serializable {
     public Set<String> getValidatedCredentials() {
         return validatedCredentials;
     }
+
+    /**
+     * Values are cached on a login to avoid repeating work on each request of a login attempt.  They are not
+     * serialized, and are cleared if the user associated with this login changes.
+     * @param key the key the value was cached with
+     * @return the value cached with the given key, or null if there is none
+     */
+    public Object getCachedValue(String key) {
+        return cachedValues.get(key);
+    }
+
+    /**
+     * @param key the key to cache the value with
+     * @param value the value to cache, or null to remove any value cached with the given key
+     * @see #getCachedValue(String)
+     */
+    public void setCachedValue(String key, Object value) {
+        if (value == null) {
+            cachedValues.remove(key);
+        }
+        else {
+            cachedValues.put(key, value);
+        }
+    }
+
+    /**
+     * Writes the compact serialized form of this UserLogin
+     * @see Externalizable#writeExternal(ObjectOutput)
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        User u;
+        Integer userId;
+        String resolvedUsername;
+        String[] validatedSchemeIds;
+        synchronized (this) {
+            u = user;
+            userId = u == null ? pendingUserId : u.getUserId();
+            resolvedUsername = u == null ? pendingUsername : StringUtils.defaultIfBlank(u.getUsername(), u.getSystemId());
+            synchronized (validatedCredentials) {
+                validatedSchemeIds = validatedCredentials.toArray(new String[0]);
+            }
+        }
+        if (u != null && userId == null) {
+            log.debug("User associated with login " + getLoginId() + " has no id and will not be serialized");
+        }
+        out.writeByte(SERIAL_FORM_VERSION);
+        out.writeUTF(getLoginId());
+        writeTime(out, dateCreated);
+        writeTime(out, loginDate);
+        writeTime(out, logoutDate);
+        out.writeLong(lastActivityTime);
+        writeString(out, httpSessionId);
+        writeString(out, ipAddress);
+        writeString(out, username);
+        out.writeBoolean(userId != null);
+        if (userId != null) {
+            out.writeInt(userId);
+            writeString(out, resolvedUsername);
+        }
+        out.writeInt(validatedSchemeIds.length);
+        for (String schemeId : validatedSchemeIds) {
+            out.writeUTF(schemeId);
+        }
+        events().writeTo(out);
+    }
+
+    /**
+     * Reads the compact serialized form of this UserLogin.  The user is not loaded until it is first accessed
+     * @see Externalizable#readExternal(ObjectInput)
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != SERIAL_FORM_VERSION) {
+            throw new InvalidClassException(UserLogin.class.getName(), "Unsupported serialized form version " + version);
+        }
+        synchronized (this) {
+            loginId = in.readUTF();
+            dateCreated = readTime(in);
+            loginDate = readTime(in);
+            logoutDate = readTime(in);
+            lastActivityTime = in.readLong();
+            httpSessionId = readString(in);
+            ipAddress = readString(in);
+            username = readString(in);
+            user = null;
+            pendingUserId = null;
+            pendingUsername = null;
+            if (in.readBoolean()) {
+                pendingUserId = in.readInt();
+                pendingUsername = readString(in);
+            }
+            unvalidatedCredentials.clear();
+            validatedCredentials.clear();
+            int numValidated = in.readInt();
+            for (int i = 0; i < numValidated; i++) {
+                validatedCredentials.add(in.readUTF());
+            }
+            AuthenticationEventHistory history = new AuthenticationEventHistory(1);
+            history.readFrom(in);
+            events = history;
+        }
+    }
+
+    private static void writeTime(ObjectOutput out, Date date) throws IOException {
+        out.writeLong(date == null ? NO_TIME : date.getTime());
+    }
+
+    private static Date readTime(ObjectInput in) throws IOException {
+        long time = in.readLong();
+        return time == NO_TIME ? null : new Date(time);
+    }
+
+    private static void writeString(ObjectOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(ObjectInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
 }
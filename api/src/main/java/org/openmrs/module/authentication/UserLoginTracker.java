@@ -9,20 +9,46 @@
  */
 package org.openmrs.module.authentication;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * This class maintains a UserLogins that are tracked across the application.  The primary purpose is to
  * maintain a collection of active UserLogin instances that represent the currently logged-in users, and to
  * maintain a ThreadLocal of UserLogin instances to enable tracking a particular UserLogin throughout the
  * lifetime of a thread
+ * <p>
+ * Active logins are held in a ConcurrentHashMap keyed on loginId, and are also indexed by userId, ip address, and
+ * http session id, so that the logins for any of these can be found without scanning all active logins.  All changes
+ * to the indexes for a given login are made within a compute on its entry in the active logins, so these are applied
+ * atomically with respect to adding and removing that login, and the indexes are updated by UserLogin whenever one
+ * of the indexed values changes.
+ * <p>
+ * Each change to the active logins is also passed to the configured ActiveLoginBackend, within the same compute, so
+ * the backend sees the changes to each login in order.  The backend may share the active logins of this node with
+ * other nodes in a cluster.  By default, the backend reports only the logins on this node.
  */
 public class UserLoginTracker {
 
+    private static final Logger log = LogManager.getLogger(UserLoginTracker.class);
+
     private static final ThreadLocal<UserLogin> threadLogins = new ThreadLocal<>();
-    private static final Map<String, UserLogin> activeLogins = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final Map<String, UserLogin> activeLogins = new ConcurrentHashMap<>();
+    private static final LoginIndex<Integer> loginsByUserId = new LoginIndex<>(UserLogin::getUserId);
+    private static final LoginIndex<String> loginsByIpAddress = new LoginIndex<>(UserLogin::getIpAddress);
+    private static final LoginIndex<String> loginsByHttpSessionId = new LoginIndex<>(UserLogin::getHttpSessionId);
+    private static volatile ActiveLoginBackend backend = new LocalActiveLoginBackend();
 
     /**
      * This method should be called in order to register the given UserLogin on the current thread
@@ -54,7 +80,21 @@ public class UserLoginTracker {
      * @param userLogin the UserLogin to add
      */
     public static void addActiveLogin(UserLogin userLogin) {
-        activeLogins.put(userLogin.getLoginId(), userLogin);
+        boolean[] added = new boolean[1];
+        activeLogins.compute(userLogin.getLoginId(), (loginId, existing) -> {
+            if (existing != null && existing != userLogin) {
+                removeFromIndexes(existing);
+                notifyBackend(b -> b.loginRemoved(existing));
+            }
+            updateIndexes(userLogin);
+            notifyBackend(b -> b.loginAdded(userLogin));
+            added[0] = existing == null;
+            return userLogin;
+        });
+        if (added[0]) {
+            AuthenticationMetrics.increment(AuthenticationMetrics.ACTIVE_LOGINS_ADDED);
+        }
+        IdleLoginExpiry.activeLoginAdded(userLogin);
     }
 
     /**
@@ -63,7 +103,115 @@ public class UserLoginTracker {
      * @param userLogin the UserLogin to remove
      */
     public static void removeActiveLogin(UserLogin userLogin) {
-        activeLogins.remove(userLogin.getLoginId());
+        boolean[] removed = new boolean[1];
+        activeLogins.computeIfPresent(userLogin.getLoginId(), (loginId, existing) -> {
+            removeFromIndexes(existing);
+            notifyBackend(b -> b.loginRemoved(existing));
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            AuthenticationMetrics.increment(AuthenticationMetrics.ACTIVE_LOGINS_REMOVED);
+        }
+    }
+
+    /**
+     * Updates the indexes of the given UserLogin, if it is active.  This is called by UserLogin whenever its
+     * userId, ip address, or http session id changes
+     * @param userLogin the UserLogin that has changed
+     */
+    static void activeLoginChanged(UserLogin userLogin) {
+        activeLogins.computeIfPresent(userLogin.getLoginId(), (loginId, existing) -> {
+            if (existing == userLogin) {
+                updateIndexes(userLogin);
+                notifyBackend(b -> b.loginChanged(userLogin));
+            }
+            return existing;
+        });
+    }
+
+    /**
+     * Passes activity on the given UserLogin to the backend, if it is active.  This is called by UserLogin at most
+     * once every UserLogin.ACTIVITY_RESOLUTION, when it records activity
+     * @param userLogin the UserLogin that has had activity
+     */
+    static void activeLoginActivity(UserLogin userLogin) {
+        ActiveLoginBackend b = backend;
+        if (!(b instanceof LocalActiveLoginBackend) && activeLogins.get(userLogin.getLoginId()) == userLogin) {
+            notifyBackend(x -> x.loginActivity(userLogin));
+        }
+    }
+
+    /**
+     * Starts the backend configured by `authentication.activeLogins.backend`, if any, in place of the current one,
+     * and passes all active logins on this node to it.  If the backend cannot be started, the current one is kept.
+     * @return the backend in use
+     */
+    public static synchronized ActiveLoginBackend startBackend() {
+        return startBackend(null);
+    }
+
+    /**
+     * Starts the backend configured by `authentication.activeLogins.backend`, if any, in place of the current one,
+     * and passes all active logins on this node to it.  If the backend cannot be started, the current one is kept.
+     * @param daemonToken the token passed to a backend that is DaemonTokenAware, may be null
+     * @return the backend in use
+     */
+    public static synchronized ActiveLoginBackend startBackend(DaemonToken daemonToken) {
+        ActiveLoginBackend newBackend = AuthenticationConfig.getClassInstance(AuthenticationConfig.ACTIVE_LOGINS_BACKEND, ActiveLoginBackend.class);
+        if (newBackend == null) {
+            newBackend = new LocalActiveLoginBackend();
+        }
+        if (newBackend instanceof DaemonTokenAware) {
+            ((DaemonTokenAware) newBackend).setDaemonToken(daemonToken);
+        }
+        newBackend.configure(AuthenticationConfig.getSubsetWithPrefix(AuthenticationConfig.ACTIVE_LOGINS_BACKEND_CONFIG_PREFIX, true));
+        setBackend(newBackend);
+        return newBackend;
+    }
+
+    /**
+     * Stops the current backend, and reverts to the default backend, which reports only the logins on this node
+     */
+    public static synchronized void stopBackend() {
+        setBackend(new LocalActiveLoginBackend());
+    }
+
+    /**
+     * Stops the current backend, and starts the given backend and passes all active logins on this node to it
+     * @param newBackend the backend to use
+     */
+    public static synchronized void setBackend(ActiveLoginBackend newBackend) {
+        newBackend.start();
+        ActiveLoginBackend previous = backend;
+        backend = newBackend;
+        for (UserLogin userLogin : activeLogins.values()) {
+            newBackend.loginAdded(userLogin);
+        }
+        try {
+            previous.stop();
+        }
+        catch (Exception e) {
+            log.warn("Error stopping active login backend " + previous.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * @return the backend that active logins are passed to, which can be used to query the active logins of all
+     * nodes that share the backend
+     */
+    public static ActiveLoginBackend getBackend() {
+        return backend;
+    }
+
+    private static void notifyBackend(Consumer<ActiveLoginBackend> notification) {
+        ActiveLoginBackend b = backend;
+        try {
+            notification.accept(b);
+        }
+        catch (Exception e) {
+            log.warn("Error passing active login to backend " + b.getClass().getName(), e);
+        }
     }
 
     /**
@@ -74,4 +222,91 @@ public class UserLoginTracker {
         return Collections.unmodifiableMap(activeLogins);
     }
 
+    /**
+     * @param userId the userId to look up
+     * @return a new unmodifiable Set of the active logins of the user with the given userId, or an empty set
+     */
+    public static Set<UserLogin> getActiveLoginsForUser(Integer userId) {
+        return loginsByUserId.get(userId);
+    }
+
+    /**
+     * @param ipAddress the ip address to look up
+     * @return a new unmodifiable Set of the active logins from the given ip address, or an empty set
+     */
+    public static Set<UserLogin> getActiveLoginsForIpAddress(String ipAddress) {
+        return loginsByIpAddress.get(ipAddress);
+    }
+
+    /**
+     * @param httpSessionId the http session id to look up
+     * @return a new unmodifiable Set of the active logins associated with the given http session, or an empty set
+     */
+    public static Set<UserLogin> getActiveLoginsForHttpSession(String httpSessionId) {
+        return loginsByHttpSessionId.get(httpSessionId);
+    }
+
+    private static void updateIndexes(UserLogin userLogin) {
+        loginsByUserId.update(userLogin);
+        loginsByIpAddress.update(userLogin);
+        loginsByHttpSessionId.update(userLogin);
+    }
+
+    private static void removeFromIndexes(UserLogin userLogin) {
+        loginsByUserId.remove(userLogin);
+        loginsByIpAddress.remove(userLogin);
+        loginsByHttpSessionId.remove(userLogin);
+    }
+
+    /**
+     * An index of active logins by a value of the UserLogin.  This retains the value each login is indexed under, so
+     * that it can be moved when the value changes.  Updates for a given login are only made while holding its entry
+     * in the active logins, so are never concurrent with each other.
+     */
+    private static class LoginIndex<K> {
+
+        private final Function<UserLogin, K> keyFunction;
+        private final Map<K, Set<UserLogin>> logins = new ConcurrentHashMap<>();
+        private final Map<String, K> indexedKeys = new ConcurrentHashMap<>();
+
+        LoginIndex(Function<UserLogin, K> keyFunction) {
+            this.keyFunction = keyFunction;
+        }
+
+        void update(UserLogin userLogin) {
+            K key = keyFunction.apply(userLogin);
+            K previousKey = key == null ? indexedKeys.remove(userLogin.getLoginId()) : indexedKeys.put(userLogin.getLoginId(), key);
+            if (!Objects.equals(key, previousKey)) {
+                if (previousKey != null) {
+                    removeFromKey(previousKey, userLogin);
+                }
+                if (key != null) {
+                    logins.compute(key, (k, set) -> {
+                        Set<UserLogin> ret = set == null ? ConcurrentHashMap.newKeySet() : set;
+                        ret.add(userLogin);
+                        return ret;
+                    });
+                }
+            }
+        }
+
+        void remove(UserLogin userLogin) {
+            K previousKey = indexedKeys.remove(userLogin.getLoginId());
+            if (previousKey != null) {
+                removeFromKey(previousKey, userLogin);
+            }
+        }
+
+        Set<UserLogin> get(K key) {
+            Set<UserLogin> set = key == null ? null : logins.get(key);
+            return set == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(set));
+        }
+
+        private void removeFromKey(K key, UserLogin userLogin) {
+            logins.computeIfPresent(key, (k, set) -> {
+                set.remove(userLogin);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
 }
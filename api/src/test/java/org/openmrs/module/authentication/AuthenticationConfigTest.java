@@ -11,8 +11,11 @@ import java.util.Properties;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.openmrs.module.authentication.AuthenticationConfig.SCHEME;
 import static org.openmrs.module.authentication.AuthenticationConfig.SETTINGS_CACHED;
 import static org.openmrs.module.authentication.AuthenticationConfig.WHITE_LIST;
@@ -140,4 +143,89 @@ public class AuthenticationConfigTest extends BaseAuthenticationTest {
 		assertThat(scheme.getClass(), equalTo(TestAuthenticationScheme.class));
 		assertThat(((TestAuthenticationScheme)scheme).getSchemeId(), equalTo("test2"));
 	}
+
+	@Test
+	public void shouldReuseAuthenticationSchemeInstancesUntilConfigurationChanges() {
+		AuthenticationConfig.setProperty("authentication.scheme.test1.type", TestAuthenticationScheme.class.getName());
+		AuthenticationConfig.setProperty("authentication.scheme.test2.type", TestAuthenticationScheme.class.getName());
+		AuthenticationScheme test1 = AuthenticationConfig.getAuthenticationScheme("test1");
+		AuthenticationScheme test2 = AuthenticationConfig.getAuthenticationScheme("test2");
+		assertThat(AuthenticationConfig.getAuthenticationScheme("test1"), sameInstance(test1));
+		assertThat(AuthenticationConfig.getAuthenticationScheme("test2"), sameInstance(test2));
+		assertThat(test1, not(sameInstance(test2)));
+		AuthenticationConfig.setProperty("authentication.scheme.test1.config.users", "admin");
+		AuthenticationScheme reconfigured = AuthenticationConfig.getAuthenticationScheme("test1");
+		assertThat(reconfigured, not(sameInstance(test1)));
+		assertThat(AuthenticationConfig.getAuthenticationScheme("test1"), sameInstance(reconfigured));
+		assertThat(AuthenticationConfig.getAuthenticationScheme("test2"), not(sameInstance(test2)));
+	}
+
+	@Test
+	public void shouldOnlyRebuildAuthenticationSchemesWhenReloadedConfigurationChanges() {
+		AuthenticationConfig.setProperty(SCHEME, "test");
+		AuthenticationConfig.setProperty("authentication.scheme.test.type", TestAuthenticationScheme.class.getName());
+		setRuntimeProperties(AuthenticationConfig.getConfig());
+		AuthenticationScheme scheme = AuthenticationConfig.getAuthenticationScheme();
+		AuthenticationConfigSnapshot snapshot = AuthenticationConfig.getSnapshot();
+		assertThat(scheme.getClass(), equalTo(TestAuthenticationScheme.class));
+		AuthenticationConfig.reloadConfigFromRuntimeProperties("openmrs");
+		assertThat(AuthenticationConfig.getSnapshot(), sameInstance(snapshot));
+		assertThat(AuthenticationConfig.getAuthenticationScheme(), sameInstance(scheme));
+
+		Properties changed = AuthenticationConfig.getConfig();
+		changed.setProperty("authentication.scheme.test.config.users", "admin");
+		setRuntimeProperties(changed);
+		AuthenticationScheme reloaded = AuthenticationConfig.getAuthenticationScheme();
+		assertThat(reloaded.getClass(), equalTo(TestAuthenticationScheme.class));
+		assertThat(reloaded, not(sameInstance(scheme)));
+		AuthenticationConfig.reloadConfigFromRuntimeProperties("openmrs");
+		assertThat(AuthenticationConfig.getAuthenticationScheme(), sameInstance(reloaded));
+	}
+
+	@Test
+	public void shouldPublishANewSnapshotWhenConfigurationChanges() {
+		AuthenticationConfig.setProperty(WHITE_LIST, "*.pdf");
+		AuthenticationConfigSnapshot snapshot = AuthenticationConfig.getSnapshot();
+		assertThat(AuthenticationConfig.getSnapshot(), sameInstance(snapshot));
+		assertThat(AuthenticationConfig.getWhiteList(), sameInstance(AuthenticationConfig.getWhiteList()));
+		AuthenticationConfig.setProperty(WHITE_LIST, "*.txt");
+		AuthenticationConfigSnapshot changed = AuthenticationConfig.getSnapshot();
+		assertThat(changed, not(sameInstance(snapshot)));
+		assertThat(changed.getVersion() > snapshot.getVersion(), equalTo(true));
+		assertThat(snapshot.getProperty(WHITE_LIST), equalTo("*.pdf"));
+		assertThat(snapshot.getWhiteList().contains("*.pdf"), equalTo(true));
+		assertThat(changed.getWhiteList().contains("*.txt"), equalTo(true));
+		assertThat(changed.getWhiteList().contains("*.pdf"), equalTo(false));
+	}
+
+	@Test
+	public void shouldNotChangeConfigurationWhenReturnedPropertiesAreModified() {
+		AuthenticationConfig.setProperty(SETTINGS_CACHED, "true");
+		Properties config = AuthenticationConfig.getConfig();
+		config.setProperty(SETTINGS_CACHED, "false");
+		assertThat(AuthenticationConfig.isConfigurationCacheEnabled(), equalTo(true));
+		assertThrows(UnsupportedOperationException.class, () -> AuthenticationConfig.getWhiteList().add("*.pdf"));
+		assertThrows(UnsupportedOperationException.class, () -> AuthenticationConfig.getKeys().add("key"));
+	}
+
+	@Test
+	public void shouldPreParseAuthenticationSchemeConfiguration() {
+		AuthenticationConfig.setConfig(new Properties());
+		AuthenticationConfig.setProperty(SCHEME, "test");
+		AuthenticationConfig.setProperty("authentication.scheme.test.type", TestAuthenticationScheme.class.getName());
+		AuthenticationConfig.setProperty("authentication.scheme.test.config.users", "admin");
+		AuthenticationConfig.setProperty("authentication.scheme.test.config.users.admin.password", "test");
+		AuthenticationConfig.setProperty("authentication.scheme.other.type", TestAuthenticationScheme.class.getName());
+		AuthenticationConfigSnapshot snapshot = AuthenticationConfig.getSnapshot();
+		assertThat(snapshot.getSchemeId(), equalTo("test"));
+		assertThat(snapshot.getSchemeTypes().size(), equalTo(2));
+		assertThat(snapshot.getSchemeType("test"), equalTo(TestAuthenticationScheme.class.getName()));
+		assertThat(snapshot.getSchemeType("other"), equalTo(TestAuthenticationScheme.class.getName()));
+		Properties testConfig = snapshot.getSchemeConfig("test");
+		assertThat(testConfig.size(), equalTo(2));
+		assertThat(testConfig.getProperty("users"), equalTo("admin"));
+		assertThat(testConfig.getProperty("users.admin.password"), equalTo("test"));
+		assertThat(snapshot.getSchemeConfig("other").size(), equalTo(0));
+		assertThat(testConfig, equalTo(AuthenticationConfig.getSubsetWithPrefix("authentication.scheme.test.config.", true)));
+	}
 }
@@ -0,0 +1,127 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.openmrs.module.authentication.AuthenticationEvent.AUTHENTICATION_FAILED;
+import static org.openmrs.module.authentication.AuthenticationEvent.AUTHENTICATION_SUCCEEDED;
+import static org.openmrs.module.authentication.AuthenticationEvent.LOGIN_SUCCEEDED;
+import static org.openmrs.module.authentication.AuthenticationEvent.LOGOUT_SUCCEEDED;
+
+public class AuthenticationEventHistoryTest extends BaseAuthenticationTest {
+
+	@Test
+	public void shouldRetainOnlyTheMostRecentEvents() {
+		AuthenticationEventHistory history = new AuthenticationEventHistory(3);
+		history.add(AUTHENTICATION_FAILED, 1000);
+		history.add(AUTHENTICATION_FAILED, 2000);
+		history.add(AUTHENTICATION_SUCCEEDED, 3000);
+		history.add(LOGIN_SUCCEEDED, 4000);
+		List<AuthenticationEvent> events = history.getEvents();
+		assertThat(history.size(), equalTo(3));
+		assertThat(events.size(), equalTo(3));
+		assertThat(events.get(0).getEvent(), equalTo(AUTHENTICATION_FAILED));
+		assertThat(events.get(0).getEventDate().getTime(), equalTo(2000L));
+		assertThat(events.get(1).getEvent(), equalTo(AUTHENTICATION_SUCCEEDED));
+		assertThat(events.get(2).getEvent(), equalTo(LOGIN_SUCCEEDED));
+		assertThat(events.get(2).getEventDate().getTime(), equalTo(4000L));
+	}
+
+	@Test
+	public void shouldCountEventsIncludingThoseNoLongerRetained() {
+		AuthenticationEventHistory history = new AuthenticationEventHistory(2);
+		history.add(AUTHENTICATION_FAILED, 1000);
+		history.add(AUTHENTICATION_SUCCEEDED, 2000);
+		history.add(LOGIN_SUCCEEDED, 3000);
+		assertThat(history.contains(AUTHENTICATION_FAILED), equalTo(true));
+		assertThat(history.contains("authentication_failed"), equalTo(true));
+		assertThat(history.contains(LOGOUT_SUCCEEDED), equalTo(false));
+		assertThat(history.getCount(AUTHENTICATION_FAILED), equalTo(1));
+		assertThat(history.contains(null), equalTo(false));
+	}
+
+	@Test
+	public void shouldSupportEventsOtherThanTheStandardEvents() {
+		AuthenticationEventHistory history = new AuthenticationEventHistory(5);
+		history.add("CUSTOM_EVENT", 1000);
+		history.add("custom_event", 2000);
+		history.add(LOGIN_SUCCEEDED, 3000);
+		assertThat(history.getCount("Custom_Event"), equalTo(2));
+		assertThat(history.getEvents().get(1).getEvent(), equalTo("CUSTOM_EVENT"));
+		assertThat(history.getEvents().get(2).getEvent(), equalTo(LOGIN_SUCCEEDED));
+	}
+
+	@Test
+	public void shouldSerializeOnlyRetainedEvents() throws Exception {
+		AuthenticationEventHistory history = new AuthenticationEventHistory(1000);
+		for (int i = 0; i < 1500; i++) {
+			history.add(i % 2 == 0 ? AUTHENTICATION_FAILED : "CUSTOM_EVENT", i);
+		}
+		AuthenticationEventHistory empty = new AuthenticationEventHistory(1000);
+		byte[] serialized = serialize(history);
+		assertThat(serialize(empty).length, lessThan(200));
+		AuthenticationEventHistory deserialized = (AuthenticationEventHistory) deserialize(serialized);
+		assertThat(deserialized.getCapacity(), equalTo(1000));
+		assertThat(deserialized.size(), equalTo(1000));
+		assertThat(deserialized.getCount(AUTHENTICATION_FAILED), equalTo(750));
+		assertThat(deserialized.getCount("CUSTOM_EVENT"), equalTo(750));
+		assertThat(deserialized.getEvents().get(0).getEventDate().getTime(), equalTo(500L));
+		assertThat(deserialized.getEvents().get(999).getEventDate().getTime(), equalTo(1499L));
+		assertThat(deserialized.getEvents().get(999).getEvent(), equalTo("CUSTOM_EVENT"));
+	}
+
+	@Test
+	public void shouldRejectSerializedHistoryWithInvalidCapacity() throws Exception {
+		assertThat(new AuthenticationEventHistory(Integer.MAX_VALUE).getCapacity(), equalTo(AuthenticationEventHistory.MAX_CAPACITY));
+		for (int capacity : new int[] { 0, AuthenticationEventHistory.MAX_CAPACITY + 1, Integer.MAX_VALUE }) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(capacity);
+			out.writeInt(0);
+			AuthenticationEventHistory history = new AuthenticationEventHistory(1);
+			assertThrows(IOException.class, () -> history.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+		}
+	}
+
+	@Test
+	public void shouldLimitUserLoginHistoryToConfiguredSize() {
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.EVENTS_HISTORY_SIZE, "5");
+		setRuntimeProperties(p);
+		UserLogin userLogin = new UserLogin();
+		for (int i = 0; i < 20; i++) {
+			userLogin.recordEvent(AUTHENTICATION_FAILED, "secondary");
+		}
+		userLogin.recordEvent(AUTHENTICATION_SUCCEEDED, "secondary");
+		assertThat(userLogin.getEvents().size(), equalTo(5));
+		assertThat(userLogin.getEventHistory().getCount(AUTHENTICATION_FAILED), equalTo(20));
+		assertThat(userLogin.containsEvent(AUTHENTICATION_SUCCEEDED), equalTo(true));
+	}
+
+	private byte[] serialize(Object o) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+
+	private Object deserialize(byte[] bytes) throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package org.openmrs.module.authentication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.logging.MemoryAppender;
+import org.openmrs.module.authentication.AuthenticationEventPipeline.OverflowPolicy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.openmrs.module.authentication.AuthenticationEvent.AUTHENTICATION_FAILED;
+import static org.openmrs.module.authentication.AuthenticationEvent.AUTHENTICATION_SUCCEEDED;
+import static org.openmrs.module.authentication.AuthenticationEvent.LOGIN_FAILED;
+import static org.openmrs.module.authentication.AuthenticationEvent.LOGIN_SUCCEEDED;
+import static org.openmrs.module.authentication.AuthenticationEvent.LOGOUT_SUCCEEDED;
+
+public class AuthenticationEventPipelineTest extends BaseAuthenticationTest {
+
+	UserLogin userLogin;
+	TestSink sink;
+	AuthenticationEventPipeline pipeline;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		userLogin = new UserLogin();
+		sink = new TestSink();
+		AuthenticationEventPipeline.addSink(sink);
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		sink.release();
+		if (pipeline != null) {
+			pipeline.stopDispatching();
+		}
+		AuthenticationEventPipeline.removeSink(sink);
+		super.teardown();
+	}
+
+	@Test
+	public void shouldDispatchEventsInOrderOnBackgroundThread() {
+		pipeline = newPipeline(16, OverflowPolicy.BLOCK);
+		pipeline.submit(newRecord(AUTHENTICATION_SUCCEEDED));
+		pipeline.submit(newRecord(LOGIN_SUCCEEDED));
+		pipeline.submit(newRecord(LOGOUT_SUCCEEDED));
+		assertThat(pipeline.awaitProcessed(5000), equalTo(true));
+		assertThat(sink.events, contains(AUTHENTICATION_SUCCEEDED, LOGIN_SUCCEEDED, LOGOUT_SUCCEEDED));
+		assertThat(sink.threads.get(0), not(equalTo(Thread.currentThread().getName())));
+		assertThat(pipeline.getPublished(), equalTo(3L));
+		assertThat(pipeline.getDropped(), equalTo(0L));
+	}
+
+	@Test
+	public void shouldUseDefaultSettingsIfConfiguredSettingsAreNotValid() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.EVENTS_BUFFER_SIZE, "100");
+		AuthenticationConfig.setProperty(AuthenticationConfig.EVENTS_OVERFLOW_POLICY, "drop_oldest");
+		assertThat(AuthenticationEventPipeline.getBufferSize(), equalTo(100));
+		assertThat(AuthenticationEventPipeline.getOverflowPolicy(), equalTo(OverflowPolicy.DROP_OLDEST));
+		AuthenticationConfig.setProperty(AuthenticationConfig.EVENTS_BUFFER_SIZE, "lots");
+		AuthenticationConfig.setProperty(AuthenticationConfig.EVENTS_OVERFLOW_POLICY, "DISCARD");
+		assertThat(AuthenticationEventPipeline.getBufferSize(), equalTo(AuthenticationEventPipeline.DEFAULT_BUFFER_SIZE));
+		assertThat(AuthenticationEventPipeline.getOverflowPolicy(), equalTo(OverflowPolicy.BLOCK));
+		AuthenticationConfig.setProperty(AuthenticationConfig.EVENTS_BUFFER_SIZE, "-1");
+		assertThat(AuthenticationEventPipeline.getBufferSize(), equalTo(AuthenticationEventPipeline.DEFAULT_BUFFER_SIZE));
+		pipeline = AuthenticationEventPipeline.start();
+		assertThat(pipeline.isAsync(), equalTo(true));
+		AuthenticationEventPipeline.stop();
+	}
+
+	@Test
+	public void shouldDispatchEventsOnRecordingThreadIfNotAsync() {
+		pipeline = newPipeline(0, OverflowPolicy.BLOCK);
+		pipeline.submit(newRecord(LOGIN_FAILED));
+		assertThat(sink.events, contains(LOGIN_FAILED));
+		assertThat(sink.threads, contains(Thread.currentThread().getName()));
+		assertThat(pipeline.isAsync(), equalTo(false));
+	}
+
+	@Test
+	public void shouldDropOldestEventsIfBufferIsFull() throws Exception {
+		pipeline = newPipeline(2, OverflowPolicy.DROP_OLDEST);
+		blockDispatcher();
+		pipeline.submit(newRecord(AUTHENTICATION_FAILED));
+		pipeline.submit(newRecord(LOGIN_FAILED));
+		pipeline.submit(newRecord(LOGIN_SUCCEEDED));
+		pipeline.submit(newRecord(LOGOUT_SUCCEEDED));
+		assertThat(pipeline.getDropped(), equalTo(2L));
+		sink.release();
+		assertThat(pipeline.awaitProcessed(5000), equalTo(true));
+		assertThat(sink.events, contains(AUTHENTICATION_SUCCEEDED, LOGIN_SUCCEEDED, LOGOUT_SUCCEEDED));
+		assertThat(AuthenticationMetrics.getCount(AuthenticationMetrics.EVENTS_DROPPED,
+				AuthenticationMetrics.LABEL_EVENT, AUTHENTICATION_FAILED) > 0, equalTo(true));
+	}
+
+	@Test
+	public void shouldDropOnlySuccessEventsIfBufferIsFull() throws Exception {
+		pipeline = newPipeline(1, OverflowPolicy.DROP_SUCCESS_EVENTS);
+		blockDispatcher();
+		pipeline.submit(newRecord(AUTHENTICATION_FAILED));
+		pipeline.submit(newRecord(LOGIN_SUCCEEDED));
+		assertThat(pipeline.getDropped(), equalTo(1L));
+		Thread recordingThread = new Thread(() -> pipeline.submit(newRecord(LOGIN_FAILED)));
+		recordingThread.start();
+		recordingThread.join(200);
+		assertThat(recordingThread.isAlive(), equalTo(true));
+		sink.release();
+		recordingThread.join(5000);
+		assertThat(recordingThread.isAlive(), equalTo(false));
+		assertThat(pipeline.awaitProcessed(5000), equalTo(true));
+		assertThat(sink.events, contains(AUTHENTICATION_SUCCEEDED, AUTHENTICATION_FAILED, LOGIN_FAILED));
+		assertThat(pipeline.getDropped(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldDispatchRemainingEventsWhenStopped() throws Exception {
+		pipeline = newPipeline(16, OverflowPolicy.BLOCK);
+		blockDispatcher();
+		pipeline.submit(newRecord(LOGIN_SUCCEEDED));
+		pipeline.submit(newRecord(LOGOUT_SUCCEEDED));
+		sink.release();
+		pipeline.stopDispatching();
+		assertThat(sink.events, contains(AUTHENTICATION_SUCCEEDED, LOGIN_SUCCEEDED, LOGOUT_SUCCEEDED));
+		pipeline.submit(newRecord(LOGIN_FAILED));
+		assertThat(sink.threads.get(3), equalTo(Thread.currentThread().getName()));
+	}
+
+	@Test
+	public void shouldDispatchEventsSynchronouslyOnceStopped() {
+		AuthenticationEventPipeline.start();
+		AuthenticationEventPipeline.stop();
+		AuthenticationEventPipeline.publish(newRecord(LOGIN_FAILED));
+		assertThat(AuthenticationEventPipeline.getRunningInstance(), nullValue());
+		assertThat(sink.events, contains(LOGIN_FAILED));
+		assertThat(sink.threads, contains(Thread.currentThread().getName()));
+	}
+
+	@Test
+	public void shouldLogEventsWithoutClearingThreadContextOfRecordingThread() {
+		ThreadContext.put("requestId", "abc");
+		try {
+			userLogin.setIpAddress("10.0.0.1");
+			userLogin.recordEvent(LOGIN_FAILED, null);
+			assertThat(ThreadContext.get("requestId"), equalTo("abc"));
+			assertLastLogContains("event=" + LOGIN_FAILED);
+			assertLastLogContains("ipAddress=10.0.0.1");
+			assertLastLogContains("loginId=" + userLogin.getLoginId());
+		}
+		finally {
+			ThreadContext.remove("requestId");
+		}
+	}
+
+	@Test
+	public void shouldLogEventsWithThreadContextOfRecordingThread() {
+		Logger logger = (Logger) LogManager.getLogger(UserLogin.class);
+		logger.removeAppender(memoryAppender);
+		memoryAppender.stop();
+		PatternLayout layout = PatternLayout.newBuilder().withPattern("requestId=%X{requestId} %m").build();
+		memoryAppender = MemoryAppender.newBuilder().setLayout(layout).build();
+		memoryAppender.start();
+		logger.addAppender(memoryAppender);
+
+		ThreadContext.put("requestId", "abc");
+		try {
+			userLogin.recordEvent(LOGIN_FAILED, null);
+		}
+		finally {
+			ThreadContext.remove("requestId");
+		}
+		assertLastLogContains("requestId=abc {event=" + LOGIN_FAILED);
+
+		AuthenticationEventRecord record = newRecord(LOGIN_SUCCEEDED);
+		assertThat(record.getThreadContext().isEmpty(), equalTo(true));
+		ThreadContext.put("requestId", "def");
+		try {
+			new Log4jAuthenticationEventSink().dispatch(record);
+			assertThat(ThreadContext.get("requestId"), equalTo("def"));
+			assertThat(ThreadContext.get("event"), nullValue());
+		}
+		finally {
+			ThreadContext.remove("requestId");
+		}
+	}
+
+	private AuthenticationEventPipeline newPipeline(int bufferSize, OverflowPolicy overflowPolicy) {
+		AuthenticationEventPipeline ret = new AuthenticationEventPipeline(bufferSize, overflowPolicy);
+		ret.startDispatching();
+		return ret;
+	}
+
+	private AuthenticationEventRecord newRecord(String event) {
+		return new AuthenticationEventRecord(userLogin, event, System.currentTimeMillis(), "test");
+	}
+
+	/**
+	 * Submits an event, and waits until the dispatcher thread is blocked in the sink handling it
+	 */
+	private void blockDispatcher() throws InterruptedException {
+		sink.block();
+		pipeline.submit(newRecord(AUTHENTICATION_SUCCEEDED));
+		assertThat(sink.blocked.await(5, TimeUnit.SECONDS), equalTo(true));
+	}
+
+	static class TestSink implements AuthenticationEventSink {
+
+		final List<String> events = new CopyOnWriteArrayList<>();
+		final List<String> threads = new CopyOnWriteArrayList<>();
+		volatile CountDownLatch blocked = new CountDownLatch(0);
+		volatile CountDownLatch released = new CountDownLatch(0);
+
+		void block() {
+			blocked = new CountDownLatch(1);
+			released = new CountDownLatch(1);
+		}
+
+		void release() {
+			released.countDown();
+		}
+
+		@Override
+		public void dispatch(AuthenticationEventRecord record) {
+			events.add(record.getEvent());
+			threads.add(Thread.currentThread().getName());
+			blocked.countDown();
+			try {
+				released.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
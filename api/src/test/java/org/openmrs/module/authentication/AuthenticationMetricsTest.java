@@ -0,0 +1,97 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.openmrs.module.authentication.AuthenticationMetrics.ACTIVE_LOGINS_ADDED;
+import static org.openmrs.module.authentication.AuthenticationMetrics.ACTIVE_LOGINS_REMOVED;
+import static org.openmrs.module.authentication.AuthenticationMetrics.FILTER_CHALLENGES;
+import static org.openmrs.module.authentication.AuthenticationMetrics.LABEL_OUTCOME;
+import static org.openmrs.module.authentication.AuthenticationMetrics.LABEL_RESPONSE;
+import static org.openmrs.module.authentication.AuthenticationMetrics.LABEL_SCHEME;
+import static org.openmrs.module.authentication.AuthenticationMetrics.OUTCOME_FAILURE;
+import static org.openmrs.module.authentication.AuthenticationMetrics.OUTCOME_SUCCESS;
+import static org.openmrs.module.authentication.AuthenticationMetrics.RESPONSE_REDIRECT;
+import static org.openmrs.module.authentication.AuthenticationMetrics.SCHEME_DURATION;
+
+public class AuthenticationMetricsTest {
+
+	@BeforeEach
+	public void setup() {
+		AuthenticationMetrics.reset();
+	}
+
+	@AfterEach
+	public void teardown() {
+		AuthenticationMetrics.reset();
+	}
+
+	@Test
+	public void shouldCountEachSeriesSeparately() {
+		AuthenticationMetrics.increment(FILTER_CHALLENGES, LABEL_RESPONSE, RESPONSE_REDIRECT);
+		AuthenticationMetrics.increment(FILTER_CHALLENGES, LABEL_RESPONSE, RESPONSE_REDIRECT);
+		AuthenticationMetrics.increment(FILTER_CHALLENGES, LABEL_RESPONSE, "unauthorized");
+		assertThat(AuthenticationMetrics.getCount(FILTER_CHALLENGES, LABEL_RESPONSE, RESPONSE_REDIRECT), equalTo(2L));
+		assertThat(AuthenticationMetrics.getCount(FILTER_CHALLENGES, LABEL_RESPONSE, "unauthorized"), equalTo(1L));
+		assertThat(AuthenticationMetrics.getCount(FILTER_CHALLENGES), equalTo(0L));
+	}
+
+	@Test
+	public void shouldRecordDurationsInFixedBuckets() {
+		for (int i = 0; i < 90; i++) {
+			AuthenticationMetrics.recordDuration(SCHEME_DURATION, 3_000_000, LABEL_SCHEME, "totp", LABEL_OUTCOME, OUTCOME_SUCCESS);
+		}
+		for (int i = 0; i < 10; i++) {
+			AuthenticationMetrics.recordDuration(SCHEME_DURATION, 300_000_000, LABEL_SCHEME, "totp", LABEL_OUTCOME, OUTCOME_SUCCESS);
+		}
+		LatencyHistogram histogram = AuthenticationMetrics.getHistogram(SCHEME_DURATION, LABEL_SCHEME, "totp", LABEL_OUTCOME, OUTCOME_SUCCESS);
+		assertThat(histogram.getCount(), equalTo(100L));
+		assertThat(histogram.getSumSeconds(), closeTo(3.27, 0.0001));
+		assertThat(histogram.getQuantile(0.5), closeTo(0.0028, 0.0001));
+		assertThat(histogram.getQuantile(0.95), closeTo(0.375, 0.0001));
+		assertThat(histogram.getQuantile(0.99), closeTo(0.475, 0.0001));
+		assertThat(AuthenticationMetrics.getHistogram(SCHEME_DURATION, LABEL_SCHEME, "totp", LABEL_OUTCOME, OUTCOME_FAILURE), nullValue());
+	}
+
+	@Test
+	public void shouldWriteMetricsInPrometheusFormat() {
+		AuthenticationMetrics.recordDuration(SCHEME_DURATION, 7_000_000, LABEL_SCHEME, "basic", LABEL_OUTCOME, OUTCOME_FAILURE);
+		AuthenticationMetrics.increment(FILTER_CHALLENGES, LABEL_RESPONSE, RESPONSE_REDIRECT);
+		String text = AuthenticationMetrics.toPrometheusText();
+		assertThat(text, containsString("# TYPE authentication_scheme_duration_seconds histogram\n"));
+		assertThat(text, containsString("authentication_scheme_duration_seconds_bucket{scheme=\"basic\",outcome=\"failure\",le=\"0.005\"} 0\n"));
+		assertThat(text, containsString("authentication_scheme_duration_seconds_bucket{scheme=\"basic\",outcome=\"failure\",le=\"0.01\"} 1\n"));
+		assertThat(text, containsString("authentication_scheme_duration_seconds_bucket{scheme=\"basic\",outcome=\"failure\",le=\"+Inf\"} 1\n"));
+		assertThat(text, containsString("authentication_scheme_duration_seconds_sum{scheme=\"basic\",outcome=\"failure\"} 0.007\n"));
+		assertThat(text, containsString("authentication_scheme_duration_seconds_count{scheme=\"basic\",outcome=\"failure\"} 1\n"));
+		assertThat(text, containsString("# TYPE authentication_filter_challenges_total counter\n"));
+		assertThat(text, containsString("authentication_filter_challenges_total{response=\"redirect\"} 1\n"));
+		assertThat(text, containsString("authentication_active_logins 0\n"));
+	}
+
+	@Test
+	public void shouldEscapeLabelValues() {
+		assertThat(AuthenticationMetrics.formatLabels(LABEL_SCHEME, "a\"b\\c\nd"), equalTo("scheme=\"a\\\"b\\\\c\\nd\""));
+		assertThat(AuthenticationMetrics.formatLabels(LABEL_SCHEME, null), equalTo("scheme=\"\""));
+		assertThat(AuthenticationMetrics.formatLabels(), equalTo(""));
+	}
+
+	@Test
+	public void shouldCountChangesToActiveLogins() {
+		UserLogin userLogin = new UserLogin();
+		UserLoginTracker.addActiveLogin(userLogin);
+		UserLoginTracker.addActiveLogin(userLogin);
+		assertThat(AuthenticationMetrics.getCount(ACTIVE_LOGINS_ADDED), equalTo(1L));
+		assertThat(AuthenticationMetrics.toPrometheusText(), not(containsString("authentication_active_logins 0\n")));
+		UserLoginTracker.removeActiveLogin(userLogin);
+		UserLoginTracker.removeActiveLogin(userLogin);
+		assertThat(AuthenticationMetrics.getCount(ACTIVE_LOGINS_REMOVED), equalTo(1L));
+	}
+}
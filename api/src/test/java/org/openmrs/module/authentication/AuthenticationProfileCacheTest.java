@@ -0,0 +1,184 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.User;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AuthenticationProfileCacheTest extends BaseAuthenticationTest {
+
+	TestAuthenticationProfileCache cache;
+	Properties config;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		cache = new TestAuthenticationProfileCache();
+		config = new Properties();
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		AuthenticationProfileCache.stop();
+		super.teardown();
+	}
+
+	@Test
+	public void shouldLoadOnlyAuthenticationPropertiesAndSecretQuestion() {
+		cache.addUser(1, "favorite color?");
+		cache.setUserProperty(1, "authentication.secondaryType", "totp");
+		cache.setUserProperty(1, "authentication.totp.secret", "abc");
+		cache.setUserProperty(1, "defaultLocale", "en");
+		cache.addUser(2, null);
+		AuthenticationProfileCache.start(config, cache);
+
+		AuthenticationProfile profile = AuthenticationProfileCache.getProfile(newUser(1));
+		assertThat(profile.getUserId(), equalTo(1));
+		assertThat(profile.getProperties().size(), equalTo(2));
+		assertThat(profile.getProperty("authentication.secondaryType"), equalTo("totp"));
+		assertThat(profile.getProperty("authentication.totp.secret"), equalTo("abc"));
+		assertThat(profile.getProperty("defaultLocale"), nullValue());
+		assertThat(profile.getProperty("authentication.email.verifiedEmail", ""), equalTo(""));
+		assertThat(profile.getSecretQuestion(), equalTo("favorite color?"));
+		assertThat(profile.isSecretQuestionLoaded(), equalTo(true));
+
+		AuthenticationProfile noProperties = AuthenticationProfileCache.getProfile(newUser(2));
+		assertThat(noProperties.getProperties().isEmpty(), equalTo(true));
+		assertThat(noProperties.getSecretQuestion(), nullValue());
+		assertThat(noProperties.isSecretQuestionLoaded(), equalTo(true));
+	}
+
+	@Test
+	public void shouldCacheProfilesUntilInvalidated() {
+		cache.addUser(1, null);
+		cache.setUserProperty(1, "authentication.secondaryType", "totp");
+		AuthenticationProfileCache.start(config, cache);
+		User user = newUser(1);
+
+		AuthenticationProfile profile = AuthenticationProfileCache.getProfile(user);
+		cache.setUserProperty(1, "authentication.totp.secret", "abc");
+		assertThat(AuthenticationProfileCache.getProfile(user) == profile, equalTo(true));
+		assertThat(cache.size(), equalTo(1));
+
+		AuthenticationProfileCache.invalidate(user);
+		assertThat(cache.size(), equalTo(0));
+		assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.totp.secret"), equalTo("abc"));
+	}
+
+	@Test
+	public void shouldSeeChangesToUserPropertiesBeforeTheyAreSaved() {
+		cache.addUser(1, "favorite color?");
+		cache.setUserProperty(1, "authentication.secondaryType", "totp");
+		AuthenticationProfileCache.start(config, cache);
+		User user = newUser(1);
+		assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.secondaryType"), equalTo("totp"));
+
+		user.setUserProperty("authentication.secondaryType", "totp,email");
+		AuthenticationProfileCache.update(user);
+		AuthenticationProfile profile = AuthenticationProfileCache.getProfile(user);
+		assertThat(profile.getProperty("authentication.secondaryType"), equalTo("totp,email"));
+		assertThat(profile.getSecretQuestion(), equalTo("favorite color?"));
+		assertThat(profile.isSecretQuestionLoaded(), equalTo(true));
+	}
+
+	@Test
+	public void shouldInvalidateProfilesAgainOnceTransactionCompletes() {
+		cache.addUser(1, null);
+		AuthenticationProfileCache.start(config, cache);
+		User user = newUser(1);
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			AuthenticationProfileCache.invalidate(user);
+			assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.totp.secret"), nullValue());
+			cache.setUserProperty(1, "authentication.totp.secret", "abc");
+			assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.totp.secret"), nullValue());
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+			}
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.totp.secret"), equalTo("abc"));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedProfiles() {
+		for (int userId = 1; userId <= 3; userId++) {
+			cache.addUser(userId, null);
+		}
+		config.setProperty("maxSize", "2");
+		AuthenticationProfileCache.start(config, cache);
+		AuthenticationProfile profile1 = cache.get(newUser(1));
+		cache.get(newUser(2));
+		assertThat(cache.get(newUser(1)) == profile1, equalTo(true));
+		cache.get(newUser(3));
+		assertThat(cache.size(), equalTo(2));
+		assertThat(cache.get(newUser(1)) == profile1, equalTo(true));
+		assertThat(cache.getMaxSize(), equalTo(2));
+	}
+
+	@Test
+	public void shouldBuildProfileFromUserIfUserIsNotInTheDatabase() {
+		AuthenticationProfileCache.start(config, cache);
+		User user = newUser(1);
+		user.setUserProperty("authentication.secondaryType", "totp");
+		user.setUserProperty("defaultLocale", "en");
+		AuthenticationProfile profile = AuthenticationProfileCache.getProfile(user);
+		assertThat(profile.getProperty("authentication.secondaryType"), equalTo("totp"));
+		assertThat(profile.getProperty("defaultLocale"), nullValue());
+		assertThat(profile.isSecretQuestionLoaded(), equalTo(false));
+	}
+
+	@Test
+	public void shouldRetryQueryAfterTransientFailure() throws Exception {
+		cache.addUser(1, "favorite color?");
+		cache.setFailure(new IllegalStateException("No session is bound to the current thread"));
+		cache.configure(config);
+		assertThat(cache.load(newUser(1)).isSecretQuestionLoaded(), equalTo(false));
+		cache.setFailure(null);
+		assertThat(cache.load(newUser(1)).isSecretQuestionLoaded(), equalTo(false));
+		Thread.sleep(AuthenticationProfileCache.MIN_RETRY_DELAY + 100);
+		assertThat(cache.load(newUser(1)).isSecretQuestionLoaded(), equalTo(true));
+	}
+
+	@Test
+	public void shouldBuildProfileFromUserIfNotStarted() {
+		User user = newUser(1);
+		user.setUserProperty("authentication.secondaryType", "totp");
+		assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.secondaryType"), equalTo("totp"));
+		user.setUserProperty("authentication.secondaryType", "email");
+		assertThat(AuthenticationProfileCache.getProfile(user).getProperty("authentication.secondaryType"), equalTo("email"));
+	}
+
+	@Test
+	public void shouldNotStartIfDisabledOrMisconfigured() {
+		config.setProperty("ttl", "0");
+		assertThat(AuthenticationProfileCache.start(config), nullValue());
+		assertThat(AuthenticationProfileCache.getInstance(), nullValue());
+		config.setProperty("ttl", "60");
+		config.setProperty("maxSize", "0");
+		assertThrows(IllegalArgumentException.class, () -> AuthenticationProfileCache.start(config));
+		config.setProperty("maxSize", "10");
+		AuthenticationProfileCache started = AuthenticationProfileCache.start(config);
+		assertThat(AuthenticationProfileCache.getInstance(), equalTo(started));
+		assertThat(started.getTtl(), equalTo(60000L));
+	}
+
+	private User newUser(int userId) {
+		User user = new User();
+		user.setUserId(userId);
+		return user;
+	}
+}
@@ -87,6 +87,7 @@ public abstract class BaseAuthenticationTest {
 
 	@AfterEach
 	public void teardown() {
+		AuthenticationEventPipeline.flush(5000);
 		Logger logger = (Logger) LogManager.getLogger(UserLogin.class);
 		logger.removeAppender(memoryAppender);
 		memoryAppender.stop();
@@ -106,6 +107,7 @@ public abstract class BaseAuthenticationTest {
 	 * @param test if the last line logged by the AuthenticationLogger contains the given test, return true
 	 */
 	protected void assertLastLogContains(String test) {
+		AuthenticationEventPipeline.flush(5000);
 		assertThat(memoryAppender.getLogLines(), notNullValue());
 		int numLines = memoryAppender.getLogLines().size();
 		assertThat(numLines, greaterThan(0));
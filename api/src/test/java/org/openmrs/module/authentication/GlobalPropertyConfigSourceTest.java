@@ -0,0 +1,135 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.AuthenticationScheme;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.openmrs.module.authentication.AuthenticationConfig.SCHEME;
+import static org.openmrs.module.authentication.AuthenticationConfig.WHITE_LIST;
+
+public class GlobalPropertyConfigSourceTest extends BaseAuthenticationTest {
+
+	List<GlobalProperty> globalProperties;
+	GlobalPropertyConfigSource source;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		globalProperties = new ArrayList<>();
+		source = new GlobalPropertyConfigSource(null) {
+			@Override
+			protected List<GlobalProperty> loadGlobalProperties() {
+				return globalProperties;
+			}
+		};
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		source.stopRefreshing();
+		AuthenticationConfig.setGlobalPropertyConfig(new Properties());
+		super.teardown();
+	}
+
+	@Test
+	public void shouldSupportOnlyAuthenticationProperties() {
+		assertThat(source.supportsPropertyName("authentication.whiteList"), equalTo(true));
+		assertThat(source.supportsPropertyName("authenticationui.setting"), equalTo(false));
+		assertThat(source.supportsPropertyName("locale.allowed.list"), equalTo(false));
+	}
+
+	@Test
+	public void shouldMergeGlobalPropertiesOverRuntimeProperties() {
+		AuthenticationConfig.setProperty(WHITE_LIST, "*.pdf");
+		AuthenticationConfig.setProperty("authentication.runtimeOnly", "runtime");
+		globalProperties.add(new GlobalProperty(WHITE_LIST, "*.txt"));
+		globalProperties.add(new GlobalProperty("authentication.globalOnly", "global"));
+		source.refresh();
+		assertThat(AuthenticationConfig.getProperty(WHITE_LIST), equalTo("*.txt"));
+		assertThat(AuthenticationConfig.getProperty("authentication.runtimeOnly"), equalTo("runtime"));
+		assertThat(AuthenticationConfig.getProperty("authentication.globalOnly"), equalTo("global"));
+		assertThat(AuthenticationConfig.getWhiteList().contains("*.txt"), equalTo(true));
+		AuthenticationConfig.setProperty("authentication.runtimeOnly", "changed");
+		assertThat(AuthenticationConfig.getProperty(WHITE_LIST), equalTo("*.txt"));
+		assertThat(AuthenticationConfig.getProperty("authentication.runtimeOnly"), equalTo("changed"));
+	}
+
+	@Test
+	public void shouldApplyChangesAndDeletionsFromListener() {
+		AuthenticationConfig.setProperty(WHITE_LIST, "*.pdf");
+		source.refresh();
+		source.globalPropertyChanged(new GlobalProperty(WHITE_LIST, "*.txt"));
+		assertThat(AuthenticationConfig.getProperty(WHITE_LIST), equalTo("*.txt"));
+		source.globalPropertyDeleted(WHITE_LIST);
+		assertThat(AuthenticationConfig.getProperty(WHITE_LIST), equalTo("*.pdf"));
+		source.globalPropertyChanged(new GlobalProperty("authentication.globalOnly", "global"));
+		assertThat(AuthenticationConfig.getProperty("authentication.globalOnly"), equalTo("global"));
+		source.globalPropertyChanged(new GlobalProperty("authentication.globalOnly", null));
+		assertThat(AuthenticationConfig.getProperty("authentication.globalOnly"), nullValue());
+	}
+
+	@Test
+	public void shouldOnlyPublishNewConfigurationIfAuthenticationSettingChanges() {
+		AuthenticationConfig.setProperty(SCHEME, "test");
+		AuthenticationConfig.setProperty("authentication.scheme.test.type", TestAuthenticationScheme.class.getName());
+		globalProperties.add(new GlobalProperty(WHITE_LIST, "*.txt"));
+		source.refresh();
+		AuthenticationConfigSnapshot snapshot = AuthenticationConfig.getSnapshot();
+		AuthenticationScheme scheme = AuthenticationConfig.getAuthenticationScheme();
+		source.refresh();
+		source.globalPropertyChanged(new GlobalProperty(WHITE_LIST, "*.txt"));
+		assertThat(AuthenticationConfig.getSnapshot(), sameInstance(snapshot));
+		assertThat(AuthenticationConfig.getAuthenticationScheme(), sameInstance(scheme));
+		source.globalPropertyChanged(new GlobalProperty("authentication.scheme.test.config.users", "admin"));
+		assertThat(AuthenticationConfig.getSnapshot(), not(sameInstance(snapshot)));
+		assertThat(AuthenticationConfig.getAuthenticationScheme(), not(sameInstance(scheme)));
+	}
+
+	@Test
+	public void shouldKeepCurrentConfigurationIfGlobalPropertiesAreNotValid() {
+		AuthenticationConfig.setProperty(WHITE_LIST, "*.pdf");
+		globalProperties.add(new GlobalProperty(WHITE_LIST, "*.txt"));
+		globalProperties.add(new GlobalProperty(SCHEME, "missing"));
+		source.refresh();
+		assertThat(AuthenticationConfig.getProperty(WHITE_LIST), equalTo("*.pdf"));
+		assertThat(AuthenticationConfig.getProperty(SCHEME), nullValue());
+	}
+
+	@Test
+	public void shouldDiscardRefreshIfListenerChangedPropertiesDuringLoad() {
+		globalProperties.add(new GlobalProperty(WHITE_LIST, "*.pdf"));
+		GlobalPropertyConfigSource racingSource = new GlobalPropertyConfigSource(null) {
+			@Override
+			protected List<GlobalProperty> loadGlobalProperties() {
+				// A newer value is saved on this node while the older values are being read
+				globalPropertyChanged(new GlobalProperty(WHITE_LIST, "*.txt"));
+				return globalProperties;
+			}
+		};
+		racingSource.refresh();
+		assertThat(AuthenticationConfig.getProperty(WHITE_LIST), equalTo("*.txt"));
+		assertThat(racingSource.getGlobalProperties().getProperty(WHITE_LIST), equalTo("*.txt"));
+	}
+
+	@Test
+	public void shouldUseDefaultRefreshIntervalIfConfiguredIntervalIsNotValid() {
+		assertThat(GlobalPropertyConfigSource.getRefreshInterval(), equalTo(GlobalPropertyConfigSource.DEFAULT_REFRESH_INTERVAL));
+		AuthenticationConfig.setProperty(AuthenticationConfig.SETTINGS_GLOBAL_PROPERTIES_REFRESH_INTERVAL, "0");
+		assertThat(GlobalPropertyConfigSource.getRefreshInterval(), equalTo(0L));
+		AuthenticationConfig.setProperty(AuthenticationConfig.SETTINGS_GLOBAL_PROPERTIES_REFRESH_INTERVAL, "1m");
+		assertThat(GlobalPropertyConfigSource.getRefreshInterval(), equalTo(GlobalPropertyConfigSource.DEFAULT_REFRESH_INTERVAL));
+	}
+}
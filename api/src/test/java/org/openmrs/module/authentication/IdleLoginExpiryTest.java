@@ -0,0 +1,133 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdleLoginExpiryTest extends BaseAuthenticationTest {
+
+	static final long IDLE_TIMEOUT = 60000;
+	static final long TICK_DURATION = 1000;
+
+	List<UserLogin> logins = new ArrayList<>();
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		IdleLoginExpiry.stop();
+		for (UserLogin login : logins) {
+			UserLoginTracker.removeActiveLogin(login);
+		}
+		super.teardown();
+	}
+
+	protected UserLogin newActiveLogin(IdleLoginExpiry expiry, long lastActivityTime) {
+		UserLogin login = new UserLogin();
+		login.loginSuccessful();
+		login.setLastActivityDate(new Date(lastActivityTime));
+		expiry.schedule(login);
+		logins.add(login);
+		return login;
+	}
+
+	protected boolean isActive(UserLogin login) {
+		return UserLoginTracker.getActiveLogins().get(login.getLoginId()) == login;
+	}
+
+	@Test
+	public void shouldSizeWheelToCoverIdleTimeout() {
+		assertThat(new IdleLoginExpiry(IDLE_TIMEOUT, TICK_DURATION).getWheelSize(), equalTo(64));
+		assertThat(new IdleLoginExpiry(1000, TICK_DURATION).getWheelSize(), equalTo(2));
+		assertThat(new IdleLoginExpiry(Long.MAX_VALUE, TICK_DURATION).getWheelSize(), equalTo(IdleLoginExpiry.MAX_WHEEL_SIZE));
+		assertThrows(IllegalArgumentException.class, () -> new IdleLoginExpiry(0, TICK_DURATION));
+	}
+
+	@Test
+	public void shouldExpireLoginsOnlyOnceIdleTimeoutHasPassed() {
+		long now = System.currentTimeMillis();
+		IdleLoginExpiry expiry = new IdleLoginExpiry(IDLE_TIMEOUT, TICK_DURATION);
+		UserLogin login = newActiveLogin(expiry, now);
+		assertThat(expiry.advance(now), equalTo(0));
+		assertThat(expiry.advance(now + IDLE_TIMEOUT / 2), equalTo(0));
+		assertThat(isActive(login), equalTo(true));
+		assertThat(expiry.advance(now + IDLE_TIMEOUT + 2 * TICK_DURATION), equalTo(1));
+		assertThat(isActive(login), equalTo(false));
+		assertThat(login.containsEvent(AuthenticationEvent.LOGIN_EXPIRED), equalTo(true));
+		assertLastLogContains("event=LOGIN_EXPIRED");
+		assertThat(expiry.getScheduledCount(), equalTo(0));
+		assertThat(expiry.getExpiredCount(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldRescheduleLoginsWithActivitySinceTheyWereScheduled() {
+		long now = System.currentTimeMillis();
+		IdleLoginExpiry expiry = new IdleLoginExpiry(IDLE_TIMEOUT, TICK_DURATION);
+		UserLogin login = newActiveLogin(expiry, now);
+		assertThat(expiry.advance(now), equalTo(0));
+		login.setLastActivityDate(new Date(now + IDLE_TIMEOUT / 2));
+		assertThat(expiry.advance(now + IDLE_TIMEOUT + 2 * TICK_DURATION), equalTo(0));
+		assertThat(isActive(login), equalTo(true));
+		assertThat(expiry.getScheduledCount(), equalTo(1));
+		assertThat(expiry.advance(now + IDLE_TIMEOUT * 3 / 2 + 2 * TICK_DURATION), equalTo(1));
+		assertThat(isActive(login), equalTo(false));
+	}
+
+	@Test
+	public void shouldDropLoginsThatAreNoLongerActive() {
+		long now = System.currentTimeMillis();
+		IdleLoginExpiry expiry = new IdleLoginExpiry(IDLE_TIMEOUT, TICK_DURATION);
+		UserLogin login = newActiveLogin(expiry, now);
+		assertThat(expiry.advance(now), equalTo(0));
+		login.logoutSucceeded();
+		assertThat(expiry.advance(now + IDLE_TIMEOUT + 2 * TICK_DURATION), equalTo(0));
+		assertThat(login.containsEvent(AuthenticationEvent.LOGIN_EXPIRED), equalTo(false));
+		assertThat(expiry.getScheduledCount(), equalTo(0));
+	}
+
+	@Test
+	public void shouldExpireAllIdleLoginsWhenAdvancingBeyondOneRevolution() {
+		long now = System.currentTimeMillis();
+		IdleLoginExpiry expiry = new IdleLoginExpiry(IDLE_TIMEOUT, TICK_DURATION);
+		assertThat(expiry.advance(now), equalTo(0));
+		for (int i = 0; i < 100; i++) {
+			newActiveLogin(expiry, now - i * TICK_DURATION);
+		}
+		UserLogin recent = newActiveLogin(expiry, now + IDLE_TIMEOUT * 10);
+		assertThat(expiry.advance(now + IDLE_TIMEOUT * 5), equalTo(100));
+		assertThat(isActive(recent), equalTo(true));
+		assertThat(expiry.getScheduledCount(), equalTo(1));
+	}
+
+	@Test
+	public void shouldScheduleActiveLoginsWhenStarted() {
+		UserLogin existing = new UserLogin();
+		existing.loginSuccessful();
+		logins.add(existing);
+		AuthenticationConfig.setProperty(AuthenticationConfig.ACTIVE_LOGINS_IDLE_TIMEOUT, "600");
+		IdleLoginExpiry expiry = IdleLoginExpiry.start();
+		assertThat(expiry.getIdleTimeout(), equalTo(600000L));
+		assertThat(expiry.getScheduledCount(), equalTo(1));
+		UserLogin added = new UserLogin();
+		added.loginSuccessful();
+		logins.add(added);
+		assertThat(expiry.getScheduledCount(), equalTo(2));
+		IdleLoginExpiry.stop();
+		assertThat(IdleLoginExpiry.getInstance() == null, equalTo(true));
+		AuthenticationConfig.setProperty(AuthenticationConfig.ACTIVE_LOGINS_IDLE_TIMEOUT, "0");
+		assertThat(IdleLoginExpiry.start() == null, equalTo(true));
+	}
+
+	@Test
+	public void shouldNotStartIfIdleTimeoutIsNotValid() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.ACTIVE_LOGINS_IDLE_TIMEOUT, "10m");
+		assertThat(IdleLoginExpiry.getConfiguredIdleTimeout(), equalTo(0L));
+		assertThat(IdleLoginExpiry.start() == null, equalTo(true));
+	}
+}
@@ -0,0 +1,232 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.User;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JdbcActiveLoginBackendTest extends BaseAuthenticationTest {
+
+	TestActiveLoginDao dao;
+	ActiveLoginService service;
+	TestJdbcActiveLoginBackend node1;
+	TestJdbcActiveLoginBackend node2;
+	List<UserLogin> logins = new ArrayList<>();
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		dao = new TestActiveLoginDao();
+		service = TestActiveLoginDao.newService(dao);
+		node1 = newNode("node1");
+		node2 = newNode("node2");
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		UserLoginTracker.stopBackend();
+		for (UserLogin login : logins) {
+			UserLoginTracker.removeActiveLogin(login);
+		}
+		node1.stop();
+		node2.stop();
+		super.teardown();
+	}
+
+	protected TestJdbcActiveLoginBackend newNode(String nodeId) {
+		Properties config = newConfig();
+		config.setProperty("nodeId", nodeId);
+		TestJdbcActiveLoginBackend backend = new TestJdbcActiveLoginBackend(service);
+		backend.configure(config);
+		backend.start();
+		return backend;
+	}
+
+	protected Properties newConfig() {
+		Properties config = new Properties();
+		config.setProperty("flushInterval", "3600000");
+		return config;
+	}
+
+	protected UserLogin newUserLogin(Integer userId, String ipAddress) {
+		UserLogin login = new UserLogin();
+		User user = new User();
+		user.setUserId(userId);
+		user.setUsername("user" + userId);
+		login.setUser(user);
+		login.setIpAddress(ipAddress);
+		login.setHttpSessionId(UUID.randomUUID().toString());
+		logins.add(login);
+		return login;
+	}
+
+	@Test
+	public void shouldShareActiveLoginsBetweenNodes() throws Exception {
+		UserLogin login1 = newUserLogin(1, "10.0.0.1");
+		UserLogin login2 = newUserLogin(1, "10.0.0.2");
+		UserLogin login3 = newUserLogin(2, "10.0.0.3");
+		node1.loginAdded(login1);
+		node2.loginAdded(login2);
+		node2.loginAdded(login3);
+		assertThat(node1.getActiveLoginCount(), equalTo(1));
+		assertThat(node2.getActiveLoginCount(), equalTo(2));
+		assertThat(node1.flush(), equalTo(1));
+		assertThat(node2.flush(), equalTo(2));
+		assertThat(node1.getActiveLoginCount(), equalTo(3));
+		assertThat(node2.getActiveLoginCount(), equalTo(3));
+		List<ActiveLoginRecord> user1Logins = node2.getActiveLoginsForUser(1);
+		assertThat(user1Logins.size(), equalTo(2));
+		for (ActiveLoginRecord record : user1Logins) {
+			if (record.getLoginId().equals(login1.getLoginId())) {
+				assertThat(record.getNodeId(), equalTo("node1"));
+				assertThat(record.getUsername(), equalTo("user1"));
+				assertThat(record.getIpAddress(), equalTo("10.0.0.1"));
+				assertThat(record.getHttpSessionId(), equalTo(login1.getHttpSessionId()));
+			}
+			else {
+				assertThat(record.getLoginId(), equalTo(login2.getLoginId()));
+				assertThat(record.getNodeId(), equalTo("node2"));
+			}
+		}
+		assertThat(node1.getActiveLoginsForUser(2).size(), equalTo(1));
+		assertThat(node1.getActiveLogins().size(), equalTo(3));
+	}
+
+	@Test
+	public void shouldWriteChangesToEachLoginOncePerFlush() throws Exception {
+		UserLogin login = newUserLogin(1, "10.0.0.1");
+		login.loginSuccessful();
+		node1.loginAdded(login);
+		node1.loginChanged(login);
+		node1.loginActivity(login);
+		assertThat(node1.getPendingCount(), equalTo(1));
+		assertThat(node1.flush(), equalTo(1));
+		assertThat(node1.getPendingCount(), equalTo(0));
+		assertThat(node1.flush(), equalTo(0));
+		login.setIpAddress("10.0.0.2");
+		node1.loginChanged(login);
+		login.setLastActivityDate(new Date(login.getLastActivityTime() + 5000));
+		node1.loginActivity(login);
+		node1.flush();
+		ActiveLoginRecord record = node2.getActiveLogins().get(0);
+		assertThat(record.getIpAddress(), equalTo("10.0.0.2"));
+		assertThat(record.getLastActivityTime(), equalTo(login.getLastActivityTime()));
+		assertThat(record.getLoginDate(), equalTo(login.getLoginDate()));
+		node1.loginRemoved(login);
+		assertThat(node2.getActiveLoginCount(), equalTo(1));
+		node1.flush();
+		assertThat(node2.getActiveLoginCount(), equalTo(0));
+	}
+
+	@Test
+	public void shouldRetainChangesIfTheyCannotBeWritten() throws Exception {
+		UserLogin login = newUserLogin(1, "10.0.0.1");
+		node1.loginAdded(login);
+		dao.setUnavailable(true);
+		assertThrows(IllegalStateException.class, () -> node1.flush());
+		assertThat(node1.getPendingCount(), equalTo(1));
+		assertThat(node1.getActiveLoginCount(), equalTo(1));
+		dao.setUnavailable(false);
+		assertThat(node1.flush(), equalTo(1));
+		assertThat(node2.getActiveLoginCount(), equalTo(1));
+	}
+
+	@Test
+	public void shouldDeleteLoginsOfNodeWhenStopped() throws Exception {
+		node1.loginAdded(newUserLogin(1, "10.0.0.1"));
+		node1.flush();
+		assertThat(node2.getActiveLoginCount(), equalTo(1));
+		node1.stop();
+		assertThat(node2.getActiveLoginCount(), equalTo(0));
+	}
+
+	@Test
+	public void shouldIgnoreAndDeleteLoginsOfNodesThatStopSendingHeartbeats() throws Exception {
+		node1.loginAdded(newUserLogin(1, "10.0.0.1"));
+		node1.flush();
+		assertThat(node2.getActiveLoginCount(), equalTo(1));
+
+		long staleTime = System.currentTimeMillis() - node2.getNodeTimeout() - 1;
+		dao.setHeartbeat("node1", staleTime);
+		assertThat(node2.getActiveLoginCount(), equalTo(0));
+		assertThat(node2.getActiveLogins().size(), equalTo(0));
+		assertThat(node2.deleteStaleNodes(System.currentTimeMillis()), equalTo(1));
+		assertThat(dao.getLoginCount(), equalTo(0));
+		assertThat(dao.getNodeCount(), equalTo(1));
+
+		node1.loginAdded(newUserLogin(2, "10.0.0.2"));
+		node1.flush();
+		assertThat(node2.getActiveLoginCount(), equalTo(2));
+	}
+
+	@Test
+	public void shouldIdentifyEachProcessOnTheSameHostByDefault() {
+		JdbcActiveLoginBackend backend = new JdbcActiveLoginBackend();
+		Properties config = newConfig();
+		config.remove("flushInterval");
+		backend.configure(config);
+		assertThat(backend.getNodeId().matches(".+-[0-9a-f]{8}"), equalTo(true));
+		assertThat(backend.getNodeTimeout(), equalTo(3 * JdbcActiveLoginBackend.DEFAULT_FLUSH_INTERVAL));
+		config.setProperty("flushInterval", "5000");
+		config.setProperty("nodeTimeout", "5000");
+		assertThrows(IllegalArgumentException.class, () -> backend.configure(config));
+	}
+
+	@Test
+	public void shouldRejectFlushIntervalThatIsNotPositive() {
+		JdbcActiveLoginBackend backend = new JdbcActiveLoginBackend();
+		Properties config = newConfig();
+		config.setProperty("flushInterval", "0");
+		assertThrows(IllegalArgumentException.class, () -> backend.configure(config));
+		config.setProperty("flushInterval", "-1");
+		config.setProperty("nodeTimeout", "15000");
+		assertThrows(IllegalArgumentException.class, () -> backend.configure(config));
+	}
+
+	@Test
+	public void shouldReceiveChangesFromUserLoginTracker() throws Exception {
+		UserLogin existing = newUserLogin(1, "10.0.0.1");
+		UserLoginTracker.addActiveLogin(existing);
+		UserLoginTracker.setBackend(node1);
+		assertThat(node1.getPendingCount(), equalTo(1));
+		node1.flush();
+		UserLogin login = newUserLogin(2, "10.0.0.2");
+		UserLoginTracker.addActiveLogin(login);
+		login.setHttpSessionId("regenerated");
+		assertThat(node1.getPendingCount(), equalTo(1));
+		node1.flush();
+		assertThat(node2.getActiveLoginsForUser(2).get(0).getHttpSessionId(), equalTo("regenerated"));
+		UserLoginTracker.removeActiveLogin(existing);
+		node1.flush();
+		assertThat(node2.getActiveLoginCount(), equalTo(1));
+		UserLoginTracker.stopBackend();
+		assertThat(node2.getActiveLoginCount(), equalTo(0));
+		assertThat(UserLoginTracker.getBackend().getClass(), equalTo(LocalActiveLoginBackend.class));
+	}
+
+	public static class TestJdbcActiveLoginBackend extends JdbcActiveLoginBackend {
+
+		private final ActiveLoginService service;
+
+		public TestJdbcActiveLoginBackend(ActiveLoginService service) {
+			this.service = service;
+		}
+
+		@Override
+		protected ActiveLoginService getActiveLoginService() {
+			return service;
+		}
+	}
+}
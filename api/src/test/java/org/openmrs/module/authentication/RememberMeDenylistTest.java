@@ -0,0 +1,106 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class RememberMeDenylistTest extends BaseAuthenticationTest {
+
+	RememberMeTokenService service;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		service = TestRememberMeTokenDao.newService();
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		RememberMeDenylist.stop();
+		super.teardown();
+	}
+
+	@Test
+	public void shouldRevokeTokensByDeviceUserOrScheme() throws Exception {
+		RememberMeDenylist denylist = RememberMeDenylist.start(service, null);
+		long now = System.currentTimeMillis();
+		SignedRememberMeToken device1 = new SignedRememberMeToken(1, "2fa", "device1", now - 1000, now + 60000, "k1");
+		SignedRememberMeToken device2 = new SignedRememberMeToken(1, "2fa", "device2", now - 1000, now + 60000, "k1");
+		SignedRememberMeToken user2 = new SignedRememberMeToken(2, "2fa", "device3", now - 1000, now + 60000, "k1");
+		SignedRememberMeToken otherScheme = new SignedRememberMeToken(1, "other", "device1", now - 1000, now + 60000, "k1");
+		assertThat(denylist.isRevoked(device1, now), equalTo(false));
+
+		denylist.revokeDevice("2fa", "device1", now + 60000);
+		assertThat(denylist.isRevoked(device1, now), equalTo(true));
+		assertThat(denylist.isRevoked(device2, now), equalTo(false));
+		assertThat(denylist.isRevoked(otherScheme, now), equalTo(false));
+		assertThat(denylist.isRevoked(device1, now + 60000), equalTo(false));
+
+		denylist.revokeUser("2fa", 1, now - 500, now + 60000);
+		assertThat(denylist.isRevoked(device2, now), equalTo(true));
+		assertThat(denylist.isRevoked(new SignedRememberMeToken(1, "2fa", "device4", now - 500, now + 60000, "k1"), now), equalTo(false));
+		assertThat(denylist.isRevoked(user2, now), equalTo(false));
+
+		denylist.revokeAll("2fa", now, now + 60000);
+		assertThat(denylist.isRevoked(user2, now), equalTo(true));
+		assertThat(denylist.isRevoked(otherScheme, now), equalTo(false));
+		assertThat(denylist.size(), equalTo(3));
+	}
+
+	@Test
+	public void shouldReloadRevocationsWhenStartedAndPruneThemWhenExpired() throws Exception {
+		long now = System.currentTimeMillis();
+		RememberMeDenylist.start(service, null).revokeUser("2fa", 1, now, now + 1000);
+		RememberMeDenylist.getInstance().revokeUser("2fa", 1, now - 1000, now + 60000);
+		RememberMeDenylist.getInstance().revokeUser("2fa", 2, now, now + 1000);
+
+		RememberMeDenylist denylist = RememberMeDenylist.start(service, null);
+		assertThat(RememberMeDenylist.getInstance(), equalTo(denylist));
+		assertThat(denylist.size(), equalTo(2));
+		SignedRememberMeToken token = new SignedRememberMeToken(1, "2fa", "device1", now - 1, now + 60000, "k1");
+		assertThat(denylist.isRevoked(token, now), equalTo(true));
+
+		assertThat(denylist.refresh(now + 1000), equalTo(1));
+		assertThat(denylist.size(), equalTo(1));
+		assertThat(denylist.isRevoked(token, now + 1000), equalTo(true));
+		assertThat(service.getRevocations(now).size(), equalTo(1));
+		assertThat(denylist.refresh(now + 60000), equalTo(1));
+		assertThat(denylist.size(), equalTo(0));
+	}
+
+	@Test
+	public void shouldRefreshRevocationsMadeByOtherServersInTheBackground() throws Exception {
+		long now = System.currentTimeMillis();
+		RememberMeDenylist denylist = RememberMeDenylist.start(service, null, 50);
+		SignedRememberMeToken token = new SignedRememberMeToken(1, "2fa", "device1", now - 1000, now + 60000, "k1");
+		service.saveRevocation(new RememberMeRevocation("2fa", RememberMeRevocation.userKey(1), now, now + 60000));
+		assertThat(denylist.isRevoked(token, now), equalTo(false));
+		for (int i = 0; i < 100 && !denylist.isRevoked(token, now); i++) {
+			Thread.sleep(20);
+		}
+		assertThat(denylist.isRevoked(token, now), equalTo(true));
+	}
+
+	@Test
+	public void shouldUseDefaultRefreshIntervalIfNotValid() {
+		assertThat(RememberMeDenylist.getConfiguredRefreshInterval(), equalTo(RememberMeDenylist.DEFAULT_REFRESH_INTERVAL));
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_DENYLIST_REFRESH_INTERVAL, "0");
+		assertThat(RememberMeDenylist.getConfiguredRefreshInterval(), equalTo(RememberMeDenylist.DEFAULT_REFRESH_INTERVAL));
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_DENYLIST_REFRESH_INTERVAL, "soon");
+		assertThat(RememberMeDenylist.getConfiguredRefreshInterval(), equalTo(RememberMeDenylist.DEFAULT_REFRESH_INTERVAL));
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_DENYLIST_REFRESH_INTERVAL, "5");
+		assertThat(RememberMeDenylist.getConfiguredRefreshInterval(), equalTo(5L));
+	}
+
+	@Test
+	public void shouldNotStartWithoutService() {
+		assertThat(RememberMeDenylist.start(null, null), nullValue());
+		assertThat(RememberMeDenylist.getInstance(), nullValue());
+	}
+}
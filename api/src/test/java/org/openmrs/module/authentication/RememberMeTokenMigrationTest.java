@@ -0,0 +1,121 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.User;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RememberMeTokenMigrationTest extends BaseAuthenticationTest {
+
+	TestRememberMeTokenDao dao;
+	RememberMeTokenService service;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		dao = new TestRememberMeTokenDao();
+		service = TestRememberMeTokenDao.newService(dao);
+	}
+
+	@Test
+	public void shouldMoveTokensFromUserPropertiesInBatches() {
+		long now = System.currentTimeMillis();
+		User user1 = addUser(1);
+		user1.setUserProperty("authentication.2fa.rememberMe.seriesA", "hashA:" + (now + 60000));
+		user1.setUserProperty("authentication.2fa.rememberMe.seriesB", "hashB:" + (now + 60000));
+		user1.setUserProperty("authentication.2fa.rememberMe.expired", "hashC:" + (now - 1));
+		user1.setUserProperty("authentication.secondaryType", "totp");
+		User user2 = addUser(2);
+		user2.setUserProperty("authentication.2fa.rememberMe.malformed", "hashD");
+		user2.setUserProperty("authentication.other.rememberMe.seriesE", "hashE:" + (now + 60000));
+		User user3 = addUser(3);
+		user3.setUserProperty("defaultLocale", "en");
+		User user4 = addUser(4);
+		user4.setUserProperty("authentication.2fa.rememberMe.seriesF", "hashF:" + (now + 60000));
+
+		assertThat(RememberMeTokenMigration.migrate(service, 2), equalTo(5));
+
+		RememberMeToken tokenA = service.getToken("seriesA");
+		assertThat(tokenA.getUserId(), equalTo(1));
+		assertThat(tokenA.getSchemeId(), equalTo("2fa"));
+		assertThat(tokenA.getTokenHash(), equalTo("hashA"));
+		assertThat(tokenA.getExpiryTime(), equalTo(now + 60000));
+		assertThat(service.getToken("seriesB"), notNullValue());
+		assertThat(service.getToken("expired").isExpired(now), equalTo(true));
+		assertThat(service.getToken("malformed"), nullValue());
+		assertThat(service.getToken("seriesE").getSchemeId(), equalTo("other"));
+		assertThat(service.getToken("seriesF").getUserId(), equalTo(4));
+
+		assertThat(user1.getUserProperties().size(), equalTo(1));
+		assertThat(user1.getUserProperty("authentication.secondaryType"), equalTo("totp"));
+		assertThat(user2.getUserProperties().size(), equalTo(1));
+		assertThat(user2.getUserProperty("authentication.2fa.rememberMe.malformed"), equalTo("hashD"));
+		assertThat(user3.getUserProperty("defaultLocale"), equalTo("en"));
+		assertThat(user4.getUserProperties().size(), equalTo(0));
+		assertThat(RememberMeTokenMigration.migrate(service, 2), equalTo(0));
+	}
+
+	@Test
+	public void shouldRemoveUserPropertiesOfTokensThatAreAlreadyInTheTable() {
+		long now = System.currentTimeMillis();
+		service.saveToken(new RememberMeToken("seriesA", "2fa", 1, "movedA", now + 60000, now, 0));
+		User user = addUser(1);
+		user.setUserProperty("authentication.2fa.rememberMe.seriesA", "hashA:" + (now + 60000));
+		user.setUserProperty("authentication.2fa.rememberMe.seriesB", "hashB:" + (now + 60000));
+
+		assertThat(service.migrateUserProperties(Collections.singletonList(1)), equalTo(1));
+		assertThat(service.getToken("seriesA").getTokenHash(), equalTo("movedA"));
+		assertThat(service.getToken("seriesB").getTokenHash(), equalTo("hashB"));
+		assertThat(user.getUserProperties().size(), equalTo(0));
+	}
+
+	@Test
+	public void shouldRetryABatchThatFailsOnce() {
+		long now = System.currentTimeMillis();
+		User user = addUser(1);
+		user.setUserProperty("authentication.2fa.rememberMe.seriesA", "hashA:" + (now + 60000));
+		int[] failures = {1};
+		RememberMeTokenServiceImpl failingService = new RememberMeTokenServiceImpl() {
+			@Override
+			public int migrateUserProperties(List<Integer> userIds) {
+				if (failures[0]-- > 0) {
+					throw new IllegalStateException("Moved by another server");
+				}
+				return super.migrateUserProperties(userIds);
+			}
+		};
+		failingService.setDao(dao);
+		assertThat(RememberMeTokenMigration.migrate(failingService, 2), equalTo(1));
+		assertThat(user.getUserProperties().size(), equalTo(0));
+
+		user.setUserProperty("authentication.2fa.rememberMe.seriesB", "hashB:" + (now + 60000));
+		failures[0] = 2;
+		assertThrows(IllegalStateException.class, () -> RememberMeTokenMigration.migrate(failingService, 2));
+		assertThat(service.getToken("seriesB"), nullValue());
+		assertThat(user.getUserProperty("authentication.2fa.rememberMe.seriesB"), notNullValue());
+	}
+
+	@Test
+	public void shouldUseDefaultBatchSizeIfConfiguredSizeIsNotValid() {
+		assertThat(RememberMeTokenMigration.getBatchSize(null), equalTo(RememberMeTokenMigration.DEFAULT_BATCH_SIZE));
+		assertThat(RememberMeTokenMigration.getBatchSize("100"), equalTo(100));
+		assertThat(RememberMeTokenMigration.getBatchSize("0"), equalTo(RememberMeTokenMigration.DEFAULT_BATCH_SIZE));
+		assertThat(RememberMeTokenMigration.getBatchSize("lots"), equalTo(RememberMeTokenMigration.DEFAULT_BATCH_SIZE));
+	}
+
+	private User addUser(Integer userId) {
+		User user = new User();
+		user.setUserId(userId);
+		dao.addUser(user);
+		return user;
+	}
+}
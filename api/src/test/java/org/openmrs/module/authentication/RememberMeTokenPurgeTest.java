@@ -0,0 +1,94 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RememberMeTokenPurgeTest extends BaseAuthenticationTest {
+
+	RememberMeTokenService service;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		AuthenticationMetrics.reset();
+		service = TestRememberMeTokenDao.newService();
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		RememberMeTokenPurge.stop();
+		AuthenticationMetrics.reset();
+		super.teardown();
+	}
+
+	@Test
+	public void shouldPurgeExpiredTokensAndReportTheNumberPurged() throws Exception {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			service.saveToken(new RememberMeToken("expired" + i, "2fa", i, "hash", now - 1000, now - 60000, 0));
+		}
+		service.saveToken(new RememberMeToken("valid", "2fa", 1, "hash", now + 60000, now, 0));
+		RememberMeTokenPurge purge = new RememberMeTokenPurge(60000, 2, 1, null);
+
+		assertThat(purge.purge(service, now), equalTo(5));
+		assertThat(purge.getLastPurgeCount(), equalTo(5));
+		assertThat(purge.getPurgedCount(), equalTo(5L));
+		assertThat(service.getToken("expired0"), nullValue());
+		assertThat(service.getToken("valid"), notNullValue());
+		assertThat(AuthenticationMetrics.getCount(AuthenticationMetrics.REMEMBER_ME_TOKENS_PURGED), equalTo(5L));
+		assertThat(AuthenticationMetrics.getHistogram(AuthenticationMetrics.REMEMBER_ME_PURGE_DURATION).getCount(), equalTo(1L));
+
+		assertThat(purge.purge(service, now), equalTo(0));
+		assertThat(purge.getLastPurgeCount(), equalTo(0));
+		assertThat(purge.getPurgedCount(), equalTo(5L));
+	}
+
+	@Test
+	public void shouldStartWithConfiguredSettings() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_PURGE_INTERVAL, "60");
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_PURGE_BATCH_SIZE, "50");
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_PURGE_BATCH_DELAY, "10");
+		RememberMeTokenPurge purge = RememberMeTokenPurge.start(null);
+		assertThat(RememberMeTokenPurge.getInstance(), equalTo(purge));
+		assertThat(purge.getInterval(), equalTo(60000L));
+		assertThat(purge.getBatchSize(), equalTo(50));
+		assertThat(purge.getBatchDelay(), equalTo(10L));
+		RememberMeTokenPurge.stop();
+		assertThat(RememberMeTokenPurge.getInstance(), nullValue());
+	}
+
+	@Test
+	public void shouldStartWithDefaultSettings() {
+		RememberMeTokenPurge purge = RememberMeTokenPurge.start(null);
+		assertThat(purge.getInterval(), equalTo(RememberMeTokenPurge.DEFAULT_INTERVAL * 1000));
+		assertThat(purge.getBatchSize(), equalTo(RememberMeTokenPurge.DEFAULT_BATCH_SIZE));
+		assertThat(purge.getBatchDelay(), equalTo(RememberMeTokenPurge.DEFAULT_BATCH_DELAY));
+	}
+
+	@Test
+	public void shouldNotStartWithInvalidSettings() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_PURGE_BATCH_SIZE, "many");
+		assertThrows(IllegalArgumentException.class, () -> RememberMeTokenPurge.start(null));
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_PURGE_BATCH_SIZE, "0");
+		assertThrows(IllegalArgumentException.class, () -> RememberMeTokenPurge.start(null));
+		assertThat(RememberMeTokenPurge.getInstance(), nullValue());
+	}
+
+	@Test
+	public void shouldNotStartIfDisabled() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.REMEMBER_ME_PURGE_INTERVAL, "0");
+		assertThat(RememberMeTokenPurge.start(null), nullValue());
+		assertThat(RememberMeTokenPurge.getInstance(), nullValue());
+		assertThrows(IllegalArgumentException.class, () -> new RememberMeTokenPurge(60000, 0, 0, null));
+		assertThrows(IllegalArgumentException.class, () -> new RememberMeTokenPurge(60000, 10, -1, null));
+	}
+}
@@ -0,0 +1,151 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RememberMeTokenServiceTest extends BaseAuthenticationTest {
+
+	RememberMeTokenService service;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		service = TestRememberMeTokenDao.newService();
+	}
+
+	@Test
+	public void shouldStoreAndRetrieveTokensBySeriesIdAndUser() {
+		long now = System.currentTimeMillis();
+		service.saveToken(new RememberMeToken("series1", "2fa", 1, "hash1", now + 60000, now, 0));
+		service.saveToken(new RememberMeToken("series2", "2fa", 1, "hash2", now + 60000, now, now));
+		service.saveToken(new RememberMeToken("series3", "2fa", 2, "hash3", now + 60000, now, 0));
+
+		RememberMeToken token = service.getToken("series1");
+		assertThat(token.getSchemeId(), equalTo("2fa"));
+		assertThat(token.getUserId(), equalTo(1));
+		assertThat(token.getTokenHash(), equalTo("hash1"));
+		assertThat(token.getExpiryTime(), equalTo(now + 60000));
+		assertThat(token.getCreatedTime(), equalTo(now));
+		assertThat(token.getLastUsedDate(), nullValue());
+		assertThat(service.getToken("series2").getLastUsedTime(), equalTo(now));
+		assertThat(service.getToken("missing"), nullValue());
+		assertThat(service.getTokensForUser(1).size(), equalTo(2));
+		assertThat(service.getTokensForUser(2).size(), equalTo(1));
+		assertThat(service.getTokensForUser(null).size(), equalTo(0));
+
+		assertThat(service.deleteToken("series1"), equalTo(true));
+		assertThat(service.deleteToken("series1"), equalTo(false));
+		assertThat(service.getToken("series1"), nullValue());
+		assertThat(service.getTokensForUser(1).size(), equalTo(1));
+	}
+
+	@Test
+	public void shouldRotateTokenOnlyOnceAndOnlyForTheSameUserAndScheme() {
+		long now = System.currentTimeMillis();
+		service.saveToken(new RememberMeToken("series1", "2fa", 1, "hash1", now + 60000, now, 0));
+
+		assertThat(service.rotateToken("series1", new RememberMeToken("series2", "2fa", 2, "hash2", now + 60000, now, now)), equalTo(false));
+		assertThat(service.rotateToken("series1", new RememberMeToken("series2", "other", 1, "hash2", now + 60000, now, now)), equalTo(false));
+		assertThat(service.getToken("series1"), notNullValue());
+		assertThat(service.getToken("series2"), nullValue());
+
+		assertThat(service.rotateToken("series1", new RememberMeToken("series2", "2fa", 1, "hash2", now + 60000, now, now)), equalTo(true));
+		assertThat(service.getToken("series1"), nullValue());
+		assertThat(service.getToken("series2").getTokenHash(), equalTo("hash2"));
+		assertThat(service.rotateToken("series1", new RememberMeToken("series3", "2fa", 1, "hash3", now + 60000, now, now)), equalTo(false));
+		assertThat(service.getToken("series3"), nullValue());
+	}
+
+	@Test
+	public void shouldDeleteAllTokensForUser() {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 30; i++) {
+			service.saveToken(new RememberMeToken("series" + i, "2fa", 1, "hash", now + 60000, now, 0));
+		}
+		service.saveToken(new RememberMeToken("other", "other", 1, "hash", now + 60000, now, 0));
+		service.saveToken(new RememberMeToken("user2", "2fa", 2, "hash", now + 60000, now, 0));
+
+		assertThat(service.deleteTokensForUser(1, "2fa"), equalTo(30));
+		assertThat(service.getTokensForUser(1).size(), equalTo(1));
+		assertThat(service.deleteTokensForUser(1, null), equalTo(1));
+		assertThat(service.getTokensForUser(1).size(), equalTo(0));
+		assertThat(service.getTokensForUser(2).size(), equalTo(1));
+		assertThat(service.deleteTokensForUser(null, null), equalTo(0));
+	}
+
+	@Test
+	public void shouldDeleteTokensCreatedBeforeTimeInBatchesOfUsers() {
+		long now = System.currentTimeMillis();
+		for (int userId = 1; userId <= 7; userId++) {
+			service.saveToken(new RememberMeToken("old" + userId, "2fa", userId, "hash", now + 60000, now - 1000, 0));
+			service.saveToken(new RememberMeToken("older" + userId, "2fa", userId, "hash", now + 60000, now - 2000, 0));
+			service.saveToken(new RememberMeToken("new" + userId, "2fa", userId, "hash", now + 60000, now, 0));
+		}
+		service.saveToken(new RememberMeToken("otherScheme", "other", 1, "hash", now + 60000, now - 1000, 0));
+
+		assertThat(service.deleteTokensCreatedBefore("2fa", now, 3), equalTo(6));
+		assertThat(service.getToken("old1"), nullValue());
+		assertThat(service.getToken("older3"), nullValue());
+		assertThat(service.getToken("old4"), notNullValue());
+		assertThat(service.deleteTokensCreatedBefore("2fa", now, 3), equalTo(6));
+		assertThat(service.deleteTokensCreatedBefore("2fa", now, 3), equalTo(2));
+		assertThat(service.deleteTokensCreatedBefore("2fa", now, 3), equalTo(0));
+		for (int userId = 1; userId <= 7; userId++) {
+			assertThat(service.getToken("old" + userId), nullValue());
+			assertThat(service.getToken("older" + userId), nullValue());
+			assertThat(service.getToken("new" + userId), notNullValue());
+		}
+		assertThat(service.getToken("otherScheme"), notNullValue());
+		assertThat(service.deleteTokensCreatedBefore(null, now, 3), equalTo(1));
+		assertThat(service.deleteTokensCreatedBefore(null, now, 3), equalTo(0));
+		assertThrows(IllegalArgumentException.class, () -> service.deleteTokensCreatedBefore(null, now, 0));
+	}
+
+	@Test
+	public void shouldDeleteExpiredTokensInBatches() {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 7; i++) {
+			service.saveToken(new RememberMeToken("expired" + i, "2fa", i, "hash", now - (i % 3), now - 60000, 0));
+			service.saveToken(new RememberMeToken("valid" + i, "2fa", i, "hash", now + 1, now - 60000, 0));
+		}
+		assertThat(service.deleteExpiredTokens(now, 5), equalTo(5));
+		assertThat(service.deleteExpiredTokens(now, 5), equalTo(2));
+		for (int i = 0; i < 7; i++) {
+			assertThat(service.getToken("expired" + i), nullValue());
+			assertThat(service.getToken("valid" + i), notNullValue());
+		}
+		assertThat(service.deleteExpiredTokens(now, 5), equalTo(0));
+		assertThat(service.deleteExpiredTokens(now + 1, 10), equalTo(7));
+		assertThrows(IllegalArgumentException.class, () -> service.deleteExpiredTokens(now, 0));
+	}
+
+	@Test
+	public void shouldStoreAndMergeRevocations() {
+		long now = System.currentTimeMillis();
+		service.saveRevocation(new RememberMeRevocation("2fa", RememberMeRevocation.userKey(1), now, now + 1000));
+		RememberMeRevocation merged = service.saveRevocation(new RememberMeRevocation("2fa", RememberMeRevocation.userKey(1), now - 1000, now + 60000));
+		assertThat(merged.getRevokedTime(), equalTo(now));
+		assertThat(merged.getExpiryTime(), equalTo(now + 60000));
+		service.saveRevocation(new RememberMeRevocation("other", RememberMeRevocation.userKey(1), now, now + 1000));
+		service.saveRevocation(new RememberMeRevocation("2fa", RememberMeRevocation.ALL, now, now + 1000));
+
+		List<RememberMeRevocation> revocations = service.getRevocations(now);
+		assertThat(revocations.size(), equalTo(3));
+		assertThat(service.getRevocations(now + 1000).size(), equalTo(1));
+		assertThat(service.deleteExpiredRevocations(now + 1000), equalTo(2));
+		RememberMeRevocation remaining = service.getRevocations(now).get(0);
+		assertThat(remaining.getSchemeId(), equalTo("2fa"));
+		assertThat(remaining.getKey(), equalTo("user:1"));
+		assertThat(remaining.getRevokedTime(), equalTo(now));
+		assertThat(service.deleteExpiredRevocations(now + 60000), equalTo(1));
+	}
+}
@@ -0,0 +1,91 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RememberMeTokenSignerTest {
+
+	String key1 = TokenCrypto.randomToken(32);
+	String key2 = TokenCrypto.randomToken(32);
+
+	@Test
+	public void shouldSignAndVerifyTokens() {
+		long now = System.currentTimeMillis();
+		RememberMeTokenSigner signer = new RememberMeTokenSigner(RememberMeTokenSigner.parseKeys("k1:" + key1), now);
+		String signed = signer.sign(new SignedRememberMeToken(5, "2fa:custom", "device1", now - 1000, now + 60000, null));
+		assertThat(signed.startsWith("k1."), equalTo(true));
+		assertThat(signed.split("\\.").length, equalTo(3));
+
+		SignedRememberMeToken token = signer.verify(signed, now);
+		assertThat(token.getUserId(), equalTo(5));
+		assertThat(token.getSchemeId(), equalTo("2fa:custom"));
+		assertThat(token.getDeviceId(), equalTo("device1"));
+		assertThat(token.getIssuedTime(), equalTo(now - 1000));
+		assertThat(token.getExpiryTime(), equalTo(now + 60000));
+		assertThat(token.getKeyId(), equalTo("k1"));
+		assertThat(signer.verify(signed, now + 60000), nullValue());
+	}
+
+	@Test
+	public void shouldRejectTamperedOrMalformedTokens() {
+		long now = System.currentTimeMillis();
+		RememberMeTokenSigner signer = new RememberMeTokenSigner(RememberMeTokenSigner.parseKeys("k1:" + key1), now);
+		String signed = signer.sign(new SignedRememberMeToken(5, "2fa", "device1", now, now + 60000, null));
+		String[] parts = signed.split("\\.");
+		String otherPayload = TokenCrypto.toBase64Url(("6:device1:" + now + ":" + (now + 60000) + ":2fa").getBytes(StandardCharsets.UTF_8));
+		assertThat(signer.verify(parts[0] + "." + otherPayload + "." + parts[2], now), nullValue());
+		assertThat(signer.verify(parts[0] + "." + parts[1] + "." + parts[2].substring(1), now), nullValue());
+		assertThat(signer.verify("k2." + parts[1] + "." + parts[2], now), nullValue());
+		assertThat(signer.verify(parts[1] + "." + parts[2], now), nullValue());
+		assertThat(signer.verify("k1..", now), nullValue());
+		assertThat(signer.verify("k1.a.!!!", now), nullValue());
+		assertThat(signer.verify("", now), nullValue());
+		assertThat(signer.verify(null, now), nullValue());
+
+		RememberMeTokenSigner otherSigner = new RememberMeTokenSigner(RememberMeTokenSigner.parseKeys("k1:" + key2), now);
+		assertThat(otherSigner.verify(signed, now), nullValue());
+	}
+
+	@Test
+	public void shouldAcceptPreviousKeysUntilTheEndOfTheGraceWindow() {
+		long now = System.currentTimeMillis();
+		RememberMeTokenSigner oldSigner = new RememberMeTokenSigner(RememberMeTokenSigner.parseKeys("k1:" + key1), now);
+		String signedWithOldKey = oldSigner.sign(new SignedRememberMeToken(5, "2fa", "device1", now, now + 60000, null));
+
+		RememberMeTokenSigner signer = new RememberMeTokenSigner(RememberMeTokenSigner.parseKeys(" k2:" + key2 + ", k1:" + key1), now + 1000);
+		assertThat(signer.getCurrentKeyId(), equalTo("k2"));
+		assertThat(signer.isCurrentKey("k1"), equalTo(false));
+		SignedRememberMeToken token = signer.verify(signedWithOldKey, now);
+		assertThat(token, notNullValue());
+		assertThat(token.getKeyId(), equalTo("k1"));
+		assertThat(signer.verify(signedWithOldKey, now + 1000), nullValue());
+
+		String resigned = signer.sign(token);
+		assertThat(resigned.startsWith("k2."), equalTo(true));
+		assertThat(signer.verify(resigned, now + 1000).getDeviceId(), equalTo("device1"));
+		assertThat(oldSigner.verify(resigned, now), nullValue());
+	}
+
+	@Test
+	public void shouldRejectInvalidKeys() {
+		assertThrows(IllegalArgumentException.class, () -> new RememberMeTokenSigner(RememberMeTokenSigner.parseKeys(""), 0));
+		assertThrows(IllegalArgumentException.class, () -> RememberMeTokenSigner.parseKeys(key1));
+		assertThrows(IllegalArgumentException.class, () -> RememberMeTokenSigner.parseKeys("k1:" + key1 + ",k1:" + key2));
+		assertThrows(IllegalArgumentException.class, () -> RememberMeTokenSigner.parseKeys("k1:not base64"));
+		Map<String, byte[]> keys = new LinkedHashMap<>();
+		keys.put("k1", new byte[16]);
+		assertThrows(IllegalArgumentException.class, () -> new RememberMeTokenSigner(keys, 0));
+		keys.clear();
+		keys.put("k.1", new byte[32]);
+		assertThrows(IllegalArgumentException.class, () -> new RememberMeTokenSigner(keys, 0));
+	}
+}
@@ -0,0 +1,133 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class RuntimePropertiesReloaderTest extends BaseAuthenticationTest {
+
+	RuntimePropertiesReloader reloader;
+
+	@BeforeEach
+	@Override
+	public void setup() {
+		super.setup();
+		reloader = new RuntimePropertiesReloader("openmrs", runtimePropertiesFile.toPath(), 50);
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() {
+		reloader.stopWatching();
+		super.teardown();
+	}
+
+	@Test
+	public void shouldPublishChangedConfiguration() {
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.WHITE_LIST, "*.pdf");
+		writeRuntimeProperties(p);
+		assertThat(reloader.reload(), equalTo(true));
+		assertThat(AuthenticationConfig.getProperty(AuthenticationConfig.WHITE_LIST), equalTo("*.pdf"));
+		assertThat(reloader.getGeneration(), equalTo(1L));
+		assertThat(reloader.getLastReloadDate(), notNullValue());
+		assertThat(reloader.reload(), equalTo(false));
+		assertThat(reloader.getGeneration(), equalTo(1L));
+		assertThat(reloader.getFailures(), equalTo(0L));
+	}
+
+	@Test
+	public void shouldKeepCurrentConfigurationIfNewConfigurationIsNotValid() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.WHITE_LIST, "*.pdf");
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.WHITE_LIST, "*.txt");
+		p.setProperty(AuthenticationConfig.SCHEME, "test");
+		p.setProperty("authentication.scheme.test.type", "org.openmrs.module.authentication.MissingScheme");
+		writeRuntimeProperties(p);
+		assertThat(reloader.reload(), equalTo(false));
+		assertThat(AuthenticationConfig.getProperty(AuthenticationConfig.WHITE_LIST), equalTo("*.pdf"));
+		assertThat(reloader.getGeneration(), equalTo(0L));
+		assertThat(reloader.getFailures(), equalTo(1L));
+		assertThat(reloader.getLastReloadDate(), nullValue());
+		assertThat(reloader.getLastFailureDate(), notNullValue());
+		assertThat(reloader.getLastFailureMessage(), notNullValue());
+	}
+
+	@Test
+	public void shouldKeepCurrentConfigurationIfConfiguredSchemeHasNoType() {
+		AuthenticationConfig.setProperty(AuthenticationConfig.WHITE_LIST, "*.pdf");
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.SCHEME, "test");
+		writeRuntimeProperties(p);
+		assertThat(reloader.reload(), equalTo(false));
+		assertThat(AuthenticationConfig.getProperty(AuthenticationConfig.WHITE_LIST), equalTo("*.pdf"));
+		assertThat(reloader.getFailures(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldReloadWhenRuntimePropertiesFileChanges() throws Exception {
+		reloader.startWatching();
+		assertThat(reloader.isWatching(), equalTo(true));
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.WHITE_LIST, "*.pdf");
+		p.setProperty(AuthenticationConfig.SCHEME, "test");
+		p.setProperty("authentication.scheme.test.type", TestAuthenticationScheme.class.getName());
+		writeRuntimeProperties(p);
+		long timeout = System.currentTimeMillis() + 10000;
+		while (reloader.getGeneration() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		assertThat(reloader.getGeneration(), equalTo(1L));
+		assertThat(AuthenticationConfig.getProperty(AuthenticationConfig.WHITE_LIST), equalTo("*.pdf"));
+		assertThat(AuthenticationConfig.getAuthenticationScheme().getClass(), equalTo(TestAuthenticationScheme.class));
+		reloader.stopWatching();
+		assertThat(reloader.isWatching(), equalTo(false));
+	}
+
+	@Test
+	public void shouldReloadWhileOtherFilesInDirectoryKeepChanging() throws Exception {
+		reloader = new RuntimePropertiesReloader("openmrs", runtimePropertiesFile.toPath(), 200);
+		reloader.startWatching();
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.WHITE_LIST, "*.pdf");
+		writeRuntimeProperties(p);
+		Path otherFile = runtimePropertiesFile.toPath().resolveSibling("openmrs.log");
+		long timeout = System.currentTimeMillis() + 10000;
+		while (reloader.getGeneration() == 0 && System.currentTimeMillis() < timeout) {
+			Files.write(otherFile, ("log " + System.nanoTime() + "\n").getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			Thread.sleep(20);
+		}
+		assertThat(reloader.getGeneration(), equalTo(1L));
+		assertThat(AuthenticationConfig.getProperty(AuthenticationConfig.WHITE_LIST), equalTo("*.pdf"));
+	}
+
+	@Test
+	public void shouldUseDefaultReloadDelayIfConfiguredDelayIsNotValid() {
+		assertThat(RuntimePropertiesReloader.getReloadDelay(), equalTo(RuntimePropertiesReloader.DEFAULT_RELOAD_DELAY));
+		AuthenticationConfig.setProperty(AuthenticationConfig.SETTINGS_RELOAD_DELAY, "250");
+		assertThat(RuntimePropertiesReloader.getReloadDelay(), equalTo(250L));
+		AuthenticationConfig.setProperty(AuthenticationConfig.SETTINGS_RELOAD_DELAY, "1s");
+		assertThat(RuntimePropertiesReloader.getReloadDelay(), equalTo(RuntimePropertiesReloader.DEFAULT_RELOAD_DELAY));
+		AuthenticationConfig.setProperty(AuthenticationConfig.SETTINGS_RELOAD_DELAY, "-1");
+		assertThat(RuntimePropertiesReloader.getReloadDelay(), equalTo(RuntimePropertiesReloader.DEFAULT_RELOAD_DELAY));
+	}
+
+	private void writeRuntimeProperties(Properties p) {
+		p.setProperty(OpenmrsConstants.APPLICATION_DATA_DIRECTORY_RUNTIME_PROPERTY, appDataDir.getAbsolutePath());
+		OpenmrsUtil.storeProperties(p, runtimePropertiesFile, "test");
+	}
+}
@@ -0,0 +1,167 @@
+package org.openmrs.module.authentication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory ActiveLoginDao, used in tests in place of the database, with the real ActiveLoginServiceImpl.  A single
+ * instance can be shared by several backends, as the nodes share a database.
+ */
+public class TestActiveLoginDao extends ActiveLoginDao {
+
+	private final Map<String, ActiveLoginRecord> logins = new LinkedHashMap<>();
+	private final Map<String, Long> heartbeats = new HashMap<>();
+	private volatile boolean unavailable = false;
+
+	/**
+	 * @return an ActiveLoginServiceImpl that stores active logins in the given dao
+	 */
+	public static ActiveLoginServiceImpl newService(TestActiveLoginDao dao) {
+		ActiveLoginServiceImpl service = new ActiveLoginServiceImpl();
+		service.setDao(dao);
+		return service;
+	}
+
+	/**
+	 * @param unavailable if true, every method fails as if the database could not be reached
+	 */
+	public void setUnavailable(boolean unavailable) {
+		this.unavailable = unavailable;
+	}
+
+	/**
+	 * Sets the last heartbeat of the given node, as if it had been written at the given time
+	 */
+	public synchronized void setHeartbeat(String nodeId, long heartbeatTime) {
+		heartbeats.put(nodeId, heartbeatTime);
+	}
+
+	/**
+	 * @return the number of active logins stored, for all nodes
+	 */
+	public synchronized int getLoginCount() {
+		return logins.size();
+	}
+
+	/**
+	 * @return the number of node heartbeats stored
+	 */
+	public synchronized int getNodeCount() {
+		return heartbeats.size();
+	}
+
+	@Override
+	public synchronized int updateHeartbeat(String nodeId, long heartbeatTime) {
+		checkAvailable();
+		if (!heartbeats.containsKey(nodeId)) {
+			return 0;
+		}
+		heartbeats.put(nodeId, heartbeatTime);
+		return 1;
+	}
+
+	@Override
+	public synchronized void saveNode(ActiveLoginNode node) {
+		checkAvailable();
+		heartbeats.put(node.getNodeId(), node.getHeartbeatTime());
+	}
+
+	@Override
+	public synchronized int deleteNode(String nodeId) {
+		checkAvailable();
+		return heartbeats.remove(nodeId) == null ? 0 : 1;
+	}
+
+	@Override
+	public synchronized int deleteStaleNodes(String nodeId, long heartbeatCutoff) {
+		checkAvailable();
+		int deleted = 0;
+		for (Iterator<Map.Entry<String, Long>> i = heartbeats.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, Long> heartbeat = i.next();
+			if (!heartbeat.getKey().equals(nodeId) && heartbeat.getValue() <= heartbeatCutoff) {
+				i.remove();
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public synchronized int updateActiveLogin(ActiveLoginRecord record) {
+		checkAvailable();
+		if (!logins.containsKey(record.getLoginId())) {
+			return 0;
+		}
+		logins.put(record.getLoginId(), record);
+		return 1;
+	}
+
+	@Override
+	public synchronized void saveActiveLogin(ActiveLoginRecord record) {
+		checkAvailable();
+		logins.put(record.getLoginId(), record);
+	}
+
+	@Override
+	public synchronized int deleteActiveLogins(Collection<String> loginIds) {
+		checkAvailable();
+		int deleted = 0;
+		for (String loginId : loginIds) {
+			if (logins.remove(loginId) != null) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public synchronized int deleteActiveLoginsForNode(String nodeId) {
+		checkAvailable();
+		int size = logins.size();
+		logins.values().removeIf(record -> record.getNodeId().equals(nodeId));
+		return size - logins.size();
+	}
+
+	@Override
+	public synchronized int deleteActiveLoginsOfStaleNodes(String nodeId, long heartbeatCutoff) {
+		checkAvailable();
+		int size = logins.size();
+		logins.values().removeIf(record -> !record.getNodeId().equals(nodeId)
+				&& !isLive(record.getNodeId(), heartbeatCutoff));
+		return size - logins.size();
+	}
+
+	@Override
+	public synchronized long getActiveLoginCount(String nodeId, long heartbeatCutoff) {
+		return getActiveLogins(nodeId, heartbeatCutoff, null).size();
+	}
+
+	@Override
+	public synchronized List<ActiveLoginRecord> getActiveLogins(String nodeId, long heartbeatCutoff, Integer userId) {
+		checkAvailable();
+		List<ActiveLoginRecord> ret = new ArrayList<>();
+		for (ActiveLoginRecord record : logins.values()) {
+			if (!record.getNodeId().equals(nodeId) && isLive(record.getNodeId(), heartbeatCutoff)
+					&& (userId == null || userId.equals(record.getUserId()))) {
+				ret.add(record);
+			}
+		}
+		return ret;
+	}
+
+	private boolean isLive(String nodeId, long heartbeatCutoff) {
+		Long heartbeat = heartbeats.get(nodeId);
+		return heartbeat != null && heartbeat > heartbeatCutoff;
+	}
+
+	private void checkAvailable() {
+		if (unavailable) {
+			throw new IllegalStateException("Database unavailable");
+		}
+	}
+}
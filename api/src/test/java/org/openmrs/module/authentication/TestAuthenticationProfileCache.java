@@ -0,0 +1,54 @@
+package org.openmrs.module.authentication;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AuthenticationProfileCache that queries profiles from users held in memory, used in tests in place of the database
+ */
+public class TestAuthenticationProfileCache extends AuthenticationProfileCache {
+
+	private final Map<Integer, String> secretQuestions = new HashMap<>();
+	private final Map<Integer, Map<String, String>> userProperties = new HashMap<>();
+	private volatile RuntimeException failure;
+
+	/**
+	 * @param userId the id of a user to be returned by the query
+	 * @param secretQuestion the secret question of the user
+	 */
+	public synchronized void addUser(Integer userId, String secretQuestion) {
+		secretQuestions.put(userId, secretQuestion);
+		userProperties.put(userId, new HashMap<>());
+	}
+
+	/**
+	 * Sets a user property of a user added with addUser, as if it were saved to the database
+	 */
+	public synchronized void setUserProperty(Integer userId, String property, String value) {
+		userProperties.get(userId).put(property, value);
+	}
+
+	/**
+	 * @param failure the exception the query fails with, or null if it succeeds
+	 */
+	public void setFailure(RuntimeException failure) {
+		this.failure = failure;
+	}
+
+	@Override
+	protected synchronized AuthenticationProfile query(Integer userId) {
+		if (failure != null) {
+			throw failure;
+		}
+		if (!secretQuestions.containsKey(userId)) {
+			return null;
+		}
+		Map<String, String> properties = new HashMap<>();
+		for (Map.Entry<String, String> property : userProperties.get(userId).entrySet()) {
+			if (property.getKey().startsWith(AuthenticationProfile.PROPERTY_PREFIX)) {
+				properties.put(property.getKey(), property.getValue());
+			}
+		}
+		return new AuthenticationProfile(userId, properties, secretQuestions.get(userId), true);
+	}
+}
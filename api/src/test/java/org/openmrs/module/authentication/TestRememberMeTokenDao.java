@@ -0,0 +1,226 @@
+package org.openmrs.module.authentication;
+
+import org.openmrs.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory RememberMeTokenDao, used in tests in place of the database, with the real RememberMeTokenServiceImpl
+ */
+public class TestRememberMeTokenDao extends RememberMeTokenDao {
+
+	private final Map<String, RememberMeToken> tokens = new HashMap<>();
+	private final Map<String, RememberMeRevocation> revocations = new HashMap<>();
+	private final Map<Integer, User> users = new TreeMap<>();
+
+	/**
+	 * @return a RememberMeTokenServiceImpl that stores tokens in a new TestRememberMeTokenDao
+	 */
+	public static RememberMeTokenServiceImpl newService() {
+		return newService(new TestRememberMeTokenDao());
+	}
+
+	/**
+	 * @return a RememberMeTokenServiceImpl that stores tokens in the given dao
+	 */
+	public static RememberMeTokenServiceImpl newService(TestRememberMeTokenDao dao) {
+		RememberMeTokenServiceImpl service = new RememberMeTokenServiceImpl();
+		service.setDao(dao);
+		return service;
+	}
+
+	/**
+	 * @param user a user to be returned by getUser, and whose user properties are migrated
+	 */
+	public synchronized void addUser(User user) {
+		users.put(user.getUserId(), user);
+	}
+
+	@Override
+	public synchronized RememberMeToken getToken(String seriesId) {
+		return tokens.get(seriesId);
+	}
+
+	@Override
+	public synchronized List<RememberMeToken> getTokensForUser(Integer userId) {
+		List<RememberMeToken> ret = new ArrayList<>();
+		for (RememberMeToken token : tokens.values()) {
+			if (token.getUserId().equals(userId)) {
+				ret.add(token);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized List<String> getStoredSeriesIds(Collection<String> seriesIds) {
+		List<String> ret = new ArrayList<>();
+		for (String seriesId : seriesIds) {
+			if (tokens.containsKey(seriesId)) {
+				ret.add(seriesId);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized void saveToken(RememberMeToken token) {
+		if (tokens.containsKey(token.getSeriesId())) {
+			throw new IllegalStateException("Duplicate series id: " + token.getSeriesId());
+		}
+		tokens.put(token.getSeriesId(), token);
+	}
+
+	@Override
+	public synchronized int deleteToken(String seriesId) {
+		return tokens.remove(seriesId) == null ? 0 : 1;
+	}
+
+	@Override
+	public synchronized int deleteToken(String seriesId, Integer userId, String schemeId) {
+		RememberMeToken token = tokens.get(seriesId);
+		if (token == null || !token.getUserId().equals(userId) || !token.getSchemeId().equals(schemeId)) {
+			return 0;
+		}
+		return deleteToken(seriesId);
+	}
+
+	@Override
+	public synchronized int deleteTokensForUser(Integer userId, String schemeId) {
+		int deleted = 0;
+		for (RememberMeToken token : getTokensForUser(userId)) {
+			if (schemeId == null || token.getSchemeId().equals(schemeId)) {
+				deleted += deleteToken(token.getSeriesId());
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public synchronized List<Integer> getUserIdsWithTokensCreatedBefore(String schemeId, long createdBefore, int maxUsers) {
+		TreeSet<Integer> userIds = new TreeSet<>();
+		for (RememberMeToken token : tokens.values()) {
+			if (token.getCreatedTime() < createdBefore && (schemeId == null || token.getSchemeId().equals(schemeId))) {
+				userIds.add(token.getUserId());
+			}
+		}
+		List<Integer> ret = new ArrayList<>(userIds);
+		return ret.subList(0, Math.min(maxUsers, ret.size()));
+	}
+
+	@Override
+	public synchronized int deleteTokensCreatedBefore(String schemeId, long createdBefore, Collection<Integer> userIds) {
+		int deleted = 0;
+		for (RememberMeToken token : new ArrayList<>(tokens.values())) {
+			if (token.getCreatedTime() < createdBefore && (schemeId == null || token.getSchemeId().equals(schemeId))
+					&& userIds.contains(token.getUserId())) {
+				deleted += deleteToken(token.getSeriesId());
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public synchronized List<String> getExpiredSeriesIds(long now, int maxTokens) {
+		List<RememberMeToken> expired = new ArrayList<>();
+		for (RememberMeToken token : tokens.values()) {
+			if (token.isExpired(now)) {
+				expired.add(token);
+			}
+		}
+		expired.sort(Comparator.comparingLong(RememberMeToken::getExpiryTime));
+		List<String> ret = new ArrayList<>();
+		for (int i = 0; i < expired.size() && i < maxTokens; i++) {
+			ret.add(expired.get(i).getSeriesId());
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized int deleteExpiredTokens(long now, Collection<String> seriesIds) {
+		int deleted = 0;
+		for (String seriesId : seriesIds) {
+			RememberMeToken token = tokens.get(seriesId);
+			if (token != null && token.isExpired(now)) {
+				deleted += deleteToken(seriesId);
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public synchronized int mergeRevocation(RememberMeRevocation revocation) {
+		String key = revocation.getSchemeId() + " " + revocation.getKey();
+		RememberMeRevocation existing = revocations.get(key);
+		if (existing == null) {
+			return 0;
+		}
+		revocations.put(key, existing.merge(revocation));
+		return 1;
+	}
+
+	@Override
+	public synchronized RememberMeRevocation getRevocation(String schemeId, String key) {
+		return revocations.get(schemeId + " " + key);
+	}
+
+	@Override
+	public synchronized void saveRevocation(RememberMeRevocation revocation) {
+		revocations.put(revocation.getSchemeId() + " " + revocation.getKey(), revocation);
+	}
+
+	@Override
+	public synchronized List<RememberMeRevocation> getRevocations(long now) {
+		List<RememberMeRevocation> ret = new ArrayList<>();
+		for (RememberMeRevocation revocation : revocations.values()) {
+			if (!revocation.isExpired(now)) {
+				ret.add(revocation);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized int deleteExpiredRevocations(long now) {
+		int deleted = 0;
+		for (RememberMeRevocation revocation : getRevocations(Long.MIN_VALUE)) {
+			if (revocation.isExpired(now)) {
+				revocations.remove(revocation.getSchemeId() + " " + revocation.getKey());
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public synchronized List<Integer> getUserIdsWithRememberMeProperties(int afterUserId, int maxUsers) {
+		List<Integer> ret = new ArrayList<>();
+		for (User user : users.values()) {
+			if (user.getUserId() > afterUserId && ret.size() < maxUsers) {
+				for (String property : user.getUserProperties().keySet()) {
+					if (RememberMeTokenMigration.isRememberMeProperty(property)) {
+						ret.add(user.getUserId());
+						break;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized User getUser(Integer userId) {
+		return users.get(userId);
+	}
+
+	@Override
+	public void flushAndClearSession() {
+	}
+}
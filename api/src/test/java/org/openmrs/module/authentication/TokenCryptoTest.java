@@ -0,0 +1,125 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TokenCryptoTest {
+
+	@Test
+	public void shouldGenerateUniqueRandomTokens() {
+		assertThat(TokenCrypto.getSecureRandom(), notNullValue());
+		assertThat(TokenCrypto.randomBytes(16).length, equalTo(16));
+		Set<String> tokens = new HashSet<>();
+		for (int i = 0; i < 1000; i++) {
+			String token = TokenCrypto.randomToken(32);
+			assertThat(token.length(), equalTo(43));
+			assertThat(token.matches("[A-Za-z0-9_-]+"), equalTo(true));
+			tokens.add(token);
+		}
+		assertThat(tokens.size(), equalTo(1000));
+	}
+
+	@Test
+	public void shouldGenerateRandomStringsFromGivenCharacters() {
+		String code = TokenCrypto.randomString(6, "0123456789");
+		assertThat(code.length(), equalTo(6));
+		assertThat(code.matches("[0-9]{6}"), equalTo(true));
+		assertThat(TokenCrypto.randomString(10, "a"), equalTo("aaaaaaaaaa"));
+		assertThat(TokenCrypto.randomString(0, "a"), equalTo(""));
+		assertThrows(IllegalArgumentException.class, () -> TokenCrypto.randomString(6, ""));
+	}
+
+	@Test
+	public void shouldHashAndEncodeAsHex() throws Exception {
+		assertThat(TokenCrypto.sha256Hex("abc"),
+				equalTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"));
+		assertThat(TokenCrypto.sha256Hex(""),
+				equalTo("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"));
+		byte[] expected = MessageDigest.getInstance("SHA-256").digest("abc".getBytes(StandardCharsets.UTF_8));
+		assertThat(TokenCrypto.sha256("abc".getBytes(StandardCharsets.UTF_8)), equalTo(expected));
+		assertThat(TokenCrypto.toHex(new byte[] {0, 1, 15, 16, 127, -128, -1}), equalTo("00010f107f80ff"));
+	}
+
+	@Test
+	public void shouldCalculateHmacSha256() {
+		// RFC 4231 test case 2
+		byte[] mac = TokenCrypto.hmacSha256("Jefe".getBytes(StandardCharsets.UTF_8),
+				"what do ya want for nothing?".getBytes(StandardCharsets.UTF_8));
+		assertThat(TokenCrypto.toHex(mac), equalTo("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843"));
+		byte[] other = TokenCrypto.hmacSha256("other".getBytes(StandardCharsets.UTF_8),
+				"what do ya want for nothing?".getBytes(StandardCharsets.UTF_8));
+		assertThat(TokenCrypto.toHex(other), not(equalTo(TokenCrypto.toHex(mac))));
+	}
+
+	@Test
+	public void shouldClearMacKey() throws Exception {
+		byte[] data = "what do ya want for nothing?".getBytes(StandardCharsets.UTF_8);
+		Mac mac = TokenCrypto.getMac(TokenCrypto.HMAC_SHA256, "Jefe".getBytes(StandardCharsets.UTF_8));
+		TokenCrypto.clearMac(mac);
+		Mac zeroKeyMac = Mac.getInstance(TokenCrypto.HMAC_SHA256);
+		zeroKeyMac.init(new SecretKeySpec(new byte[1], TokenCrypto.HMAC_SHA256));
+		assertThat(mac.doFinal(data), equalTo(zeroKeyMac.doFinal(data)));
+	}
+
+	@Test
+	public void shouldEncodeAndDecodeBase64Url() {
+		byte[] bytes = new byte[] {-5, -1, 0, 62, 63};
+		String encoded = TokenCrypto.toBase64Url(bytes);
+		assertThat(encoded, equalTo(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes)));
+		assertThat(TokenCrypto.fromBase64Url(encoded), equalTo(bytes));
+		assertThrows(IllegalArgumentException.class, () -> TokenCrypto.fromBase64Url("a+b/"));
+	}
+
+	@Test
+	public void shouldCompareInConstantTime() {
+		assertThat(TokenCrypto.constantTimeEquals("abc", "abc"), equalTo(true));
+		assertThat(TokenCrypto.constantTimeEquals("abc", "abd"), equalTo(false));
+		assertThat(TokenCrypto.constantTimeEquals("abc", "abcd"), equalTo(false));
+		assertThat(TokenCrypto.constantTimeEquals(null, "abc"), equalTo(false));
+		assertThat(TokenCrypto.constantTimeEquals((String) null, null), equalTo(false));
+		assertThat(TokenCrypto.constantTimeEquals(new byte[] {1, 2}, new byte[] {1, 2}), equalTo(true));
+		assertThat(TokenCrypto.constantTimeEquals(new byte[] {1, 2}, new byte[] {1, 3}), equalTo(false));
+		assertThat(TokenCrypto.constantTimeEquals(null, new byte[] {1}), equalTo(false));
+	}
+
+	@Test
+	public void shouldHashConsistentlyFromManyThreads() throws Exception {
+		String expected = TokenCrypto.sha256Hex("token");
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			Set<Future<Boolean>> results = new HashSet<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(() -> {
+					for (int j = 0; j < 1000; j++) {
+						if (!expected.equals(TokenCrypto.sha256Hex("token"))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertThat(result.get(), equalTo(true));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}
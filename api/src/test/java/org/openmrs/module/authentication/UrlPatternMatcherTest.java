@@ -0,0 +1,108 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class UrlPatternMatcherTest {
+
+	private static final List<String> PATTERNS = Arrays.asList(
+			"/login.htm", "/csrfguard/", "/authenticationui/login/login.page", "/authenticationui/**/*.action",
+			"/spa/**/*", "/ws/**", "/ws/rest/v1/session", "*.js", "*.woff2", "/**/*.gif", "/ms/*/resource/*.css",
+			"login.htm", "/openmrs/home.htm", "/{id}/view.htm", " /spaced.htm"
+	);
+
+	private static final List<String> PATHS = Arrays.asList(
+			null, "", "/", "//", "login.htm", "/login.htm", "/LOGIN.HTM", "/login.htm/", "/login.html", "/loginForm.htm",
+			"/csrfguard", "/csrfguard/", "/authenticationui/login/login.page", "/authenticationui/login/LOGIN.page/",
+			"/authenticationui/x.action", "/authenticationui/a/b/c.ACTION", "/authenticationui.action",
+			"/authenticationui/", "/spa", "/spa/", "/spa/x", "/spa/x/y/", "/ws", "/ws/", "/ws/rest/v1/patient",
+			"/ws/rest/v1/session", "/app.js", "/a/b/app.JS", "/a/b/app.js/", "/app.jsx", "/.js", "/font.woff2",
+			"/font.woff", "/logo.gif", "/logo.gif2", "/ms/ui/resource/style.css", "/ms/ui/other/style.css",
+			"/openmrs/login.htm", "/openmrs/app.js", "/openmrs/spa/x", "/openmrs/home.htm", "/12/view.htm",
+			"/spaced.htm", "/a//b.js", "/app.js ", "/ login.htm", "/a/b\u2028.js", "/app.j\u017f"
+	);
+
+	private static final List<String> CONTEXT_PATHS = Arrays.asList("", "/", "/openmrs", "/o");
+
+	@Test
+	public void shouldMatchTheSameAsAntPathMatcher() {
+		UrlPatternMatcher matcher = new UrlPatternMatcher(PATTERNS);
+		for (String contextPath : CONTEXT_PATHS) {
+			for (String servletPath : PATHS) {
+				for (String requestUri : PATHS) {
+					boolean expected = matchesWithAntPathMatcher(PATTERNS, servletPath, requestUri, contextPath);
+					boolean actual = matcher.matches(servletPath, requestUri, contextPath);
+					assertThat(contextPath + " | " + servletPath + " | " + requestUri, actual, equalTo(expected));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldMatchExactPaths() {
+		UrlPatternMatcher matcher = new UrlPatternMatcher(Collections.singletonList("/login.htm"));
+		assertThat(matcher.matches("/login.htm", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/Login.htm", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/login.htm/", null, "/"), equalTo(false));
+		assertThat(matcher.matches("/other/login.htm", null, "/"), equalTo(false));
+		assertThat(matcher.matches("", "/openmrs/login.htm", "/openmrs"), equalTo(true));
+		assertThat(matcher.matches("", "/login.htm", "/openmrs"), equalTo(false));
+	}
+
+	@Test
+	public void shouldMatchSuffixPatterns() {
+		UrlPatternMatcher matcher = new UrlPatternMatcher(Arrays.asList("*.js", "*.css"));
+		assertThat(matcher.matches("/app.js", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/module/folder/style.CSS", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/app.json", null, "/"), equalTo(false));
+		assertThat(matcher.matches("/js", null, "/"), equalTo(false));
+	}
+
+	@Test
+	public void shouldMatchDescendantPatterns() {
+		UrlPatternMatcher matcher = new UrlPatternMatcher(Arrays.asList("/spa/**/*", "/ws/**"));
+		assertThat(matcher.matches("/spa/home", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/spa", null, "/"), equalTo(false));
+		assertThat(matcher.matches("/ws", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/ws/rest/v1/session", null, "/"), equalTo(true));
+		assertThat(matcher.matches("/wsx/rest", null, "/"), equalTo(false));
+	}
+
+	@Test
+	public void shouldIgnoreNullPatterns() {
+		UrlPatternMatcher matcher = new UrlPatternMatcher(Arrays.asList(null, "/login.htm"));
+		assertThat(matcher.getPatterns().size(), equalTo(1));
+		assertThat(matcher.matches("/login.htm", null, "/"), equalTo(true));
+	}
+
+	/**
+	 * Reference implementation, checking each pattern in turn
+	 */
+	private boolean matchesWithAntPathMatcher(List<String> patterns, String servletPath, String requestUri, String contextPath) {
+		AntPathMatcher antPathMatcher = new AntPathMatcher();
+		antPathMatcher.setCaseSensitive(false);
+		antPathMatcher.setTrimTokens(true);
+		for (String pattern : patterns) {
+			if (pattern.startsWith("*")) {
+				pattern = "/**/" + pattern;
+			}
+			if (servletPath != null && antPathMatcher.match(pattern, servletPath)) {
+				return true;
+			}
+			if (!pattern.startsWith(contextPath)) {
+				pattern = contextPath + (pattern.startsWith("/") ? "" : "/") + pattern;
+			}
+			if (requestUri != null && antPathMatcher.match(pattern, requestUri)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
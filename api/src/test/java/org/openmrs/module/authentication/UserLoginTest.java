@@ -2,19 +2,33 @@ package org.openmrs.module.authentication;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.Role;
 import org.openmrs.User;
+import org.openmrs.api.UserService;
 import org.openmrs.api.context.BasicAuthenticated;
+import org.openmrs.api.context.ServiceContext;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 
@@ -34,12 +48,57 @@ public class UserLoginTest extends BaseAuthenticationTest {
 		return user;
 	}
 
+	protected User newUser(Integer userId, String username) {
+		User user = newUser(username);
+		user.setUserId(userId);
+		Person person = new Person(userId);
+		person.addName(new PersonName("Super", null, "User"));
+		person.setGender("M");
+		user.setPerson(person);
+		user.addRole(new Role("System Developer"));
+		user.setUserProperty("defaultLocale", "en_GB");
+		return user;
+	}
+
+	protected List<Integer> installUserService(User... users) {
+		List<Integer> loadedUserIds = new ArrayList<>();
+		UserService userService = (UserService) Proxy.newProxyInstance(
+				UserService.class.getClassLoader(),
+				new Class[] { UserService.class },
+				(proxy, method, args) -> {
+					if ("getUser".equals(method.getName()) && args[0] instanceof Integer) {
+						loadedUserIds.add((Integer) args[0]);
+						for (User user : users) {
+							if (user.getUserId().equals(args[0])) {
+								return user;
+							}
+						}
+					}
+					return null;
+				}
+		);
+		ServiceContext.getInstance().setUserService(userService);
+		return loadedUserIds;
+	}
+
+	protected byte[] serialize(Object o) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+
 	@Test
 	public void shouldSerializeAndDeserialize() throws Exception {
 		assertThat(Serializable.class.isAssignableFrom(UserLogin.class), equalTo(true));
 
 		UserLogin ctx = new UserLogin();
-		User u = newUser("admin");
+		User u = newUser(1, "admin");
+		List<Integer> loadedUserIds = installUserService(u);
+		ctx.setIpAddress("10.0.0.1");
+		ctx.setHttpSessionId("session");
+		ctx.recordActivity();
 		ctx.addUnvalidatedCredentials(new TestAuthenticationCredentials("test1", u));
 		ctx.authenticationSuccessful("test1", new BasicAuthenticated(u, "test1"));
 		ctx.addUnvalidatedCredentials(new TestAuthenticationCredentials("test2", u));
@@ -54,21 +113,66 @@ public class UserLoginTest extends BaseAuthenticationTest {
 		try (ObjectInputStream in = new ObjectInputStream(fileInputStream)) {
 			UserLogin deserialized = (UserLogin) in.readObject();
 			assertThat(deserialized, notNullValue());
+			assertThat(deserialized.getLoginId(), equalTo(ctx.getLoginId()));
+			assertThat(deserialized.getDateCreated(), equalTo(ctx.getDateCreated()));
+			assertThat(deserialized.getLoginDate(), nullValue());
+			assertThat(deserialized.getLastActivityDate(), equalTo(ctx.getLastActivityDate()));
+			assertThat(deserialized.getIpAddress(), equalTo("10.0.0.1"));
+			assertThat(deserialized.getHttpSessionId(), equalTo("session"));
+			assertThat(deserialized.getEvents().size(), equalTo(1));
+			assertThat(deserialized.containsEvent(AuthenticationEvent.AUTHENTICATION_SUCCEEDED), equalTo(true));
+			assertThat(deserialized.getUserId(), equalTo(1));
+			assertThat(deserialized.getUsername(), equalTo("admin"));
+			assertThat(loadedUserIds.isEmpty(), equalTo(true));
+			assertThat(deserialized.getUser(), equalTo(u));
 			assertThat(deserialized.getUser(), equalTo(u));
+			assertThat(loadedUserIds, equalTo(Collections.singletonList(1)));
 			AuthenticationCredentials test1 = deserialized.getUnvalidatedCredentials("test1");
 			assertThat(test1, nullValue());
 			assertThat(deserialized.isCredentialValidated("test1"), equalTo(true));
 			AuthenticationCredentials test2 = deserialized.getUnvalidatedCredentials("test2");
-			assertThat(test2, notNullValue());
+			assertThat(test2, nullValue());
 			assertThat(deserialized.isCredentialValidated("test2"), equalTo(false));
-			assertThat(test2.getClass(), equalTo(TestAuthenticationCredentials.class));
-			TestAuthenticationCredentials testCredentials = (TestAuthenticationCredentials) test2;
-			assertThat(testCredentials.getAuthenticationScheme(), equalTo("test2"));
-			assertThat(testCredentials.getClientName(), equalTo("admin"));
-			assertThat(testCredentials.getUser(), equalTo(u));
 		}
 	}
 
+	@Test
+	public void shouldSerializeMoreCompactlyThanTheUserAndCredentials() throws Exception {
+		UserLogin ctx = new UserLogin();
+		User u = newUser(1, "admin");
+		installUserService(u);
+		ctx.setIpAddress("10.0.0.1");
+		ctx.setHttpSessionId("session");
+		ctx.setUsername("admin");
+		ctx.recordActivity();
+		ctx.addUnvalidatedCredentials(new TestAuthenticationCredentials("test1", u));
+		ctx.authenticationSuccessful("test1", new BasicAuthenticated(u, "test1"));
+		ctx.addUnvalidatedCredentials(new TestAuthenticationCredentials("test2", u));
+		ctx.authenticationSuccessful("test2", new BasicAuthenticated(u, "test2"));
+		ctx.loginSuccessful();
+		ctx.addUnvalidatedCredentials(new TestAuthenticationCredentials("test3", u));
+
+		// The fields previously written by default serialization of UserLogin
+		List<Object> previousForm = new ArrayList<>();
+		previousForm.add(ctx.getLoginId());
+		previousForm.add(ctx.getDateCreated());
+		previousForm.add(ctx.getLoginDate());
+		previousForm.add(ctx.getLogoutDate());
+		previousForm.add(ctx.getLastActivityDate());
+		previousForm.add(ctx.getHttpSessionId());
+		previousForm.add(ctx.getIpAddress());
+		previousForm.add("admin");
+		previousForm.add(new ArrayList<>(ctx.getEvents()));
+		previousForm.add(u);
+		previousForm.add(new HashMap<>(Collections.singletonMap("test3", ctx.getUnvalidatedCredentials("test3"))));
+		previousForm.add(new HashSet<>(ctx.getValidatedCredentials()));
+
+		int previousSize = serialize(previousForm).length;
+		int compactSize = serialize(ctx).length;
+		assertThat(compactSize, lessThan(previousSize / 2));
+		UserLoginTracker.removeActiveLogin(ctx);
+	}
+
 	@Test
 	public void shouldAddGetAndRemoveCredentials() {
 		UserLogin ctx = new UserLogin();
@@ -87,4 +191,41 @@ public class UserLoginTest extends BaseAuthenticationTest {
 		ctx.authenticationFailed(c1.getAuthenticationScheme());
 		assertThat(ctx.getUnvalidatedCredentials("scheme1"), nullValue());
 	}
+
+	@Test
+	public void shouldSkipActivityUpdatesWithinResolution() {
+		UserLogin ctx = new UserLogin();
+		assertThat(ctx.getLastActivityDate(), nullValue());
+		ctx.recordActivity();
+		long first = ctx.getLastActivityTime();
+		assertThat(first > 0, equalTo(true));
+		ctx.recordActivity();
+		assertThat(ctx.getLastActivityTime(), equalTo(first));
+		Date earlier = new Date(first - UserLogin.ACTIVITY_RESOLUTION);
+		ctx.setLastActivityDate(earlier);
+		assertThat(ctx.getLastActivityDate(), equalTo(earlier));
+		ctx.recordActivity();
+		assertThat(ctx.getLastActivityTime() >= first, equalTo(true));
+		ctx.setLastActivityDate(null);
+		assertThat(ctx.getLastActivityDate(), nullValue());
+	}
+
+	@Test
+	public void shouldUpdateActivityAndRecordEventsWithoutLocking() throws Exception {
+		UserLogin ctx = new UserLogin();
+		Thread requestThread = new Thread(() -> {
+			ctx.recordActivity();
+			ctx.setIpAddress("10.0.0.1");
+			ctx.setHttpSessionId("session");
+			ctx.recordEvent(AuthenticationEvent.AUTHENTICATION_FAILED, "test1");
+		});
+		synchronized (ctx) {
+			requestThread.start();
+			requestThread.join(5000);
+			assertThat(requestThread.isAlive(), equalTo(false));
+		}
+		assertThat(ctx.getIpAddress(), equalTo("10.0.0.1"));
+		assertThat(ctx.getHttpSessionId(), equalTo("session"));
+		assertThat(ctx.containsEvent(AuthenticationEvent.AUTHENTICATION_FAILED), equalTo(true));
+	}
 }
@@ -0,0 +1,138 @@
+package org.openmrs.module.authentication;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class UserLoginTrackerTest extends BaseAuthenticationTest {
+
+	protected UserLogin newUserLogin(Integer userId, String ipAddress, String httpSessionId) {
+		UserLogin userLogin = new UserLogin();
+		if (userId != null) {
+			User user = new User();
+			user.setUserId(userId);
+			user.setUsername("user" + userId);
+			userLogin.setUser(user);
+		}
+		userLogin.setIpAddress(ipAddress);
+		userLogin.setHttpSessionId(httpSessionId);
+		return userLogin;
+	}
+
+	@Test
+	public void shouldFindActiveLoginsByUserIpAddressAndHttpSession() {
+		UserLogin login1 = newUserLogin(1, "10.0.0.1", "session1");
+		UserLogin login2 = newUserLogin(1, "10.0.0.2", "session2");
+		UserLogin login3 = newUserLogin(2, "10.0.0.1", "session3");
+		UserLoginTracker.addActiveLogin(login1);
+		UserLoginTracker.addActiveLogin(login2);
+		UserLoginTracker.addActiveLogin(login3);
+		try {
+			assertThat(UserLoginTracker.getActiveLoginsForUser(1).size(), equalTo(2));
+			assertThat(UserLoginTracker.getActiveLoginsForUser(1).contains(login1), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForUser(1).contains(login2), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForUser(2).size(), equalTo(1));
+			assertThat(UserLoginTracker.getActiveLoginsForUser(3).isEmpty(), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForUser(null).isEmpty(), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForIpAddress("10.0.0.1").size(), equalTo(2));
+			assertThat(UserLoginTracker.getActiveLoginsForIpAddress("10.0.0.1").contains(login3), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession("session2").contains(login2), equalTo(true));
+			UserLoginTracker.removeActiveLogin(login1);
+			assertThat(UserLoginTracker.getActiveLoginsForUser(1).size(), equalTo(1));
+			assertThat(UserLoginTracker.getActiveLoginsForIpAddress("10.0.0.1").size(), equalTo(1));
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession("session1").isEmpty(), equalTo(true));
+		}
+		finally {
+			UserLoginTracker.removeActiveLogin(login1);
+			UserLoginTracker.removeActiveLogin(login2);
+			UserLoginTracker.removeActiveLogin(login3);
+		}
+	}
+
+	@Test
+	public void shouldUpdateIndexesWhenActiveLoginChanges() {
+		UserLogin login = newUserLogin(null, "10.0.0.1", "session1");
+		UserLoginTracker.addActiveLogin(login);
+		try {
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession("session1").contains(login), equalTo(true));
+			login.setHttpSessionId("session2");
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession("session1").isEmpty(), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession("session2").contains(login), equalTo(true));
+			login.setIpAddress("10.0.0.2");
+			assertThat(UserLoginTracker.getActiveLoginsForIpAddress("10.0.0.1").isEmpty(), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForIpAddress("10.0.0.2").contains(login), equalTo(true));
+			User user = new User();
+			user.setUserId(5);
+			login.setUser(user);
+			assertThat(UserLoginTracker.getActiveLoginsForUser(5).contains(login), equalTo(true));
+			login.setUser(null);
+			assertThat(UserLoginTracker.getActiveLoginsForUser(5).isEmpty(), equalTo(true));
+		}
+		finally {
+			UserLoginTracker.removeActiveLogin(login);
+		}
+		login.setHttpSessionId("session3");
+		assertThat(UserLoginTracker.getActiveLoginsForHttpSession("session3").isEmpty(), equalTo(true));
+		assertThat(UserLoginTracker.getActiveLoginsForIpAddress("10.0.0.2").isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void shouldKeepIndexesConsistentUnderConcurrentUpdates() throws Exception {
+		int numThreads = 8;
+		int iterations = 2000;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		List<UserLogin> logins = new ArrayList<>();
+		try {
+			for (int t = 0; t < numThreads; t++) {
+				int threadNum = t;
+				UserLogin login = newUserLogin(threadNum % 2, "10.0.0." + threadNum, "session" + threadNum);
+				logins.add(login);
+				futures.add(executor.submit(() -> {
+					startLatch.await();
+					for (int i = 0; i < iterations; i++) {
+						UserLoginTracker.addActiveLogin(login);
+						login.setHttpSessionId("session" + threadNum + "-" + i);
+						login.setIpAddress("10.0." + (i % 4) + "." + threadNum);
+						if (i % 3 == 0) {
+							UserLoginTracker.removeActiveLogin(login);
+						}
+					}
+					UserLoginTracker.addActiveLogin(login);
+					return null;
+				}));
+			}
+			startLatch.countDown();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			assertThat(UserLoginTracker.getActiveLoginsForUser(0).size(), equalTo(numThreads / 2));
+			assertThat(UserLoginTracker.getActiveLoginsForUser(1).size(), equalTo(numThreads / 2));
+			for (UserLogin login : logins) {
+				assertThat(UserLoginTracker.getActiveLoginsForHttpSession(login.getHttpSessionId()).size(), equalTo(1));
+				assertThat(UserLoginTracker.getActiveLoginsForIpAddress(login.getIpAddress()).contains(login), equalTo(true));
+			}
+			for (UserLogin login : logins) {
+				UserLoginTracker.removeActiveLogin(login);
+			}
+			assertThat(UserLoginTracker.getActiveLoginsForUser(0).isEmpty(), equalTo(true));
+			assertThat(UserLoginTracker.getActiveLoginsForIpAddress(logins.get(0).getIpAddress()).isEmpty(), equalTo(true));
+		}
+		finally {
+			executor.shutdownNow();
+			for (UserLogin login : logins) {
+				UserLoginTracker.removeActiveLogin(login);
+			}
+		}
+	}
+}
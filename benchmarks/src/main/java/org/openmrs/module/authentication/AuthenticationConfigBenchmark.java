@@ -0,0 +1,53 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.api.context.AuthenticationScheme;
+import org.openmrs.module.authentication.web.BenchmarkConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AuthenticationConfig.getAuthenticationScheme, which the AuthenticationFilter calls for every request
+ * from a user that is not yet authenticated
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationConfigBenchmark {
+
+	@Setup
+	public void setup() {
+		AuthenticationConfig.setConfig(BenchmarkConfiguration.basic());
+	}
+
+	@Benchmark
+	public AuthenticationScheme configuredScheme() {
+		return AuthenticationConfig.getAuthenticationScheme();
+	}
+
+	@Benchmark
+	public AuthenticationScheme schemeById() {
+		return AuthenticationConfig.getAuthenticationScheme("basic");
+	}
+}
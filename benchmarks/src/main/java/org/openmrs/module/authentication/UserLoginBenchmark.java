@@ -0,0 +1,82 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.NullAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.User;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures UserLogin.recordEvent, with the event logger enabled but writing to a NullAppender, so that the cost of
+ * recording and dispatching the event is included but the cost of any particular appender is not.
+ * The event history of a UserLogin is bounded, so the same UserLogin is used for every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserLoginBenchmark {
+
+	@Param({"INFO", "WARN"})
+	public String level;
+
+	private NullAppender appender;
+	private UserLogin userLogin;
+
+	@Setup
+	public void setup() {
+		appender = NullAppender.createAppender("benchmark");
+		appender.start();
+		Logger logger = (Logger) LogManager.getLogger(UserLogin.class);
+		logger.setAdditive(false);
+		logger.setLevel(Level.valueOf(level));
+		logger.addAppender(appender);
+		User user = new User();
+		user.setUserId(1);
+		user.setUsername("admin");
+		userLogin = new UserLogin();
+		userLogin.setUser(user);
+		userLogin.setHttpSessionId("benchmark-session");
+		userLogin.setIpAddress("10.0.0.1");
+		userLogin.setLastActivityDate(new Date());
+	}
+
+	@TearDown
+	public void teardown() {
+		Logger logger = (Logger) LogManager.getLogger(UserLogin.class);
+		logger.removeAppender(appender);
+		appender.stop();
+	}
+
+	@Benchmark
+	public UserLogin recordEvent() {
+		userLogin.recordEvent(AuthenticationEvent.AUTHENTICATION_SUCCEEDED, "basic");
+		return userLogin;
+	}
+}
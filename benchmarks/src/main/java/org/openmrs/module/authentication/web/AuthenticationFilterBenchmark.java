@@ -0,0 +1,95 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.User;
+import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.web.mocks.MockAuthenticationFilter;
+import org.openmrs.module.authentication.web.mocks.MockAuthenticationSession;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AuthenticationFilter.doFilter for a user that is already authenticated, and for an anonymous request
+ * for a white-listed static asset, with and without lazy session creation
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationFilterBenchmark {
+
+	@Param({"false", "true"})
+	public boolean lazySessionCreation;
+
+	private MockServletContext servletContext;
+	private AuthenticationFilter anonymousFilter;
+	private MockAuthenticationFilter authenticatedFilter;
+
+	@Setup
+	public void setup() {
+		Properties config = BenchmarkConfiguration.basic();
+		config.setProperty(AuthenticationConfig.LAZY_SESSION_CREATION, Boolean.toString(lazySessionCreation));
+		AuthenticationConfig.setConfig(config);
+		servletContext = new MockServletContext();
+		anonymousFilter = new AuthenticationFilter();
+		anonymousFilter.init(new MockFilterConfig(servletContext, "authenticationFilter"));
+
+		User user = new User();
+		user.setUserId(1);
+		user.setUsername("admin");
+		MockHttpServletRequest request = newRequest("/patientDashboard.htm");
+		MockAuthenticationSession authenticationSession = new MockAuthenticationSession(request, new MockHttpServletResponse());
+		authenticationSession.setAuthenticatedUser(user);
+		authenticatedFilter = new MockAuthenticationFilter(new MockFilterConfig(servletContext, "authenticationFilter"));
+		authenticatedFilter.setAuthenticationSession(authenticationSession);
+	}
+
+	@Benchmark
+	public MockHttpServletResponse authenticatedRequest() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		authenticatedFilter.doFilter(newRequest("/patientDashboard.htm"), response, new MockFilterChain());
+		return response;
+	}
+
+	@Benchmark
+	public MockHttpServletResponse anonymousStaticAsset() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		anonymousFilter.doFilter(newRequest("/scripts/app.js"), response, new MockFilterChain());
+		return response;
+	}
+
+	private MockHttpServletRequest newRequest(String servletPath) {
+		MockHttpServletRequest request = new MockHttpServletRequest(servletContext, "GET", BenchmarkConfiguration.CONTEXT_PATH + servletPath);
+		request.setContextPath(BenchmarkConfiguration.CONTEXT_PATH);
+		request.setServletPath(servletPath);
+		request.setRemoteAddr("10.0.0.1");
+		return request;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.authentication.UserLoginTracker;
+import org.openmrs.module.authentication.web.mocks.MockAuthenticationSession;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AuthenticationSession.regenerateHttpSession, which copies all session attributes into a new session
+ * after each successful authentication.  Each invocation invalidates the session created by the previous one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticationSessionBenchmark {
+
+	private static final int SESSION_ATTRIBUTES = 10;
+
+	private AuthenticationSession session;
+
+	@Setup
+	public void setup() {
+		MockHttpServletRequest request = new MockHttpServletRequest(new MockServletContext(), "POST", "/openmrs/login.htm");
+		request.setRemoteAddr("10.0.0.1");
+		session = new MockAuthenticationSession(request, new MockHttpServletResponse());
+		for (int i = 0; i < SESSION_ATTRIBUTES; i++) {
+			session.setHttpSessionAttribute("attribute" + i, "value" + i);
+		}
+	}
+
+	@TearDown
+	public void teardown() {
+		UserLoginTracker.removeLoginFromThread();
+	}
+
+	@Benchmark
+	public AuthenticationSession regenerateHttpSession() {
+		session.regenerateHttpSession();
+		return session;
+	}
+}
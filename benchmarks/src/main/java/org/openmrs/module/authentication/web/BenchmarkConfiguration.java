@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.web.mocks.MockBasicWebAuthenticationScheme;
+import org.openmrs.module.authentication.web.mocks.MockTwoFactorAuthenticationScheme;
+
+import java.util.Properties;
+
+/**
+ * Configuration shared by the benchmarks, using the mock schemes from the omod tests so that no database or
+ * running OpenMRS instance is needed
+ */
+public class BenchmarkConfiguration {
+
+	public static final String CONTEXT_PATH = "/openmrs";
+
+	/**
+	 * @return a basic web authentication scheme configuration, with the default white list
+	 */
+	public static Properties basic() {
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.SCHEME, "basic");
+		p.setProperty("authentication.scheme.basic.type", MockBasicWebAuthenticationScheme.class.getName());
+		p.setProperty("authentication.scheme.basic.config.loginPage", "/login.htm");
+		p.setProperty("authentication.scheme.basic.config.users", "admin");
+		p.setProperty("authentication.scheme.basic.config.users.admin.password", "adminPassword");
+		return p;
+	}
+
+	/**
+	 * @return a two-factor configuration with remember-me enabled, with a secondary scheme for the user "tester"
+	 */
+	public static Properties twoFactor() {
+		Properties p = new Properties();
+		p.setProperty(AuthenticationConfig.SCHEME, "2fa");
+		p.setProperty("authentication.scheme.2fa.type", MockTwoFactorAuthenticationScheme.class.getName());
+		p.setProperty("authentication.scheme.2fa.config.primaryOptions", "primary");
+		p.setProperty("authentication.scheme.2fa.config.secondaryOptions", "secondary");
+		p.setProperty("authentication.scheme.2fa.config.rememberMeEnabled", "true");
+		p.setProperty("authentication.scheme.2fa.config.rememberMeCookieSecure", "false");
+		p.setProperty("authentication.scheme.primary.type", MockBasicWebAuthenticationScheme.class.getName());
+		p.setProperty("authentication.scheme.primary.config.users", "tester");
+		p.setProperty("authentication.scheme.primary.config.users.tester.password", "primaryPw");
+		p.setProperty("authentication.scheme.primary.config.users.tester.secondaryType", "secondary");
+		p.setProperty("authentication.scheme.secondary.type", MockBasicWebAuthenticationScheme.class.getName());
+		p.setProperty("authentication.scheme.secondary.config.users", "tester");
+		p.setProperty("authentication.scheme.secondary.config.users.tester.password", "secondaryPw");
+		return p;
+	}
+}
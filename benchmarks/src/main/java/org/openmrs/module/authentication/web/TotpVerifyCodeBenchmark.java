@@ -0,0 +1,103 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import dev.samstevens.totp.code.DefaultCodeGenerator;
+import dev.samstevens.totp.code.DefaultCodeVerifier;
+import dev.samstevens.totp.code.HashingAlgorithm;
+import dev.samstevens.totp.exceptions.CodeGenerationException;
+import dev.samstevens.totp.time.SystemTimeProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TotpAuthenticationScheme.verifyCode with the default configuration, for a code that is valid in the
+ * current time period, and for an invalid code, which is checked against every period in the allowed discrepancy.
+ * storedSecret measures the verification done on login, which uses the key cached for the user, and library measures
+ * the same verification with a new java-totp verifier per call, which is how codes were previously verified.
+ * <p>
+ * Each thread has its own state, so the throughput of a single thread is the number of verifications per second
+ * per core.  Run with -t to check that throughput scales with the number of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TotpVerifyCodeBenchmark {
+
+	private TotpAuthenticationScheme scheme;
+	private TotpVerifier cachingVerifier;
+	private String secret;
+	private String validCode;
+	private String invalidCode;
+
+	@Setup
+	public void setup() {
+		scheme = new TotpAuthenticationScheme();
+		scheme.configure("totp", new Properties());
+		secret = scheme.generateSecret();
+		// The stored secret is not encrypted, as there is no OpenMRS encryption key in the benchmarks
+		cachingVerifier = new TotpVerifier("HmacSHA1", 6, 30, 2, TotpVerifier.DEFAULT_CACHE_SIZE,
+				TimeUnit.SECONDS.toMillis(TotpVerifier.DEFAULT_CACHE_TTL)) {
+			@Override
+			protected String decryptSecret(String storedSecret) {
+				return storedSecret;
+			}
+		};
+	}
+
+	/**
+	 * Codes are only valid for a limited time, so they are generated again for each iteration
+	 */
+	@Setup(Level.Iteration)
+	public void generateCodes() throws CodeGenerationException {
+		long counter = System.currentTimeMillis() / 1000 / 30;
+		validCode = new DefaultCodeGenerator(HashingAlgorithm.SHA1, 6).generate(secret, counter);
+		invalidCode = validCode.equals("000000") ? "000001" : "000000";
+	}
+
+	@Benchmark
+	public boolean validCode() {
+		return scheme.verifyCode(secret, validCode);
+	}
+
+	@Benchmark
+	public boolean invalidCode() {
+		return scheme.verifyCode(secret, invalidCode);
+	}
+
+	@Benchmark
+	public boolean storedSecret() {
+		return cachingVerifier.verifyStoredCode(1, secret, invalidCode);
+	}
+
+	@Benchmark
+	public boolean library() {
+		DefaultCodeVerifier verifier = new DefaultCodeVerifier(new DefaultCodeGenerator(HashingAlgorithm.SHA1, 6),
+				new SystemTimeProvider());
+		verifier.setTimePeriod(30);
+		verifier.setAllowedTimePeriodDiscrepancy(2);
+		return verifier.isValidCode(secret, invalidCode);
+	}
+}
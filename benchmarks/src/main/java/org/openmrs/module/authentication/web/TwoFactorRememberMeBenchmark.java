@@ -0,0 +1,99 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.User;
+import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.RememberMeDenylist;
+import org.openmrs.module.authentication.RememberMeTokenService;
+import org.openmrs.module.authentication.TestRememberMeTokenDao;
+import org.openmrs.module.authentication.TokenCrypto;
+import org.openmrs.module.authentication.web.mocks.MockAuthenticationSession;
+import org.openmrs.module.authentication.web.mocks.MockBasicWebAuthenticationScheme;
+import org.openmrs.module.authentication.web.mocks.MockTwoFactorAuthenticationScheme;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TwoFactorAuthenticationScheme.validateRememberMeBypass for a valid remember-me cookie.
+ * With stored tokens, a valid token is consumed when it is validated, so a new one is issued before each invocation.
+ * Tokens are stored in memory, through the RememberMeTokenService, so this measures the scheme but not the database.
+ * With signed tokens, this measures the signature verification and the denylist lookup, with no database access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TwoFactorRememberMeBenchmark {
+
+	@Param({"stored", "signed"})
+	public String rememberMeMode;
+
+	private TwoFactorAuthenticationScheme scheme;
+	private WebAuthenticationScheme secondaryScheme;
+	private User user;
+	private AuthenticationSession session;
+
+	@Setup
+	public void setup() {
+		MockBasicWebAuthenticationScheme.reset();
+		RememberMeTokenService service = TestRememberMeTokenDao.newService();
+		MockTwoFactorAuthenticationScheme.setRememberMeTokenService(service);
+		RememberMeDenylist.start(service, null);
+		Properties config = BenchmarkConfiguration.twoFactor();
+		config.setProperty("authentication.scheme.2fa.config.rememberMeMode", rememberMeMode);
+		config.setProperty("authentication.scheme.2fa.config.rememberMeSigningKeys", "k1:" + TokenCrypto.randomToken(32));
+		AuthenticationConfig.setConfig(config);
+		scheme = (TwoFactorAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme();
+		secondaryScheme = (WebAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme("secondary");
+		user = new User();
+		user.setUserId(1);
+		user.setUsername("tester");
+	}
+
+	@TearDown
+	public void teardown() {
+		RememberMeDenylist.stop();
+		MockTwoFactorAuthenticationScheme.setRememberMeTokenService(null);
+	}
+
+	@Setup(Level.Invocation)
+	public void issueRememberMeCookie() {
+		MockHttpServletResponse issueResponse = new MockHttpServletResponse();
+		AuthenticationSession issueSession = new MockAuthenticationSession(new MockHttpServletRequest(), issueResponse);
+		scheme.rotateAndIssueRememberMeCookie(issueSession, user, null);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setCookies(issueResponse.getCookies());
+		session = new MockAuthenticationSession(request, new MockHttpServletResponse());
+	}
+
+	@Benchmark
+	public Long validateRememberMeBypass() {
+		return scheme.validateRememberMeBypass(session, user, secondaryScheme);
+	}
+}
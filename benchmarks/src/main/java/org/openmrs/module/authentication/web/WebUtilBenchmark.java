@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.UrlPatternMatcher;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures WebUtil.urlMatchesAnyPattern against the default white list, both with the compiled UrlPatternMatcher
+ * used by the AuthenticationFilter and by checking each pattern in turn
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebUtilBenchmark {
+
+	@Param({"/scripts/app.js", "/spa/home", "/patientDashboard.htm"})
+	public String servletPath;
+
+	private MockHttpServletRequest request;
+	private List<String> whiteList;
+	private UrlPatternMatcher whiteListMatcher;
+
+	@Setup
+	public void setup() {
+		AuthenticationConfig.setConfig(BenchmarkConfiguration.basic());
+		whiteList = AuthenticationConfig.getWhiteList();
+		whiteListMatcher = AuthenticationConfig.getWhiteListMatcher();
+		request = new MockHttpServletRequest("GET", BenchmarkConfiguration.CONTEXT_PATH + servletPath);
+		request.setContextPath(BenchmarkConfiguration.CONTEXT_PATH);
+		request.setServletPath(servletPath);
+	}
+
+	@Benchmark
+	public boolean compiledPatterns() {
+		return WebUtil.urlMatchesAnyPattern(request, whiteListMatcher);
+	}
+
+	@Benchmark
+	public boolean patternList() {
+		return WebUtil.urlMatchesAnyPattern(request, whiteList);
+	}
+}
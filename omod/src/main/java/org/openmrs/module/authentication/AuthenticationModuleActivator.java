@@ -14,7 +14,7 @@ import org.apache.logging.log4j.Logger;
 import org.openmrs.module.BaseModuleActivator;
 import org.openmrs.module.DaemonToken;
 import org.openmrs.module.DaemonTokenAware;
-import org.openmrs.module.authentication.web.TwoFactorAuthenticationScheme;
+import org.openmrs.web.WebConstants;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
@@ -22,19 +22,67 @@ import org.openmrs.module.authentication.web.TwoFactorAuthenticationScheme;
 public class AuthenticationModuleActivator extends BaseModuleActivator implements DaemonTokenAware {
 
 	private static final Logger log = LogManager.getLogger(AuthenticationModuleActivator.class);
+
+	private DaemonToken daemonToken;
 	
 	@Override
 	public void started() {
+		if (AuthenticationConfig.isGlobalPropertyConfigEnabled()) {
+			GlobalPropertyConfigSource.start(daemonToken);
+		}
+		AuthenticationEventPipeline.start();
+		try {
+			UserLoginTracker.startBackend(daemonToken);
+		}
+		catch (Exception e) {
+			log.error("Unable to start active login backend, only active logins on this node will be reported", e);
+		}
+		IdleLoginExpiry.start();
+		try {
+			RememberMeTokenMigration.run(daemonToken);
+		}
+		catch (Exception e) {
+			log.error("Unable to move remember-me tokens from user properties, they will be moved when next started", e);
+		}
+		try {
+			RememberMeDenylist.start(daemonToken);
+		}
+		catch (Exception e) {
+			log.error("Unable to load remember-me revocations, signed remember-me cookies will not be accepted", e);
+		}
+		try {
+			RememberMeTokenPurge.start(daemonToken);
+		}
+		catch (Exception e) {
+			log.error("Unable to start remember-me token purge, expired tokens will only be removed when presented", e);
+		}
+		try {
+			AuthenticationProfileCache.start();
+		}
+		catch (Exception e) {
+			log.error("Unable to start authentication profile cache, profiles will be built from each user", e);
+		}
+		if (!AuthenticationConfig.isConfigurationCacheEnabled()) {
+			RuntimePropertiesReloader.start(WebConstants.WEBAPP_NAME);
+		}
 		log.info("Authentication Module Started");
 	}
 	
 	@Override
 	public void stopped() {
+		RuntimePropertiesReloader.stop();
+		GlobalPropertyConfigSource.stop();
+		AuthenticationProfileCache.stop();
+		RememberMeTokenPurge.stop();
+		RememberMeDenylist.stop();
+		IdleLoginExpiry.stop();
+		UserLoginTracker.stopBackend();
+		AuthenticationEventPipeline.stop();
 		log.info("Authentication Module Stopped");
 	}
 
 	@Override
 	public void setDaemonToken(DaemonToken daemonToken) {
-		TwoFactorAuthenticationScheme.setDaemonToken(daemonToken);
+		this.daemonToken = daemonToken;
 	}
 }
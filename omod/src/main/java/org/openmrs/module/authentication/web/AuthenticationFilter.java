@@ -16,7 +16,9 @@ import org.openmrs.api.context.AuthenticationScheme;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.authentication.AuthenticationConfig;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationMetrics;
 import org.openmrs.module.authentication.DelegatingAuthenticationScheme;
+import org.openmrs.module.authentication.RuntimePropertiesReloader;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
 import org.openmrs.util.OpenmrsConstants;
@@ -32,7 +34,6 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Date;
 
 /**
  * This servlet filter checks whether the user is authenticated, and if not, returns a response to authenticate
@@ -56,6 +57,8 @@ public class AuthenticationFilter implements Filter {
 	
 	protected final Log log = LogFactory.getLog(getClass());
 
+	private static final String SESSION_ENDPOINT = "/ws/rest/*/session";
+
 	private AntPathMatcher matcher;
 	
 	public AuthenticationFilter() {
@@ -108,20 +111,31 @@ public class AuthenticationFilter implements Filter {
 		HttpServletRequest request = (HttpServletRequest) servletRequest;
 		HttpServletResponse response = (HttpServletResponse) servletResponse;
 
+		AuthenticationRequestContext requestContext = new AuthenticationRequestContext(request);
+		request.setAttribute(AuthenticationRequestContext.AUTHENTICATION_REQUEST_CONTEXT, requestContext);
+
+		if (canSkipSessionCreation(request)) {
+			chain.doFilter(servletRequest, servletResponse);
+			return;
+		}
+
 		AuthenticationSession session = getAuthenticationSession(request, response);
 		UserLogin userLogin = session.getUserLogin();
+		requestContext.setAuthenticationSession(session);
 
 		try {
 			UserLoginTracker.setLoginOnThread(userLogin);
-			userLogin.setLastActivityDate(new Date());
+			userLogin.recordActivity();
 
-			if (!session.isUserAuthenticated()) {
+			requestContext.setUserAuthenticated(session.isUserAuthenticated());
+			if (!requestContext.isUserAuthenticated()) {
 
-				if (!AuthenticationConfig.isConfigurationCacheEnabled()) {
+				if (!AuthenticationConfig.isConfigurationCacheEnabled() && !RuntimePropertiesReloader.isRunning()) {
 					AuthenticationConfig.reloadConfigFromRuntimeProperties(WebConstants.WEBAPP_NAME);
 				}
 
 				AuthenticationScheme authenticationScheme = getAuthenticationScheme();
+				requestContext.setAuthenticationScheme(authenticationScheme);
 
 				if (authenticationScheme instanceof WebAuthenticationScheme) {
 
@@ -134,6 +148,7 @@ public class AuthenticationFilter implements Filter {
 						try {
 							session.removeErrorMessage();
 							session.authenticate(webScheme, credentials);
+							requestContext.setUserAuthenticated(session.isUserAuthenticated());
 							session.regenerateHttpSession();  // Guard against session fixation attacks
 							session.refreshDefaultLocale(); // Refresh context locale after authentication
 							String successUrl = determineSuccessRedirectUrl(request);
@@ -149,11 +164,11 @@ public class AuthenticationFilter implements Filter {
 					}
 					// If no credentials were found, redirect to challenge url unless whitelisted
 					else {
-						if (WebUtil.matchesPath(request, "/ws/rest/*/session")) {
+						if (WebUtil.matchesPath(request, SESSION_ENDPOINT)) {
 							// Add a location header to the session endpoint to support frontend redirection to login
 							response.setHeader("Location", challengeUrl);
 						}
-						else if (!WebUtil.urlMatchesAnyPattern(request, AuthenticationConfig.getWhiteList())) {
+						else if (!requestContext.isWhiteListed()) {
 							log.trace("Authentication required: " + request.getRequestURI());
 							handleAuthenticationFailure(request, response, challengeUrl);
 						}
@@ -170,17 +185,45 @@ public class AuthenticationFilter implements Filter {
 		}
 	}
 
+	/**
+	 * When `authentication.lazySessionCreation` is enabled, this determines whether the given request can proceed
+	 * without creating an HTTP session.  This is the case for GET and HEAD requests that do not already have a
+	 * session, do not send an Authorization header, and are for a white-listed url.  Requests to the REST session
+	 * endpoint always create a session, as unauthenticated requests to it receive a Location header that depends
+	 * on the state of the session.
+	 * @param request the request to check
+	 * @return true if the request can proceed without creating an HTTP session
+	 */
+	protected boolean canSkipSessionCreation(HttpServletRequest request) {
+		if (!AuthenticationConfig.isLazySessionCreationEnabled() || request.getSession(false) != null) {
+			return false;
+		}
+		String method = request.getMethod();
+		if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+			return false;
+		}
+		if (request.getHeader("Authorization") != null || WebUtil.matchesPath(request, SESSION_ENDPOINT)) {
+			return false;
+		}
+		return AuthenticationRequestContext.getOrCreate(request).isWhiteListed();
+	}
+
 	/**
 	 * Upon authentication failure, this either issues a 3xx redirect or a 401 unauthenticated, depending on the url
+	 * Each response is counted in AuthenticationMetrics
 	 * @param request the request to handle
 	 * @param challengeUrl the challengeUrl to direct the response to
 	 */
 	protected void handleAuthenticationFailure(HttpServletRequest request, HttpServletResponse response, String challengeUrl) throws IOException {
-		if (WebUtil.urlMatchesAnyPattern(request, AuthenticationConfig.getNonRedirectUrls())) {
+		if (AuthenticationRequestContext.getOrCreate(request).isNonRedirectUrl()) {
+			AuthenticationMetrics.increment(AuthenticationMetrics.FILTER_CHALLENGES,
+					AuthenticationMetrics.LABEL_RESPONSE, AuthenticationMetrics.RESPONSE_UNAUTHORIZED);
 			response.setHeader("Location", challengeUrl);
 			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
 		}
 		else {
+			AuthenticationMetrics.increment(AuthenticationMetrics.FILTER_CHALLENGES,
+					AuthenticationMetrics.LABEL_RESPONSE, AuthenticationMetrics.RESPONSE_REDIRECT);
 			response.sendRedirect(challengeUrl);
 		}
 	}
@@ -11,6 +11,7 @@ package org.openmrs.module.authentication.web;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.openmrs.module.authentication.AuthenticationMetrics;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
 import org.springframework.stereotype.Component;
@@ -36,6 +37,7 @@ public class AuthenticationHttpSessionListener implements HttpSessionListener {
 		// Instantiating the AuthenticationSession here ensures that the UserLogin is created here
 		AuthenticationSession session = new AuthenticationSession(httpSessionEvent.getSession());
 		log.debug("Http Session Created: " + session);
+		AuthenticationMetrics.increment(AuthenticationMetrics.HTTP_SESSIONS_CREATED);
 		UserLogin login = session.getUserLogin();
 		UserLoginTracker.setLoginOnThread(login);
 		// At this point this is a totally new session, so we cannot use attributes as it may be regenerating
@@ -49,6 +51,7 @@ public class AuthenticationHttpSessionListener implements HttpSessionListener {
 	public void sessionDestroyed(HttpSessionEvent httpSessionEvent) {
 		AuthenticationSession session = new AuthenticationSession(httpSessionEvent.getSession());
 		log.debug("Http Session Destroyed: " + session);
+		AuthenticationMetrics.increment(AuthenticationMetrics.HTTP_SESSIONS_DESTROYED);
 		UserLogin login = session.getUserLogin();
 		if (!session.isSessionRegenerating() && login.getLoginDate() != null && login.getLogoutDate() == null) {
 			login.loginExpired();
@@ -0,0 +1,144 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.openmrs.api.context.AuthenticationScheme;
+import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.UserLogin;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Holds the outcome of the authentication checks made for a single request.
+ * <p>
+ * This is created once by the AuthenticationFilter and stored as a request attribute, so that downstream filters
+ * and controllers can reuse the AuthenticationSession, the UserLogin, and the decisions made about the request,
+ * rather than repeating that work.
+ * <p>
+ * If the AuthenticationFilter allowed the request through without creating an HTTP session (see
+ * `authentication.lazySessionCreation`), then there is no AuthenticationSession or UserLogin, and the user is not
+ * authenticated.
+ */
+public class AuthenticationRequestContext {
+
+    public static final String AUTHENTICATION_REQUEST_CONTEXT = "__authentication_request_context";
+
+    private final HttpServletRequest request;
+    private AuthenticationSession authenticationSession;
+    private AuthenticationScheme authenticationScheme;
+    private boolean userAuthenticated;
+    private Boolean whiteListed;
+    private Boolean nonRedirectUrl;
+
+    /**
+     * @param request the request that this context applies to
+     */
+    public AuthenticationRequestContext(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @param request the request to retrieve the context for
+     * @return the context previously stored on the given request, or null if there is none
+     */
+    public static AuthenticationRequestContext get(ServletRequest request) {
+        return (AuthenticationRequestContext) request.getAttribute(AUTHENTICATION_REQUEST_CONTEXT);
+    }
+
+    /**
+     * @param request the request to retrieve the context for
+     * @return the context stored on the given request, creating and storing a new one if there is none
+     */
+    public static AuthenticationRequestContext getOrCreate(HttpServletRequest request) {
+        AuthenticationRequestContext context = get(request);
+        if (context == null) {
+            context = new AuthenticationRequestContext(request);
+            request.setAttribute(AUTHENTICATION_REQUEST_CONTEXT, context);
+        }
+        return context;
+    }
+
+    /**
+     * @return the request that this context applies to
+     */
+    public HttpServletRequest getHttpRequest() {
+        return request;
+    }
+
+    /**
+     * @return the AuthenticationSession for this request, or null if no HTTP session was created for it
+     */
+    public AuthenticationSession getAuthenticationSession() {
+        return authenticationSession;
+    }
+
+    /**
+     * @param authenticationSession the AuthenticationSession for this request
+     */
+    public void setAuthenticationSession(AuthenticationSession authenticationSession) {
+        this.authenticationSession = authenticationSession;
+    }
+
+    /**
+     * @return the UserLogin for this request, or null if no HTTP session was created for it
+     */
+    public UserLogin getUserLogin() {
+        return authenticationSession == null ? null : authenticationSession.getUserLogin();
+    }
+
+    /**
+     * @return true if the user making this request was authenticated, either on arrival or by the AuthenticationFilter
+     */
+    public boolean isUserAuthenticated() {
+        return userAuthenticated;
+    }
+
+    /**
+     * @param userAuthenticated whether the user making this request is authenticated
+     */
+    public void setUserAuthenticated(boolean userAuthenticated) {
+        this.userAuthenticated = userAuthenticated;
+    }
+
+    /**
+     * @return the authentication scheme resolved for this request, or null if authentication was not needed
+     */
+    public AuthenticationScheme getAuthenticationScheme() {
+        return authenticationScheme;
+    }
+
+    /**
+     * @param authenticationScheme the authentication scheme resolved for this request
+     */
+    public void setAuthenticationScheme(AuthenticationScheme authenticationScheme) {
+        this.authenticationScheme = authenticationScheme;
+    }
+
+    /**
+     * @return true if the request url matches the configured white list, evaluated once per request
+     */
+    public boolean isWhiteListed() {
+        if (whiteListed == null) {
+            whiteListed = WebUtil.urlMatchesAnyPattern(request, AuthenticationConfig.getWhiteListMatcher());
+        }
+        return whiteListed;
+    }
+
+    /**
+     * @return true if the request url matches the configured non-redirect urls, evaluated once per request
+     */
+    public boolean isNonRedirectUrl() {
+        if (nonRedirectUrl == null) {
+            nonRedirectUrl = WebUtil.urlMatchesAnyPattern(request, AuthenticationConfig.getNonRedirectUrlMatcher());
+        }
+        return nonRedirectUrl;
+    }
+}
@@ -18,6 +18,7 @@ import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.Credentials;
 import org.openmrs.module.authentication.AuthenticationConfig;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationMetrics;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
 import org.springframework.web.servlet.i18n.CookieLocaleResolver;
@@ -109,6 +110,14 @@ public class AuthenticationSession {
         return "sessionId="+session.getId()+",loginId="+ userLogin.getLoginId();
     }
 
+    /**
+     * @param key the attribute name
+     * @return the value of the given attribute in the http session, or null if it is not set
+     */
+    public Object getHttpSessionAttribute(String key) {
+        return session.getAttribute(key);
+    }
+
     /**
      * @return Map of all attributes in the http session
      */
@@ -155,12 +164,14 @@ public class AuthenticationSession {
      * Authenticates the given credentials against the given authentication scheme
      * If this is the main authentication scheme registered with OpenMRS, then authentication is done via the Context
      * This ensures that any authentication hooks are executed before and after the authentication itself
+     * The duration and outcome of each attempt, including these hooks, is recorded in AuthenticationMetrics
      * @see Context#authenticate(Credentials)
      */
     public Authenticated authenticate(WebAuthenticationScheme scheme, AuthenticationCredentials credentials) {
         Authenticated authenticated;
+        String schemeId = scheme.getSchemeId();
+        long start = System.nanoTime();
         try {
-            String schemeId = scheme.getSchemeId();
             scheme.beforeAuthentication(this);
             if (schemeId.equals(AuthenticationConfig.getProperty(AuthenticationConfig.SCHEME))) {
                 authenticated = Context.authenticate(credentials);
@@ -169,10 +180,16 @@ public class AuthenticationSession {
                 authenticated = scheme.authenticate(credentials);
             }
             scheme.afterAuthenticationSuccess(this);
+            AuthenticationMetrics.recordDuration(AuthenticationMetrics.SESSION_AUTHENTICATION_DURATION, System.nanoTime() - start,
+                    AuthenticationMetrics.LABEL_SCHEME, schemeId,
+                    AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_SUCCESS);
         }
         catch (Exception e) {
             setErrorMessage(e.getMessage());
             scheme.afterAuthenticationFailure(this);
+            AuthenticationMetrics.recordDuration(AuthenticationMetrics.SESSION_AUTHENTICATION_DURATION, System.nanoTime() - start,
+                    AuthenticationMetrics.LABEL_SCHEME, schemeId,
+                    AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_FAILURE);
             throw new ContextAuthenticationException(e.getMessage(), e);
         }
         return authenticated;
@@ -185,6 +202,7 @@ public class AuthenticationSession {
      * See:  <a href="https://owasp.org/www-community/attacks/Session_fixation">Session Fixation</a>
      */
     public void regenerateHttpSession() {
+        long start = System.nanoTime();
         Properties sessionAttributes = new Properties();
         if (session != null) {
             session.setAttribute(AUTHENTICATION_SESSION_REGENERATING, true);
@@ -208,6 +226,7 @@ public class AuthenticationSession {
         session.removeAttribute(AUTHENTICATION_SESSION_REGENERATING);
         getUserLogin().setHttpSessionId(session.getId());
         UserLoginTracker.setLoginOnThread(getUserLogin());
+        AuthenticationMetrics.recordDuration(AuthenticationMetrics.SESSION_REGENERATION_DURATION, System.nanoTime() - start);
     }
 
     /**
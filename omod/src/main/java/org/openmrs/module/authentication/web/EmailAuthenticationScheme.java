@@ -10,7 +10,6 @@
 package org.openmrs.module.authentication.web;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.validator.routines.EmailValidator;
 import org.openmrs.User;
 import org.openmrs.api.context.Authenticated;
@@ -19,13 +18,13 @@ import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.module.authentication.AuthenticationCredentials;
 import org.openmrs.module.authentication.AuthenticationUtil;
+import org.openmrs.module.authentication.TokenCrypto;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.notification.Message;
 import org.openmrs.notification.MessageException;
 import org.openmrs.util.PrivilegeConstants;
 import org.springframework.context.MessageSource;
 
-import java.security.MessageDigest;
 import java.util.Properties;
 
 /**
@@ -82,7 +81,7 @@ public class EmailAuthenticationScheme extends WebAuthenticationScheme {
 	 * @return the verified email address for the given user, or an empty string if none is configured
 	 */
 	public String getVerifiedEmailForUser(User user) {
-		return user.getUserProperty(getVerifiedEmailUserPropertyName(), "");
+		return getAuthenticationProfile(user).getProperty(getVerifiedEmailUserPropertyName(), "");
 	}
 
 	/**
@@ -156,8 +155,8 @@ public class EmailAuthenticationScheme extends WebAuthenticationScheme {
 		if (c.expectedExpiry == null || System.currentTimeMillis() > c.expectedExpiry) {
 			throw new ContextAuthenticationException("authentication.error.codeExpired");
 		}
-		// We use MessageDigest.isEqual to compare byte arrays securely and in constant-time to limit timing attacks
-		if (!MessageDigest.isEqual(c.submittedCode.getBytes(), c.expectedCode.getBytes())) {
+		// We compare the codes in constant-time to limit timing attacks
+		if (!TokenCrypto.constantTimeEquals(c.submittedCode, c.expectedCode)) {
 			throw new ContextAuthenticationException("authentication.error.invalidCredentials");
 		}
 
@@ -208,7 +207,7 @@ public class EmailAuthenticationScheme extends WebAuthenticationScheme {
 	 * @return a randomly generated numeric code of the configured length
 	 */
 	public String generateCode() {
-		return RandomStringUtils.secureStrong().next(codeLength, codeCharacters);
+		return TokenCrypto.randomString(codeLength, codeCharacters);
 	}
 
 	/**
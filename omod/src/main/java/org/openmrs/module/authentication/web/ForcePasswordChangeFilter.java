@@ -5,6 +5,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.User;
 import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.UrlPatternMatcher;
 import org.openmrs.util.OpenmrsConstants;
 
 import javax.servlet.Filter;
@@ -16,7 +17,6 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * This filter checks if an authenticated user has been flagged to change his password on first/subsequent login.
@@ -25,7 +25,7 @@ import java.util.List;
 public class ForcePasswordChangeFilter implements Filter {
 
 	private boolean supportForcedPasswordChange;
-	private List<String> whiteList;
+	private UrlPatternMatcher whiteList;
 	String changePasswordUrl;
 
 	private final Log log = LogFactory.getLog(getClass());
@@ -39,7 +39,7 @@ public class ForcePasswordChangeFilter implements Filter {
 				log.error("Authentication Config is set to support force password change, but url to change password has not been set, ignoring");
 				supportForcedPasswordChange = false;
 			}
-			whiteList = AuthenticationConfig.getPasswordChangeWhiteList();
+			whiteList = AuthenticationConfig.getPasswordChangeWhiteListMatcher();
 		}
 	}
 
@@ -72,8 +72,16 @@ public class ForcePasswordChangeFilter implements Filter {
 
 	/**
 	 * Return the current authenticated user, if present, or null if no user is currently authenticated
+	 * This reuses the AuthenticationRequestContext created by the AuthenticationFilter if one is available
 	 */
 	protected User getAuthenticatedUser(HttpServletRequest request, HttpServletResponse response) {
+		AuthenticationRequestContext requestContext = AuthenticationRequestContext.get(request);
+		if (requestContext != null) {
+			if (requestContext.isUserAuthenticated() && requestContext.getUserLogin() != null) {
+				return requestContext.getUserLogin().getUser();
+			}
+			return null;
+		}
 		AuthenticationSession session = new AuthenticationSession(request, response);
 		if (session.isUserAuthenticated()) {
 			return session.getUserLogin().getUser();
@@ -19,6 +19,7 @@ import org.openmrs.api.context.BasicAuthenticated;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationProfile;
 import org.openmrs.module.authentication.UserLogin;
 
 import java.util.Properties;
@@ -64,7 +65,7 @@ public class SecretQuestionAuthenticationScheme extends WebAuthenticationScheme
      */
     @Override
     public boolean isUserConfigurationRequired(User user) {
-        return StringUtils.isBlank(Context.getUserService().getSecretQuestion(user));
+        return StringUtils.isBlank(getSecretQuestion(user));
     }
 
     @Override
@@ -125,9 +126,14 @@ public class SecretQuestionAuthenticationScheme extends WebAuthenticationScheme
     }
 
     /**
+     * @return the secret question from the user's AuthenticationProfile, if it was loaded with the profile
      * @see UserService#getSecretQuestion(User)
      */
     protected String getSecretQuestion(User user) {
+        AuthenticationProfile profile = getAuthenticationProfile(user);
+        if (profile.isSecretQuestionLoaded()) {
+            return profile.getSecretQuestion();
+        }
         return Context.getUserService().getSecretQuestion(user);
     }
 
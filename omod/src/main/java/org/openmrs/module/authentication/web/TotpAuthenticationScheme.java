@@ -13,16 +13,10 @@
  */
 package org.openmrs.module.authentication.web;
 
-import dev.samstevens.totp.code.CodeGenerator;
-import dev.samstevens.totp.code.DefaultCodeGenerator;
-import dev.samstevens.totp.code.DefaultCodeVerifier;
 import dev.samstevens.totp.code.HashingAlgorithm;
 import dev.samstevens.totp.qr.QrData;
 import dev.samstevens.totp.qr.QrGenerator;
 import dev.samstevens.totp.qr.ZxingPngQrGenerator;
-import dev.samstevens.totp.secret.DefaultSecretGenerator;
-import dev.samstevens.totp.time.SystemTimeProvider;
-import dev.samstevens.totp.time.TimeProvider;
 import dev.samstevens.totp.util.Utils;
 import org.apache.commons.lang.StringUtils;
 import org.openmrs.User;
@@ -32,8 +26,10 @@ import org.openmrs.api.context.BasicAuthenticated;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationProfileCache;
 import org.openmrs.module.authentication.AuthenticationUtil;
 import org.openmrs.module.authentication.EnrollmentException;
+import org.openmrs.module.authentication.TokenCrypto;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.util.Security;
 
@@ -57,6 +53,8 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 	public static final String CODE_VALIDITY_PERIOD = "codeValidityPeriod";
 	public static final String ALLOWED_DISCREPANCY = "allowedDiscrepancy";
 	public static final String ENROLLMENT_WINDOW_SECONDS = "enrollmentWindowSeconds";
+	public static final String SECRET_CACHE_SIZE = "secretCacheSize";
+	public static final String SECRET_CACHE_TTL = "secretCacheTtl";
 
 	// Configuration properties for login page
 	public static final String LOGIN_PAGE = "loginPage";
@@ -66,6 +64,9 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 	// Session attribute key to temporarily store the secret during enrollment
 	public static final String PENDING_ENROLLMENT_SECRET = "pending_enrollment_totp_secret";
 	public static final String PENDING_ENROLLMENT_TIME = "pending_enrollment_totp_time";
+
+	// The characters of the RFC 4648 base32 alphabet, which authenticator apps expect secrets to be encoded in
+	private static final String BASE32_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
 	
 	private int secretLength;
 	private HashingAlgorithm hashingAlgorithm;
@@ -77,6 +78,7 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 	private String codeParam;
 	private String codeHeader;
 	private int enrollmentWindowSeconds;
+	private TotpVerifier verifier;
 
 	@Override
 	public void configure(String schemeId, Properties config) {
@@ -91,11 +93,28 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 		codeParam = config.getProperty(CODE_PARAM, "code");
 		codeHeader = config.getProperty(CODE_HEADER, "X-Totp-Code");
 		enrollmentWindowSeconds = AuthenticationUtil.getInteger(config.getProperty(ENROLLMENT_WINDOW_SECONDS), 120);
+		if (verifier != null) {
+			verifier.clear();
+		}
+		verifier = newVerifier(config);
+	}
+
+	/**
+	 * @param config the configuration of this scheme
+	 * @return a verifier for codes generated with the configured algorithm, length and period, which caches the
+	 * decoded secrets of up to secretCacheSize users for secretCacheTtl seconds
+	 */
+	protected TotpVerifier newVerifier(Properties config) {
+		int cacheSize = AuthenticationUtil.getInteger(config.getProperty(SECRET_CACHE_SIZE),
+				TotpVerifier.DEFAULT_CACHE_SIZE);
+		int cacheTtl = AuthenticationUtil.getInteger(config.getProperty(SECRET_CACHE_TTL), TotpVerifier.DEFAULT_CACHE_TTL);
+		return new TotpVerifier(hashingAlgorithm.getHmacAlgorithm(), codeLength, codeValidityPeriod, allowedDiscrepancy,
+				cacheSize, TimeUnit.SECONDS.toMillis(cacheTtl));
 	}
 
 	@Override
 	public boolean isUserConfigurationRequired(User user) {
-		return StringUtils.isBlank(user.getUserProperty(getSecretUserPropertyName()));
+		return StringUtils.isBlank(getAuthenticationProfile(user).getProperty(getSecretUserPropertyName()));
 	}
 
 	@Override
@@ -115,12 +134,11 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 		if (userLogin.getUser() != null && !userLogin.getUser().equals(c.user)) {
 			throw new ContextAuthenticationException("authentication.error.userDiffersFromCandidateUser");
 		}
-		String userSecret = c.user.getUserProperty(getSecretUserPropertyName());
+		String userSecret = getAuthenticationProfile(c.user).getProperty(getSecretUserPropertyName());
 		if (StringUtils.isBlank(userSecret)) {
 			throw new ContextAuthenticationException("authentication.error.noSecretConfiguredForUser");
 		}
-		String decodedSecret = Security.decrypt(userSecret);
-		if (!verifyCode(decodedSecret, c.code)) {
+		if (!verifier.verifyStoredCode(c.user.getUserId(), userSecret, c.code)) {
 			throw new ContextAuthenticationException("authentication.error.invalidCredentials");
 		}
 
@@ -159,10 +177,10 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 	}
 
 	/**
-	 * @return a new secret that can be assigned to a user account and used to generate codes
+	 * @return a new base32 secret that can be assigned to a user account and used to generate codes
 	 */
 	public String generateSecret() {
-		return new DefaultSecretGenerator(secretLength).generate();
+		return TokenCrypto.randomString(secretLength, BASE32_CHARACTERS);
 	}
 
 	/**
@@ -196,15 +214,14 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 	 * @return true if the entered code is valid for the given secret
 	 */
 	public boolean verifyCode(String secret, String code) {
-		if (code != null) {
-			code = StringUtils.deleteWhitespace(code);
-		}
-		TimeProvider timeProvider = new SystemTimeProvider();
-		CodeGenerator codeGenerator = new DefaultCodeGenerator(hashingAlgorithm, codeLength);
-		DefaultCodeVerifier verifier = new DefaultCodeVerifier(codeGenerator, timeProvider);
-		verifier.setTimePeriod(codeValidityPeriod);
-		verifier.setAllowedTimePeriodDiscrepancy(allowedDiscrepancy);
-		return verifier.isValidCode(secret, code);
+		return verifier.verifyCode(secret, code);
+	}
+
+	/**
+	 * @return the verifier for this scheme's configuration
+	 */
+	public TotpVerifier getVerifier() {
+		return verifier;
 	}
 
 	/**
@@ -315,5 +332,7 @@ public class TotpAuthenticationScheme extends WebAuthenticationScheme implements
 	
 	protected void saveSecretToUserProperties(User user, String encryptedSecret) {
 		Context.getUserService().setUserProperty(user, getSecretUserPropertyName(), encryptedSecret);
+		AuthenticationProfileCache.invalidate(user);
+		verifier.invalidate(user.getUserId());
 	}
 }
@@ -0,0 +1,315 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.authentication.TokenCrypto;
+import org.openmrs.util.Security;
+
+import javax.crypto.Mac;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifies TOTP codes (RFC 6238) for a single configuration of the TotpAuthenticationScheme.
+ * <p>
+ * Codes are generated the same way as by the java-totp library used for enrollment, so that secrets and codes are
+ * interchangeable between the two.  Each verification initializes this thread's Mac once, from TokenCrypto, and
+ * reuses it for every time period in the allowed discrepancy.  Every period is checked, and each code is compared in
+ * constant time, so that the time taken does not reveal which period, if any, matched.
+ * <p>
+ * The decoded key of each user's stored secret is cached, so that the stored secret is not decrypted and decoded on
+ * every login attempt.  At most cacheSize keys are cached, evicting the least recently used, and each is decoded again
+ * once it is older than ttl milliseconds.  Each key is cached along with the stored secret it was decoded from, and is
+ * only used while the user's stored secret is unchanged, so that a new secret takes effect immediately.  Keys are
+ * zeroed when they are evicted, replaced, or invalidated, and each verification uses its own copy, which is zeroed
+ * once the code has been checked.  The thread's Mac is then initialized with a key of zeros, so that it does not keep
+ * state derived from the user's key until the thread's next verification.  The SecretKeySpec that the Mac was
+ * initialized with holds a copy of the key that cannot be zeroed, and is left to be garbage collected.
+ */
+public class TotpVerifier {
+
+	public static final int DEFAULT_CACHE_SIZE = 1000;
+
+	public static final int DEFAULT_CACHE_TTL = 60;
+
+	private static final int[] POWERS_OF_TEN = {
+			1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000
+	};
+
+	private final String algorithm;
+	private final int codeLength;
+	private final int timePeriod;
+	private final int allowedDiscrepancy;
+	private final long ttl;
+	private final Map<Integer, CachedKey> keys;
+
+	/**
+	 * @param algorithm the name of the HMAC algorithm, for example HmacSHA1
+	 * @param codeLength the number of digits in each code, from 1 to 9
+	 * @param timePeriod the number of seconds each code is valid for
+	 * @param allowedDiscrepancy the number of time periods before and after the current one whose codes are accepted
+	 * @param cacheSize the maximum number of cached keys
+	 * @param ttl the number of milliseconds a key is cached for, 0 or less disables the cache
+	 */
+	public TotpVerifier(String algorithm, int codeLength, int timePeriod, int allowedDiscrepancy, int cacheSize,
+						long ttl) {
+		if (codeLength < 1 || codeLength >= POWERS_OF_TEN.length) {
+			throw new IllegalArgumentException("The TOTP code length must be between 1 and " + (POWERS_OF_TEN.length - 1));
+		}
+		if (timePeriod < 1) {
+			throw new IllegalArgumentException("The TOTP code validity period must be greater than 0");
+		}
+		if (allowedDiscrepancy < 0) {
+			throw new IllegalArgumentException("The allowed TOTP discrepancy must not be negative");
+		}
+		if (cacheSize < 1) {
+			throw new IllegalArgumentException("The TOTP key cache size must be greater than 0");
+		}
+		this.algorithm = algorithm;
+		this.codeLength = codeLength;
+		this.timePeriod = timePeriod;
+		this.allowedDiscrepancy = allowedDiscrepancy;
+		this.ttl = ttl;
+		this.keys = new LinkedHashMap<Integer, CachedKey>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, CachedKey> eldest) {
+				if (size() > cacheSize) {
+					eldest.getValue().zero();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param secret the base32 encoded secret
+	 * @param code the code to verify, which may contain whitespace
+	 * @return true if the given code is valid for the given secret at the current time
+	 */
+	public boolean verifyCode(String secret, String code) {
+		if (StringUtils.isBlank(secret)) {
+			return false;
+		}
+		byte[] key = decode(secret);
+		try {
+			return verifyCode(key, code, currentTimeSeconds());
+		}
+		finally {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * @param userId the id of the user whose secret is given, or null if the key should not be cached
+	 * @param storedSecret the encrypted base32 secret, as stored in the user's properties
+	 * @param code the code to verify, which may contain whitespace
+	 * @return true if the given code is valid for the given stored secret at the current time
+	 */
+	public boolean verifyStoredCode(Integer userId, String storedSecret, String code) {
+		if (StringUtils.isBlank(storedSecret)) {
+			return false;
+		}
+		byte[] key = getKey(userId, storedSecret);
+		try {
+			return verifyCode(key, code, currentTimeSeconds());
+		}
+		finally {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * @param key the decoded secret key
+	 * @param code the code to verify, which may contain whitespace
+	 * @param timeSeconds the time to verify the code at, in seconds since the epoch
+	 * @return true if the given code is valid for the given key at the given time
+	 */
+	public boolean verifyCode(byte[] key, String code, long timeSeconds) {
+		code = StringUtils.deleteWhitespace(code);
+		if (code == null || code.length() != codeLength || key.length == 0) {
+			return false;
+		}
+		Mac mac = TokenCrypto.getMac(algorithm, key);
+		try {
+			long currentPeriod = Math.floorDiv(timeSeconds, timePeriod);
+			boolean valid = false;
+			for (int i = -allowedDiscrepancy; i <= allowedDiscrepancy; i++) {
+				valid = TokenCrypto.constantTimeEquals(generateCode(mac, currentPeriod + i), code) | valid;
+			}
+			return valid;
+		}
+		finally {
+			TokenCrypto.clearMac(mac);
+		}
+	}
+
+	/**
+	 * @param mac the Mac to use, initialized with the secret key
+	 * @param counter the number of the time period to generate the code for
+	 * @return the zero-padded code for the given time period, as defined by RFC 4226
+	 */
+	protected String generateCode(Mac mac, long counter) {
+		byte[] data = new byte[8];
+		for (int i = 7; i >= 0; i--) {
+			data[i] = (byte) counter;
+			counter >>>= 8;
+		}
+		byte[] hash = mac.doFinal(data);
+		int offset = hash[hash.length - 1] & 0xf;
+		int binary = ((hash[offset] & 0x7f) << 24)
+				| ((hash[offset + 1] & 0xff) << 16)
+				| ((hash[offset + 2] & 0xff) << 8)
+				| (hash[offset + 3] & 0xff);
+		int value = binary % POWERS_OF_TEN[codeLength];
+		char[] ret = new char[codeLength];
+		for (int i = codeLength - 1; i >= 0; i--) {
+			ret[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(ret);
+	}
+
+	/**
+	 * @param userId the id of the user, or null if the key should not be cached
+	 * @param storedSecret the encrypted base32 secret
+	 * @return a copy of the cached key for the given user, if it was decoded from the given stored secret and has not
+	 * expired, otherwise the newly decoded key, which is cached if the cache is enabled
+	 */
+	protected byte[] getKey(Integer userId, String storedSecret) {
+		if (userId == null || ttl <= 0) {
+			return decodeStoredSecret(storedSecret);
+		}
+		long now = System.currentTimeMillis();
+		synchronized (keys) {
+			CachedKey cached = keys.get(userId);
+			if (cached != null) {
+				if (cached.storedSecret.equals(storedSecret) && now - cached.loadedTime < ttl) {
+					return cached.key.clone();
+				}
+				keys.remove(userId).zero();
+			}
+		}
+		byte[] key = decodeStoredSecret(storedSecret);
+		synchronized (keys) {
+			CachedKey previous = keys.put(userId, new CachedKey(storedSecret, key.clone(), now));
+			if (previous != null) {
+				previous.zero();
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Removes and zeroes the cached key of the given user, if any.  This should be called whenever the secret of a
+	 * user is changed.
+	 * @param userId the id of the user whose secret has changed
+	 */
+	public void invalidate(Integer userId) {
+		if (userId == null) {
+			return;
+		}
+		synchronized (keys) {
+			CachedKey cached = keys.remove(userId);
+			if (cached != null) {
+				cached.zero();
+			}
+		}
+	}
+
+	/**
+	 * Removes and zeroes all cached keys
+	 */
+	public void clear() {
+		synchronized (keys) {
+			for (CachedKey cached : keys.values()) {
+				cached.zero();
+			}
+			keys.clear();
+		}
+	}
+
+	/**
+	 * @return the number of cached keys, including any that have expired but have not been evicted
+	 */
+	public int size() {
+		synchronized (keys) {
+			return keys.size();
+		}
+	}
+
+	/**
+	 * @param storedSecret the encrypted base32 secret
+	 * @return the decoded key of the given stored secret
+	 */
+	protected byte[] decodeStoredSecret(String storedSecret) {
+		return decode(decryptSecret(storedSecret));
+	}
+
+	/**
+	 * @param storedSecret the encrypted base32 secret
+	 * @return the decrypted base32 secret
+	 */
+	protected String decryptSecret(String storedSecret) {
+		return Security.decrypt(storedSecret);
+	}
+
+	/**
+	 * @param secret the base32 encoded secret
+	 * @return the decoded key, decoded the same way as by the java-totp library
+	 */
+	protected byte[] decode(String secret) {
+		return new Base32().decode(secret);
+	}
+
+	/**
+	 * @return the current time, in seconds since the epoch
+	 */
+	protected long currentTimeSeconds() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	/**
+	 * @return the name of the HMAC algorithm
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return the number of milliseconds a key is cached for
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * A decoded key, the stored secret it was decoded from, and the time it was decoded
+	 */
+	private static class CachedKey {
+
+		private final String storedSecret;
+		private final byte[] key;
+		private final long loadedTime;
+
+		CachedKey(String storedSecret, byte[] key, long loadedTime) {
+			this.storedSecret = storedSecret;
+			this.key = key;
+			this.loadedTime = loadedTime;
+		}
+
+		void zero() {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+}
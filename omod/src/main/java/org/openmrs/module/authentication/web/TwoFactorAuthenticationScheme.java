@@ -19,28 +19,33 @@ import org.openmrs.api.context.BasicAuthenticated;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.Credentials;
-import org.openmrs.api.context.Daemon;
 import org.openmrs.module.DaemonToken;
 import org.openmrs.module.authentication.AuthenticationConfig;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationProfileCache;
 import org.openmrs.module.authentication.AuthenticationUtil;
 import org.openmrs.module.authentication.ConfigurableAuthenticationScheme;
+import org.openmrs.module.authentication.RememberMeDenylist;
+import org.openmrs.module.authentication.RememberMeToken;
+import org.openmrs.module.authentication.RememberMeTokenService;
+import org.openmrs.module.authentication.RememberMeTokenSigner;
+import org.openmrs.module.authentication.SignedRememberMeToken;
+import org.openmrs.module.authentication.TokenCrypto;
 import org.openmrs.module.authentication.UserLogin;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.lang.reflect.Method;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 
@@ -51,9 +56,6 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 
 	protected final Log log = LogFactory.getLog(getClass());
 
-	// Daemon Token
-	private static DaemonToken daemonToken;
-
 	// User configuration
 	public static final String USER_PROPERTY_SECONDARY_TYPE = "authentication.secondaryType";
 
@@ -65,6 +67,15 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 	public static final int REMEMBER_ME_DURATION_MINUTES_DEFAULT = 30 * 24 * 60;  // 30 days by default
 	public static final String REMEMBER_ME_COOKIE_PATH = "rememberMeCookiePath";
 	public static final String REMEMBER_ME_COOKIE_SECURE = "rememberMeCookieSecure";
+	public static final String REMEMBER_ME_MODE = "rememberMeMode";
+	public static final String REMEMBER_ME_MODE_STORED = "stored";
+	public static final String REMEMBER_ME_MODE_SIGNED = "signed";
+	public static final String REMEMBER_ME_SIGNING_KEYS = "rememberMeSigningKeys";
+	public static final String REMEMBER_ME_SIGNING_KEYS_ROTATED = "rememberMeSigningKeysRotated";
+	public static final String REMEMBER_ME_SIGNING_KEY_GRACE_MINUTES = "rememberMeSigningKeyGraceMinutes";
+	public static final int REMEMBER_ME_SIGNING_KEY_GRACE_MINUTES_DEFAULT = 24 * 60;  // 1 day by default
+	public static final String REMEMBER_ME_SIGNING_KEYS_ROTATED_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+	public static final int REMEMBER_ME_REVOCATION_BATCH_SIZE = 500;  // users whose tokens are removed per transaction
 
 	protected List<String> primaryOptions = new ArrayList<>();
 	protected List<String> secondaryOptions = new ArrayList<>();
@@ -74,10 +85,12 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 	protected int rememberMeDurationMinutes = REMEMBER_ME_DURATION_MINUTES_DEFAULT;
 	protected String rememberMeCookiePath = "/";
 	protected boolean rememberMeCookieSecure = true;
+	protected RememberMeTokenSigner rememberMeSigner = null;
 
 	/**
 	 * This supports configuring the `primaryOptions` and `secondaryOptions` that are supported factors
 	 * These are both expected to be comma-delimited lists of schemeIds
+	 * If remember-me is enabled with a `rememberMeMode` of `signed`, `rememberMeSigningKeys` must also be configured
 	 * @see ConfigurableAuthenticationScheme#configure(String, Properties)
 	 */
 	@Override
@@ -91,10 +104,58 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 		rememberMeDurationMinutes = AuthenticationUtil.getInteger(config.getProperty(REMEMBER_ME_DURATION_MINUTES), REMEMBER_ME_DURATION_MINUTES_DEFAULT);
 		rememberMeCookiePath = config.getProperty(REMEMBER_ME_COOKIE_PATH, "/");
 		rememberMeCookieSecure = AuthenticationUtil.getBoolean(config.getProperty(REMEMBER_ME_COOKIE_SECURE), true);
+		String rememberMeMode = config.getProperty(REMEMBER_ME_MODE, REMEMBER_ME_MODE_STORED).trim();
+		if (REMEMBER_ME_MODE_SIGNED.equalsIgnoreCase(rememberMeMode)) {
+			rememberMeSigner = rememberMeEnabled ? newRememberMeSigner(config) : null;
+		}
+		else if (REMEMBER_ME_MODE_STORED.equalsIgnoreCase(rememberMeMode)) {
+			rememberMeSigner = null;
+		}
+		else {
+			throw new IllegalArgumentException("Invalid remember-me mode: " + rememberMeMode);
+		}
 	}
 
+	/**
+	 * Remember-me tokens are no longer stored in user properties, so this scheme no longer needs a daemon token
+	 * @deprecated this does nothing, and will be removed in a future release
+	 */
+	@Deprecated
 	public static void setDaemonToken(DaemonToken daemonToken) {
-		TwoFactorAuthenticationScheme.daemonToken = daemonToken;
+	}
+
+	/**
+	 * Creates the signer of remember-me tokens from the `rememberMeSigningKeys`, which are formatted as a
+	 * comma-separated list of `keyId:key`, each key encoded in URL-safe base64 and at least 32 bytes long.  Tokens are
+	 * signed with the first key.  Tokens signed with the other keys are accepted until `rememberMeSigningKeyGraceMinutes`
+	 * after `rememberMeSigningKeysRotated`, which is the time the first key was added, formatted as
+	 * yyyy-MM-dd'T'HH:mm:ss.  This must be configured if there is more than one key, as the grace window would
+	 * otherwise restart each time this scheme is configured, and a retired key would be accepted indefinitely.
+	 * @param config the configuration of this scheme
+	 * @return the signer of remember-me tokens
+	 * @throws IllegalArgumentException if the keys or rotation time are not correctly configured
+	 */
+	protected RememberMeTokenSigner newRememberMeSigner(Properties config) {
+		Map<String, byte[]> keys = RememberMeTokenSigner.parseKeys(config.getProperty(REMEMBER_ME_SIGNING_KEYS));
+		long rotated = 0;
+		String rotatedConfig = config.getProperty(REMEMBER_ME_SIGNING_KEYS_ROTATED);
+		if (StringUtils.isBlank(rotatedConfig)) {
+			if (keys.size() > 1) {
+				throw new IllegalArgumentException(REMEMBER_ME_SIGNING_KEYS_ROTATED + " is required when more than one "
+						+ REMEMBER_ME_SIGNING_KEYS + " is configured");
+			}
+		}
+		else {
+			try {
+				rotated = new SimpleDateFormat(REMEMBER_ME_SIGNING_KEYS_ROTATED_FORMAT).parse(rotatedConfig.trim()).getTime();
+			}
+			catch (ParseException e) {
+				throw new IllegalArgumentException("Invalid " + REMEMBER_ME_SIGNING_KEYS_ROTATED + ": " + rotatedConfig, e);
+			}
+		}
+		int graceMinutes = AuthenticationUtil.getInteger(config.getProperty(REMEMBER_ME_SIGNING_KEY_GRACE_MINUTES),
+				REMEMBER_ME_SIGNING_KEY_GRACE_MINUTES_DEFAULT);
+		return new RememberMeTokenSigner(keys, rotated + graceMinutes * 60_000L);
 	}
 
 	/**
@@ -149,9 +210,9 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 			WebAuthenticationScheme secondaryScheme = getSecondaryAuthenticationScheme(session, userLogin.getUser());
 			if (secondaryScheme != null) {
 				if (!userLogin.isCredentialValidated(secondaryScheme.getSchemeId())) {
-					// Try to bypass secondary authentication via a valid remember-me cookie.
-					// On success, the original expiry is stashed on the session so that the rotated cookie issued
-					// in afterAuthenticationSuccess inherits it, rather than effectively never expiring.
+					// Try to bypass secondary authentication via a valid remember-me cookie, which is rotated if valid.
+					// On success, this is noted on the session so that afterAuthenticationSuccess does not issue
+					// another cookie.
 					Long preservedExpiry = validateRememberMeBypass(session, userLogin.getUser(), secondaryScheme);
 					if (preservedExpiry != null) {
 						userLogin.authenticationSuccessful(secondaryScheme.getSchemeId(),
@@ -183,10 +244,10 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 	}
 
 	/**
-	 * Issues a remember-me cookie if either the user requested it on this login, or a remember-me cookie was used
-	 * to bypass secondary authentication during this session (in which case the token is rotated).  Issuance is
-	 * skipped when remember-me is disabled, when there is no authenticated user, or when the user has no secondary
-	 * authentication factor configured (in which case the cookie has no effect).
+	 * Issues a remember-me cookie if the user requested it on this login.  If a remember-me cookie was used to bypass
+	 * secondary authentication during this session, it has already been rotated when it was validated, so no other
+	 * cookie is issued.  Issuance is skipped when remember-me is disabled, when there is no authenticated user, or
+	 * when the user has no secondary authentication factor configured (in which case the cookie has no effect).
 	 * @see WebAuthenticationScheme#afterAuthenticationSuccess(AuthenticationSession)
 	 */
 	@Override
@@ -199,15 +260,14 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 		if (user == null || getSecondaryAuthenticationSchemeIdsForUser(user).isEmpty()) {
 			return;
 		}
-		// If the bypass was used this session, preserve the original expiry so periodic logins via cookie can't
-		// effectively extend remember-me indefinitely - the user must re-validate the secondary factor before the
-		// expiry to refresh the lifetime.  If the user is opting in fresh (rememberMe param), use a new expiry.
+		// If the bypass was used this session, the rotated cookie kept the original expiry, so that periodic logins
+		// via cookie can't effectively extend remember-me indefinitely - the user must re-validate the secondary
+		// factor before the expiry to refresh the lifetime.  If the user is opting in fresh, use a new expiry.
 		Object bypassAttr = session.getHttpSession().getAttribute(getSessionKeyForRememberMeBypass());
 		session.getHttpSession().removeAttribute(getSessionKeyForRememberMeBypass());
-		Long preservedExpiry = (bypassAttr instanceof Long) ? (Long) bypassAttr : null;
 		boolean requested = AuthenticationUtil.getBoolean(session.getRequestParam(rememberMeParam), false);
-		if (preservedExpiry != null || requested) {
-			rotateAndIssueRememberMeCookie(session, user, preservedExpiry);
+		if (bypassAttr == null && requested) {
+			rotateAndIssueRememberMeCookie(session, user, null);
 		}
 	}
 
@@ -277,49 +337,70 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 		return "authentication." + getSchemeId() + ".secondarySchemeId";
 	}
 
+	/**
+	 * @return the key used to cache the resolved second factor scheme on the UserLogin
+	 */
+	protected String getLoginCacheKeyForSecondaryScheme() {
+		return "authentication." + getSchemeId() + ".secondaryScheme";
+	}
+
 	public void setSecondaryAuthenticationSchemeForSession(AuthenticationSession session, String secondarySchemeId) {
 		List<String> allowed = getSecondaryAuthenticationSchemeIdsForUser(session.getUserLogin().getUser());
 		if (!allowed.contains(secondarySchemeId)) {
 			throw new ContextAuthenticationException("authentication.error.secondFactorNotEnabledForUser");
 		}
 		session.getHttpSession().setAttribute(getSessionKeyForSecondarySchemeId(), secondarySchemeId);
+		session.getUserLogin().setCachedValue(getLoginCacheKeyForSecondaryScheme(), null);
 	}
 
 	/**
 	 * This returns the WebAuthenticationScheme that is configured for the given User
 	 * This is configured via a user property named `authentication.secondaryType`
 	 * This throws an Exception the configured AuthenticationScheme is not a WebAuthenticationScheme
+	 * The result is cached on the UserLogin for the rest of the login attempt, until the user's configured schemes,
+	 * the authentication configuration, or the scheme chosen for the session with
+	 * setSecondaryAuthenticationSchemeForSession changes
 	 * @param user the User to check for configured secondary WebAuthenticationScheme
 	 * @return the WebAuthenticationScheme to use for the given MultiFactorAuthenticationCredentials
 	 */
 	public WebAuthenticationScheme getSecondaryAuthenticationScheme(AuthenticationSession session, User user) {
-		if (user != null) {
-			String preferredScheme = null;
-			Object sessionVal = session.getHttpSessionAttributes().get(getSessionKeyForSecondarySchemeId());
-			if (sessionVal != null) {
-				preferredScheme = (String) sessionVal;
+		if (user == null) {
+			return null;
+		}
+		UserLogin userLogin = session.getUserLogin();
+		String secondaryType = getAuthenticationProfile(user).getProperty(USER_PROPERTY_SECONDARY_TYPE);
+		long configVersion = AuthenticationConfig.getSnapshot().getVersion();
+		Object cached = userLogin.getCachedValue(getLoginCacheKeyForSecondaryScheme());
+		if (cached instanceof ResolvedSecondaryScheme) {
+			ResolvedSecondaryScheme resolved = (ResolvedSecondaryScheme) cached;
+			if (resolved.isResolvedFor(user, secondaryType, configVersion)) {
+				return resolved.scheme;
 			}
-			else {
-				List<String> secondarySchemeIds = getSecondaryAuthenticationSchemeIdsForUser(user);
-				if (!secondarySchemeIds.isEmpty()) {
-					preferredScheme = secondarySchemeIds.get(0);
-				}
+		}
+		String preferredScheme = (String) session.getHttpSessionAttribute(getSessionKeyForSecondarySchemeId());
+		if (preferredScheme == null) {
+			List<String> secondarySchemeIds = getSecondaryAuthenticationSchemeIdsForUser(user);
+			if (!secondarySchemeIds.isEmpty()) {
+				preferredScheme = secondarySchemeIds.get(0);
 			}
-			if (preferredScheme != null) {
-				AuthenticationScheme scheme = AuthenticationConfig.getAuthenticationScheme(preferredScheme);
-				if (scheme instanceof WebAuthenticationScheme) {
-					return (WebAuthenticationScheme) scheme;
-				} else {
-					throw new ContextAuthenticationException("authentication.error.secondarySchemeInvalidType");
-				}
+		}
+		WebAuthenticationScheme secondaryScheme = null;
+		if (preferredScheme != null) {
+			AuthenticationScheme scheme = AuthenticationConfig.getAuthenticationScheme(preferredScheme);
+			if (scheme instanceof WebAuthenticationScheme) {
+				secondaryScheme = (WebAuthenticationScheme) scheme;
+			} else {
+				throw new ContextAuthenticationException("authentication.error.secondarySchemeInvalidType");
 			}
 		}
-		return null;
+		userLogin.setCachedValue(getLoginCacheKeyForSecondaryScheme(),
+				new ResolvedSecondaryScheme(user, secondaryType, configVersion, secondaryScheme));
+		return secondaryScheme;
 	}
 
 	public List<String> getSecondaryAuthenticationSchemeIdsForUser(User user) {
 		List<String> schemeIds = new ArrayList<>();
-		String userProperty = user.getUserProperty(USER_PROPERTY_SECONDARY_TYPE);
+		String userProperty = getAuthenticationProfile(user).getProperty(USER_PROPERTY_SECONDARY_TYPE);
 		if (StringUtils.isNotBlank(userProperty)) {
 			schemeIds.addAll(Arrays.asList(userProperty.split(",")));
 		}
@@ -331,11 +412,13 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 		if (!schemeIds.contains(schemeId)) {
 			schemeIds.add(schemeId);
 			user.setUserProperty(USER_PROPERTY_SECONDARY_TYPE, String.join(",", schemeIds));
+			AuthenticationProfileCache.update(user);
 		}
 	}
 
 	public void setSecondaryAuthenticationSchemeIdsForUser(User user, List<String> schemeIds) {
 		user.setUserProperty(USER_PROPERTY_SECONDARY_TYPE, String.join(",", schemeIds));
+		AuthenticationProfileCache.update(user);
 	}
 
 	/**
@@ -364,15 +447,20 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 	}
 
 	/**
-	 * @return the prefix used for user properties that store remember-me token series for this scheme
+	 * @return the prefix used for user properties that stored remember-me token series for this scheme
+	 * @deprecated remember-me tokens are now stored by RememberMeTokenService, and any user properties with this
+	 * prefix are moved by RememberMeTokenMigration, this will be removed in a future release
 	 */
+	@Deprecated
 	protected String getRememberMeUserPropertyPrefix() {
 		return "authentication." + getSchemeId() + ".rememberMe.";
 	}
 
 	/**
-	 * @return the user property name where the remember-me token for the given series id is stored
+	 * @return the user property name where the remember-me token for the given series id was stored
+	 * @deprecated remember-me tokens are now stored by RememberMeTokenService, this will be removed in a future release
 	 */
+	@Deprecated
 	protected String getRememberMeUserPropertyName(String seriesId) {
 		return getRememberMeUserPropertyPrefix() + seriesId;
 	}
@@ -387,15 +475,17 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 	/**
 	 * Checks whether the request carries a valid remember-me cookie for the given user that authorizes bypassing
 	 * the given secondary authentication scheme.  This both validates the cookie's series/token pair against the
-	 * server-side hash stored on the user and removes the consumed entry so that it cannot be replayed - a fresh
-	 * cookie is issued in {@link #afterAuthenticationSuccess(AuthenticationSession)}.  Expired entries encountered
-	 * along the way are also pruned.
+	 * server-side hash stored for the user and, in a single transaction, replaces the consumed entry with a fresh one
+	 * that is sent in a new cookie, so that the old cookie cannot be replayed.  If the same cookie is presented by
+	 * concurrent requests, only one of them can bypass.  Expired entries encountered along the way are also pruned.
 	 * @param session the current authentication session
 	 * @param user the authenticated user
 	 * @param secondaryScheme the secondary authentication scheme that would otherwise be required
 	 * @return the original expiry (epoch millis) of the consumed token if the cookie is valid, or null if the cookie
-	 * is missing/invalid/expired and the bypass should not be granted.  The expiry is preserved so the rotated cookie
-	 * keeps the same lifetime instead of resetting on every bypass.
+	 * is missing/invalid/expired/already consumed and the bypass should not be granted.  The expiry is preserved so
+	 * the rotated cookie keeps the same lifetime instead of resetting on every bypass.  Null is also returned if the
+	 * stored tokens cannot be read, in which case the cookie is left in place so that it can be used once they can.
+	 * @see #validateSignedRememberMeBypass(AuthenticationSession, User, Cookie)
 	 */
 	protected Long validateRememberMeBypass(AuthenticationSession session, User user, WebAuthenticationScheme secondaryScheme) {
 		if (!rememberMeEnabled || user == null || secondaryScheme == null) {
@@ -405,71 +495,167 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 		if (cookie == null) {
 			return null;
 		}
+		if (rememberMeSigner != null) {
+			return validateSignedRememberMeBypass(session, user, cookie);
+		}
 		SeriesAndToken parts = parseRememberMeCookieValue(cookie.getValue());
 		if (parts == null) {
 			expireRememberMeCookie(session);
 			return null;
 		}
-		String stored = readRememberMeToken(user, parts.seriesId);
-		if (stored == null) {
-			// Browser is sending a cookie whose server-side entry no longer exists - clear it
-			expireRememberMeCookie(session);
+		try {
+			RememberMeToken storedToken = getStoredRememberMeToken(user, parts.seriesId);
+			if (storedToken == null) {
+				// Browser is sending a cookie whose server-side entry no longer exists - clear it
+				expireRememberMeCookie(session);
+				return null;
+			}
+			if (storedToken.isExpired(System.currentTimeMillis())) {
+				deleteStoredRememberMeToken(parts.seriesId);
+				expireRememberMeCookie(session);
+				return null;
+			}
+			String submittedHash = sha256Hex(parts.rawToken);
+			if (!constantTimeEquals(submittedHash, storedToken.getTokenHash())) {
+				// Token mismatch on a known series id is suspicious - drop this series and the browser cookie
+				deleteStoredRememberMeToken(parts.seriesId);
+				expireRememberMeCookie(session);
+				return null;
+			}
+			// Consume the matched series and issue its replacement, which inherits the original expiry so periodic
+			// bypass logins do not effectively extend remember-me indefinitely.  If this fails, a concurrent request
+			// with the same cookie has already consumed it.
+			if (!issueRememberMeCookie(session, user, parts.seriesId, storedToken.getExpiryTime())) {
+				return null;
+			}
+			return storedToken.getExpiryTime();
+		}
+		catch (Exception e) {
+			log.warn("Unable to validate remember-me cookie for user " + user.getUsername(), e);
 			return null;
 		}
-		StoredRememberMeToken storedToken = StoredRememberMeToken.parse(stored);
-		if (storedToken == null) {
-			// Malformed entry, remove it and clear the browser cookie too
-			removeRememberMeToken(user, parts.seriesId);
+	}
+
+	/**
+	 * Checks whether the given cookie holds a signed remember-me token for the given user, when remember-me tokens
+	 * are signed rather than stored.  The signature is verified and the token is checked against the in-memory
+	 * RememberMeDenylist, so no database access is needed.  The token is not consumed, as it is not stored, so the
+	 * cookie is only replaced if it was signed with a previous key, by a cookie with the same token signed with the
+	 * current key.
+	 * @param session the current authentication session
+	 * @param user the authenticated user
+	 * @param cookie the remember-me cookie sent with the current request
+	 * @return the expiry (epoch millis) of the token if the cookie is valid, or null if the cookie is invalid, expired,
+	 * or revoked.  Null is also returned if the denylist is not running, as revoked tokens could not be rejected.
+	 */
+	protected Long validateSignedRememberMeBypass(AuthenticationSession session, User user, Cookie cookie) {
+		long now = System.currentTimeMillis();
+		SignedRememberMeToken token = rememberMeSigner.verify(cookie.getValue(), now);
+		if (token == null || !token.getUserId().equals(user.getUserId()) || !token.getSchemeId().equals(getSchemeId())) {
 			expireRememberMeCookie(session);
 			return null;
 		}
-		if (storedToken.expiryEpochMillis <= System.currentTimeMillis()) {
-			removeRememberMeToken(user, parts.seriesId);
-			expireRememberMeCookie(session);
+		RememberMeDenylist denylist = RememberMeDenylist.getInstance();
+		if (denylist == null) {
+			log.warn("Remember-me revocations have not been loaded, unable to validate remember-me cookie for user "
+					+ user.getUsername());
 			return null;
 		}
-		String submittedHash = sha256Hex(parts.rawToken);
-		if (!constantTimeEquals(submittedHash, storedToken.tokenHash)) {
-			// Token mismatch on a known series id is suspicious - drop this series and the browser cookie
-			removeRememberMeToken(user, parts.seriesId);
+		if (denylist.isRevoked(token, now)) {
 			expireRememberMeCookie(session);
 			return null;
 		}
-		// Consume the matched series; afterAuthenticationSuccess will issue a rotated replacement that inherits
-		// the original expiry so periodic bypass logins do not effectively extend remember-me indefinitely.
-		removeRememberMeToken(user, parts.seriesId);
-		return storedToken.expiryEpochMillis;
+		if (!rememberMeSigner.isCurrentKey(token.getKeyId())) {
+			writeSignedRememberMeCookie(session, token, now);
+		}
+		return token.getExpiryTime();
 	}
 
 	/**
-	 * Issues a fresh remember-me cookie for the given user.  Any cookie sent with the current request is also
-	 * cleaned up (its server-side entry is removed) so that exactly one active series per browser is maintained.
+	 * Issues a fresh remember-me cookie for the given user.  If a cookie for the same user was sent with the current
+	 * request, its server-side entry is replaced, so that exactly one active series per browser is maintained.
 	 * @param session the current authentication session
 	 * @param user the authenticated user
 	 * @param preservedExpiry if non-null, the new token will inherit this expiry (epoch millis) instead of
-	 * starting a fresh {@code rememberMeDurationMinutes} window. Used during cookie rotation after a bypass so the
-	 * lifetime is anchored to the user's last successful secondary-factor authentication, not to the most recent
-	 * bypass login.
+	 * starting a fresh {@code rememberMeDurationMinutes} window, so that the lifetime can be anchored to the user's
+	 * last successful secondary-factor authentication.  No cookie is issued if the token cannot be stored.
 	 */
 	protected void rotateAndIssueRememberMeCookie(AuthenticationSession session, User user, Long preservedExpiry) {
-		// Drop any pre-existing token entry for the cookie this request arrived with
-		Cookie existing = readRememberMeCookie(session);
-		if (existing != null) {
-			SeriesAndToken parts = parseRememberMeCookieValue(existing.getValue());
-			if (parts != null) {
-				removeRememberMeToken(user, parts.seriesId);
+		try {
+			long now = System.currentTimeMillis();
+			long expiry = (preservedExpiry != null && preservedExpiry > now)
+					? preservedExpiry
+					: now + (rememberMeDurationMinutes * 60_000L);
+			if (rememberMeSigner != null) {
+				issueSignedRememberMeCookie(session, user, now, expiry);
+				return;
+			}
+			// Replace any pre-existing token entry for the cookie this request arrived with
+			Cookie existing = readRememberMeCookie(session);
+			SeriesAndToken parts = existing == null ? null : parseRememberMeCookieValue(existing.getValue());
+			if (parts == null || !issueRememberMeCookie(session, user, parts.seriesId, expiry)) {
+				issueRememberMeCookie(session, user, null, expiry);
 			}
 		}
+		catch (Exception e) {
+			log.warn("Unable to issue remember-me cookie for user " + user.getUsername(), e);
+		}
+	}
+
+	/**
+	 * Stores a new remember-me token for the given user, and sends it to the browser in a remember-me cookie
+	 * @param session the current authentication session
+	 * @param user the authenticated user
+	 * @param previousSeriesId if non-null, the series that the new token replaces, which is deleted in the same
+	 * transaction as the new token is stored.  Nothing is stored or sent if this series is not stored for the user.
+	 * @param expiry the expiry of the new token (epoch millis)
+	 * @return true if the new token was stored and sent, false if the previous series is not stored for the user
+	 */
+	protected boolean issueRememberMeCookie(AuthenticationSession session, User user, String previousSeriesId,
+	                                        long expiry) {
 		long now = System.currentTimeMillis();
-		long expiry = (preservedExpiry != null && preservedExpiry > now)
-				? preservedExpiry
-				: now + (rememberMeDurationMinutes * 60_000L);
-		int maxAgeSeconds = (int) Math.max(0L, (expiry - now) / 1000L);
 		String seriesId = generateRandomToken();
 		String rawToken = generateRandomToken();
-		String stored = sha256Hex(rawToken) + ":" + expiry;
-		writeRememberMeToken(user, seriesId, stored);
-		writeRememberMeCookie(session, seriesId + "." + rawToken, maxAgeSeconds);
+		RememberMeTokenService service = getRememberMeTokenService();
+		if (previousSeriesId == null) {
+			service.saveToken(new RememberMeToken(seriesId, getSchemeId(), user.getUserId(), sha256Hex(rawToken),
+					expiry, now, 0));
+		}
+		else if (!service.rotateToken(previousSeriesId, new RememberMeToken(seriesId, getSchemeId(), user.getUserId(),
+				sha256Hex(rawToken), expiry, now, now))) {
+			return false;
+		}
+		writeRememberMeCookie(session, seriesId + "." + rawToken, (int) Math.max(0L, (expiry - now) / 1000L));
+		return true;
+	}
+
+	/**
+	 * Sends a signed remember-me token for a new device to the browser.  If a valid signed token for the same user was
+	 * sent with the current request, its device is revoked, so that exactly one token per browser is valid.
+	 * @param session the current authentication session
+	 * @param user the authenticated user
+	 * @param now the current time (epoch millis), which is the issued time of the new token
+	 * @param expiry the expiry of the new token (epoch millis)
+	 * @throws RuntimeException if the device of the previous token could not be revoked, in which case no token is sent
+	 */
+	protected void issueSignedRememberMeCookie(AuthenticationSession session, User user, long now, long expiry) {
+		Cookie existing = readRememberMeCookie(session);
+		SignedRememberMeToken previous = existing == null ? null : rememberMeSigner.verify(existing.getValue(), now);
+		if (previous != null && previous.getUserId().equals(user.getUserId())
+				&& previous.getSchemeId().equals(getSchemeId())) {
+			getRememberMeDenylist().revokeDevice(getSchemeId(), previous.getDeviceId(), previous.getExpiryTime());
+		}
+		SignedRememberMeToken token = new SignedRememberMeToken(user.getUserId(), getSchemeId(),
+				TokenCrypto.randomToken(16), now, expiry, null);
+		writeSignedRememberMeCookie(session, token, now);
+	}
+
+	/**
+	 * Sends the given token to the browser, signed with the current key
+	 */
+	protected void writeSignedRememberMeCookie(AuthenticationSession session, SignedRememberMeToken token, long now) {
+		writeRememberMeCookie(session, rememberMeSigner.sign(token),
+				(int) Math.max(0L, (token.getExpiryTime() - now) / 1000L));
 	}
 
 	/**
@@ -564,97 +750,167 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 	}
 
 	/**
-	 * @return the stored remember-me entry value for the given user and series id, or null if not set
+	 * @return the service that stores remember-me tokens
+	 */
+	protected RememberMeTokenService getRememberMeTokenService() {
+		return Context.getService(RememberMeTokenService.class);
+	}
+
+	/**
+	 * @return the denylist of revoked signed remember-me tokens
+	 * @throws IllegalStateException if the denylist has not been started
+	 */
+	protected RememberMeDenylist getRememberMeDenylist() {
+		RememberMeDenylist denylist = RememberMeDenylist.getInstance();
+		if (denylist == null) {
+			throw new IllegalStateException("Remember-me revocations have not been loaded");
+		}
+		return denylist;
+	}
+
+	/**
+	 * @return the stored remember-me token with the given series id, or null if there is none, or if it was not
+	 * issued to the given user by this scheme
+	 */
+	protected RememberMeToken getStoredRememberMeToken(User user, String seriesId) {
+		RememberMeToken token = getRememberMeTokenService().getToken(seriesId);
+		if (token == null || !token.getUserId().equals(user.getUserId()) || !token.getSchemeId().equals(getSchemeId())) {
+			return null;
+		}
+		return token;
+	}
+
+	/**
+	 * Removes the remember-me token with the given series id
 	 */
+	protected void deleteStoredRememberMeToken(String seriesId) {
+		getRememberMeTokenService().deleteToken(seriesId);
+	}
+
+	/**
+	 * @return the stored remember-me entry value for the given user and series id, formatted as
+	 * `tokenHash:expiryEpochMillis`, or null if not set
+	 * @deprecated use {@link #getStoredRememberMeToken(User, String)}, this will be removed in a future release
+	 */
+	@Deprecated
 	protected String readRememberMeToken(User user, String seriesId) {
-		return user.getUserProperty(getRememberMeUserPropertyName(seriesId));
+		RememberMeToken token = getStoredRememberMeToken(user, seriesId);
+		return token == null ? null : token.getTokenHash() + ":" + token.getExpiryTime();
 	}
 
 	/**
-	 * Persists the remember-me entry value for the given user and series id.
-	 * This is run in a Daemon thread so it can be invoked during the unauthenticated phase of the login workflow.
+	 * Persists the remember-me entry value for the given user and series id, formatted as
+	 * `tokenHash:expiryEpochMillis`, as a new token issued now
+	 * @throws IllegalArgumentException if the value is not formatted as `tokenHash:expiryEpochMillis`
+	 * @deprecated use {@link RememberMeTokenService#saveToken(RememberMeToken)}, this will be removed in a future release
 	 */
+	@Deprecated
 	protected void writeRememberMeToken(User user, String seriesId, String value) {
-		String propertyName = getRememberMeUserPropertyName(seriesId);
-		Daemon.runInDaemonThreadAndWait(() -> {
-            User userToUpdate = Context.getUserService().getUser(user.getUserId());
-            Context.getUserService().setUserProperty(userToUpdate, propertyName, value);
-        }, daemonToken);
+		StoredRememberMeToken stored = StoredRememberMeToken.parse(value);
+		if (stored == null) {
+			throw new IllegalArgumentException("Invalid remember-me token for series " + seriesId);
+		}
+		getRememberMeTokenService().saveToken(new RememberMeToken(seriesId, getSchemeId(), user.getUserId(),
+				stored.tokenHash, stored.expiryEpochMillis, System.currentTimeMillis(), 0));
 	}
 
 	/**
-	 * Removes the remember-me entry for the given user and series id.
-	 * This is run in a Daemon thread so it can be invoked during the unauthenticated phase of the login workflow.
+	 * Removes the remember-me entry for the given user and series id
+	 * @deprecated use {@link #deleteStoredRememberMeToken(String)}, this will be removed in a future release
 	 */
+	@Deprecated
 	protected void removeRememberMeToken(User user, String seriesId) {
-		String propertyName = getRememberMeUserPropertyName(seriesId);
-		Daemon.runInDaemonThreadAndWait(() -> {
-			User userToUpdate = Context.getUserService().getUser(user.getUserId());
-			Context.getUserService().removeUserProperty(userToUpdate, propertyName);
-		}, daemonToken);
+		if (getStoredRememberMeToken(user, seriesId) != null) {
+			deleteStoredRememberMeToken(seriesId);
+		}
 	}
 
 	/**
-	 * Removes all remember-me entries for the given user, including any expired or unrelated series.  Useful for
-	 * "log out of all devices" workflows.
+	 * Removes all remember-me entries issued to the given user by this scheme, including any expired series, in a
+	 * single statement.  Useful for "log out of all devices" workflows.  If remember-me tokens are signed, all tokens
+	 * issued to the user until now are revoked instead.
 	 * @param user the user to clear tokens for
 	 */
 	public void clearAllRememberMeTokens(User user) {
 		if (user == null) {
 			return;
 		}
-		String prefix = getRememberMeUserPropertyPrefix();
-		List<String> toRemove = new ArrayList<>();
-		Map<String, String> userProperties = user.getUserProperties();
-		if (userProperties != null) {
-			for (String key : userProperties.keySet()) {
-				if (key != null && key.startsWith(prefix)) {
-					toRemove.add(key.substring(prefix.length()));
-				}
-			}
+		if (rememberMeSigner != null) {
+			long now = System.currentTimeMillis();
+			getRememberMeDenylist().revokeUser(getSchemeId(), user.getUserId(), now,
+					now + rememberMeDurationMinutes * 60_000L);
+			return;
 		}
-		for (String seriesId : toRemove) {
-			removeRememberMeToken(user, seriesId);
+		getRememberMeTokenService().deleteTokensForUser(user.getUserId(), getSchemeId());
+	}
+
+	/**
+	 * Removes the remember-me entries issued by this scheme to all users before the given date, so that every browser
+	 * remembered before then must authenticate with the secondary factor again.  Useful after a change to the
+	 * credential policy.  Users are processed in batches of REMEMBER_ME_REVOCATION_BATCH_SIZE, each in its own
+	 * transaction, so that no single transaction locks the whole table.  If a batch fails, earlier batches remain
+	 * removed.  If remember-me tokens are signed, all tokens issued before the given date are revoked instead, with a
+	 * single revocation.
+	 * @param date entries issued before this date are removed
+	 * @return the number of entries removed, which is 0 if remember-me tokens are signed, as they are not stored
+	 */
+	public int revokeRememberMeTokensIssuedBefore(Date date) {
+		if (rememberMeSigner != null) {
+			getRememberMeDenylist().revokeAll(getSchemeId(), date.getTime(),
+					Math.max(date.getTime(), System.currentTimeMillis()) + rememberMeDurationMinutes * 60_000L);
+			return 0;
 		}
+		RememberMeTokenService service = getRememberMeTokenService();
+		int deleted = 0;
+		int batch;
+		do {
+			batch = service.deleteTokensCreatedBefore(getSchemeId(), date.getTime(), REMEMBER_ME_REVOCATION_BATCH_SIZE);
+			deleted += batch;
+		}
+		while (batch > 0);
+		log.info("Removed " + deleted + " remember-me tokens issued before " + date);
+		return deleted;
 	}
 
 	/**
-	 * @return a URL-safe base64 encoding of 32 random bytes from a SecureRandom source
+	 * @return a URL-safe base64 encoding of 32 random bytes from the shared SecureRandom
 	 */
 	protected String generateRandomToken() {
-		byte[] bytes = new byte[32];
-		new SecureRandom().nextBytes(bytes);
-		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		return TokenCrypto.randomToken(32);
 	}
 
 	/**
 	 * @return the SHA-256 hex digest of the given input
 	 */
 	protected static String sha256Hex(String input) {
-		try {
-			MessageDigest digest = MessageDigest.getInstance("SHA-256");
-			byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-			StringBuilder sb = new StringBuilder(hash.length * 2);
-			for (byte b : hash) {
-				sb.append(String.format("%02x", b));
-			}
-			return sb.toString();
-		}
-		catch (NoSuchAlgorithmException e) {
-			throw new IllegalStateException("SHA-256 not available", e);
-		}
+		return TokenCrypto.sha256Hex(input);
 	}
 
 	/**
 	 * Constant-time string comparison to avoid timing-based attacks against the stored hash
 	 */
 	protected static boolean constantTimeEquals(String a, String b) {
-		if (a == null || b == null) {
-			return false;
+		return TokenCrypto.constantTimeEquals(a, b);
+	}
+
+	/**
+	 * The second factor scheme resolved for a user, and what it was resolved from
+	 */
+	protected static class ResolvedSecondaryScheme {
+		final Integer userId;
+		final String secondaryType;
+		final long configVersion;
+		final WebAuthenticationScheme scheme;
+		ResolvedSecondaryScheme(User user, String secondaryType, long configVersion, WebAuthenticationScheme scheme) {
+			this.userId = user.getUserId();
+			this.secondaryType = secondaryType;
+			this.configVersion = configVersion;
+			this.scheme = scheme;
+		}
+		boolean isResolvedFor(User user, String secondaryType, long configVersion) {
+			return userId != null && userId.equals(user.getUserId()) && this.configVersion == configVersion
+					&& Objects.equals(this.secondaryType, secondaryType);
 		}
-		byte[] ab = a.getBytes(StandardCharsets.UTF_8);
-		byte[] bb = b.getBytes(StandardCharsets.UTF_8);
-		return MessageDigest.isEqual(ab, bb);
 	}
 
 	/**
@@ -671,7 +927,9 @@ public class TwoFactorAuthenticationScheme extends WebAuthenticationScheme {
 
 	/**
 	 * Holder for the parsed pieces of a stored remember-me token entry (`tokenHash:expiryEpochMillis`).
+	 * @deprecated remember-me tokens are now stored as RememberMeToken, this will be removed in a future release
 	 */
+	@Deprecated
 	protected static class StoredRememberMeToken {
 		final String tokenHash;
 		final long expiryEpochMillis;
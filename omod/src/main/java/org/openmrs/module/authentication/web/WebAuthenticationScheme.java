@@ -15,6 +15,9 @@ import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.Credentials;
 import org.openmrs.api.context.DaoAuthenticationScheme;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationMetrics;
+import org.openmrs.module.authentication.AuthenticationProfile;
+import org.openmrs.module.authentication.AuthenticationProfileCache;
 import org.openmrs.module.authentication.ConfigurableAuthenticationScheme;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
@@ -66,6 +69,16 @@ public abstract class WebAuthenticationScheme extends DaoAuthenticationScheme im
      */
     public abstract boolean isUserConfigurationRequired(User user);
 
+    /**
+     * Schemes should read the authentication data of a user from this profile, rather than from the User, so that it
+     * is loaded once and shared by all the schemes involved in a login attempt
+     * @param user the user
+     * @return the AuthenticationProfile of the given user
+     */
+    protected AuthenticationProfile getAuthenticationProfile(User user) {
+        return AuthenticationProfileCache.getProfile(user);
+    }
+
     /**
      * @return the page that can be used to configure this AuthenticationScheme for a particular user
      */
@@ -75,6 +88,7 @@ public abstract class WebAuthenticationScheme extends DaoAuthenticationScheme im
 
     /**
      * Implementation of authenticate method that notifies UserLogin of successful or failed attempts
+     * The duration and outcome of each attempt is recorded in AuthenticationMetrics
      * This method is not intended to be re-implemented
      * Subclasses should instead implement authenticate(AuthenticationCredentials, UserLogin)
      */
@@ -88,6 +102,7 @@ public abstract class WebAuthenticationScheme extends DaoAuthenticationScheme im
         UserLogin userLogin = UserLoginTracker.getLoginOnThread();
         Authenticated authenticated;
         boolean addedToThread = false;
+        long start = System.nanoTime();
         try {
             if (userLogin == null) {
                 userLogin = new UserLogin();
@@ -96,8 +111,14 @@ public abstract class WebAuthenticationScheme extends DaoAuthenticationScheme im
             }
             authenticated = authenticate(authenticationCredentials, userLogin);
             userLogin.authenticationSuccessful(schemeId, authenticated);
+            AuthenticationMetrics.recordDuration(AuthenticationMetrics.SCHEME_DURATION, System.nanoTime() - start,
+                    AuthenticationMetrics.LABEL_SCHEME, schemeId,
+                    AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_SUCCESS);
         }
         catch (Exception e) {
+            AuthenticationMetrics.recordDuration(AuthenticationMetrics.SCHEME_DURATION, System.nanoTime() - start,
+                    AuthenticationMetrics.LABEL_SCHEME, schemeId,
+                    AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_FAILURE);
             userLogin.authenticationFailed(schemeId);
             throw new ContextAuthenticationException(e.getMessage(), e);
         }
@@ -1,5 +1,6 @@
 package org.openmrs.module.authentication.web;
 
+import org.openmrs.module.authentication.UrlPatternMatcher;
 import org.springframework.util.AntPathMatcher;
 
 import javax.servlet.http.HttpServletRequest;
@@ -30,6 +31,17 @@ public class WebUtil {
         return false;
     }
 
+    /**
+     * Checks if the request is for a URL that matches at least one of the patterns compiled into the given matcher.
+     *
+     * @param request the HttpServletRequest to check
+     * @param patternMatcher the compiled URL patterns to check against
+     * @return true if the request is for a URL that matches at least one of the given patterns
+     */
+    public static boolean urlMatchesAnyPattern(HttpServletRequest request, UrlPatternMatcher patternMatcher) {
+        return patternMatcher.matches(request.getServletPath(), request.getRequestURI(), request.getContextPath());
+    }
+
     /**
      * Checks the request servlet path and requestURI against the given pattern.
      * 
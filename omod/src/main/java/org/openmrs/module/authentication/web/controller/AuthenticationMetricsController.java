@@ -0,0 +1,43 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ * <p>
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ * <p>
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.authentication.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.authentication.AuthenticationMetrics;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * REST Controller that exposes authentication metrics in the Prometheus text exposition format.
+ */
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/auth/metrics")
+public class AuthenticationMetricsController extends BaseRestController {
+	
+	@RequestMapping(method = RequestMethod.GET)
+	public void getMetrics(HttpServletResponse response) throws IOException {
+		Context.requirePrivilege(PrivilegeConstants.VIEW_ADMIN_FUNCTIONS);
+		response.setContentType(AuthenticationMetrics.CONTENT_TYPE);
+		AuthenticationMetrics.writePrometheus(response.getWriter());
+		response.getWriter().flush();
+	}
+}
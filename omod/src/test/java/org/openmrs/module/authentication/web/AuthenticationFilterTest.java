@@ -17,6 +17,7 @@ import org.openmrs.api.context.AuthenticationScheme;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.UsernamePasswordAuthenticationScheme;
 import org.openmrs.module.authentication.AuthenticationConfig;
+import org.openmrs.module.authentication.AuthenticationMetrics;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
 import org.openmrs.module.authentication.web.mocks.MockAuthenticationFilter;
@@ -283,6 +284,139 @@ public class AuthenticationFilterTest extends BaseWebAuthenticationTest {
 		assertThat(response.getStatus(), equalTo(HttpServletResponse.SC_UNAUTHORIZED));
 	}
 
+	@Test
+	public void shouldCreateSessionForWhiteListedRequestByDefault() throws Exception {
+		setupTestThatInvokesAuthenticationCheck();
+		MockHttpServletRequest staticRequest = newGetRequest("/scripts/app.js", "10.0.0.1");
+		new AuthenticationFilter().doFilter(staticRequest, newResponse(), new MockFilterChain());
+		assertThat(staticRequest.getSession(false), notNullValue());
+	}
+
+	@Test
+	public void shouldNotCreateSessionForWhiteListedRequestIfLazySessionCreationEnabled() throws Exception {
+		setupTestThatInvokesAuthenticationCheck();
+		AuthenticationConfig.setProperty(AuthenticationConfig.LAZY_SESSION_CREATION, "true");
+		MockHttpServletRequest staticRequest = newGetRequest("/scripts/app.js", "10.0.0.1");
+		MockHttpServletResponse staticResponse = newResponse();
+		MockFilterChain staticChain = new MockFilterChain();
+		new AuthenticationFilter().doFilter(staticRequest, staticResponse, staticChain);
+		assertThat(staticRequest.getSession(false), nullValue());
+		assertThat(staticChain.getRequest(), notNullValue());
+		assertThat(staticResponse.isCommitted(), equalTo(false));
+	}
+
+	@Test
+	public void shouldCreateSessionIfLazySessionCreationEnabledAndAuthenticationIsNeeded() throws Exception {
+		setupTestThatInvokesAuthenticationCheck();
+		AuthenticationConfig.setProperty(AuthenticationConfig.LAZY_SESSION_CREATION, "true");
+		AuthenticationFilter lazyFilter = new AuthenticationFilter();
+
+		MockHttpServletRequest protectedRequest = newGetRequest("/patientDashboard.htm", "10.0.0.1");
+		MockHttpServletResponse protectedResponse = newResponse();
+		lazyFilter.doFilter(protectedRequest, protectedResponse, new MockFilterChain());
+		assertThat(protectedRequest.getSession(false), notNullValue());
+		assertThat(protectedResponse.getRedirectedUrl(), equalTo("/login.htm"));
+
+		MockHttpServletRequest postRequest = newPostRequest("10.0.0.1", "/login.htm");
+		lazyFilter.doFilter(postRequest, newResponse(), new MockFilterChain());
+		assertThat(postRequest.getSession(false), notNullValue());
+
+		MockHttpServletRequest authorizationRequest = newGetRequest("/login.htm", "10.0.0.1");
+		authorizationRequest.addHeader("Authorization", "Basic YWRtaW46dGVzdA==");
+		lazyFilter.doFilter(authorizationRequest, newResponse(), new MockFilterChain());
+		assertThat(authorizationRequest.getSession(false), notNullValue());
+
+		MockHttpServletRequest sessionEndpointRequest = newGetRequest("/ws/rest/v1/session", "10.0.0.1");
+		lazyFilter.doFilter(sessionEndpointRequest, newResponse(), new MockFilterChain());
+		assertThat(sessionEndpointRequest.getSession(false), notNullValue());
+
+		MockHttpServletRequest existingSessionRequest = newGetRequest("/scripts/app.js", "10.0.0.1");
+		existingSessionRequest.setSession(newSession());
+		lazyFilter.doFilter(existingSessionRequest, newResponse(), new MockFilterChain());
+		assertThat(getUserLogin(existingSessionRequest.getSession(false)), notNullValue());
+	}
+
+	@Test
+	public void shouldCreateFewerSessionsForAnonymousTrafficIfLazySessionCreationEnabled() throws Exception {
+		setupTestThatInvokesAuthenticationCheck();
+		String[] anonymousTraffic = {
+				"/scripts/app.js", "/styles/main.css", "/images/logo.png", "/favicon.ico", "/login.htm",
+				"/patientDashboard.htm"
+		};
+		int iterations = 200;
+		int eagerSessions = countSessionsCreated(new AuthenticationFilter(), anonymousTraffic, iterations);
+		AuthenticationConfig.setProperty(AuthenticationConfig.LAZY_SESSION_CREATION, "true");
+		int lazySessions = countSessionsCreated(new AuthenticationFilter(), anonymousTraffic, iterations);
+		assertThat(eagerSessions, equalTo(anonymousTraffic.length * iterations));
+		assertThat(lazySessions, equalTo(iterations));
+	}
+
+	@Test
+	public void shouldStoreRequestContextForDownstreamFilters() throws Exception {
+		setupTestThatInvokesAuthenticationCheck();
+		authenticationSession.setAuthenticatedUser(user);
+		filter.doFilter(request, response, chain);
+		AuthenticationRequestContext requestContext = AuthenticationRequestContext.get(request);
+		assertThat(requestContext, notNullValue());
+		assertThat(requestContext.isUserAuthenticated(), equalTo(true));
+		assertThat(requestContext.getAuthenticationSession(), equalTo(authenticationSession));
+		assertThat(requestContext.getUserLogin(), equalTo(userLogin));
+		assertThat(requestContext.isWhiteListed(), equalTo(false));
+	}
+
+	@Test
+	public void shouldReuseRequestContextInForcePasswordChangeFilter() throws Exception {
+		setupTestThatInvokesAuthenticationCheck();
+		userLogin.setUser(user);
+		AuthenticationRequestContext requestContext = AuthenticationRequestContext.getOrCreate(request);
+		requestContext.setAuthenticationSession(authenticationSession);
+		ForcePasswordChangeFilter passwordChangeFilter = new ForcePasswordChangeFilter();
+		assertThat(passwordChangeFilter.getAuthenticatedUser(request, response), nullValue());
+		requestContext.setUserAuthenticated(true);
+		assertThat(passwordChangeFilter.getAuthenticatedUser(request, response), equalTo(user));
+	}
+
+	@Test
+	public void shouldRecordMetricsForAuthenticationAttemptsAndChallenges() throws Exception {
+		AuthenticationMetrics.reset();
+		setupTestThatInvokesAuthenticationCheck();
+		request.addParameter("username", "admin");
+		request.addParameter("password", "test");
+		filter.doFilter(request, response, chain);
+		assertThat(AuthenticationMetrics.getCount(AuthenticationMetrics.FILTER_CHALLENGES,
+				AuthenticationMetrics.LABEL_RESPONSE, AuthenticationMetrics.RESPONSE_REDIRECT), equalTo(1L));
+		assertThat(AuthenticationMetrics.getHistogram(AuthenticationMetrics.SESSION_AUTHENTICATION_DURATION,
+				AuthenticationMetrics.LABEL_SCHEME, "basic",
+				AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_FAILURE).getCount(), equalTo(1L));
+
+		request.removeAllParameters();
+		request.addParameter("username", "admin");
+		request.addParameter("password", "adminPassword");
+		filter.doFilter(request, newResponse(), chain);
+		assertThat(AuthenticationMetrics.getHistogram(AuthenticationMetrics.SESSION_AUTHENTICATION_DURATION,
+				AuthenticationMetrics.LABEL_SCHEME, "basic",
+				AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_SUCCESS).getCount(), equalTo(1L));
+		assertThat(AuthenticationMetrics.getHistogram(AuthenticationMetrics.SCHEME_DURATION,
+				AuthenticationMetrics.LABEL_SCHEME, "basic",
+				AuthenticationMetrics.LABEL_OUTCOME, AuthenticationMetrics.OUTCOME_SUCCESS).getCount(), equalTo(1L));
+		assertThat(AuthenticationMetrics.getHistogram(AuthenticationMetrics.SESSION_REGENERATION_DURATION).getCount(), equalTo(1L));
+		AuthenticationMetrics.reset();
+	}
+
+	private int countSessionsCreated(AuthenticationFilter filter, String[] uris, int iterations) throws Exception {
+		int sessionsCreated = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (String uri : uris) {
+				MockHttpServletRequest anonymousRequest = newGetRequest(uri, "10.0.0.1");
+				filter.doFilter(anonymousRequest, newResponse(), new MockFilterChain());
+				if (anonymousRequest.getSession(false) != null) {
+					sessionsCreated++;
+				}
+			}
+		}
+		return sessionsCreated;
+	}
+
 	@AfterEach
 	@Override
 	public void teardown() {
@@ -14,6 +14,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.Logger;
 import org.junit.jupiter.api.Test;
 import org.openmrs.module.authentication.UserLogin;
+import org.openmrs.module.authentication.UserLoginTracker;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpSession;
 
@@ -157,4 +158,21 @@ public class AuthenticationSessionTest extends BaseWebAuthenticationTest {
 		assertThat(login2.getLoginId(), equalTo(loginId));
 		assertThat(login2.getHttpSessionId(), not(httpSessionId));
 	}
+
+	@Test
+	public void shouldReindexActiveLoginWhenSessionIsRegenerated() {
+		AuthenticationSession session = new AuthenticationSession(new MockHttpServletRequest(), newResponse());
+		UserLogin userLogin = session.getUserLogin();
+		String httpSessionId = userLogin.getHttpSessionId();
+		UserLoginTracker.addActiveLogin(userLogin);
+		try {
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession(httpSessionId).contains(userLogin), is(true));
+			session.regenerateHttpSession();
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession(httpSessionId).isEmpty(), is(true));
+			assertThat(UserLoginTracker.getActiveLoginsForHttpSession(userLogin.getHttpSessionId()).contains(userLogin), is(true));
+		}
+		finally {
+			UserLoginTracker.removeActiveLogin(userLogin);
+		}
+	}
 }
\ No newline at end of file
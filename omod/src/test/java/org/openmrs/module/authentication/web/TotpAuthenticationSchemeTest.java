@@ -321,6 +321,18 @@ public class TotpAuthenticationSchemeTest extends BaseWebAuthenticationTest {
 		}
 	}
 	
+	@Test
+	public void shouldConfigureVerifierWithSecretCache() {
+		assertThat(authenticationScheme.getVerifier().getAlgorithm(), equalTo("HmacSHA1"));
+		assertThat(authenticationScheme.getVerifier().getTtl(), equalTo(TimeUnit.SECONDS.toMillis(60)));
+		AuthenticationConfig.setProperty("authentication.scheme.totp.config.hashingAlgorithm", "SHA256");
+		AuthenticationConfig.setProperty("authentication.scheme.totp.config.secretCacheTtl", "0");
+		setRuntimeProperties(AuthenticationConfig.getConfig());
+		TotpAuthenticationScheme scheme = (TotpAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme();
+		assertThat(scheme.getVerifier().getAlgorithm(), equalTo("HmacSHA256"));
+		assertThat(scheme.getVerifier().getTtl(), equalTo(0L));
+	}
+
 	@Test
 	public void shouldAcceptVerificationCodeContainingSpaces() {
 		boolean isValid = authenticationScheme.verifyCode("123456", " 123 456 ");
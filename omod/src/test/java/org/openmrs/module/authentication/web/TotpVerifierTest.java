@@ -0,0 +1,129 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.authentication.web;
+
+import org.apache.commons.codec.binary.Base32;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TotpVerifierTest {
+
+	static final byte[] SHA1_KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] SHA256_KEY = "12345678901234567890123456789012".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] SHA512_KEY = ("1234567890123456789012345678901234567890123456789012345678901234")
+			.getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void shouldVerifyRfc6238TestVectors() {
+		TotpVerifier sha1 = new TotpVerifier("HmacSHA1", 8, 30, 0, 10, 0);
+		assertThat(sha1.verifyCode(SHA1_KEY, "94287082", 59), equalTo(true));
+		assertThat(sha1.verifyCode(SHA1_KEY, "07081804", 1111111109), equalTo(true));
+		assertThat(sha1.verifyCode(SHA1_KEY, "14050471", 1111111111), equalTo(true));
+		assertThat(sha1.verifyCode(SHA1_KEY, "89005924", 1234567890), equalTo(true));
+		assertThat(sha1.verifyCode(SHA1_KEY, "69279037", 2000000000), equalTo(true));
+		assertThat(sha1.verifyCode(SHA1_KEY, "65353130", 20000000000L), equalTo(true));
+		assertThat(sha1.verifyCode(SHA1_KEY, "94287082", 60), equalTo(false));
+
+		TotpVerifier sha256 = new TotpVerifier("HmacSHA256", 8, 30, 0, 10, 0);
+		assertThat(sha256.verifyCode(SHA256_KEY, "46119246", 59), equalTo(true));
+		assertThat(sha256.verifyCode(SHA256_KEY, "91819424", 1234567890), equalTo(true));
+
+		TotpVerifier sha512 = new TotpVerifier("HmacSHA512", 8, 30, 0, 10, 0);
+		assertThat(sha512.verifyCode(SHA512_KEY, "90693936", 59), equalTo(true));
+		assertThat(sha512.verifyCode(SHA512_KEY, "93441116", 1234567890), equalTo(true));
+	}
+
+	@Test
+	public void shouldAcceptCodesWithinTheAllowedDiscrepancy() {
+		TotpVerifier verifier = new TotpVerifier("HmacSHA1", 6, 30, 2, 10, 0);
+		// 287082 is the 6 digit code for the period that contains second 59
+		assertThat(verifier.verifyCode(SHA1_KEY, "287082", 59), equalTo(true));
+		assertThat(verifier.verifyCode(SHA1_KEY, "287082", 59 + 60), equalTo(true));
+		assertThat(verifier.verifyCode(SHA1_KEY, "287082", 59 + 90), equalTo(false));
+		assertThat(verifier.verifyCode(SHA1_KEY, " 287 082 ", 59), equalTo(true));
+		assertThat(verifier.verifyCode(SHA1_KEY, "28708", 59), equalTo(false));
+		assertThat(verifier.verifyCode(SHA1_KEY, null, 59), equalTo(false));
+		assertThat(verifier.verifyCode(new byte[0], "287082", 59), equalTo(false));
+	}
+
+	@Test
+	public void shouldCacheDecodedKeysUntilTheStoredSecretChanges() {
+		List<String> decrypted = new ArrayList<>();
+		TotpVerifier verifier = new TotpVerifier("HmacSHA1", 6, 30, 0, 2, 60000) {
+			@Override
+			protected String decryptSecret(String storedSecret) {
+				decrypted.add(storedSecret);
+				return storedSecret.substring("encrypted:".length());
+			}
+		};
+		String secret = new Base32().encodeAsString(SHA1_KEY);
+		String otherSecret = new Base32().encodeAsString(SHA256_KEY);
+
+		byte[] key = verifier.getKey(1, "encrypted:" + secret);
+		assertThat(key, equalTo(SHA1_KEY));
+		key[0] = 0;
+		assertThat(verifier.getKey(1, "encrypted:" + secret), equalTo(SHA1_KEY));
+		assertThat(decrypted.size(), equalTo(1));
+
+		assertThat(verifier.getKey(1, "encrypted:" + otherSecret), equalTo(SHA256_KEY));
+		assertThat(decrypted.size(), equalTo(2));
+		assertThat(verifier.size(), equalTo(1));
+
+		verifier.invalidate(1);
+		assertThat(verifier.size(), equalTo(0));
+		verifier.getKey(1, "encrypted:" + otherSecret);
+		assertThat(decrypted.size(), equalTo(3));
+
+		verifier.getKey(2, "encrypted:" + secret);
+		verifier.getKey(3, "encrypted:" + secret);
+		assertThat(verifier.size(), equalTo(2));
+		verifier.getKey(1, "encrypted:" + otherSecret);
+		assertThat(decrypted.size(), equalTo(6));
+
+		verifier.getKey(null, "encrypted:" + secret);
+		assertThat(decrypted.size(), equalTo(7));
+		verifier.clear();
+		assertThat(verifier.size(), equalTo(0));
+	}
+
+	@Test
+	public void shouldNotCacheKeysIfTtlIsZero() {
+		List<String> decrypted = new ArrayList<>();
+		TotpVerifier verifier = new TotpVerifier("HmacSHA1", 6, 30, 0, 10, 0) {
+			@Override
+			protected String decryptSecret(String storedSecret) {
+				decrypted.add(storedSecret);
+				return storedSecret;
+			}
+		};
+		String secret = new Base32().encodeAsString(SHA1_KEY);
+		verifier.getKey(1, secret);
+		verifier.getKey(1, secret);
+		assertThat(decrypted.size(), equalTo(2));
+		assertThat(verifier.size(), equalTo(0));
+		assertThat(verifier.verifyStoredCode(1, "", "287082"), equalTo(false));
+	}
+
+	@Test
+	public void shouldNotCreateVerifierWithInvalidConfiguration() {
+		assertThrows(IllegalArgumentException.class, () -> new TotpVerifier("HmacSHA1", 0, 30, 2, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TotpVerifier("HmacSHA1", 10, 30, 2, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TotpVerifier("HmacSHA1", 6, 0, 2, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TotpVerifier("HmacSHA1", 6, 30, -1, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TotpVerifier("HmacSHA1", 6, 30, 2, 0, 0));
+	}
+}
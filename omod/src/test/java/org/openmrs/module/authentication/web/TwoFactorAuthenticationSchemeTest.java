@@ -10,6 +10,8 @@ import org.openmrs.api.context.ContextAuthenticationException;
 import org.openmrs.api.context.UsernamePasswordCredentials;
 import org.openmrs.module.authentication.AuthenticationConfig;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.AuthenticationProfileCache;
+import org.openmrs.module.authentication.TestAuthenticationProfileCache;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
 import org.openmrs.module.authentication.web.mocks.MockAuthenticationSession;
@@ -18,6 +20,9 @@ import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
 
+import java.util.Arrays;
+import java.util.Properties;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
@@ -75,6 +80,7 @@ public class TwoFactorAuthenticationSchemeTest extends BaseWebAuthenticationTest
 	@Override
 	public void teardown() {
 		UserLoginTracker.removeLoginFromThread();
+		AuthenticationProfileCache.stop();
 		super.teardown();
 	}
 
@@ -257,6 +263,54 @@ public class TwoFactorAuthenticationSchemeTest extends BaseWebAuthenticationTest
 		assertThat(secondaryScheme.getSchemeId(), equalTo("secondary"));
 	}
 
+	@Test
+	public void shouldCacheSecondaryAuthenticationSchemeUntilItChanges() {
+		AuthenticationConfig.setProperty("authentication.scheme.other.type", MockBasicWebAuthenticationScheme.class.getName());
+		AuthenticationConfig.setProperty("authentication.scheme.other.config.loginPage", "/otherLogin");
+		authenticationScheme = (TwoFactorAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme();
+		primaryAuth("tester", "primaryPw");
+		User u = authenticationSession.getUserLogin().getUser();
+		WebAuthenticationScheme secondaryScheme = authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u);
+		assertThat(secondaryScheme.getSchemeId(), equalTo("secondary"));
+		assertThat(userLogin.getCachedValue(authenticationScheme.getLoginCacheKeyForSecondaryScheme()), notNullValue());
+		assertThat(authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u) == secondaryScheme, equalTo(true));
+
+		// Changing the user's configured schemes is detected
+		authenticationScheme.setSecondaryAuthenticationSchemeIdsForUser(u, Arrays.asList("other", "secondary"));
+		assertThat(authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u).getSchemeId(), equalTo("other"));
+
+		// Choosing a scheme for the session invalidates the cached scheme
+		authenticationScheme.setSecondaryAuthenticationSchemeForSession(authenticationSession, "secondary");
+		assertThat(authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u).getSchemeId(), equalTo("secondary"));
+
+		// Changing the configuration is detected
+		AuthenticationConfig.setProperty("authentication.scheme.secondary.config.loginPage", "/newSecondaryLogin");
+		WebAuthenticationScheme reconfigured = authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u);
+		assertThat(reconfigured.getSchemeId(), equalTo("secondary"));
+		assertThat(reconfigured == secondaryScheme, equalTo(false));
+		assertThat(reconfigured.getChallengeUrl(authenticationSession), equalTo("/newSecondaryLogin"));
+
+		// Changing the user clears the cache
+		userLogin.setUser(null);
+		assertThat(userLogin.getCachedValue(authenticationScheme.getLoginCacheKeyForSecondaryScheme()), nullValue());
+	}
+
+	@Test
+	public void shouldResolveSecondaryAuthenticationSchemeImmediatelyAfterEnrollment() {
+		primaryAuth("admin", "adminPassword");
+		User u = authenticationSession.getUserLogin().getUser();
+		TestAuthenticationProfileCache cache = new TestAuthenticationProfileCache();
+		cache.addUser(u.getUserId(), null);
+		AuthenticationProfileCache.start(new Properties(), cache);
+		assertThat(authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u), nullValue());
+
+		// The enrollment is not yet committed to the database, but is seen immediately
+		authenticationScheme.addSecondaryAuthenticationSchemeForUser(u, "secondary");
+		WebAuthenticationScheme secondaryScheme = authenticationScheme.getSecondaryAuthenticationScheme(authenticationSession, u);
+		assertThat(secondaryScheme.getSchemeId(), equalTo("secondary"));
+		assertThat(authenticationScheme.getSecondaryAuthenticationSchemeIdsForUser(u), containsInAnyOrder("secondary"));
+	}
+
 	protected void assertValidatedCredentials(String... schemeIds) {
 		assertThat(userLogin.getValidatedCredentials().size(), equalTo(schemeIds.length));
 		for (String credential : schemeIds) {
@@ -16,6 +16,11 @@ import org.openmrs.User;
 import org.openmrs.api.context.AuthenticationScheme;
 import org.openmrs.module.authentication.AuthenticationConfig;
 import org.openmrs.module.authentication.AuthenticationCredentials;
+import org.openmrs.module.authentication.RememberMeDenylist;
+import org.openmrs.module.authentication.RememberMeToken;
+import org.openmrs.module.authentication.RememberMeTokenService;
+import org.openmrs.module.authentication.TestRememberMeTokenDao;
+import org.openmrs.module.authentication.TokenCrypto;
 import org.openmrs.module.authentication.UserLogin;
 import org.openmrs.module.authentication.UserLoginTracker;
 import org.openmrs.module.authentication.web.mocks.MockAuthenticationSession;
@@ -26,11 +31,22 @@ import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
 
 import javax.servlet.http.Cookie;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Tests for the remember-me bypass behavior of {@link TwoFactorAuthenticationScheme}.
@@ -45,6 +61,7 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 	MockTwoFactorAuthenticationScheme authenticationScheme;
 	MockAuthenticationSession authenticationSession;
 	UserLogin userLogin;
+	RememberMeTokenService service;
 
 	@BeforeEach
 	@Override
@@ -76,6 +93,8 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		AuthenticationConfig.setProperty("authentication.scheme.secondary.config.users.tester.password", "secondaryPw");
 		AuthenticationConfig.setProperty("authentication.scheme.secondary.config.users.other.password", "otherSecondary");
 		setRuntimeProperties(AuthenticationConfig.getConfig());
+		service = TestRememberMeTokenDao.newService();
+		MockTwoFactorAuthenticationScheme.setRememberMeTokenService(service);
 		session = newSession();
 		AuthenticationScheme scheme = AuthenticationConfig.getAuthenticationScheme();
 		assertThat(scheme.getClass(), equalTo(MockTwoFactorAuthenticationScheme.class));
@@ -88,6 +107,8 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 	@Override
 	public void teardown() {
 		UserLoginTracker.removeLoginFromThread();
+		RememberMeDenylist.stop();
+		MockTwoFactorAuthenticationScheme.setRememberMeTokenService(null);
 		super.teardown();
 	}
 
@@ -145,14 +166,45 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		return c != null && c.getMaxAge() == 0;
 	}
 
+	private String series(Cookie cookie) {
+		return cookie.getValue().split("\\.")[0];
+	}
+
+	private void setExpiry(String series, long expiryTime) {
+		RememberMeToken token = service.getToken(series);
+		service.deleteToken(series);
+		service.saveToken(new RememberMeToken(token.getSeriesId(), token.getSchemeId(), token.getUserId(),
+				token.getTokenHash(), expiryTime, token.getCreatedTime(), token.getLastUsedTime()));
+	}
+
 	private void newHttpSession() {
 		session = newSession();
 		newAuthenticationSession();
 		UserLoginTracker.setLoginOnThread(userLogin);
 	}
 
+	private void useSignedTokens(String signingKeys, String rotated) {
+		AuthenticationConfig.setProperty("authentication.scheme.2fa.config.rememberMeMode", "signed");
+		AuthenticationConfig.setProperty("authentication.scheme.2fa.config.rememberMeSigningKeys", signingKeys);
+		if (rotated != null) {
+			AuthenticationConfig.setProperty("authentication.scheme.2fa.config.rememberMeSigningKeysRotated", rotated);
+		}
+		setRuntimeProperties(AuthenticationConfig.getConfig());
+		authenticationScheme = (MockTwoFactorAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme();
+		if (RememberMeDenylist.getInstance() == null) {
+			RememberMeDenylist.start(service, null);
+		}
+	}
+
+	private Cookie issueSignedCookie(String username, String primaryPassword, String secondaryPassword) {
+		newHttpSession();
+		primary(username, primaryPassword, null);
+		authenticationSession.authenticate(authenticationScheme, secondary(username, secondaryPassword, "true"));
+		return issuedCookie();
+	}
+
 	@Test
-	public void shouldIssueCookieWhenRememberMeRequested() {
+	public void shouldIssueCookieWhenRememberMeRequested() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials credentials = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, credentials);
@@ -165,20 +217,25 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		// Default of 30 days, expressed as seconds
 		assertThat(issued.getMaxAge(), equalTo(30 * 24 * 60 * 60));
 		User user = userLogin.getUser();
+		RememberMeToken token = service.getToken(series(issued));
+		assertThat(token, notNullValue());
+		assertThat(token.getUserId(), equalTo(user.getUserId()));
+		assertThat(token.getSchemeId(), equalTo("2fa"));
+		assertThat(token.getLastUsedDate(), nullValue());
+		// Tokens are not stored as user properties
 		assertThat(user.getUserProperties().keySet().stream()
-				.anyMatch(k -> k.startsWith("authentication.2fa.rememberMe.")), equalTo(true));
+				.anyMatch(k -> k.startsWith("authentication.2fa.rememberMe.")), equalTo(false));
 	}
 
 	@Test
-	public void shouldNotIssueCookieWhenRememberMeNotRequested() {
+	public void shouldNotIssueCookieWhenRememberMeNotRequested() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials credentials = secondary("tester", "secondaryPw", null);
 		authenticationSession.authenticate(authenticationScheme, credentials);
 
 		assertThat(issuedCookie(), nullValue());
 		User user = userLogin.getUser();
-		assertThat(user.getUserProperties().keySet().stream()
-				.anyMatch(k -> k.startsWith("authentication.2fa.rememberMe.")), equalTo(false));
+		assertThat(service.getTokensForUser(user.getUserId()).isEmpty(), equalTo(true));
 	}
 
 	@Test
@@ -218,7 +275,7 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 	}
 
 	@Test
-	public void shouldRotateCookieAfterBypass() {
+	public void shouldRotateCookieAfterBypass() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds1 = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds1);
@@ -233,13 +290,13 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		String seriesB = cookieB.getValue().split("\\.")[0];
 		assertThat(seriesA.equals(seriesB), equalTo(false));
 
-		User user = userLogin.getUser();
-		assertThat(user.getUserProperties().containsKey("authentication.2fa.rememberMe." + seriesA), equalTo(false));
-		assertThat(user.getUserProperties().containsKey("authentication.2fa.rememberMe." + seriesB), equalTo(true));
+		assertThat(service.getToken(seriesA), nullValue());
+		assertThat(service.getToken(seriesB), notNullValue());
+		assertThat(service.getToken(seriesB).getLastUsedDate(), notNullValue());
 	}
 
 	@Test
-	public void shouldHonorMinutesBasedDurationConfig() {
+	public void shouldHonorMinutesBasedDurationConfig() throws Exception {
 		AuthenticationConfig.setProperty("authentication.scheme.2fa.config.rememberMeDurationMinutes", "5");
 		setRuntimeProperties(AuthenticationConfig.getConfig());
 		authenticationScheme = (MockTwoFactorAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme();
@@ -255,38 +312,33 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		assertThat(issued.getMaxAge(), equalTo(5 * 60));
 
 		// Server-side expiry is "now + 5 minutes"
-		User user = userLogin.getUser();
-		String series = issued.getValue().split("\\.")[0];
-		long expiry = parseExpiry(user.getUserProperty("authentication.2fa.rememberMe." + series));
+		long expiry = service.getToken(series(issued)).getExpiryTime();
 		long fiveMinMs = 5L * 60_000L;
 		assertThat(expiry >= before + fiveMinMs, equalTo(true));
 		assertThat(expiry <= after + fiveMinMs, equalTo(true));
 	}
 
 	@Test
-	public void shouldPreserveExpiryAcrossRotation() {
+	public void shouldPreserveExpiryAcrossRotation() throws Exception {
 		// Initial opt-in: a fresh expiry is generated
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds1 = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds1);
 		Cookie cookieA = issuedCookie();
-		String seriesA = cookieA.getValue().split("\\.")[0];
-		User user = userLogin.getUser();
-		long originalExpiry = parseExpiry(user.getUserProperty("authentication.2fa.rememberMe." + seriesA));
+		String seriesA = series(cookieA);
+		long originalExpiry = service.getToken(seriesA).getExpiryTime();
 		int originalMaxAge = cookieA.getMaxAge();
 
 		// Backdate the stored expiry by 10 days to simulate a token that's 10 days into its 30-day lifetime
 		long backdatedExpiry = originalExpiry - (10L * 86_400_000L);
-		String hashOnly = user.getUserProperty("authentication.2fa.rememberMe." + seriesA).split(":")[0];
-		user.setUserProperty("authentication.2fa.rememberMe." + seriesA, hashOnly + ":" + backdatedExpiry);
+		setExpiry(seriesA, backdatedExpiry);
 
 		// Use the cookie to bypass; the rotated entry must inherit the (now backdated) expiry, not start a fresh one
 		newHttpSession();
 		AuthenticationCredentials creds2 = primary("tester", "primaryPw", null, cookieA);
 		authenticationSession.authenticate(authenticationScheme, creds2);
 		Cookie cookieB = issuedCookie();
-		String seriesB = cookieB.getValue().split("\\.")[0];
-		long rotatedExpiry = parseExpiry(user.getUserProperty("authentication.2fa.rememberMe." + seriesB));
+		long rotatedExpiry = service.getToken(series(cookieB)).getExpiryTime();
 
 		// Expiry preserved (within a small drift tolerance)
 		assertThat(Math.abs(rotatedExpiry - backdatedExpiry) <= 100L, equalTo(true));
@@ -295,19 +347,15 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 	}
 
 	@Test
-	public void shouldExpireAfterOriginalLifetimeEvenWithFrequentBypassLogins() {
+	public void shouldExpireAfterOriginalLifetimeEvenWithFrequentBypassLogins() throws Exception {
 		// Opt in
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds1 = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds1);
 		Cookie cookie = issuedCookie();
-		User user = userLogin.getUser();
 
 		// Simulate the token already past expiry on the server, even though the user is logging in often
-		String series = cookie.getValue().split("\\.")[0];
-		String storedKey = "authentication.2fa.rememberMe." + series;
-		String hashOnly = user.getUserProperty(storedKey).split(":")[0];
-		user.setUserProperty(storedKey, hashOnly + ":" + (System.currentTimeMillis() - 1L));
+		setExpiry(series(cookie), System.currentTimeMillis() - 1L);
 
 		newHttpSession();
 		primary("tester", "primaryPw", null, cookie);
@@ -317,34 +365,25 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		assertThat(cookieWasCleared(), equalTo(true));
 	}
 
-	private long parseExpiry(String stored) {
-		return Long.parseLong(stored.substring(stored.lastIndexOf(':') + 1));
-	}
-
 	@Test
-	public void shouldRejectExpiredCookie() {
+	public void shouldRejectExpiredCookie() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds);
 		Cookie cookie = issuedCookie();
-		String series = cookie.getValue().split("\\.")[0];
-
-		User user = userLogin.getUser();
-		String storedKey = "authentication.2fa.rememberMe." + series;
-		String stored = user.getUserProperty(storedKey);
-		String hash = stored.substring(0, stored.lastIndexOf(':'));
-		user.setUserProperty(storedKey, hash + ":" + (System.currentTimeMillis() - 1000));
+		String series = series(cookie);
+		setExpiry(series, System.currentTimeMillis() - 1000);
 
 		newHttpSession();
 		primary("tester", "primaryPw", null, cookie);
 		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
-		assertThat(user.getUserProperties().containsKey(storedKey), equalTo(false));
+		assertThat(service.getToken(series), nullValue());
 		// Browser cookie is cleared when the server-side entry is rejected
 		assertThat(cookieWasCleared(), equalTo(true));
 	}
 
 	@Test
-	public void shouldRejectTamperedCookie() {
+	public void shouldRejectTamperedCookie() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds);
@@ -352,19 +391,17 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		String[] parts = cookie.getValue().split("\\.");
 		Cookie tampered = new Cookie(COOKIE_NAME, parts[0] + ".not-the-right-token");
 
-		User user = userLogin.getUser();
-		String storedKey = "authentication.2fa.rememberMe." + parts[0];
-		assertThat(user.getUserProperty(storedKey), notNullValue());
+		assertThat(service.getToken(parts[0]), notNullValue());
 
 		newHttpSession();
 		primary("tester", "primaryPw", null, tampered);
 		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
-		assertThat(user.getUserProperties().containsKey(storedKey), equalTo(false));
+		assertThat(service.getToken(parts[0]), nullValue());
 		assertThat(cookieWasCleared(), equalTo(true));
 	}
 
 	@Test
-	public void shouldRejectCookieFromDifferentUser() {
+	public void shouldRejectCookieFromDifferentUser() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds);
@@ -373,10 +410,12 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		newHttpSession();
 		primary("other", "otherPw", null, testersCookie);
 		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		// The token belongs to another user, so it is left in place
+		assertThat(service.getToken(series(testersCookie)), notNullValue());
 	}
 
 	@Test
-	public void shouldSupportMultipleConcurrentSeries() {
+	public void shouldSupportMultipleConcurrentSeries() throws Exception {
 		primary("tester", "primaryPw", null);
 		AuthenticationCredentials creds1 = secondary("tester", "secondaryPw", "true");
 		authenticationSession.authenticate(authenticationScheme, creds1);
@@ -391,8 +430,243 @@ public class TwoFactorRememberMeTest extends BaseWebAuthenticationTest {
 		assertThat(cookieBrowser1.getValue().equals(cookieBrowser2.getValue()), equalTo(false));
 
 		User user = userLogin.getUser();
-		long count = user.getUserProperties().keySet().stream()
-				.filter(k -> k.startsWith("authentication.2fa.rememberMe.")).count();
-		assertThat(count, equalTo(2L));
+		assertThat(service.getTokensForUser(user.getUserId()).size(), equalTo(2));
+	}
+
+	@Test
+	public void shouldClearAllRememberMeTokensForUser() throws Exception {
+		primary("tester", "primaryPw", null);
+		authenticationSession.authenticate(authenticationScheme, secondary("tester", "secondaryPw", "true"));
+		Cookie cookie = issuedCookie();
+		newHttpSession();
+		primary("tester", "primaryPw", null);
+		authenticationSession.authenticate(authenticationScheme, secondary("tester", "secondaryPw", "true"));
+		User user = userLogin.getUser();
+		assertThat(service.getTokensForUser(user.getUserId()).size(), equalTo(2));
+
+		authenticationScheme.clearAllRememberMeTokens(user);
+		assertThat(service.getTokensForUser(user.getUserId()).isEmpty(), equalTo(true));
+		newHttpSession();
+		primary("tester", "primaryPw", null, cookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+	}
+
+	@Test
+	public void shouldRevokeRememberMeTokensIssuedBeforeDate() throws Exception {
+		primary("tester", "primaryPw", null);
+		authenticationSession.authenticate(authenticationScheme, secondary("tester", "secondaryPw", "true"));
+		Cookie testersCookie = issuedCookie();
+		newHttpSession();
+		primary("other", "otherPw", null);
+		authenticationSession.authenticate(authenticationScheme, secondary("other", "otherSecondary", "true"));
+		Cookie othersCookie = issuedCookie();
+		assertThat(service.getToken(series(testersCookie)), notNullValue());
+		assertThat(service.getToken(series(othersCookie)), notNullValue());
+
+		assertThat(authenticationScheme.revokeRememberMeTokensIssuedBefore(new Date(System.currentTimeMillis() + 1)), equalTo(2));
+		assertThat(service.getToken(series(testersCookie)), nullValue());
+		assertThat(service.getToken(series(othersCookie)), nullValue());
+		newHttpSession();
+		primary("tester", "primaryPw", null, testersCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void shouldStoreTokensThroughDeprecatedMethods() {
+		User user = new User();
+		user.setUserId(1);
+		long expiry = System.currentTimeMillis() + 60000;
+		authenticationScheme.writeRememberMeToken(user, "series1", "hash1:" + expiry);
+		RememberMeToken token = service.getToken("series1");
+		assertThat(token.getUserId(), equalTo(user.getUserId()));
+		assertThat(token.getSchemeId(), equalTo("2fa"));
+		assertThat(token.getTokenHash(), equalTo("hash1"));
+		assertThat(token.getExpiryTime(), equalTo(expiry));
+		assertThat(authenticationScheme.readRememberMeToken(user, "series1"), equalTo("hash1:" + expiry));
+		assertThat(authenticationScheme.readRememberMeToken(user, "missing"), nullValue());
+		assertThrows(IllegalArgumentException.class, () -> authenticationScheme.writeRememberMeToken(user, "series2", "hash2"));
+
+		User otherUser = new User();
+		otherUser.setUserId(2);
+		assertThat(authenticationScheme.readRememberMeToken(otherUser, "series1"), nullValue());
+		authenticationScheme.removeRememberMeToken(otherUser, "series1");
+		assertThat(service.getToken("series1"), notNullValue());
+		authenticationScheme.removeRememberMeToken(user, "series1");
+		assertThat(service.getToken("series1"), nullValue());
+
+		TwoFactorAuthenticationScheme.StoredRememberMeToken stored = TwoFactorAuthenticationScheme.StoredRememberMeToken.parse("a:b:" + expiry);
+		assertThat(stored.tokenHash, equalTo("a:b"));
+		assertThat(stored.expiryEpochMillis, equalTo(expiry));
+		assertThat(TwoFactorAuthenticationScheme.StoredRememberMeToken.parse("hash:"), nullValue());
+		assertThat(TwoFactorAuthenticationScheme.StoredRememberMeToken.parse("hash:soon"), nullValue());
+		assertThat(TwoFactorAuthenticationScheme.StoredRememberMeToken.parse(" "), nullValue());
+	}
+
+	@Test
+	public void shouldOnlyAllowOneOfConcurrentRequestsWithTheSameCookieToBypass() throws Exception {
+		primary("tester", "primaryPw", null);
+		authenticationSession.authenticate(authenticationScheme, secondary("tester", "secondaryPw", "true"));
+		Cookie cookie = issuedCookie();
+		User user = userLogin.getUser();
+		WebAuthenticationScheme secondaryScheme = (WebAuthenticationScheme) AuthenticationConfig.getAuthenticationScheme("secondary");
+
+		int numThreads = 8;
+		List<AuthenticationSession> sessions = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			MockHttpServletRequest concurrentRequest = newPostRequest("192.168.1.1", "/login");
+			concurrentRequest.setCookies(cookie);
+			sessions.add(new MockAuthenticationSession(concurrentRequest, newResponse()));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Long>> results = new ArrayList<>();
+		for (AuthenticationSession concurrentSession : sessions) {
+			results.add(executor.submit(() -> {
+				start.await();
+				return authenticationScheme.validateRememberMeBypass(concurrentSession, user, secondaryScheme);
+			}));
+		}
+		start.countDown();
+		int numBypassed = 0;
+		for (Future<Long> result : results) {
+			if (result.get(30, TimeUnit.SECONDS) != null) {
+				numBypassed++;
+			}
+		}
+		executor.shutdown();
+		assertThat(numBypassed, equalTo(1));
+		assertThat(service.getToken(series(cookie)), nullValue());
+		assertThat(service.getTokensForUser(user.getUserId()).size(), equalTo(1));
+	}
+
+	@Test
+	public void shouldBypassSecondaryWithSignedCookieWithoutStoringTokens() throws Exception {
+		useSignedTokens("k1:" + TokenCrypto.randomToken(32), null);
+		Cookie cookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+		assertThat(cookie.getValue().startsWith("k1."), equalTo(true));
+		assertThat(cookie.getMaxAge(), equalTo(30 * 24 * 60 * 60));
+		assertThat(service.getTokensForUser(userLogin.getUser().getUserId()).isEmpty(), equalTo(true));
+
+		for (int i = 0; i < 2; i++) {
+			newHttpSession();
+			AuthenticationCredentials creds = primary("tester", "primaryPw", null, cookie);
+			assertThat(userLogin.isCredentialValidated("secondary"), equalTo(true));
+			authenticationSession.authenticate(authenticationScheme, creds);
+			// The token is not consumed, so the cookie is neither rotated nor cleared
+			assertThat(issuedCookie(), nullValue());
+		}
+	}
+
+	@Test
+	public void shouldRejectTamperedOrOtherUsersSignedCookie() {
+		useSignedTokens("k1:" + TokenCrypto.randomToken(32), null);
+		Cookie cookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+		String[] parts = cookie.getValue().split("\\.");
+
+		newHttpSession();
+		primary("tester", "primaryPw", null, new Cookie(COOKIE_NAME, parts[0] + "." + parts[1] + ".AAAA"));
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		assertThat(cookieWasCleared(), equalTo(true));
+
+		newHttpSession();
+		primary("other", "otherPw", null, cookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		assertThat(cookieWasCleared(), equalTo(true));
+	}
+
+	@Test
+	public void shouldRejectSignedCookiesOfUserWhoseTokensAreCleared() throws Exception {
+		useSignedTokens("k1:" + TokenCrypto.randomToken(32), null);
+		Cookie testersCookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+		User tester = userLogin.getUser();
+		Cookie othersCookie = issueSignedCookie("other", "otherPw", "otherSecondary");
+		Thread.sleep(2);
+
+		authenticationScheme.clearAllRememberMeTokens(tester);
+		newHttpSession();
+		primary("tester", "primaryPw", null, testersCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		assertThat(cookieWasCleared(), equalTo(true));
+		newHttpSession();
+		primary("other", "otherPw", null, othersCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(true));
+
+		// Revocations are persisted, and tokens issued after them are accepted
+		RememberMeDenylist.start(service, null);
+		Thread.sleep(2);
+		Cookie newCookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+		newHttpSession();
+		primary("tester", "primaryPw", null, testersCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		newHttpSession();
+		primary("tester", "primaryPw", null, newCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(true));
+	}
+
+	@Test
+	public void shouldRevokeSignedCookiesIssuedBeforeDate() {
+		useSignedTokens("k1:" + TokenCrypto.randomToken(32), null);
+		Cookie testersCookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+		Cookie othersCookie = issueSignedCookie("other", "otherPw", "otherSecondary");
+
+		assertThat(authenticationScheme.revokeRememberMeTokensIssuedBefore(new Date(System.currentTimeMillis() + 1)), equalTo(0));
+		newHttpSession();
+		primary("tester", "primaryPw", null, testersCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		newHttpSession();
+		primary("other", "otherPw", null, othersCookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+	}
+
+	@Test
+	public void shouldResignCookiesSignedWithPreviousKeyDuringGraceWindow() {
+		String key1 = "k1:" + TokenCrypto.randomToken(32);
+		String key2 = "k2:" + TokenCrypto.randomToken(32);
+		useSignedTokens(key1, null);
+		Cookie cookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+
+		String rotated = new SimpleDateFormat(TwoFactorAuthenticationScheme.REMEMBER_ME_SIGNING_KEYS_ROTATED_FORMAT).format(new Date());
+		useSignedTokens(key2 + "," + key1, rotated);
+		newHttpSession();
+		primary("tester", "primaryPw", null, cookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(true));
+		Cookie resigned = issuedCookie();
+		assertThat(resigned.getValue().startsWith("k2."), equalTo(true));
+		assertThat(Math.abs(resigned.getMaxAge() - cookie.getMaxAge()) <= 1, equalTo(true));
+
+		useSignedTokens(key2 + "," + key1, "2000-01-01T00:00:00");
+		newHttpSession();
+		primary("tester", "primaryPw", null, cookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		newHttpSession();
+		primary("tester", "primaryPw", null, resigned);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(true));
+	}
+
+	@Test
+	public void shouldRequireRotationTimeIfMoreThanOneSigningKeyIsConfigured() {
+		Properties config = new Properties();
+		config.setProperty(TwoFactorAuthenticationScheme.REMEMBER_ME_ENABLED, "true");
+		config.setProperty(TwoFactorAuthenticationScheme.REMEMBER_ME_MODE, "signed");
+		config.setProperty(TwoFactorAuthenticationScheme.REMEMBER_ME_SIGNING_KEYS, "k1:" + TokenCrypto.randomToken(32));
+		new MockTwoFactorAuthenticationScheme().configure("2fa", config);
+
+		config.setProperty(TwoFactorAuthenticationScheme.REMEMBER_ME_SIGNING_KEYS,
+				"k2:" + TokenCrypto.randomToken(32) + ",k1:" + TokenCrypto.randomToken(32));
+		assertThrows(IllegalArgumentException.class, () -> new MockTwoFactorAuthenticationScheme().configure("2fa", config));
+		config.setProperty(TwoFactorAuthenticationScheme.REMEMBER_ME_SIGNING_KEYS_ROTATED, "2026-10-16T00:00:00");
+		new MockTwoFactorAuthenticationScheme().configure("2fa", config);
+	}
+
+	@Test
+	public void shouldNotBypassWithSignedCookieIfRevocationsAreNotLoaded() {
+		useSignedTokens("k1:" + TokenCrypto.randomToken(32), null);
+		Cookie cookie = issueSignedCookie("tester", "primaryPw", "secondaryPw");
+		RememberMeDenylist.stop();
+		newHttpSession();
+		primary("tester", "primaryPw", null, cookie);
+		assertThat(userLogin.isCredentialValidated("secondary"), equalTo(false));
+		assertThat(cookieWasCleared(), equalTo(false));
 	}
 }
@@ -53,6 +53,7 @@ public class MockBasicWebAuthenticationScheme extends BasicWebAuthenticationSche
                 User user = users.get(username);
                 if (user == null) {
                     user = new User();
+                    user.setUserId(users.size() + 1);
                     user.setUsername(username);
                     users.put(username, user);
                 }
@@ -9,22 +9,26 @@
  */
 package org.openmrs.module.authentication.web.mocks;
 
-import org.openmrs.User;
+import org.openmrs.module.authentication.RememberMeTokenService;
 import org.openmrs.module.authentication.web.TwoFactorAuthenticationScheme;
 
 /**
- * Test double that bypasses Context-backed persistence of remember-me tokens.  In production the scheme
- * persists via {@code Context.getUserService().setUserProperty(...)}; tests exercise the in-memory User only.
+ * Test double of the TwoFactorAuthenticationScheme.  Remember-me tokens are stored through the RememberMeTokenService
+ * set with setRememberMeTokenService, rather than the one registered with the OpenMRS context.
  */
 public class MockTwoFactorAuthenticationScheme extends TwoFactorAuthenticationScheme {
 
-    @Override
-    protected void writeRememberMeToken(User user, String seriesId, String value) {
-        user.setUserProperty(getRememberMeUserPropertyName(seriesId), value);
-    }
+	private static RememberMeTokenService rememberMeTokenService;
 
-    @Override
-    protected void removeRememberMeToken(User user, String seriesId) {
-        user.removeUserProperty(getRememberMeUserPropertyName(seriesId));
-    }
+	/**
+	 * @param service the service that all instances store remember-me tokens through, or null to reset
+	 */
+	public static void setRememberMeTokenService(RememberMeTokenService service) {
+		rememberMeTokenService = service;
+	}
+
+	@Override
+	protected RememberMeTokenService getRememberMeTokenService() {
+		return rememberMeTokenService;
+	}
 }